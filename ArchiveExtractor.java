@@ -0,0 +1,586 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a .zip, .tar, .tar.gz or .tgz archive into a directory.
+ *
+ * The archive is read in one sequential pass by the calling thread. Small
+ * entries are read into memory and handed to a pool of writers, so many small
+ * files are created at once; large entries are written straight from the
+ * archive by the calling thread. The memory held by entries waiting to be
+ * written is capped, so the reader waits for the writers rather than
+ * buffering a multi-gigabyte archive.
+ *
+ * Entries that would land outside the destination are refused. Symbolic and
+ * hard links are created last, after every file has been written, so a link
+ * in the archive can't redirect a later entry outside the destination.
+ */
+public class ArchiveExtractor {
+    // Entries up to this size are buffered and written by the pool.
+    public static final int SMALL_ENTRY = 256 * 1024;
+    // The most entry data that may be buffered at once.
+    public static final int DEFAULT_BUDGET = 32 * 1024 * 1024;
+
+    /**
+     * Receives progress while an archive is extracted. May be called from any
+     * writer thread.
+     */
+    public interface Listener {
+        /**
+         * @param entriesDone the number of files, directories and links extracted so far
+         * @param bytesWritten the number of uncompressed bytes written so far
+         * @param archiveBytesRead how far into the archive file the reader is
+         * @param current the file that was just extracted
+         */
+        public void extracted(int entriesDone, long bytesWritten, long archiveBytesRead, Path current);
+    }
+
+    private final Path archive;
+    private final Path destination;
+    private final int writers;
+    private final Semaphore budget;
+    private final int budgetBytes;
+    private IoThrottle throttle;
+    private Listener listener;
+
+    private final List<String> failures;
+    private final AtomicInteger entriesDone;
+    private final AtomicLong bytesWritten;
+    private final AtomicLong archiveBytesRead;
+    // The newest pending write for each path, so a repeated entry waits for the earlier one.
+    private final Map<Path,Future<?>> pending;
+    // Links, as {link, target} pairs, created once every file is written.
+    private final List<Path[]> symlinks;
+    private final List<Path[]> hardLinks;
+    private final List<Object[]> directoryTimes;
+    private volatile boolean cancelled;
+
+    /**
+     * @param archive the archive to extract
+     * @param destination the directory to extract into; created if needed
+     */
+    public ArchiveExtractor(Path archive, Path destination){
+        this.archive = archive;
+        this.destination = destination.toAbsolutePath().normalize();
+        this.writers = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        this.budgetBytes = Integer.getInteger("filemanager.extract.bufferBytes", DEFAULT_BUDGET);
+        this.budget = new Semaphore(budgetBytes);
+        this.throttle = IoThrottle.forJob(0, 0);
+        failures = new ArrayList<String>();
+        entriesDone = new AtomicInteger(0);
+        bytesWritten = new AtomicLong(0);
+        archiveBytesRead = new AtomicLong(0);
+        pending = new HashMap<Path,Future<?>>();
+        symlinks = new ArrayList<Path[]>();
+        hardLinks = new ArrayList<Path[]>();
+        directoryTimes = new ArrayList<Object[]>();
+    }
+
+    /**
+     * @param path a file
+     * @return true if the file's name is one of the archive types this class extracts
+     */
+    public static boolean isArchive(Path path){
+        if (path.getFileName() == null){
+            return false;
+        }
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * @param throttle the throttle writes go through
+     */
+    public void setThrottle(IoThrottle throttle){
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param listener receives progress; may be null
+     */
+    public void setListener(Listener listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Asks a running extract() to stop after the entries already being written.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /**
+     * @return one line for every entry that couldn't be extracted
+     */
+    public List<String> getFailures(){
+        synchronized (failures){
+            return new ArrayList<String>(failures);
+        }
+    }
+
+    /**
+     * @return the number of entries extracted
+     */
+    public int getEntriesDone(){
+        return entriesDone.get();
+    }
+
+    /**
+     * @return the number of uncompressed bytes written
+     */
+    public long getBytesWritten(){
+        return bytesWritten.get();
+    }
+
+    /**
+     * Extracts the whole archive. Failures of single entries are recorded and
+     * don't stop the extraction.
+     * @throws IOException if the archive can't be opened or is damaged
+     */
+    public void extract() throws IOException {
+        Files.createDirectories(destination);
+        ExecutorService pool = Executors.newFixedThreadPool(writers, new ThreadFactory(){
+            private final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "extract-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        InputStream raw = new FilterInputStream(Files.newInputStream(archive)){
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0){
+                    archiveBytesRead.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0){
+                    archiveBytesRead.addAndGet(n);
+                }
+                return n;
+            }
+        };
+        try (InputStream in = new BufferedInputStream(raw, 256 * 1024)){
+            String name = archive.getFileName().toString().toLowerCase();
+            if (name.endsWith(".zip")){
+                readZip(in, pool);
+            }
+            else if (name.endsWith(".tar")){
+                readTar(in, pool);
+            }
+            else{
+                readTar(new GZIPInputStream(in, 64 * 1024), pool);
+            }
+        }
+        finally{
+            pool.shutdown();
+            try{
+                while (!pool.awaitTermination(1, TimeUnit.SECONDS)){
+                    if (cancelled){
+                        pool.shutdownNow();
+                    }
+                }
+            }
+            catch (InterruptedException ie){
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (pending){
+            for (Future<?> f : pending.values()){
+                try{
+                    f.get();
+                }
+                catch (InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException ee){
+                    // Already recorded by the writer.
+                }
+            }
+        }
+        if (!cancelled){
+            finishLinks();
+        }
+    }
+
+    private void readZip(InputStream in, ExecutorService pool) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while (!cancelled && (entry = zip.getNextEntry()) != null){
+            long modified = entry.getTime() < 0 ? 0 : entry.getTime();
+            if (entry.isDirectory()){
+                directory(entry.getName(), modified, -1);
+            }
+            else{
+                file(entry.getName(), entry.getSize(), modified, -1, zip, pool);
+            }
+        }
+    }
+
+    private void readTar(InputStream in, ExecutorService pool) throws IOException {
+        TarReader tar = new TarReader(in);
+        TarReader.Entry entry;
+        while (!cancelled && (entry = tar.next()) != null){
+            if (entry.isDirectory()){
+                directory(entry.getName(), entry.getModifiedTime(), entry.getMode());
+            }
+            else if (entry.isFile()){
+                file(entry.getName(), entry.getSize(), entry.getModifiedTime(), entry.getMode(), tar.data(), pool);
+            }
+            else if (entry.isSymbolicLink() || entry.isHardLink()){
+                Path link = resolve(entry.getName());
+                if (link == null){
+                    continue;
+                }
+                if (entry.isSymbolicLink()){
+                    symlinks.add(new Path[]{link, link.getFileSystem().getPath(entry.getLinkName())});
+                }
+                else{
+                    Path target = resolve(entry.getLinkName());
+                    if (target != null){
+                        hardLinks.add(new Path[]{link, target});
+                    }
+                }
+            }
+            else{
+                fail(entry.getName(), "special files are not extracted");
+            }
+        }
+    }
+
+    /**
+     * @return where an entry goes, or null (after recording a failure) if
+     *     that is outside the destination
+     */
+    private Path resolve(String name){
+        Path target = destination.resolve(name).normalize();
+        if (!target.startsWith(destination) || target.equals(destination)){
+            fail(name, "outside the destination folder");
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * @param mode the permission bits from a tar header, or -1 if the archive has none
+     */
+    private void directory(String name, long modified, int mode){
+        if (destination.resolve(name).normalize().equals(destination)){
+            // The "./" that tar writes for an archive of a whole folder; it
+            // is the destination itself, which already exists.
+            return;
+        }
+        Path dir = resolve(name);
+        if (dir == null){
+            return;
+        }
+        try{
+            awaitOps();
+            Files.createDirectories(dir);
+            directoryTimes.add(new Object[]{dir, modified, mode});
+            done(dir);
+        }
+        catch (IOException ioe){
+            fail(name, ioe.getMessage());
+        }
+    }
+
+    /**
+     * Extracts one file. Entries of unknown size are buffered until they're
+     * known to be small, and otherwise written straight through.
+     * @param mode the permission bits from a tar header, or -1 if the archive has none
+     */
+    private void file(String name, long size, long modified, int mode, InputStream data, ExecutorService pool) throws IOException {
+        final Path target = resolve(name);
+        if (target == null){
+            return;
+        }
+        if (size >= 0 && size > SMALL_ENTRY){
+            writeInline(target, null, 0, data, modified, mode);
+            return;
+        }
+        byte[] buffer = new byte[size >= 0 ? (int) size : SMALL_ENTRY];
+        int length = 0;
+        while (length < buffer.length){
+            int n = data.read(buffer, length, buffer.length - length);
+            if (n < 0){
+                break;
+            }
+            length += n;
+        }
+        if (size < 0 && length == buffer.length){
+            int b = data.read();
+            if (b >= 0){
+                // Bigger than it's worth buffering; write what's been read and stream the rest.
+                byte[] prefix = Arrays.copyOf(buffer, length + 1);
+                prefix[length] = (byte) b;
+                writeInline(target, prefix, prefix.length, data, modified, mode);
+                return;
+            }
+        }
+        submit(target, buffer, length, modified, mode, pool);
+    }
+
+    /**
+     * Hands a buffered entry to the writers, once there's room in the budget.
+     */
+    private void submit(final Path target, final byte[] data, final int length, final long modified,
+                        final int mode, ExecutorService pool) throws IOException {
+        // Every entry costs some memory, even an empty one.
+        final int cost = Math.min(budgetBytes, Math.max(length, 1024));
+        try{
+            budget.acquire(cost);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+        final Future<?> earlier;
+        synchronized (pending){
+            earlier = pending.get(target);
+        }
+        Future<?> write = pool.submit(new Callable<Void>(){
+            @Override
+            public Void call(){
+                try{
+                    awaitEarlier(earlier);
+                    if (!cancelled){
+                        awaitOps();
+                        throttle.acquireBytes(length);
+                        Files.createDirectories(target.getParent());
+                        OutputStream out = Files.newOutputStream(target);
+                        try{
+                            out.write(data, 0, length);
+                        }
+                        finally{
+                            out.close();
+                        }
+                        Files.setLastModifiedTime(target, FileTime.fromMillis(modified));
+                        setMode(target, mode);
+                        bytesWritten.addAndGet(length);
+                        done(target);
+                    }
+                }
+                catch (IOException ioe){
+                    fail(target.toString(), ioe.getMessage());
+                }
+                catch (InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                }
+                finally{
+                    budget.release(cost);
+                }
+                return null;
+            }
+        });
+        synchronized (pending){
+            pending.put(target, write);
+            if (pending.size() > 10000){
+                // Forget writes that are finished, to keep the map small.
+                Iterator<Future<?>> it = pending.values().iterator();
+                while (it.hasNext()){
+                    if (it.next().isDone()){
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an entry on the reading thread, straight from the archive.
+     * @param prefix bytes already read from the entry, or null
+     */
+    private void writeInline(Path target, byte[] prefix, int prefixLength, InputStream data, long modified,
+                             int mode) throws IOException {
+        Future<?> earlier;
+        synchronized (pending){
+            earlier = pending.remove(target);
+        }
+        long written = 0;
+        try{
+            awaitEarlier(earlier);
+            awaitOps();
+            Files.createDirectories(target.getParent());
+            OutputStream out = Files.newOutputStream(target);
+            try{
+                if (prefix != null){
+                    throttle.acquireBytes(prefixLength);
+                    out.write(prefix, 0, prefixLength);
+                    written += prefixLength;
+                }
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while (!cancelled && (n = data.read(buffer)) >= 0){
+                    throttle.acquireBytes(n);
+                    out.write(buffer, 0, n);
+                    written += n;
+                }
+            }
+            finally{
+                out.close();
+            }
+            if (cancelled){
+                Files.deleteIfExists(target);
+                return;
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(modified));
+            setMode(target, mode);
+            bytesWritten.addAndGet(written);
+            done(target);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+        catch (IOException ioe){
+            if (ioe instanceof ZipException || ioe instanceof EOFException){
+                // The archive itself is damaged; there's no point going on.
+                throw ioe;
+            }
+            fail(target.toString(), ioe.getMessage());
+        }
+    }
+
+    /**
+     * Creates the links, once every file they might point to exists.
+     */
+    private void finishLinks(){
+        for (Path[] link : hardLinks){
+            try{
+                Files.deleteIfExists(link[0]);
+                Files.createLink(link[0], link[1]);
+                done(link[0]);
+            }
+            catch (IOException ioe){
+                fail(link[0].toString(), ioe.getMessage());
+            }
+        }
+        for (Path[] link : symlinks){
+            try{
+                Files.createDirectories(link[0].getParent());
+                Files.deleteIfExists(link[0]);
+                Files.createSymbolicLink(link[0], link[1]);
+                done(link[0]);
+            }
+            catch (FileAlreadyExistsException faee){
+                fail(link[0].toString(), "already exists");
+            }
+            catch (IOException | UnsupportedOperationException e){
+                fail(link[0].toString(), e.getMessage());
+            }
+        }
+        // Writing into a directory changes its time, and a read-only one can't
+        // be written into, so directories are done last.
+        for (Object[] dir : directoryTimes){
+            try{
+                Files.setLastModifiedTime((Path) dir[0], FileTime.fromMillis((Long) dir[1]));
+                setMode((Path) dir[0], (Integer) dir[2]);
+            }
+            catch (IOException ioe){
+                // Not worth reporting.
+            }
+        }
+    }
+
+    /**
+     * Gives an extracted file the permissions its tar header recorded, where
+     * the destination has POSIX permissions. Archives without them (zip, or a
+     * mode of 0) leave the defaults the file was created with.
+     */
+    private static void setMode(Path target, int mode) throws IOException {
+        if (mode <= 0){
+            return;
+        }
+        PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view == null){
+            return;
+        }
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PosixFilePermission.values()){
+            if ((mode & 0400 >> permission.ordinal()) != 0){
+                permissions.add(permission);
+            }
+        }
+        view.setPermissions(permissions);
+    }
+
+    /**
+     * Waits for an earlier write of the same path, if there is one, so that
+     * the archive's last entry for a path is the one left on disk.
+     */
+    private static void awaitEarlier(Future<?> earlier) throws InterruptedException {
+        if (earlier != null){
+            try{
+                earlier.get();
+            }
+            catch (ExecutionException ee){
+                // The earlier write has already been reported.
+            }
+        }
+    }
+
+    private void awaitOps() throws IOException {
+        try{
+            throttle.acquireOps(1);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+    }
+
+    private void done(Path current){
+        int entries = entriesDone.incrementAndGet();
+        if (listener != null){
+            listener.extracted(entries, bytesWritten.get(), archiveBytesRead.get(), current);
+        }
+    }
+
+    private void fail(String name, String message){
+        synchronized (failures){
+            failures.add(archive.getFileName() + ": " + name + ": " + message);
+        }
+    }
+}
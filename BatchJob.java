@@ -0,0 +1,204 @@
+import java.awt.Component;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.*;
+
+/**
+ * Runs a BatchOperation in the background and shows its aggregate progress
+ * in a single ProgressMonitor. Used by CopyAction, MoveAction, DeleteAction,
+ * CompressAction and ExtractAction so that acting on many selected files is
+ * one job with one progress dialog.
+ */
+public class BatchJob extends SwingWorker<BatchOperation.Summary,String> implements BatchOperation.ProgressListener {
+    private final Component parent;
+    private final BatchOperation operation;
+    private final String title;
+    private ProgressMonitor monitor;
+    // Ensures the progress dialog isn't flooded with notes by fast workers.
+    private volatile long lastNote;
+
+    /**
+     * @param parent the component the progress dialog and report appear over
+     * @param operation the operation to run
+     * @param title a short description, such as "Copying"
+     */
+    public BatchJob(Component parent, BatchOperation operation, String title){
+        this.parent = parent;
+        this.operation = operation;
+        this.title = title;
+    }
+
+    /**
+     * Shows the progress dialog and starts the operation in the background.
+     */
+    public void start(){
+        monitor = new ProgressMonitor(parent, title + " " + operation.getSources().size() + " item(s)", "Planning...", 0, 1000);
+        monitor.setMillisToDecideToPopup(250);
+        monitor.setMillisToPopup(500);
+        addPropertyChangeListener(new PropertyChangeListener(){
+            @Override
+            public void propertyChange(PropertyChangeEvent evt){
+                if ("progress".equals(evt.getPropertyName())){
+                    monitor.setProgress(getProgress() * 10);
+                    if (monitor.isCanceled()){
+                        operation.cancel();
+                    }
+                }
+            }
+        });
+        MetricsRegistry.increment(MetricsRegistry.OPERATIONS_QUEUED);
+        execute();
+    }
+
+    /**
+     * Actions are given either a single FilePanel or an array of the selected
+     * FilePanels. This returns an array either way.
+     * @param value the value an action was constructed with
+     * @return the FilePanels to act on
+     */
+    public static FilePanel[] panelsOf(Object value){
+        if (value instanceof FilePanel[]){
+            return (FilePanel[]) value;
+        }
+        return new FilePanel[]{(FilePanel) value};
+    }
+
+    /**
+     * @param panels FilePanels to act on
+     * @return the paths of the files the panels represent. Files inside an
+     *     archive are resolved again, in case the archive has been reopened
+     *     since they were listed.
+     */
+    public static List<Path> pathsOf(FilePanel[] panels){
+        List<Path> paths = new ArrayList<Path>(panels.length);
+        for (int i = 0;i < panels.length;i++){
+            paths.add(PathResolver.toPath(panels[i].getFullFileName()));
+        }
+        return paths;
+    }
+
+    /**
+     * @return a spinner for choosing a job's speed limit, in MB per second
+     *     (0 for no limit). Intended for file chooser accessories.
+     */
+    public static JSpinner createSpeedLimitSpinner(){
+        JSpinner spinner = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+        spinner.setToolTipText("Speed limit in MB/s (0 = no limit)");
+        return spinner;
+    }
+
+    /**
+     * @param spinner a spinner made by createSpeedLimitSpinner()
+     * @return a throttle for one job, limited to the spinner's speed
+     */
+    public static IoThrottle throttleFor(JSpinner spinner){
+        int megabytes = ((Number) spinner.getValue()).intValue();
+        return IoThrottle.forJob(megabytes * 1000000L, 0);
+    }
+
+    /**
+     * @return the operation this job runs
+     */
+    public BatchOperation getOperation(){
+        return operation;
+    }
+
+    /**
+     * Overridden SwingWorker method. Plans and executes the operation.
+     * @return the summary of what was done
+     * @throws Exception if planning fails
+     */
+    @Override
+    protected BatchOperation.Summary doInBackground() throws Exception {
+        MetricsRegistry.decrement(MetricsRegistry.OPERATIONS_QUEUED);
+        MetricsRegistry.increment(MetricsRegistry.OPERATIONS_RUNNING);
+        try{
+            operation.plan();
+            return operation.execute(this);
+        }
+        finally{
+            MetricsRegistry.decrement(MetricsRegistry.OPERATIONS_RUNNING);
+        }
+    }
+
+    /**
+     * Overridden BatchOperation.ProgressListener method. Called from the
+     * operation's worker threads.
+     */
+    @Override
+    public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal, Path current){
+        int percent;
+        if (bytesTotal > 0){
+            percent = (int) Math.min(100, bytesDone * 100 / bytesTotal);
+        }
+        else {
+            percent = filesTotal <= 0 ? 100 : Math.min(100, filesDone * 100 / filesTotal);
+        }
+        setProgress(percent);
+
+        long now = System.currentTimeMillis();
+        if (now - lastNote > 100){
+            lastNote = now;
+            if (filesTotal < 0){
+                publish(filesDone + " items: " + current.getFileName());
+            }
+            else{
+                publish(filesDone + " of " + filesTotal + " files: " + current.getFileName());
+            }
+        }
+    }
+
+    /**
+     * Overridden SwingWorker method. Shows the newest progress note.
+     * @param notes the notes published since the last call
+     */
+    @Override
+    protected void process(List<String> notes){
+        monitor.setNote(notes.get(notes.size() - 1));
+        if (monitor.isCanceled()){
+            operation.cancel();
+        }
+    }
+
+    /**
+     * Overridden SwingWorker method. Closes the progress dialog and reports
+     * any failures.
+     */
+    @Override
+    protected void done(){
+        monitor.close();
+        try{
+            BatchOperation.Summary summary = get();
+            System.out.println(title + ": " + summary.getFiles() + " file(s), " + summary.getBytes() + " bytes"
+                    + (summary.isCancelled() ? " (cancelled)" : ""));
+            if (!summary.getFailures().isEmpty()){
+                StringBuilder report = new StringBuilder();
+                for (String failure : summary.getFailures()){
+                    report.append(failure).append('\n');
+                }
+                JTextArea area = new JTextArea(report.toString(), 12, 60);
+                area.setEditable(false);
+                JOptionPane.showMessageDialog(parent, new Object[]{
+                        summary.getFailures().size() + " item(s) could not be processed:",
+                        new JScrollPane(area)},
+                        title, JOptionPane.ERROR_MESSAGE);
+            }
+            finished(summary);
+        }
+        catch (Exception e){
+            System.out.println(e.getMessage());
+            JOptionPane.showMessageDialog(parent, title + " failed: " + e.getMessage(), title, JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Called on the Event Dispatch Thread after the operation finishes and
+     * failures have been reported. Does nothing by default.
+     * @param summary the summary of what was done
+     */
+    protected void finished(BatchOperation.Summary summary){
+    }
+}
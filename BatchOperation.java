@@ -0,0 +1,858 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A copy, move, delete, compress, extract or hard link of any number of
+ * files and directories, run as one job.
+ *
+ * A BatchOperation is used in two steps. plan() walks every source exactly once
+ * and records the directories to create, the files to transfer and the total
+ * number of bytes. execute() then carries out the plan, handing files to a
+ * small pool of workers and reporting aggregate progress to a ProgressListener.
+ * All I/O goes through the operation's IoThrottle, so a job can be rate
+ * limited and backs off while the user is browsing.
+ *
+ * This class knows nothing about Swing; see BatchJob for the GUI wrapper.
+ */
+public class BatchOperation {
+    /**
+     * The kinds of batch operations.
+     */
+    public enum Kind { COPY, MOVE, DELETE, COMPRESS, EXTRACT, LINK }
+
+    /**
+     * Receives aggregate progress while a BatchOperation executes. May be
+     * called from any worker thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param filesDone the number of files finished so far
+         * @param filesTotal the number of files in the plan, or -1 if it isn't
+         *     known in advance (as when extracting)
+         * @param bytesDone the number of bytes finished so far
+         * @param bytesTotal the number of bytes in the plan
+         * @param current the file that was just finished
+         */
+        public void progress(int filesDone, int filesTotal, long bytesDone, long bytesTotal, Path current);
+    }
+
+    /**
+     * The outcome of an executed BatchOperation.
+     */
+    public static class Summary {
+        private final int files;
+        private final long bytes;
+        private final List<String> failures;
+        private final List<Path> failed;
+        private final boolean cancelled;
+
+        Summary(int files, long bytes, List<String> failures, List<Path> failed, boolean cancelled){
+            this.files = files;
+            this.bytes = bytes;
+            this.failures = Collections.unmodifiableList(failures);
+            this.failed = Collections.unmodifiableList(failed);
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * @return the number of files finished
+         */
+        public int getFiles(){
+            return files;
+        }
+
+        /**
+         * @return the number of bytes finished
+         */
+        public long getBytes(){
+            return bytes;
+        }
+
+        /**
+         * @return one line for every file or directory that failed
+         */
+        public List<String> getFailures(){
+            return failures;
+        }
+
+        /**
+         * @return the files and directories that failed, as far as they're
+         *     known; a failure that isn't about one path has none
+         */
+        public List<Path> getFailedPaths(){
+            return failed;
+        }
+
+        /**
+         * @return true if the operation was cancelled before it finished
+         */
+        public boolean isCancelled(){
+            return cancelled;
+        }
+    }
+
+    // A single file to transfer (or delete, in which case target is null).
+    private static class Entry {
+        final Path source;
+        final Path target;
+        final long size;
+
+        Entry(Path source, Path target, long size){
+            this.source = source;
+            this.target = target;
+            this.size = size;
+        }
+    }
+
+    private final Kind kind;
+    private final List<Path> sources;
+    private final Path destination;
+    // For LINK, the file each source is replaced by a link to.
+    private final List<Path> linkTargets;
+    // The paths of the failures, added to by fail().
+    private final List<Path> failedPaths = Collections.synchronizedList(new ArrayList<Path>());
+    private final int parallelism;
+    private IoThrottle throttle;
+
+    // The plan
+    private boolean planned;
+    private final List<Path[]> directories;
+    private final List<Entry> files;
+    private final List<Path[]> renames;
+    private long totalBytes;
+
+    private volatile boolean cancelled;
+    // The archive being extracted, so it can be cancelled.
+    private volatile ArchiveExtractor extracting;
+
+    /**
+     * @param kind what to do with the sources
+     * @param sources the files and directories to act on
+     * @param destination the directory to copy, move or extract into, or the
+     *     archive to compress into; ignored for DELETE
+     */
+    public BatchOperation(Kind kind, List<Path> sources, Path destination){
+        this(kind, sources, destination, null);
+    }
+
+    private BatchOperation(Kind kind, List<Path> sources, Path destination, List<Path> linkTargets){
+        this.kind = kind;
+        this.sources = new ArrayList<Path>(sources);
+        this.destination = destination;
+        this.linkTargets = linkTargets == null ? null : new ArrayList<Path>(linkTargets);
+        this.parallelism = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        directories = new ArrayList<Path[]>();
+        files = new ArrayList<Entry>();
+        renames = new ArrayList<Path[]>();
+        throttle = IoThrottle.forJob(0, 0);
+    }
+
+    /**
+     * An operation that replaces files by hard links to other files with the
+     * same contents, such as the duplicates found by DuplicateFinder. Each
+     * file is replaced in one step, so it is never missing.
+     * @param files the files to replace
+     * @param targets for each file, the file it becomes a link to; it must be
+     *     on the same volume
+     * @return the operation, of kind LINK
+     */
+    public static BatchOperation link(List<Path> files, List<Path> targets){
+        if (files.size() != targets.size()){
+            throw new IllegalArgumentException("Every file needs a link target");
+        }
+        return new BatchOperation(Kind.LINK, files, null, targets);
+    }
+
+    /**
+     * @param throttle the throttle this operation's I/O goes through
+     */
+    public void setThrottle(IoThrottle throttle){
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return the throttle this operation's I/O goes through
+     */
+    public IoThrottle getThrottle(){
+        return throttle;
+    }
+
+    /**
+     * @return what this operation does
+     */
+    public Kind getKind(){
+        return kind;
+    }
+
+    /**
+     * @return the files and directories this operation acts on
+     */
+    public List<Path> getSources(){
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * @return the directory being copied or moved into, or null
+     */
+    public Path getDestination(){
+        return destination;
+    }
+
+    /**
+     * @return the number of files in the plan
+     */
+    public int getTotalFiles(){
+        return files.size() + renames.size();
+    }
+
+    /**
+     * @return the number of bytes in the plan
+     */
+    public long getTotalBytes(){
+        return totalBytes;
+    }
+
+    /**
+     * Asks a running execute() to stop after the files already in progress.
+     */
+    public void cancel(){
+        cancelled = true;
+        ArchiveExtractor extractor = extracting;
+        if (extractor != null){
+            extractor.cancel();
+        }
+    }
+
+    /**
+     * @return true if cancel() has been called
+     */
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Walks every source once and records what execute() will do. Moves within
+     * one volume are planned as renames and are not walked at all.
+     * @throws IOException if a source can't be walked
+     */
+    public void plan() throws IOException {
+        if (planned){
+            return;
+        }
+        for (int i = 0;i < sources.size() && !cancelled;i++){
+            Path source = sources.get(i);
+            Path target = destination == null ? null : destination.resolve(source.getFileName().toString());
+            if (kind == Kind.COMPRESS){
+                // Archive entries are named relative to the selection's directory.
+                target = source.getFileSystem().getPath(source.getFileName().toString());
+            }
+            if (kind == Kind.LINK){
+                // Links replace single files; there is nothing to walk.
+                target = linkTargets.get(i);
+                long size = Files.size(source);
+                files.add(new Entry(source, target, size));
+                totalBytes += size;
+            }
+            else if (kind == Kind.EXTRACT){
+                // Archives are read in one pass while extracting; progress is
+                // measured by how much of each archive has been read.
+                totalBytes += Files.size(source);
+            }
+            else if (kind == Kind.MOVE && sameVolume(source, destination)){
+                renames.add(new Path[]{source, target});
+            }
+            else{
+                walk(source, target);
+            }
+        }
+        planned = true;
+    }
+
+    /**
+     * Records the directories and files beneath source, with the paths they
+     * will have beneath target.
+     */
+    private void walk(final Path source, final Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs){
+                if (cancelled){
+                    return FileVisitResult.TERMINATE;
+                }
+                directories.add(new Path[]{dir, targetOf(dir)});
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+                files.add(new Entry(file, targetOf(file), attrs.size()));
+                totalBytes += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ioe){
+                // Still try the file itself; execute() will report it if it fails.
+                files.add(new Entry(file, targetOf(file), 0));
+                return FileVisitResult.CONTINUE;
+            }
+
+            private Path targetOf(Path p){
+                if (target == null){
+                    return null;
+                }
+                return target.resolve(source.relativize(p).toString());
+            }
+        });
+    }
+
+    /**
+     * @return true if both paths are on the same FileStore, so a rename will do
+     */
+    private static boolean sameVolume(Path a, Path b){
+        try{
+            return Files.getFileStore(a).equals(Files.getFileStore(b));
+        }
+        catch (IOException ioe){
+            return false;
+        }
+    }
+
+    /**
+     * Carries out the plan, calling plan() first if it hasn't been called.
+     * Failures of single files are recorded and don't stop the operation.
+     * @param listener receives progress; may be null
+     * @return what was done
+     * @throws IOException if planning fails
+     */
+    public Summary execute(ProgressListener listener) throws IOException {
+        FileManagerEvents.FileOperation event = new FileManagerEvents.FileOperation();
+        event.begin();
+        long start = System.nanoTime();
+        // Archives this reads or writes stay open until it's done; see PathResolver.
+        List<Path> held = new ArrayList<Path>();
+        Summary summary;
+        try{
+            for (Path source : sources){
+                PathResolver.acquire(source);
+                held.add(source);
+            }
+            if (destination != null){
+                PathResolver.acquire(destination);
+                held.add(destination);
+            }
+            summary = run(listener);
+        }
+        finally{
+            for (Path path : held){
+                PathResolver.release(path);
+            }
+        }
+        MetricsRegistry.record("operation." + kind.name().toLowerCase(), System.nanoTime() - start);
+        MetricsRegistry.increment(MetricsRegistry.OPERATIONS_FINISHED);
+        if (event.shouldCommit()){
+            event.kind = kind.name();
+            event.source = sources.isEmpty() ? null : PathResolver.toAddress(sources.get(0));
+            event.sources = sources.size();
+            event.destination = destination == null ? null : PathResolver.toAddress(destination);
+            event.files = summary.getFiles();
+            event.bytes = summary.getBytes();
+            event.failures = summary.getFailures().size();
+            event.cancelled = summary.isCancelled();
+            event.commit();
+        }
+        return summary;
+    }
+
+    /**
+     * See execute().
+     */
+    private Summary run(final ProgressListener listener) throws IOException {
+        plan();
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger filesDone = new AtomicInteger(0);
+        final AtomicLong bytesDone = new AtomicLong(0);
+
+        if (kind == Kind.COMPRESS){
+            compress(listener, failures, filesDone, bytesDone);
+            afterExecute();
+            return summarize(filesDone, bytesDone, failures);
+        }
+        if (kind == Kind.EXTRACT){
+            extract(listener, failures, filesDone, bytesDone);
+            afterExecute();
+            return summarize(filesDone, bytesDone, failures);
+        }
+
+        // Renames are instant; do them first.
+        for (int i = 0;i < renames.size() && !cancelled;i++){
+            Path[] rename = renames.get(i);
+            try{
+                awaitOps(1);
+                Files.move(rename[0], rename[1], StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException ioe){
+                // The rename wasn't possible after all; fall back to copy and delete.
+                try{
+                    walk(rename[0], rename[1]);
+                }
+                catch (IOException walkFailure){
+                    fail(failures, rename[0], walkFailure.getMessage());
+                }
+            }
+            report(listener, filesDone.incrementAndGet(), bytesDone.get(), rename[0]);
+        }
+
+        // Directories are created in the order they were visited, parents first.
+        if (kind != Kind.DELETE){
+            for (int i = 0;i < directories.size() && !cancelled;i++){
+                try{
+                    awaitOps(1);
+                    Files.createDirectories(directories.get(i)[1]);
+                }
+                catch (IOException ioe){
+                    fail(failures, directories.get(i)[1], ioe.getMessage());
+                }
+            }
+        }
+
+        // Files are handed to the workers in plan order.
+        final AtomicInteger next = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory(){
+            private final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "batch-" + kind.name().toLowerCase() + "-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try{
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+            for (int w = 0;w < parallelism;w++){
+                workers.add(pool.submit(new Callable<Void>(){
+                    @Override
+                    public Void call(){
+                        int i;
+                        while (!cancelled && (i = next.getAndIncrement()) < files.size()){
+                            Entry entry = files.get(i);
+                            try{
+                                transfer(entry);
+                            }
+                            catch (IOException ioe){
+                                fail(failures, entry.source, ioe.getMessage());
+                            }
+                            report(listener, filesDone.incrementAndGet(), bytesDone.addAndGet(entry.size), entry.source);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int w = 0;w < workers.size();w++){
+                workers.get(w).get();
+            }
+        }
+        catch (InterruptedException ie){
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ee){
+            failures.add(ee.getCause().toString());
+        }
+        finally{
+            pool.shutdownNow();
+        }
+
+        // Moved and deleted directories are removed deepest first, once they're empty.
+        if (kind != Kind.COPY){
+            for (int i = directories.size() - 1;i >= 0 && !cancelled;i--){
+                Path dir = directories.get(i)[0];
+                try{
+                    awaitOps(1);
+                    Files.deleteIfExists(dir);
+                }
+                catch (DirectoryNotEmptyException dne){
+                    fail(failures, dir, "not empty");
+                }
+                catch (IOException ioe){
+                    fail(failures, dir, ioe.getMessage());
+                }
+            }
+        }
+
+        afterExecute();
+        return summarize(filesDone, bytesDone, failures);
+    }
+
+    private Summary summarize(AtomicInteger filesDone, AtomicLong bytesDone, List<String> failures){
+        List<String> sorted = new ArrayList<String>(failures);
+        Collections.sort(sorted);
+        return new Summary(filesDone.get(), bytesDone.get(), sorted, new ArrayList<Path>(failedPaths), cancelled);
+    }
+
+    /**
+     * Records a failure: a line for the summary, and the path that failed.
+     */
+    private void fail(List<String> failures, Path path, String reason){
+        failures.add(path + ": " + reason);
+        failedPaths.add(path);
+    }
+
+    /**
+     * Tidies up after execute(). Changes made inside a zip archive are only
+     * written out when the archive is closed, so every archive this operation
+     * changed is closed. Cached path statuses and listings are dropped, since
+     * any of them may have changed, as are the folder sizes along the sources
+     * and the destination.
+     */
+    private void afterExecute(){
+        PathStatusCache.getDefault().invalidateAll();
+        DirectoryCache.getDefault().invalidateAll();
+        for (Path source : sources){
+            FolderSizes.getDefault().invalidate(source);
+        }
+        if (destination != null){
+            FolderSizes.getDefault().invalidate(destination);
+        }
+        if (kind == Kind.MOVE || kind == Kind.DELETE){
+            for (Path source : sources){
+                PathResolver.commit(source);
+            }
+        }
+        if (destination != null){
+            PathResolver.commit(destination);
+        }
+    }
+
+    /**
+     * Streams every planned directory and file into a tar.gz archive at the
+     * destination. The tar stream is written in plan order by this thread,
+     * while ParallelGzipOutputStream compresses it on every core. If the
+     * operation is cancelled, or the archive can't be written, the partial
+     * archive is deleted.
+     */
+    private void compress(ProgressListener listener, List<String> failures,
+                          AtomicInteger filesDone, AtomicLong bytesDone) throws IOException {
+        try{
+            writeArchive(listener, failures, filesDone, bytesDone);
+        }
+        catch (IOException | RuntimeException e){
+            Files.deleteIfExists(destination);
+            throw e;
+        }
+        if (cancelled){
+            Files.deleteIfExists(destination);
+        }
+    }
+
+    /**
+     * See compress().
+     */
+    private void writeArchive(ProgressListener listener, List<String> failures,
+                              AtomicInteger filesDone, AtomicLong bytesDone) throws IOException {
+        int level = Integer.getInteger("filemanager.compress.level", 6);
+        int threads = Runtime.getRuntime().availableProcessors();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(destination), 256 * 1024), level, threads)){
+            TarWriter tar = new TarWriter(gzip);
+            for (int i = 0;i < directories.size() && !cancelled;i++){
+                Path[] dir = directories.get(i);
+                try{
+                    tar.putDirectory(entryName(dir[1]), Files.getLastModifiedTime(dir[0]).toMillis(),
+                            TarWriter.mode(dir[0], 0755));
+                }
+                catch (IOException ioe){
+                    fail(failures, dir[0], ioe.getMessage());
+                }
+            }
+            for (int i = 0;i < files.size() && !cancelled;i++){
+                Entry entry = files.get(i);
+                if (entry.source.toAbsolutePath().equals(destination.toAbsolutePath())){
+                    // Don't put the archive inside itself.
+                    continue;
+                }
+                try{
+                    awaitOps(1);
+                    long mtime = Files.getLastModifiedTime(entry.source, LinkOption.NOFOLLOW_LINKS).toMillis();
+                    if (Files.isSymbolicLink(entry.source)){
+                        tar.putSymlink(entryName(entry.target), Files.readSymbolicLink(entry.source).toString(), mtime);
+                    }
+                    else{
+                        tar.putFile(entryName(entry.target), entry.source, entry.size, mtime,
+                                TarWriter.mode(entry.source, 0644), throttle);
+                    }
+                }
+                catch (InterruptedIOException iioe){
+                    cancelled = true;
+                }
+                catch (IOException ioe){
+                    fail(failures, entry.source, ioe.getMessage());
+                }
+                report(listener, filesDone.incrementAndGet(), bytesDone.addAndGet(entry.size), entry.source);
+            }
+            tar.finish();
+        }
+    }
+
+    /**
+     * Extracts every source archive into the destination, one archive at a
+     * time. See ArchiveExtractor.
+     */
+    private void extract(final ProgressListener listener, List<String> failures,
+                         final AtomicInteger filesDone, AtomicLong bytesDone) throws IOException {
+        long archivesRead = 0;
+        for (int i = 0;i < sources.size() && !cancelled;i++){
+            Path source = sources.get(i);
+            final int entriesBefore = filesDone.get();
+            final long readBefore = archivesRead;
+            ArchiveExtractor extractor = new ArchiveExtractor(source, destination);
+            extractor.setThrottle(throttle);
+            extractor.setListener(new ArchiveExtractor.Listener(){
+                @Override
+                public void extracted(int entriesDone, long bytesWritten, long archiveBytesRead, Path current){
+                    if (listener != null){
+                        listener.progress(entriesBefore + entriesDone, -1, readBefore + archiveBytesRead, totalBytes, current);
+                    }
+                }
+            });
+            extracting = extractor;
+            try{
+                extractor.extract();
+            }
+            catch (InterruptedIOException iioe){
+                cancelled = true;
+            }
+            catch (IOException ioe){
+                fail(failures, source, ioe.getMessage());
+            }
+            finally{
+                extracting = null;
+            }
+            failures.addAll(extractor.getFailures());
+            filesDone.addAndGet(extractor.getEntriesDone());
+            bytesDone.addAndGet(extractor.getBytesWritten());
+            archivesRead += Files.size(source);
+        }
+    }
+
+    /**
+     * @return p as a tar entry name, which always uses '/' as its separator
+     */
+    private static String entryName(Path p){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0;i < p.getNameCount();i++){
+            if (i > 0){
+                sb.append('/');
+            }
+            sb.append(p.getName(i).toString());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies, moves or deletes a single file.
+     */
+    private void transfer(Entry entry) throws IOException {
+        awaitOps(1);
+        FileManagerEvents.FileTransfer event = new FileManagerEvents.FileTransfer();
+        event.begin();
+        switch (kind){
+            case COPY:
+                copyFile(entry.source, entry.target, throttle);
+                MetricsRegistry.increment(MetricsRegistry.FILES_COPIED);
+                MetricsRegistry.add(MetricsRegistry.BYTES_COPIED, entry.size);
+                break;
+            case MOVE:
+                copyFile(entry.source, entry.target, throttle);
+                Files.delete(entry.source);
+                MetricsRegistry.increment(MetricsRegistry.FILES_MOVED);
+                MetricsRegistry.add(MetricsRegistry.BYTES_MOVED, entry.size);
+                break;
+            case DELETE:
+                Files.deleteIfExists(entry.source);
+                MetricsRegistry.increment(MetricsRegistry.FILES_DELETED);
+                MetricsRegistry.add(MetricsRegistry.BYTES_DELETED, entry.size);
+                break;
+            case LINK:
+                if (linkFile(entry.source, entry.target, throttle)){
+                    MetricsRegistry.increment(MetricsRegistry.FILES_LINKED);
+                    MetricsRegistry.add(MetricsRegistry.BYTES_LINKED, entry.size);
+                }
+                break;
+        }
+        if (event.shouldCommit()){
+            event.kind = kind.name();
+            event.source = PathResolver.toAddress(entry.source);
+            event.target = entry.target == null ? null : PathResolver.toAddress(entry.target);
+            event.bytes = entry.size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Replaces a file by a hard link to another with the same contents. The
+     * contents are compared first, so a file that changed since it was found
+     * to be a duplicate is never lost. The link is made under a temporary
+     * name beside the file and renamed over it, so the file is never
+     * missing.
+     * @param file the file to replace
+     * @param target the file to link to
+     * @param throttle limits the reading of both files
+     * @return false if they were already the same file
+     * @throws IOException if their contents differ, or the link can't be made
+     */
+    static boolean linkFile(Path file, Path target, IoThrottle throttle) throws IOException {
+        if (Files.isSameFile(file, target)){
+            return false;
+        }
+        if (!sameContents(file, target, throttle)){
+            throw new IOException("not the same as " + target + " any more");
+        }
+        Path temporary = file.resolveSibling("." + file.getFileName() + ".link-" + System.nanoTime());
+        Files.createLink(temporary, target);
+        try{
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe){
+            Files.deleteIfExists(temporary);
+            throw ioe;
+        }
+        return true;
+    }
+
+    /**
+     * Compares two files byte for byte.
+     * @return true if they have the same contents
+     */
+    private static boolean sameContents(Path a, Path b, IoThrottle throttle) throws IOException {
+        if (Files.size(a) != Files.size(b)){
+            return false;
+        }
+        ByteBuffer bufferA = ByteBuffer.allocate(256 * 1024);
+        ByteBuffer bufferB = ByteBuffer.allocate(256 * 1024);
+        try (ReadableByteChannel inA = Files.newByteChannel(a, StandardOpenOption.READ);
+             ReadableByteChannel inB = Files.newByteChannel(b, StandardOpenOption.READ)){
+            while (true){
+                throttle.acquireBytes(2L * bufferA.capacity());
+                bufferA.clear();
+                bufferB.clear();
+                int readA = fill(inA, bufferA);
+                int readB = fill(inB, bufferB);
+                bufferA.flip();
+                bufferB.flip();
+                if (readA != readB || !bufferA.equals(bufferB)){
+                    return false;
+                }
+                if (readA < bufferA.capacity()){
+                    return true;
+                }
+            }
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Comparison interrupted");
+        }
+    }
+
+    /**
+     * Reads until buffer is full or the channel ends.
+     * @return the number of bytes read
+     */
+    private static int fill(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && in.read(buffer) >= 0){
+            // Keep reading; a channel may return fewer bytes than asked for.
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Waits until the throttle allows n more operations.
+     */
+    private void awaitOps(int n) throws IOException {
+        try{
+            throttle.acquireOps(n);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+
+    /**
+     * Copies a single file, in chunks if it's large enough. Links are copied
+     * as links. If the throttle limits bandwidth, the file is copied a buffer
+     * at a time so the limit can be applied. Files in or out of an archive
+     * are streamed through their FileSystems.
+     * @throws IOException if target is source itself, which opening target
+     *     for writing would truncate
+     */
+    static void copyFile(Path source, Path target, IoThrottle throttle) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(source, target)){
+            throw new IOException(target + " is the file being copied");
+        }
+        try{
+            if (!Files.isSymbolicLink(source) && PathResolver.isDefault(target) && ChunkedFileCopier.shouldUse(source)){
+                ChunkedFileCopier copier = new ChunkedFileCopier();
+                copier.setThrottle(throttle);
+                copier.copy(source, target);
+            }
+            else if (!Files.isSymbolicLink(source) && throttle.limitsBytes()){
+                try (ReadableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+                     WritableByteChannel out = Files.newByteChannel(target, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                    ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+                    while (true){
+                        throttle.acquireBytes(buffer.capacity());
+                        buffer.clear();
+                        if (in.read(buffer) < 0){
+                            break;
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()){
+                            out.write(buffer);
+                        }
+                    }
+                }
+                Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+            }
+            else{
+                throttle.acquireBytes(Files.isSymbolicLink(source) ? 0 : Files.size(source));
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+            }
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copy interrupted");
+        }
+    }
+
+    private void report(ProgressListener listener, int filesDone, long bytesDone, Path current){
+        if (listener != null){
+            listener.progress(filesDone, getTotalFiles(), bytesDone, totalBytes, current);
+        }
+    }
+}
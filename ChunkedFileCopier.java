@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a single large file by splitting it into independent byte ranges
+ * (chunks) and copying several chunks at once. Each worker uses positional
+ * FileChannel reads and writes, so the workers never share a channel position.
+ * The target is preallocated to the full size of the source before any chunk
+ * is written.
+ *
+ * Chunk size and parallelism can be tuned through the constructor, or globally
+ * through the system properties "filemanager.copy.chunkSize" (bytes),
+ * "filemanager.copy.parallelism" (threads) and "filemanager.copy.threshold"
+ * (the smallest file, in bytes, that CopyAction will copy in chunks).
+ */
+public class ChunkedFileCopier {
+    // Defaults, used when the system properties aren't set.
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_PARALLELISM = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    public static final long DEFAULT_THRESHOLD = 256L * 1024 * 1024;
+    // Size of the buffer each worker reads into. A chunk is copied in several passes if it's larger.
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int chunkSize;
+    private final int parallelism;
+    // Limits the bandwidth used by the copy; see IoThrottle.
+    private IoThrottle throttle;
+
+    /**
+     * Creates a copier using the configured (or default) chunk size and parallelism.
+     */
+    public ChunkedFileCopier(){
+        this(configuredChunkSize(), configuredParallelism());
+    }
+
+    /**
+     * @param chunkSize the number of bytes in each independently copied range
+     * @param parallelism the number of ranges copied at the same time
+     */
+    public ChunkedFileCopier(int chunkSize, int parallelism){
+        if (chunkSize <= 0){
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        if (parallelism <= 0){
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.throttle = IoThrottle.global();
+    }
+
+    /**
+     * @return the chunk size from "filemanager.copy.chunkSize", or DEFAULT_CHUNK_SIZE
+     */
+    public static int configuredChunkSize(){
+        return Integer.getInteger("filemanager.copy.chunkSize", DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @return the parallelism from "filemanager.copy.parallelism", or DEFAULT_PARALLELISM
+     */
+    public static int configuredParallelism(){
+        return Integer.getInteger("filemanager.copy.parallelism", DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @return the size from "filemanager.copy.threshold", or DEFAULT_THRESHOLD
+     */
+    public static long configuredThreshold(){
+        return Long.getLong("filemanager.copy.threshold", DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param source the file that might be copied
+     * @return true if source is a regular file big enough to be worth copying in chunks
+     */
+    public static boolean shouldUse(Path source){
+        try{
+            // Positional reads need a real file, not an entry in an archive.
+            return PathResolver.isDefault(source) && Files.isRegularFile(source)
+                    && Files.size(source) >= configuredThreshold();
+        }
+        catch (IOException ioe){
+            return false;
+        }
+    }
+
+    public int getChunkSize(){
+        return chunkSize;
+    }
+
+    public int getParallelism(){
+        return parallelism;
+    }
+
+    /**
+     * @param throttle the throttle every chunk is read through
+     */
+    public void setThrottle(IoThrottle throttle){
+        this.throttle = throttle;
+    }
+
+    /**
+     * Copies source to target, replacing target if it exists.
+     * @param source the file to copy
+     * @param target the file to create
+     * @return the number of bytes copied
+     * @throws IOException if any chunk fails to copy
+     */
+    public long copy(Path source, Path target) throws IOException {
+        final long length = Files.size(source);
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")){
+            // Preallocate the target so that chunks can be written in any order.
+            raf.setLength(length);
+            final FileChannel out = raf.getChannel();
+            final long chunks = (length + chunkSize - 1) / chunkSize;
+            final AtomicLong nextChunk = new AtomicLong(0);
+            int workers = (int) Math.max(1, Math.min(parallelism, chunks));
+
+            ExecutorService pool = Executors.newFixedThreadPool(workers, new ThreadFactory(){
+                private int count = 0;
+                @Override
+                public Thread newThread(Runnable r){
+                    Thread t = new Thread(r, "chunked-copy-" + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            try{
+                Future<?>[] results = new Future<?>[workers];
+                for (int i = 0;i < workers;i++){
+                    results[i] = pool.submit(new Callable<Void>(){
+                        @Override
+                        public Void call() throws IOException {
+                            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.min(chunkSize, BUFFER_SIZE));
+                            long chunk;
+                            while ((chunk = nextChunk.getAndIncrement()) < chunks){
+                                long start = chunk * chunkSize;
+                                long end = Math.min(length, start + chunkSize);
+                                copyRange(in, out, start, end, buffer);
+                            }
+                            return null;
+                        }
+                    });
+                }
+                for (int i = 0;i < workers;i++){
+                    results[i].get();
+                }
+            }
+            catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+                throw new IOException("Copy of " + source + " was interrupted", ie);
+            }
+            catch (ExecutionException ee){
+                Throwable cause = ee.getCause();
+                if (cause instanceof IOException){
+                    throw (IOException) cause;
+                }
+                throw new IOException("Copy of " + source + " failed", cause);
+            }
+            finally{
+                pool.shutdownNow();
+            }
+        }
+
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        return length;
+    }
+
+    /**
+     * Copies the bytes in [start, end) from one channel to the same positions in another.
+     */
+    private void copyRange(FileChannel in, FileChannel out, long start, long end, ByteBuffer buffer) throws IOException {
+        long position = start;
+        while (position < end){
+            buffer.clear();
+            int wanted = (int) Math.min(buffer.capacity(), end - position);
+            try{
+                throttle.acquireBytes(wanted);
+            }
+            catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Copy interrupted");
+            }
+            buffer.limit(wanted);
+            while (buffer.hasRemaining()){
+                int read = in.read(buffer, position + buffer.position());
+                if (read < 0){
+                    throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                out.write(buffer, position + buffer.position());
+            }
+            position += wanted;
+        }
+    }
+}
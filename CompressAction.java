@@ -0,0 +1,78 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Action to compress one or more files and directories into a .tar.gz archive.
+ * The archive is compressed on every core at once; see ParallelGzipOutputStream.
+ */
+public class CompressAction extends AbstractAction {
+    private String actionName = "Compress";
+    private String currentDir;
+    // The FilePanels of every file to be compressed.
+    private FilePanel[] targets;
+
+    /**
+     * Default CompressAction constructor.
+     * @param key a key to find value with
+     * @param value the FilePanel, or array of selected FilePanels, to act on
+     * @param current current directory of the directory panel
+     */
+    public CompressAction(String key,Object value, String current){
+        super("Compress",null);
+        putValue(key,value);
+        this.currentDir = current;
+        this.targets = BatchJob.panelsOf(value);
+    }
+
+    public String getCurrent() {
+        return this.currentDir;
+    }
+
+    /**
+     * Overridden AbstractAction method.
+     * Triggers a specific function based on an event.
+     * @param e the triggering event.
+     */
+    public void actionPerformed(ActionEvent e){
+        Component parent = (Component) e.getSource();
+        chooseArchive(parent);
+    }
+
+    /**
+     * Asks where to save the archive, suggesting a name in the current directory.
+     * @param parent the component to show the dialog over
+     */
+    public void chooseArchive(Component parent){
+        String suggested = (targets.length == 1 ? targets[0].getFileName() : "Archive") + ".tar.gz";
+        JFileChooser fc = new JFileChooser(currentDir);
+        fc.setDialogTitle("Please choose where to save the archive");
+        fc.setSelectedFile(new File(currentDir, suggested));
+        if (fc.showSaveDialog(parent) == JFileChooser.APPROVE_OPTION){
+            File archive = fc.getSelectedFile();
+            if (!archive.getName().endsWith(".tar.gz") && !archive.getName().endsWith(".tgz")){
+                archive = new File(archive.getParentFile(), archive.getName() + ".tar.gz");
+            }
+            if (archive.exists()){
+                int choice = JOptionPane.showConfirmDialog(parent, archive.getName() + " already exists. Replace it?",
+                        "Compress", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (choice != JOptionPane.YES_OPTION){
+                    return;
+                }
+            }
+            compress(parent, archive.toPath());
+        }
+    }
+
+    /**
+     * Compresses every target into the archive, in the background.
+     * @param parent the component to show progress over
+     * @param archive the .tar.gz file to create
+     */
+    public void compress(Component parent, Path archive){
+        BatchOperation compress = new BatchOperation(BatchOperation.Kind.COMPRESS, BatchJob.pathsOf(targets), archive);
+        new BatchJob(parent, compress, "Compressing").start();
+    }
+}
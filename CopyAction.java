@@ -9,33 +9,32 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Action to create a copy of a file in a new directory
+ * Action to create a copy of one or more files in a new directory
  * @author Brandon Moore
  * @author Brad Nickle
  */
 public class CopyAction extends AbstractAction {
     private String actionName = "Copy";
     private String currentDir;
-    private String targetFile;
-    private static String fileExt;
-    
+    // The FilePanels of every file to be copied.
+    private FilePanel[] targets;
+
     /**
      * Default CopyWithAction constructor.
      * @param key a key to find value with
-     * @param value the FilePanel to act on
+     * @param value the FilePanel, or array of selected FilePanels, to act on
      */
     public CopyAction(String key,Object value, String current){
         super("Copy",null);
         putValue(key,value);
         this.currentDir = current;
-        this.targetFile = ((FilePanel) value).getFullFileName();
-        int index =  targetFile.toString().lastIndexOf('/');
-        int index2 = (targetFile.length());
-        fileExt = targetFile.substring(index, index2);
+        this.targets = BatchJob.panelsOf(value);
     }
-    
+
     public String getCurrent() {
     	return this.currentDir;
     }
@@ -49,11 +48,11 @@ public class CopyAction extends AbstractAction {
         Component parent = (Component) e.getSource();
         result = moveDir(parent);
     }
-    
+
     /**
-     * Move a directory into a new directory
+     * Asks once for a destination, then copies every target into it as one job.
      * @author Dan Tran
-     * @param parent 
+     * @param parent
      */
     public String moveDir(Component parent)
     {
@@ -61,31 +60,105 @@ public class CopyAction extends AbstractAction {
     	JFileChooser fc = new JFileChooser();
             fc.setDialogTitle("Please select a destination to place your file copy");
             fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            /* Let the user choose to check the copy against the original afterwards,
+            and to limit the copy's speed. */
+            JCheckBox verifyBox = new JCheckBox("Verify after copying");
+            JSpinner limit = BatchJob.createSpeedLimitSpinner();
+            JPanel accessory = new JPanel(new GridLayout(3,1));
+            accessory.add(verifyBox);
+            accessory.add(new JLabel("Speed limit (MB/s, 0 = none):"));
+            accessory.add(limit);
+            fc.setAccessory(accessory);
             if (fc.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
-   
+
                  selected = fc.getSelectedFile().getAbsolutePath();
-                 copyIt(targetFile, selected);
+                 copyIt(parent, selected, verifyBox.isSelected(), BatchJob.throttleFor(limit));
                  return "success";
             }
             return "success";
     }
-    
+
     /**
-     * Move a directory into a new directory
+     * Copy every target into a new directory, in the background.
      * @author Dan Tran
      * @author Brandon Moore
+     * @param parent the component to show progress over
+     * @param newDir the directory to copy into
+     * @param verify whether to verify the copies once they're done
+     * @param throttle limits the bandwidth the copy uses
      */
-    public void copyIt(String currentDir, String newDir)
+    public void copyIt(final Component parent, String newDir, final boolean verify, IoThrottle throttle)
     {
-        Path movefrom = FileSystems.getDefault().getPath(targetFile);
-        Path target = FileSystems.getDefault().getPath(newDir + fileExt);
-        try
-        {
-            Files.copy(movefrom,target, StandardCopyOption.REPLACE_EXISTING);
-        } catch(Exception e)
-        {
-            e.printStackTrace();
-        }
+        final List<Path> sources = BatchJob.pathsOf(targets);
+        final Path destination = FileSystems.getDefault().getPath(newDir);
+        BatchOperation copy = new BatchOperation(BatchOperation.Kind.COPY, sources, destination);
+        copy.setThrottle(throttle);
+        new BatchJob(parent, copy, "Copying"){
+            @Override
+            protected void finished(BatchOperation.Summary summary){
+                if (verify && !summary.isCancelled()){
+                    verify(parent, sources, destination);
+                }
+            }
+        }.start();
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * Hashes the originals and the copies in the background, then reports any
+     * files that differ. See CopyVerifier.
+     * @param parent the component to show the report over
+     * @param sources the original files and directories
+     * @param destination the directory they were copied into
+     */
+    public void verify(final Component parent, final List<Path> sources, final Path destination)
+    {
+        SwingWorker<List<CopyVerifier.Result>,Void> worker = new SwingWorker<List<CopyVerifier.Result>,Void>(){
+            @Override
+            protected List<CopyVerifier.Result> doInBackground() throws IOException {
+                CopyVerifier verifier = new CopyVerifier();
+                List<CopyVerifier.Result> results = new ArrayList<CopyVerifier.Result>();
+                for (Path source : sources){
+                    results.add(verifier.verify(source, destination.resolve(source.getFileName().toString())));
+                }
+                return results;
+            }
+
+            @Override
+            protected void done(){
+                try{
+                    int checked = 0;
+                    List<String> mismatches = new ArrayList<String>();
+                    for (CopyVerifier.Result result : get()){
+                        checked += result.getFilesChecked();
+                        mismatches.addAll(result.getMismatches());
+                    }
+                    if (mismatches.isEmpty()){
+                        JOptionPane.showMessageDialog(parent,
+                                checked + " file(s) verified; the copy matches the original.",
+                                "Verify Copy", JOptionPane.INFORMATION_MESSAGE);
+                    }
+                    else{
+                        StringBuilder report = new StringBuilder();
+                        for (String mismatch : mismatches){
+                            report.append(mismatch).append('\n');
+                        }
+                        JTextArea area = new JTextArea(report.toString(), 12, 60);
+                        area.setEditable(false);
+                        JOptionPane.showMessageDialog(parent, new Object[]{
+                                mismatches.size() + " of " + checked
+                                        + " file(s) do not match the original:",
+                                new JScrollPane(area)},
+                                "Verify Copy", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+                catch (Exception e){
+                    System.out.println(e.getMessage());
+                    JOptionPane.showMessageDialog(parent, "The copy could not be verified: " + e.getMessage(),
+                            "Verify Copy", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+}
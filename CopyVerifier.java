@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Confirms that a copy matches its source by hashing both.
+ *
+ * Every file is hashed by a two-stage pipeline: a reader thread fills buffers
+ * (or maps and loads windows of large files) while a hasher thread digests the
+ * buffers it has already been handed, so disk I/O and hashing overlap. The
+ * source and destination of a file are hashed at the same time, and several
+ * files are verified at once on multi-core machines.
+ *
+ * The digest algorithm defaults to SHA-256 and can be changed with the system
+ * property "filemanager.verify.algorithm" (any MessageDigest algorithm).
+ */
+public class CopyVerifier {
+    // Files at least this large are read through memory-mapped windows.
+    public static final long MAPPED_THRESHOLD = 64L * 1024 * 1024;
+    private static final int MAPPED_WINDOW = 32 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // Number of buffers in flight between a reader and its hasher.
+    private static final int PIPELINE_DEPTH = 4;
+    // Marks the end of a file in the pipeline.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final String algorithm;
+    private final int parallelism;
+
+    /**
+     * Creates a verifier with the configured algorithm that checks
+     * one file per pair of cores at a time.
+     */
+    public CopyVerifier(){
+        this(System.getProperty("filemanager.verify.algorithm", "SHA-256"),
+             Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @param algorithm the MessageDigest algorithm to hash with
+     * @param parallelism the number of files verified at the same time
+     */
+    public CopyVerifier(String algorithm, int parallelism){
+        try{
+            MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException nsae){
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, nsae);
+        }
+        this.algorithm = algorithm;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * The outcome of a verification.
+     */
+    public static class Result {
+        private final int filesChecked;
+        private final long bytesChecked;
+        private final List<String> mismatches;
+
+        Result(int filesChecked, long bytesChecked, List<String> mismatches){
+            this.filesChecked = filesChecked;
+            this.bytesChecked = bytesChecked;
+            this.mismatches = Collections.unmodifiableList(mismatches);
+        }
+
+        /**
+         * @return the number of files compared
+         */
+        public int getFilesChecked(){
+            return filesChecked;
+        }
+
+        /**
+         * @return the number of source bytes hashed
+         */
+        public long getBytesChecked(){
+            return bytesChecked;
+        }
+
+        /**
+         * @return one line for every file that is missing or differs
+         */
+        public List<String> getMismatches(){
+            return mismatches;
+        }
+
+        /**
+         * @return true if every file matched
+         */
+        public boolean isOk(){
+            return mismatches.isEmpty();
+        }
+    }
+
+    /**
+     * Verifies that target is an exact copy of source. If source is a
+     * directory, every regular file beneath it is compared with the file at the
+     * same relative path beneath target.
+     * @param source the original file or directory
+     * @param target the copy
+     * @return the result, including a line for each mismatch
+     * @throws IOException if source can't be walked
+     */
+    public Result verify(final Path source, final Path target) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+        if (Files.isDirectory(source)){
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>(){
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+                    if (attrs.isRegularFile()){
+                        files.add(source.relativize(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        else{
+            files.add(null);
+        }
+
+        final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicLong bytes = new AtomicLong(0);
+        final AtomicInteger next = new AtomicInteger(0);
+
+        // Stage threads (readers and destination hashers) come from a cached pool.
+        final ExecutorService stages = Executors.newCachedThreadPool(daemonThreads("verify-stage"));
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, daemonThreads("verify"));
+        try{
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0;i < parallelism;i++){
+                results.add(workers.submit(new Callable<Void>(){
+                    @Override
+                    public Void call(){
+                        int i;
+                        while ((i = next.getAndIncrement()) < files.size()){
+                            Path relative = files.get(i);
+                            Path from = relative == null ? source : source.resolve(relative);
+                            Path to = relative == null ? target : target.resolve(relative.toString());
+                            String problem = compare(from, to, stages, bytes);
+                            if (problem != null){
+                                mismatches.add(problem);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0;i < results.size();i++){
+                results.get(i).get();
+            }
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new IOException("Verification was interrupted", ie);
+        }
+        catch (ExecutionException ee){
+            throw new IOException("Verification failed", ee.getCause());
+        }
+        finally{
+            workers.shutdownNow();
+            stages.shutdownNow();
+        }
+
+        List<String> sorted = new ArrayList<String>(mismatches);
+        Collections.sort(sorted);
+        return new Result(files.size(), bytes.get(), sorted);
+    }
+
+    /**
+     * Hashes a source file and its copy at the same time.
+     * @return a description of the mismatch, or null if the files match
+     */
+    private String compare(Path from, final Path to, final ExecutorService stages, AtomicLong bytes){
+        if (!Files.isRegularFile(to)){
+            return to + ": missing from the copy";
+        }
+        try{
+            long size = Files.size(from);
+            if (size != Files.size(to)){
+                return to + ": size differs (" + size + " bytes expected, " + Files.size(to) + " found)";
+            }
+
+            Future<byte[]> targetHash = stages.submit(new Callable<byte[]>(){
+                @Override
+                public byte[] call() throws IOException {
+                    return hash(to, stages);
+                }
+            });
+            byte[] sourceHash = hash(from, stages);
+            bytes.addAndGet(size);
+            if (!Arrays.equals(sourceHash, targetHash.get())){
+                return to + ": contents differ (" + algorithm + " " + hex(sourceHash)
+                        + " expected, " + hex(targetHash.get()) + " found)";
+            }
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            return to + ": verification interrupted";
+        }
+        catch (ExecutionException ee){
+            return to + ": could not be read (" + ee.getCause().getMessage() + ")";
+        }
+        catch (IOException ioe){
+            return to + ": could not be read (" + ioe.getMessage() + ")";
+        }
+        return null;
+    }
+
+    /**
+     * Hashes one file. A reader runs on the stage pool and hands full buffers
+     * to this thread, which digests them.
+     * @param file the file to hash
+     * @param stages the pool the reader runs on
+     * @return the digest of the file's contents
+     * @throws IOException if the file can't be read
+     */
+    public byte[] hash(final Path file, ExecutorService stages) throws IOException {
+        final MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException nsae){
+            throw new IOException(nsae);
+        }
+
+        final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(PIPELINE_DEPTH + 1);
+        final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(PIPELINE_DEPTH);
+        final long size = Files.size(file);
+        // Only real files can be mapped; entries in archives are read as streams.
+        final boolean mapped = size >= MAPPED_THRESHOLD && PathResolver.isDefault(file);
+        if (!mapped){
+            for (int i = 0;i < PIPELINE_DEPTH;i++){
+                free.add(ByteBuffer.allocate(BUFFER_SIZE));
+            }
+        }
+
+        Future<Void> reader = stages.submit(new Callable<Void>(){
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+                    if (mapped){
+                        // Map a window and touch its pages so the hasher never waits on a page fault.
+                        for (long position = 0;position < size;position += MAPPED_WINDOW){
+                            long length = Math.min(MAPPED_WINDOW, size - position);
+                            IoThrottle.global().acquireBytes(length);
+                            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                            window.load();
+                            full.put(window);
+                        }
+                    }
+                    else{
+                        while (true){
+                            ByteBuffer buffer = free.take();
+                            buffer.clear();
+                            IoThrottle.global().acquireBytes(buffer.capacity());
+                            if (channel.read(buffer) < 0){
+                                break;
+                            }
+                            buffer.flip();
+                            full.put(buffer);
+                        }
+                    }
+                }
+                finally{
+                    full.put(END);
+                }
+                return null;
+            }
+        });
+
+        try{
+            while (true){
+                ByteBuffer buffer = full.take();
+                if (buffer == END){
+                    break;
+                }
+                digest.update(buffer);
+                if (!mapped){
+                    free.put(buffer);
+                }
+            }
+            // Rethrows any error the reader ran into.
+            reader.get();
+        }
+        catch (InterruptedException ie){
+            reader.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Hashing " + file + " was interrupted", ie);
+        }
+        catch (ExecutionException ee){
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            throw new IOException("Hashing " + file + " failed", cause);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return the bytes as a lowercase hexadecimal string
+     */
+    private static String hex(byte[] bytes){
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (int i = 0;i < bytes.length;i++){
+            sb.append(String.format("%02x", bytes[i]));
+        }
+        return sb.toString();
+    }
+
+    private static ThreadFactory daemonThreads(final String name){
+        return new ThreadFactory(){
+            private final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -1,10 +1,10 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-
-// Imports Brandon had
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /*
 // Netbeans can't find javax.jnlp ?
@@ -14,74 +14,95 @@ import javax.jnlp.ServiceManager;
 import javax.jnlp.UnavailableServiceException;*/
 
 /**
- * Action to open a file with a default program.
+ * Action to delete one or more files. By default, files are moved to the
+ * trash (see TrashBin), which is instant and can be undone until the trash
+ * is purged. Files can also be deleted permanently.
  * @author Brandon Moore
  * @author Brad Nickle
  */
 public class DeleteAction extends AbstractAction {
     private String actionName = "Delete";
-    
+    // The FilePanels of every file to be deleted.
+    private FilePanel[] targets;
+    // If true, skip the trash and delete the targets right away.
+    private boolean permanently;
+
     /**
-     * Default DeleteAction constructor.
+     * Default DeleteAction constructor. The targets are moved to the trash.
      * @param key a key to find value with
-     * @param value the FilePanel to act on
+     * @param value the FilePanel, or array of selected FilePanels, to act on
      */
     public DeleteAction(String key,Object value){
-        super("Delete",null);
+        this(key,value,false);
+    }
+
+    /**
+     * @param key a key to find value with
+     * @param value the FilePanel, or array of selected FilePanels, to act on
+     * @param permanently true to delete the targets instead of trashing them
+     */
+    public DeleteAction(String key,Object value,boolean permanently){
+        super(permanently ? "Delete Permanently" : "Delete",null);
         putValue(key,value);
+        this.targets = BatchJob.panelsOf(value);
+        this.permanently = permanently;
     }
-    
+
     /**
      * Overridden AbstractAction method.
      * Triggers a specific function based on an event.
      * @param e the triggering event.
      */
     public void actionPerformed(ActionEvent e){
-        String result = null;
-        try{
-            FilePanel fp = (FilePanel) getValue("FilePanel");
-            result = deleteFile(fp.getAbsolutePath(),fp.getFileName());
-            System.out.println("Done");
-        } catch (IOException ioe){
-            System.out.println(ioe.getMessage());
+        Component parent = (Component) e.getSource();
+        if (permanently){
+            deleteFiles(parent, BatchJob.pathsOf(targets));
+        }
+        else{
+            trashFiles(parent);
         }
-        System.out.println(result);
     }
-    
+
     /**
-     * Opens a file with a default associated program.
-     * @author Brandon Moore
-     * @author Bradley Nickle
-     * @return the status of the operation
+     * Renames every target into the trash. Anything that can't be trashed
+     * (for instance, on a volume without a writable trash directory) is
+     * deleted permanently instead.
+     * @param parent the component to show progress over
      */
-    private String deleteFile(String path,String name) throws IOException {
-        try{
-            File target = new File(path + "/" + name);
-            System.out.println(path + "/" + name);
-            if (target.isDirectory()){
-                String[] paths = target.list();
-                for (int i = 0;i < paths.length;i++){
-                    try{
-                        File current = new File(path + "/" + name + "/" + paths[i]);
-                        if (current.isDirectory()){
-                            System.out.println(deleteFile(path + "/" + name,paths[i]));
-                        }
-                        else{
-                            current.delete();
-                        }
-                    }
-                    catch (Exception e){
-                        return e.getMessage();
-                    }
-                }
-                target.delete();
+    private void trashFiles(Component parent){
+        List<Path> leftovers = new ArrayList<Path>();
+        List<Path> paths = BatchJob.pathsOf(targets);
+        // One batch, so Undo Delete brings them all back.
+        long batch = TrashBin.getDefault().newBatch();
+        for (int i = 0;i < paths.size();i++){
+            try{
+                TrashBin.getDefault().trash(paths.get(i), batch);
             }
-            else{
-                target.delete();
+            catch (IOException ioe){
+                System.out.println(ioe.getMessage());
+                leftovers.add(paths.get(i));
             }
-        } catch (Exception e){
-            return e.getMessage();
         }
-        return "Success";
+        if (!leftovers.isEmpty()){
+            int choice = JOptionPane.showConfirmDialog(parent,
+                    leftovers.size() + " item(s) can't be moved to the trash. Delete them permanently?",
+                    "Delete", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (choice == JOptionPane.YES_OPTION){
+                deleteFiles(parent, leftovers);
+            }
+        }
+    }
+
+    /**
+     * Deletes every path (and everything inside the directories among them)
+     * as one background job.
+     * @author Brandon Moore
+     * @author Bradley Nickle
+     * @param parent the component to show progress over
+     * @param paths the files and directories to delete
+     */
+    private void deleteFiles(Component parent, List<Path> paths){
+        BatchOperation delete = new BatchOperation(BatchOperation.Kind.DELETE, paths, null);
+        new BatchJob(parent, delete, "Deleting").start();
     }
-}
\ No newline at end of file
+}
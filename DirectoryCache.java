@@ -0,0 +1,393 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Directory listings shared by every tab and window: each entry's Path and a
+ * snapshot of its attributes, read once.
+ *
+ * Two tabs showing the same directory pay for one listing. If they ask at the
+ * same time, the second waits for the first one's listing instead of starting
+ * its own. Attributes of large directories are read in parallel on the shared
+ * IoExecutor.
+ *
+ * A listing is reused while the directory's modification time is unchanged
+ * (one attribute read instead of a full listing) and until DirectoryWatcher
+ * reports a change in it, which catches files that change size without the
+ * directory changing. File operations also call invalidate() when they finish.
+ */
+public class DirectoryCache implements DirectoryWatcher.Listener {
+    public static final int DEFAULT_CAPACITY = 64;
+    // Directories with more entries than this have their attributes read in parallel.
+    public static final int PARALLEL_THRESHOLD = 512;
+
+    private static DirectoryCache instance;
+
+    /**
+     * A directory's entries and their attributes, as they were when listed.
+     * Listings are shared, so they must not be changed.
+     */
+    public static class Listing {
+        private final Path directory;
+        private final Path[] entries;
+        private final BasicFileAttributes[] attributes;
+        private final long modified;
+
+        Listing(Path directory, Path[] entries, BasicFileAttributes[] attributes, long modified){
+            this.directory = directory;
+            this.entries = entries;
+            this.attributes = attributes;
+            this.modified = modified;
+        }
+
+        public Path getDirectory(){
+            return directory;
+        }
+
+        /**
+         * @return the number of entries in the directory
+         */
+        public int size(){
+            return entries.length;
+        }
+
+        /**
+         * @param i the index of an entry
+         * @return the entry's Path
+         */
+        public Path getEntry(int i){
+            return entries[i];
+        }
+
+        /**
+         * @param i the index of an entry
+         * @return the entry's attributes (those of the target, for a symbolic
+         *     link that can be followed), or null if they couldn't be read
+         */
+        public BasicFileAttributes getAttributes(int i){
+            return attributes[i];
+        }
+    }
+
+    private final LinkedHashMap<Path,Listing> listings;
+    // Listings being read right now, so a second request can wait for the first.
+    private final HashMap<Path,FutureTask<Listing>> loading;
+    // Bumped by every invalidation, so a listing read before one isn't kept.
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the most listings to keep; the least recently used are dropped
+     */
+    public DirectoryCache(final int capacity){
+        listings = new LinkedHashMap<Path,Listing>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path,Listing> eldest){
+                if (size() > capacity){
+                    DirectoryWatcher.getDefault().unwatch(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        loading = new HashMap<Path,FutureTask<Listing>>();
+    }
+
+    /**
+     * @return the cache shared by the whole file manager; its size is set by
+     *     -Dfilemanager.directoryCache.size=<n>
+     */
+    public static synchronized DirectoryCache getDefault(){
+        if (instance == null){
+            instance = new DirectoryCache(Integer.getInteger("filemanager.directoryCache.size", DEFAULT_CAPACITY));
+            DirectoryWatcher.getDefault().addListener(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * @param directory a directory, which may be inside an archive
+     * @return the directory's listing, read if it isn't cached or has changed
+     * @throws IOException if the directory can't be listed
+     */
+    public Listing get(Path directory) throws IOException {
+        FileManagerEvents.ListDirectory event = new FileManagerEvents.ListDirectory();
+        event.begin();
+        Listing listing = fetch(directory, event);
+        if (event.shouldCommit()){
+            event.directory = PathResolver.toAddress(directory);
+            event.entries = listing.size();
+            event.commit();
+        }
+        return listing;
+    }
+
+    /**
+     * See get().
+     * @param event marked as cached if the listing comes from the cache
+     */
+    private Listing fetch(final Path directory, FileManagerEvents.ListDirectory event) throws IOException {
+        final long modified = Files.getLastModifiedTime(directory).toMillis();
+        FutureTask<Listing> task;
+        boolean reader = false;
+        long readGeneration;
+        synchronized (this){
+            Listing listing = listings.get(directory);
+            if (listing != null && listing.modified == modified){
+                hits++;
+                MetricsRegistry.increment(MetricsRegistry.LISTING_CACHE_HITS);
+                event.cached = true;
+                return listing;
+            }
+            misses++;
+            MetricsRegistry.increment(MetricsRegistry.LISTING_CACHE_MISSES);
+            readGeneration = generation;
+            task = loading.get(directory);
+            if (task == null){
+                task = new FutureTask<Listing>(new Callable<Listing>(){
+                    @Override
+                    public Listing call() throws IOException {
+                        return read(directory, modified);
+                    }
+                });
+                loading.put(directory, task);
+                reader = true;
+            }
+        }
+        if (reader){
+            // Watch first, so nothing that changes while listing is missed.
+            DirectoryWatcher.getDefault().watch(directory);
+            task.run();
+        }
+        try{
+            Listing listing = task.get();
+            if (reader){
+                synchronized (this){
+                    loading.remove(directory);
+                    if (generation == readGeneration){
+                        listings.put(directory, listing);
+                    }
+                    else if (!listings.containsKey(directory)){
+                        // Invalidated while it was read, so not cached; don't keep watching it.
+                        DirectoryWatcher.getDefault().unwatch(directory);
+                    }
+                }
+            }
+            return listing;
+        }
+        catch (ExecutionException ee){
+            if (reader){
+                synchronized (this){
+                    loading.remove(directory);
+                    if (!listings.containsKey(directory)){
+                        DirectoryWatcher.getDefault().unwatch(directory);
+                    }
+                }
+            }
+            if (ee.getCause() instanceof IOException){
+                throw (IOException) ee.getCause();
+            }
+            if (ee.getCause() instanceof RuntimeException){
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new IOException(ee.getCause());
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing " + directory);
+        }
+    }
+
+    /**
+     * Lists a directory the same way get() does, without caching or watching
+     * it. For one-off listings, such as those of the command line.
+     * @param directory a directory, which may be inside an archive
+     * @return the directory's listing
+     * @throws IOException if the directory can't be listed
+     */
+    public static Listing list(Path directory) throws IOException {
+        return read(directory, Files.getLastModifiedTime(directory).toMillis());
+    }
+
+    /**
+     * Forgets the listing of a directory, and stops watching it until it is
+     * listed again.
+     * @param directory the directory
+     */
+    public synchronized void invalidate(Path directory){
+        generation++;
+        if (listings.remove(directory) != null){
+            DirectoryWatcher.getDefault().unwatch(directory);
+        }
+    }
+
+    /**
+     * Forgets the listing of the directory a path is in.
+     * @param path a path that changed
+     */
+    public void invalidateParent(Path path){
+        if (path.getParent() != null){
+            invalidate(path.getParent());
+        }
+    }
+
+    /**
+     * Forgets every listing, and stops watching the directories. Called
+     * after operations that may change many directories.
+     */
+    public synchronized void invalidateAll(){
+        generation++;
+        for (Path directory : listings.keySet()){
+            DirectoryWatcher.getDefault().unwatch(directory);
+        }
+        listings.clear();
+    }
+
+    /**
+     * @return the number of listings served from the cache
+     */
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    /**
+     * @return the number of listings read from the file system, or waited for
+     */
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /**
+     * Overridden DirectoryWatcher.Listener method. Forgets the directory's
+     * listing, and what PathStatusCache knows about the entry.
+     * @param directory the directory that changed
+     * @param entry the entry that changed, or null
+     */
+    @Override
+    public void changed(Path directory, Path entry){
+        invalidate(directory);
+        if (entry != null){
+            PathStatusCache.getDefault().invalidate(entry);
+        }
+        else{
+            PathStatusCache.getDefault().invalidateAll();
+        }
+    }
+
+    /**
+     * Lists a directory and reads the attributes of its entries.
+     */
+    private static Listing read(Path directory, long modified) throws IOException {
+        PathResolver.acquire(directory);
+        try{
+            return readHeld(directory, modified);
+        }
+        finally{
+            PathResolver.release(directory);
+        }
+    }
+
+    /**
+     * See read(); the directory's archive, if it is in one, is held open.
+     */
+    private static Listing readHeld(Path directory, long modified) throws IOException {
+        long started = System.nanoTime();
+        List<Path> entries = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+            for (Path entry : stream){
+                entries.add(entry);
+            }
+        }
+        final Path[] paths = entries.toArray(new Path[entries.size()]);
+        final BasicFileAttributes[] attributes = new BasicFileAttributes[paths.length];
+        FileManagerEvents.ReadAttributes event = new FileManagerEvents.ReadAttributes();
+        event.begin();
+        event.threads = 1;
+        if (paths.length <= PARALLEL_THRESHOLD){
+            readAttributes(paths, attributes, 0, paths.length);
+        }
+        else{
+            // Split the entries between the shared threads; this thread reads the first part.
+            int parts = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(),
+                    paths.length / PARALLEL_THRESHOLD));
+            int per = (paths.length + parts - 1) / parts;
+            event.threads = (paths.length + per - 1) / per;
+            List<Future<?>> others = new ArrayList<Future<?>>();
+            for (int start = per;start < paths.length;start += per){
+                final int from = start;
+                final int to = Math.min(paths.length, start + per);
+                others.add(IoExecutor.get().submit(new Runnable(){
+                    @Override
+                    public void run(){
+                        readAttributes(paths, attributes, from, to);
+                    }
+                }));
+            }
+            readAttributes(paths, attributes, 0, Math.min(per, paths.length));
+            for (Future<?> other : others){
+                try{
+                    other.get();
+                }
+                catch (ExecutionException ee){
+                    throw new IOException(ee.getCause());
+                }
+                catch (InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while listing " + directory);
+                }
+            }
+        }
+        if (event.shouldCommit()){
+            event.directory = PathResolver.toAddress(directory);
+            event.entries = paths.length;
+            for (BasicFileAttributes a : attributes){
+                if (a == null){
+                    event.failures++;
+                }
+            }
+            event.commit();
+        }
+        MetricsRegistry.record(MetricsRegistry.LIST_TIME, System.nanoTime() - started);
+        MetricsRegistry.increment(MetricsRegistry.DIRECTORIES_LISTED);
+        MetricsRegistry.add(MetricsRegistry.ENTRIES_LISTED, paths.length);
+        return new Listing(directory, paths, attributes, modified);
+    }
+
+    /**
+     * Reads the attributes of some of the entries. Symbolic links that can be
+     * followed get their target's attributes; entries that can't be read get null.
+     */
+    private static void readAttributes(Path[] paths, BasicFileAttributes[] attributes, int from, int to){
+        for (int i = from;i < to;i++){
+            try{
+                BasicFileAttributes a = Files.readAttributes(paths[i], BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (a.isSymbolicLink()){
+                    try{
+                        a = Files.readAttributes(paths[i], BasicFileAttributes.class);
+                    }
+                    catch (IOException ioe){
+                        // A broken link; show the link itself.
+                    }
+                }
+                attributes[i] = a;
+            }
+            catch (IOException | SecurityException e){
+                System.out.println(e.getMessage());
+                attributes[i] = null;
+            }
+        }
+    }
+}
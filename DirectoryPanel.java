@@ -1,7 +1,18 @@
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
-import java.io.File;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Modified JPanel that will display the contents of a directory (its files and
@@ -12,6 +23,8 @@ import java.io.File;
 public class DirectoryPanel extends JPanel implements MouseListener,ManagerObserver {
     // File path of the current directory; this is the one that will be displayed
     private String currentPath;
+    // The current directory as a Path, which may be inside an archive
+    private Path directory;
     // Contents of the current directory
     private FilePanel[] list;
     /* SpringLayout is the one we want for this one. Define the positions of
@@ -33,11 +46,28 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
     private Timer t;
     /**/
     private boolean wasDoubleClick;
+    /* Index of the FilePanel that was last clicked without shift held. Shift
+    clicks select every FilePanel between it and the clicked FilePanel. */
+    private int anchorIndex;
     /* Represents the attribute the FilePanels are currently sorted by. The 
     default value is "Name". Accepted values are gotten directly from
     FileManagerToolbar sort buttons, using their getText() methods. See
     FileManagerToolbar.mouseClicked() for an example. */
     private String currentSort;
+    // Folder sizes being computed for the directories shown.
+    private final ArrayList<FolderSizes.Request> sizeRequests = new ArrayList<FolderSizes.Request>();
+    // Refits the columns, and sorts again by size, as folder sizes arrive.
+    private Timer sizeTimer;
+    // Shows thumbnails of images in place of their icons; see ThumbnailCache.
+    private boolean thumbnails;
+    // Thumbnails being made for the rows in and just below the view.
+    private final HashMap<FilePanel,ThumbnailCache.Request> thumbnailRequests = new HashMap<FilePanel,ThumbnailCache.Request>();
+    // Asks for the thumbnails of the rows in view once scrolling pauses.
+    private Timer thumbnailTimer;
+    // Listens to the viewport this is scrolled in.
+    private ChangeListener scrollListener;
+    // Shows the start of the selected file; null if there is no preview pane.
+    private PreviewPane preview;
 
     /*
         Constructor
@@ -56,10 +86,17 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         
         // Get a list of the current directory's contents
         currentPath = mngr.getDirectory();
-        File currentDirectory = new File(currentPath);
-        String[] files = currentDirectory.list();
+        directory = mngr.getPath();
+        IoThrottle.beginForeground();
+        DirectoryCache.Listing files;
+        try{
+            files = listDirectory(directory);
+        }
+        finally{
+            IoThrottle.endForeground();
+        }
         
-        // The files come out of File.list() sorted by name.
+        // The files are sorted by name below.
         currentSort = "Name";
         
         /* Set up the DirectoryPanel's GUI components. If the directory is empty
@@ -67,10 +104,12 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         layout = new SpringLayout();
         setLayout(layout);
 
+        FileManagerEvents.BuildRows build = new FileManagerEvents.BuildRows();
+        build.begin();
         try{
-            list = new FilePanel[files.length];
-            for (int i = 0; i < files.length;i++){
-                list[i] = new FilePanel(files[i],this);
+            list = new FilePanel[files.size()];
+            for (int i = 0; i < files.size();i++){
+                list[i] = new FilePanel(files.getEntry(i),files.getAttributes(i),this);
             }
         }
         catch(NullPointerException npe){
@@ -78,6 +117,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
             list = new FilePanel[1];
             list[0] = new FilePanel("null",this);
         }
+        builtRows(build);
         
         // Hide FilePanels in an empty directory
         if (list.length == 0){
@@ -85,6 +125,8 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
             list[0] = new FilePanel("null",this);
             list[0].setVisible(false);
         }
+        requestFolderSizes();
+        requestFileTypes();
         
         this.addMouseListener(this);
         
@@ -92,16 +134,19 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         calling setAutoscrolls(). */
         jLabelFitToText();
         VERTICAL_FP_GAP = list[0].getPreferredSize().height;
-        size = new Dimension(list[0].getPreferredSize().width,files.length*VERTICAL_FP_GAP);
+        size = new Dimension(list[0].getPreferredSize().width,list.length*VERTICAL_FP_GAP);
         this.setPreferredSize(size);
         this.setAutoscrolls(true);
         
         // Arrange the FilePanels on the DirectoryPanel
+        FileManagerEvents.Layout arrange = new FileManagerEvents.Layout();
+        arrange.begin();
         for (int i = 0;i < list.length;i++){
             layout.putConstraint(SpringLayout.WEST, list[i], HORIZONTAL_FP_GAP, SpringLayout.WEST, this);
             layout.putConstraint(SpringLayout.NORTH, list[i], i*VERTICAL_FP_GAP, SpringLayout.NORTH, this);
             this.add(list[i]);
         }
+        laidOut(arrange, "arrange");
         
         // Set the background color.
         setBackground(Color.white);
@@ -116,6 +161,35 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
     public String getCurrentPath(){
         return currentPath;
     }
+
+    /**
+     * @return the directory currently being represented by the DirectoryPanel,
+     *         as a Path. Inside an archive, this is a Path in the archive.
+     */
+    public Path getDirectory(){
+        return directory;
+    }
+
+    /**
+     * Lists a directory through the shared DirectoryCache, so that another tab
+     * or window showing the same directory doesn't list it again. Directories
+     * inside archives are listed the same way as any other.
+     * @param dir the directory to list
+     * @return the directory's contents, or null if it can't be listed
+     */
+    private static DirectoryCache.Listing listDirectory(Path dir){
+        try{
+            return DirectoryCache.getDefault().get(dir);
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+            return null;
+        }
+        catch (SecurityException se){
+            System.out.println(se.getMessage());
+            return null;
+        }
+    }
     
     /**
      * @return the size of the panel
@@ -146,6 +220,58 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         return NOSOURCEFOUND;
     }
     
+    /**
+     * @return every selected FilePanel, in on-screen order
+     */
+    public FilePanel[] getSelectedPanels(){
+        int count = 0;
+        for (int i = 0;i < list.length;i++){
+            if (list[i].isSelected()) count++;
+        }
+        FilePanel[] selected = new FilePanel[count];
+        count = 0;
+        for (int i = 0;i < list.length;i++){
+            if (list[i].isSelected()){
+                selected[count++] = list[i];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @param pane the pane to show the selected file in, or null for none
+     */
+    public void setPreviewPane(PreviewPane pane){
+        preview = pane;
+        selectionChanged();
+    }
+
+    /**
+     * Shows the selected file in the preview pane, if exactly one is
+     * selected. To be called whenever the selection may have changed.
+     */
+    private void selectionChanged(){
+        if (preview == null){
+            return;
+        }
+        FilePanel[] selected = getSelectedPanels();
+        preview.setFile(selected.length == 1 && selected[0].isVisible() ? selected[0].getPath() : null);
+    }
+
+    /**
+     * Selects every FilePanel between two indices (inclusive) and deselects
+     * the rest. Used for shift clicks.
+     * @param from one end of the range
+     * @param to the other end of the range
+     */
+    public void selectRange(int from, int to){
+        int low = Math.min(from, to);
+        int high = Math.max(from, to);
+        for (int i = 0;i < list.length;i++){
+            list[i].select(i >= low && i <= high);
+        }
+    }
+
     /**
      * @param s string to be processed
      * @author Ian Ho-Sing-Loy
@@ -179,14 +305,32 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
      */
     @Override
     public void update(Subject s) {
+        // Background file operations back off while the user waits on this.
+        IoThrottle.beginForeground();
+        try{
+            list(s);
+        }
+        finally{
+            IoThrottle.endForeground();
+        }
+    }
+
+    /**
+     * Lists the Manager's current directory and rebuilds the FilePanels.
+     * See DirectoryPanel.update().
+     * @param s the Subject that was updated.
+     */
+    private void list(Subject s) {
 
         // Move to the new directory
-        File currentDirectory = new File(mngr.getDirectory());
         currentPath = mngr.getDirectory();
-        String[] files = currentDirectory.list();
+        directory = mngr.getPath();
+        DirectoryCache.Listing files = listDirectory(directory);
         
         // Hide & remove old FilePanels
         int i;
+        anchorIndex = 0;
+        cancelThumbnails();
         for (i = 0;i < list.length;i++){
             list[i].removeAll();
             list[i].removeMouseListener(this);
@@ -195,10 +339,12 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         }
         
         // Set up FilePanels for the new directory
+        FileManagerEvents.BuildRows build = new FileManagerEvents.BuildRows();
+        build.begin();
         try{
-            list = new FilePanel[files.length];
-            for (i = 0;i < files.length;i++){
-                list[i] = new FilePanel(files[i],this);
+            list = new FilePanel[files.size()];
+            for (i = 0;i < files.size();i++){
+                list[i] = new FilePanel(files.getEntry(i),files.getAttributes(i),this);
             }
         }
         /* Caught when unable to list contents/read data of a directory, but the
@@ -217,6 +363,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
             list[0] = new FilePanel("null",this);
             list[0].setVisible(false);
         }
+        builtRows(build);
         
         // Hide FilePanels in an empty directory
         if (list.length == 0){
@@ -224,18 +371,25 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
             list[0] = new FilePanel("null",this);
             list[0].setVisible(false);
         }
+        requestFolderSizes();
+        requestFileTypes();
+        if (thumbnails){
+            setIconSizes();
+        }
         
         jLabelFitToText();
-        System.out.println(i + " FilePanels generated / " + files.length + " files");
+        System.out.println(i + " FilePanels generated / " + (files == null ? 0 : files.size()) + " files");
         /* Configure the DirectoryPanel to be scrollable by setting the size and
         calling setAutoscrolls(). */
         jLabelFitToText();
         VERTICAL_FP_GAP = list[0].getPreferredSize().height;
-        size = new Dimension(list[0].getPreferredSize().width,files.length*VERTICAL_FP_GAP);
+        size = new Dimension(list[0].getPreferredSize().width,list.length*VERTICAL_FP_GAP);
         this.setPreferredSize(size);
         this.setAutoscrolls(true);
         
         // Arrange the FilePanels on the DirectoryPanel
+        FileManagerEvents.Layout arrange = new FileManagerEvents.Layout();
+        arrange.begin();
         for (i = 0;i < list.length;i++){
             layout.putConstraint(SpringLayout.WEST, list[i], HORIZONTAL_FP_GAP, SpringLayout.WEST, this);
             layout.putConstraint(SpringLayout.NORTH, list[i], i*VERTICAL_FP_GAP, SpringLayout.NORTH, this);
@@ -244,6 +398,304 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         
         revalidate();
         doLayout();
+        laidOut(arrange, "arrange");
+        if (thumbnails){
+            thumbnailsChanged();
+        }
+        selectionChanged();
+    }
+    
+    /**
+     * Asks FolderSizes for the size of every directory shown. Sizes that are
+     * cached are shown at once, the rest as they are computed. Sizes still
+     * being computed for the directory shown before are cancelled.
+     */
+    private void requestFolderSizes(){
+        cancelFolderSizes();
+        FolderSizes sizes = FolderSizes.getDefault();
+        for (int i = 0;i < list.length;i++){
+            final FilePanel fp = list[i];
+            if (!fp.isDirectory() || fp.getPath() == null){
+                continue;
+            }
+            FolderSizes.Total total = sizes.getCached(fp.getPath());
+            if (total != null){
+                fp.setFolderSize(total);
+                continue;
+            }
+            sizeRequests.add(sizes.request(fp.getPath(), new FolderSizes.Listener(){
+                @Override
+                public void sized(Path folder, final FolderSizes.Total total){
+                    SwingUtilities.invokeLater(new Runnable(){
+                        @Override
+                        public void run(){
+                            // The FilePanel may have been replaced since.
+                            if (fp.getParent() == DirectoryPanel.this){
+                                fp.setFolderSize(total);
+                                folderSizesChanged();
+                            }
+                        }
+                    });
+                }
+            }));
+        }
+    }
+    
+    private void cancelFolderSizes(){
+        for (FolderSizes.Request request : sizeRequests){
+            request.cancel();
+        }
+        sizeRequests.clear();
+    }
+
+    /**
+     * Stops the folder sizes, thumbnails and previews this panel has running
+     * in the background, and stops observing its Manager. To be called when
+     * its tab is closed.
+     */
+    public void dispose(){
+        mngr.detach(this);
+        cancelFolderSizes();
+        cancelThumbnails();
+        if (sizeTimer != null){
+            sizeTimer.stop();
+        }
+        if (thumbnailTimer != null){
+            thumbnailTimer.stop();
+        }
+        if (t != null){
+            t.stop();
+        }
+        if (preview != null){
+            preview.dispose();
+            preview = null;
+        }
+    }
+
+    /**
+     * Shows the types of files without an extension, sniffed from their
+     * contents in the background; see FileTypeRegistry.
+     */
+    private void requestFileTypes(){
+        FileTypeRegistry types = FileTypeRegistry.getDefault();
+        if (!types.isSniffing()){
+            return;
+        }
+        for (int i = 0;i < list.length;i++){
+            final FilePanel fp = list[i];
+            if (!fp.needsSniffing()){
+                continue;
+            }
+            String type = types.getCached(fp.getPath(), fp.getDateModified());
+            if (type != null){
+                if (!type.equals(FileTypeRegistry.UNKNOWN)){
+                    fp.setSniffedType(type);
+                }
+                continue;
+            }
+            types.sniffLater(fp.getPath(), fp.getDateModified(), new FileTypeRegistry.Listener(){
+                @Override
+                public void sniffed(Path file, final String type){
+                    if (type == null){
+                        return;
+                    }
+                    SwingUtilities.invokeLater(new Runnable(){
+                        @Override
+                        public void run(){
+                            // The FilePanel may have been replaced since.
+                            if (fp.getParent() == DirectoryPanel.this){
+                                fp.setSniffedType(type);
+                                folderSizesChanged();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+    
+    /**
+     * Shows thumbnails of images in place of their icons, or stops. Rows are
+     * made taller to fit them.
+     * @param on true to show thumbnails
+     */
+    public void setThumbnails(boolean on){
+        thumbnails = on;
+        if (!on){
+            cancelThumbnails();
+        }
+        setIconSizes();
+        VERTICAL_FP_GAP = list[0].getPreferredSize().height;
+        jLabelFitToText();
+        size = new Dimension(list[0].getPreferredSize().width,list.length*VERTICAL_FP_GAP);
+        refresh();
+        thumbnailsChanged();
+    }
+
+    /**
+     * @return true if thumbnails are shown in place of icons
+     */
+    public boolean isShowingThumbnails(){
+        return thumbnails;
+    }
+
+    private void setIconSizes(){
+        int iconSize = thumbnails ? ThumbnailCache.getDefault().getSize() : 0;
+        for (int i = 0;i < list.length;i++){
+            list[i].setIconSize(iconSize);
+        }
+    }
+
+    /**
+     * Overridden JComponent method. Starts listening to the viewport this is
+     * scrolled in, to show the thumbnails of the rows scrolled into view.
+     */
+    @Override
+    public void addNotify(){
+        super.addNotify();
+        if (getParent() instanceof JViewport){
+            if (scrollListener == null){
+                scrollListener = new ChangeListener(){
+                    @Override
+                    public void stateChanged(ChangeEvent e){
+                        if (thumbnails){
+                            thumbnailsChanged();
+                        }
+                    }
+                };
+            }
+            JViewport viewport = (JViewport) getParent();
+            viewport.removeChangeListener(scrollListener);
+            viewport.addChangeListener(scrollListener);
+        }
+    }
+
+    /**
+     * Asks for thumbnails 100 ms after the last scroll or listing, so rows
+     * that are scrolled past quickly are never asked for.
+     */
+    private void thumbnailsChanged(){
+        if (thumbnailTimer == null){
+            thumbnailTimer = new Timer(100, new ActionListener(){
+                @Override
+                public void actionPerformed(ActionEvent e){
+                    requestThumbnails();
+                }
+            });
+            thumbnailTimer.setRepeats(false);
+        }
+        thumbnailTimer.restart();
+    }
+
+    /**
+     * Asks for the thumbnails of the images in view, top to bottom, then for
+     * those in the screenful below, and cancels those no longer near the view.
+     */
+    private void requestThumbnails(){
+        if (!thumbnails){
+            return;
+        }
+        Rectangle visible = getVisibleRect();
+        int first = Math.max(0, visible.y / VERTICAL_FP_GAP);
+        int last = Math.min(list.length - 1, (visible.y + visible.height) / VERTICAL_FP_GAP);
+        int ahead = Math.min(list.length - 1, last + (last - first + 1));
+
+        Set<FilePanel> near = new HashSet<FilePanel>();
+        for (int i = first;i <= ahead;i++){
+            near.add(list[i]);
+        }
+        Iterator<Map.Entry<FilePanel,ThumbnailCache.Request>> requests = thumbnailRequests.entrySet().iterator();
+        while (requests.hasNext()){
+            Map.Entry<FilePanel,ThumbnailCache.Request> request = requests.next();
+            if (!near.contains(request.getKey())){
+                request.getValue().cancel();
+                requests.remove();
+            }
+        }
+
+        ThumbnailCache cache = ThumbnailCache.getDefault();
+        for (int i = first;i <= ahead;i++){
+            final FilePanel fp = list[i];
+            if (!fp.canShowThumbnail() || fp.hasThumbnail() || thumbnailRequests.containsKey(fp)){
+                continue;
+            }
+            long length = fp.getFileSize().longValue();
+            BufferedImage cached = cache.getCached(fp.getPath(), fp.getDateModified(), length);
+            if (cached != null){
+                fp.setThumbnail(cached);
+                continue;
+            }
+            thumbnailRequests.put(fp, cache.request(fp.getPath(), fp.getDateModified(), length, new ThumbnailCache.Listener(){
+                @Override
+                public void thumbnailReady(Path file, final BufferedImage thumbnail){
+                    SwingUtilities.invokeLater(new Runnable(){
+                        @Override
+                        public void run(){
+                            thumbnailRequests.remove(fp);
+                            // The FilePanel may have been replaced since.
+                            if (thumbnails && fp.getParent() == DirectoryPanel.this){
+                                fp.setThumbnail(thumbnail);
+                            }
+                        }
+                    });
+                }
+            }));
+        }
+    }
+
+    private void cancelThumbnails(){
+        for (ThumbnailCache.Request request : thumbnailRequests.values()){
+            request.cancel();
+        }
+        thumbnailRequests.clear();
+    }
+
+    /**
+     * Refits the columns to the folder sizes and file types that have
+     * arrived, and sorts again if sorted by size. Runs at most four times a
+     * second, however many arrive.
+     */
+    private void folderSizesChanged(){
+        if (sizeTimer == null){
+            sizeTimer = new Timer(250, new ActionListener(){
+                @Override
+                public void actionPerformed(ActionEvent e){
+                    jLabelFitToText();
+                    if ("Size".equals(currentSort)){
+                        sortBySize();
+                    }
+                    refresh();
+                }
+            });
+            sizeTimer.setRepeats(false);
+        }
+        if (!sizeTimer.isRunning()){
+            sizeTimer.start();
+        }
+    }
+    
+    /**
+     * Records the FilePanels just built in a flight recording; see
+     * FileManagerEvents.
+     */
+    private void builtRows(FileManagerEvents.BuildRows event){
+        if (event.shouldCommit()){
+            event.directory = currentPath;
+            event.rows = list.length;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Records a layout pass in a flight recording; see FileManagerEvents.
+     * @param pass fitColumns or arrange
+     */
+    private void laidOut(FileManagerEvents.Layout event, String pass){
+        if (event.shouldCommit()){
+            event.pass = pass;
+            event.rows = list.length;
+            event.commit();
+        }
     }
     
     /**
@@ -272,15 +724,27 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
      * @author Ian Ho-Sing-Loy
      */
     public void search(String searchKey){
+        FileManagerEvents.Search event = new FileManagerEvents.Search();
+        event.begin();
+        int matches = 0;
 
         for (int i = 0; i < list.length;i++){
-            if (list[i].getFileName().toLowerCase().contains(searchKey.toLowerCase())){
+            if (FileQuery.matches(list[i].getFileName(), searchKey)){
                 list[i].select(true);
+                matches++;
             }
             else{
                 list[i].select(false);
             }
         }
+        selectionChanged();
+        
+        if (event.shouldCommit()){
+            event.key = searchKey;
+            event.entries = list.length;
+            event.matches = matches;
+            event.commit();
+        }
     }
 
     /**
@@ -289,6 +753,9 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
      * @author Dan Tran
      */
     public void refresh(){
+        FileManagerEvents.Layout event = new FileManagerEvents.Layout();
+        event.begin();
+        
         // After the sorting is done, rearrange the FilePanels on-screen.
         for (int i = 0; i < list.length; i++) {
             // Remove old graphical constraints for the FilePanel
@@ -302,6 +769,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         // Reset the DirectoryPanel
         revalidate();
         doLayout();
+        laidOut(event, "arrange");
     }
 
     /**
@@ -314,6 +782,8 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
      * @author Ian Ho-Sing-Loy
      */
     public void jLabelFitToText(){
+        FileManagerEvents.Layout event = new FileManagerEvents.Layout();
+        event.begin();
         int maxFileNameWidth = 0;
         int maxTypeWidth = 0;
         int maxSizeWidth = 0;
@@ -368,6 +838,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
 
         // Resize the DirectoryPanel appropriately.
         setPreferredSize(new Dimension(list[0].getPreferredSize().width,list.length*VERTICAL_FP_GAP));
+        laidOut(event, "fitColumns");
     }
 
     /*
@@ -388,8 +859,25 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
      */
     @Override
     public void sort(Subject s) {
+        IoThrottle.beginForeground();
+        try{
+            sortList();
+        }
+        finally{
+            IoThrottle.endForeground();
+        }
+    }
+
+    /**
+     * Sorts the FilePanels by the Manager's sort attribute. See
+     * DirectoryPanel.sort(Subject).
+     */
+    private void sortList() {
         if (list.length > 1){
             String newSort = mngr.getSortAttribute();
+            FileManagerEvents.Sort event = new FileManagerEvents.Sort();
+            event.begin();
+            long start = System.nanoTime();
             if (newSort.equals("Type")){
                 this.sortByType();
             } else if(newSort.equals("Name")){
@@ -402,6 +890,14 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                 this.sortByDateCreated();
             }
             currentSort = newSort;
+            long nanos = System.nanoTime() - start;
+            MetricsRegistry.record(MetricsRegistry.SORT_TIME, nanos);
+            MetricsRegistry.record(MetricsRegistry.SORT_TIME + "." + newSort, nanos);
+            if (event.shouldCommit()){
+                event.attribute = newSort;
+                event.entries = list.length;
+                event.commit();
+            }
             
             // After the sorting is done, rearrange the FilePanels on-screen.
             refresh();
@@ -430,7 +926,8 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                     }
                 }
             } else if (i == list.length - 1){
-                partition = i;
+                // If the last one is a directory, they all are.
+                partition = list[i].isDirectory() ? list.length : i;
                 return partition;
             }
         }
@@ -461,6 +958,9 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
     public void sortBySize(){
         int partition = this.sortFileDirectory();
 
+        // Sort folder sizes; folders whose size isn't known yet go last.
+        quickSort(list, 0, partition - 1, 2);
+
         // Sort file sizes
         quickSort(list, partition, list.length - 1, 2);
     } // Code 2
@@ -520,8 +1020,10 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
      * @param code execute sort based on parameters associated by the code
      */
     public void quickSort(FilePanel list[], int begin, int end, int code) {
-        // If the begin and end indices are the same, the selection has only one element
-        if (begin != end) {
+        /* If the begin and end indices are the same, the selection has only one
+        element. If end is before begin, the selection is empty, as for the
+        directories in a directory that only holds files. */
+        if (begin < end) {
             // Record the begin and end indices before using them
             int startIndex = begin;
             int endIndex = end;
@@ -652,6 +1154,9 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
             // Get the number of clicks. Credit to Dan Tran
             final int CLICKS = e.getClickCount();
             final int BUTTON = e.getButton();
+            // Control clicks add to the selection; shift clicks select a range.
+            final boolean CONTROL = e.isControlDown();
+            final boolean SHIFT = e.isShiftDown();
 
             // Double click (with left mouse button)
             if (CLICKS == 2 && BUTTON == java.awt.event.MouseEvent.BUTTON1){
@@ -664,11 +1169,13 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                     for (int i = 0;i < list.length;i++){
                         list[i].select(false);
                     }
+                    selectionChanged();
                 }
 
                 /* If the double click was on a FilePanel, open the file. */
                 else{
-                    if (list[sourceIndex].isDirectory())
+                    // Archives open like folders; see PathResolver.
+                    if (list[sourceIndex].isDirectory() || list[sourceIndex].isBrowsableArchive())
                     {
                         try{
                             if (mngr.canVisit(list[sourceIndex].getFullFileName())){
@@ -714,6 +1221,19 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                                     }
                                 }
 
+                                /* A control click toggles the clicked FilePanel without
+                                changing the rest of the selection. */
+                                else if (CONTROL) {
+                                    list[sourceIndex].select(!list[sourceIndex].isSelected());
+                                    anchorIndex = sourceIndex;
+                                }
+
+                                /* A shift click selects everything between the last
+                                clicked FilePanel and this one. */
+                                else if (SHIFT && anchorIndex < list.length) {
+                                    selectRange(anchorIndex, sourceIndex);
+                                }
+
                                 /* If file pane was initially selected and the filename was single
                                 clicked on the second time, rename */
                                 else if (list[sourceIndex].isSelected() && mngr.canVisit(list[sourceIndex].getFullFileName())
@@ -741,15 +1261,31 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                                     newName == null if the user cancelled. */
                                     if (newName != null && !newName.isEmpty()) {
                                         String extension = "";
-                                        File source = new File(list[sourceIndex].getFullFileName());
+                                        Path source = list[sourceIndex].getPath();
+                                        String oldName = list[sourceIndex].getFileName();
 
-                                        if(!list[sourceIndex].isDirectory()){
-                                            extension = list[sourceIndex].getFileName().substring(list[sourceIndex].getFileName().lastIndexOf("."));
+                                        if(!list[sourceIndex].isDirectory() && oldName.lastIndexOf(".") >= 0){
+                                            extension = oldName.substring(oldName.lastIndexOf("."));
                                         }
 
                                         newName += extension;
-                                        source.renameTo(new File(currentPath + '\\' + newName));
-                                        list[sourceIndex].setText(newName);
+                                        try{
+                                            Files.move(source, source.resolveSibling(newName));
+                                            PathStatusCache.getDefault().invalidate(source);
+                                            DirectoryCache.getDefault().invalidateParent(source);
+                                            FolderSizes.getDefault().invalidate(source);
+                                            list[sourceIndex].setText(newName);
+                                            if (!PathResolver.isDefault(source)){
+                                                // Write the change into the archive, then list it again.
+                                                PathResolver.commit(source);
+                                                update(mngr);
+                                            }
+                                        }
+                                        catch (IOException ioe){
+                                            System.out.println(ioe.getMessage());
+                                            JOptionPane.showMessageDialog(null, "Could not rename: " + ioe.getMessage(),
+                                                    "Rename", JOptionPane.ERROR_MESSAGE);
+                                        }
                                     }
                                 }
 
@@ -763,6 +1299,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                                             list[i].select(true);
                                         }
                                     }
+                                    anchorIndex = sourceIndex;
                                 }
                             }
 
@@ -774,6 +1311,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                                     for (int i = 0; i < list.length; i++) {
                                         list[i].select(false);
                                     }
+                                    showDirectoryMenu(e);
 
                                 } else {
                                     /* If the right click was on an unselected FilePanel,
@@ -795,15 +1333,42 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                                         menu. */
                                         JPopupMenu rightClickFileMenu = new JPopupMenu("File");
 
-                                        /* Add options to the menu (open, open with, rename, etc...) */
-                                        OpenAction open = new OpenAction("FilePanel", list[sourceIndex]);
+                                        /* Add options to the menu (open, open with, rename, etc...)
+                                        Each action covers every selected FilePanel, so acting on
+                                        many files is a single job. */
+                                        FilePanel[] selected = getSelectedPanels();
+                                        OpenAction open = new OpenAction("FilePanels", selected);
                                         rightClickFileMenu.add("Open").setAction(open);
-                                        MoveAction moveTo = new MoveAction("FilePanel", list[sourceIndex], currentPath);
+                                        final FilePanel clicked = list[sourceIndex];
+                                        final Window window = (Window) SwingUtilities.getAncestorOfClass(Window.class, DirectoryPanel.this);
+                                        if (window != null && (clicked.isDirectory() || clicked.isBrowsableArchive())){
+                                            JMenuItem newTabItem = rightClickFileMenu.add("Open in New Tab");
+                                            newTabItem.addActionListener(new ActionListener(){
+                                                @Override
+                                                public void actionPerformed(ActionEvent e1){
+                                                    window.openTab(clicked.getFullFileName());
+                                                }
+                                            });
+                                        }
+                                        MoveAction moveTo = new MoveAction("FilePanels", selected, currentPath);
                                         rightClickFileMenu.add("Move").setAction(moveTo);
-                                        CopyAction copyTo = new CopyAction("FilePanel", list[sourceIndex], currentPath);
+                                        CopyAction copyTo = new CopyAction("FilePanels", selected, currentPath);
                                         rightClickFileMenu.add("Copy").setAction(copyTo);
-                                        DeleteAction delete = new DeleteAction("FilePanel", list[sourceIndex]);
+                                        CompressAction compress = new CompressAction("FilePanels", selected, currentPath);
+                                        rightClickFileMenu.add("Compress").setAction(compress);
+                                        // Extract Here is only offered when an archive is selected.
+                                        for (int i = 0;i < selected.length;i++){
+                                            if (!selected[i].isDirectory() && selected[i].getPath() != null
+                                                    && ArchiveExtractor.isArchive(selected[i].getPath())){
+                                                ExtractAction extract = new ExtractAction("FilePanels", selected, currentPath);
+                                                rightClickFileMenu.add("Extract Here").setAction(extract);
+                                                break;
+                                            }
+                                        }
+                                        DeleteAction delete = new DeleteAction("FilePanels", selected);
                                         rightClickFileMenu.add("Delete").setAction(delete);
+                                        DeleteAction deleteNow = new DeleteAction("FilePanels", selected, true);
+                                        rightClickFileMenu.add("Delete Permanently").setAction(deleteNow);
 
 
                                         JComponent jc = (JComponent) e.getSource();
@@ -811,6 +1376,7 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
                                     }
                                 }
                             }
+                            selectionChanged();
                         }
                     }
                 });
@@ -822,6 +1388,104 @@ public class DirectoryPanel extends JPanel implements MouseListener,ManagerObser
         }
     }
 
+    /**
+     * Shows the right click menu for the DirectoryPanel itself, with options to
+     * refresh the listing, undo the last delete, manage the trash, show
+     * thumbnails, see what fills the disk, find duplicate files and see how
+     * long the observers take to update.
+     * @param e the right click that opens the menu
+     */
+    private void showDirectoryMenu(MouseEvent e){
+        JPopupMenu rightClickDirectoryMenu = new JPopupMenu("Directory");
+
+        JMenuItem refreshItem = rightClickDirectoryMenu.add("Refresh");
+        refreshItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                PathStatusCache.getDefault().invalidateAll();
+                DirectoryCache.getDefault().invalidateAll();
+                FolderSizes.getDefault().invalidateAll();
+                update(mngr);
+            }
+        });
+
+        final TrashBin trash = TrashBin.getDefault();
+        JMenuItem undoItem = rightClickDirectoryMenu.add("Undo Delete");
+        undoItem.setEnabled(trash.getPendingCount() > 0);
+        undoItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                try{
+                    for (TrashBin.Entry restored : trash.undo()){
+                        System.out.println("Restored " + restored.getOriginal());
+                    }
+                }
+                catch (java.io.IOException ioe){
+                    JOptionPane.showMessageDialog(DirectoryPanel.this, "Could not undo: " + ioe.getMessage(),
+                            "Undo Delete", JOptionPane.ERROR_MESSAGE);
+                }
+                update(mngr);
+            }
+        });
+
+        rightClickDirectoryMenu.addSeparator();
+        // Trash statistics, for information only.
+        JMenuItem trashInfo = rightClickDirectoryMenu.add(String.format("Trash: %d item(s), %.1f MB",
+                trash.getPendingCount(), trash.getPendingBytes() / 1e6));
+        trashInfo.setEnabled(false);
+        JMenuItem purgeInfo = rightClickDirectoryMenu.add(String.format("Purged %d file(s) at %.0f files/s",
+                trash.getPurgedFiles(), trash.getPurgeRate()));
+        purgeInfo.setEnabled(false);
+        JMenuItem emptyItem = rightClickDirectoryMenu.add("Empty Trash Now");
+        emptyItem.setEnabled(trash.getPendingCount() > 0);
+        emptyItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                trash.emptyNow();
+            }
+        });
+
+        rightClickDirectoryMenu.addSeparator();
+        final JCheckBoxMenuItem thumbnailsItem = new JCheckBoxMenuItem("Show Thumbnails", thumbnails);
+        thumbnailsItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                setThumbnails(thumbnailsItem.isSelected());
+            }
+        });
+        rightClickDirectoryMenu.add(thumbnailsItem);
+        JMenuItem usageItem = rightClickDirectoryMenu.add("Disk Usage...");
+        usageItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                DiskUsageView.show(DirectoryPanel.this, mngr);
+            }
+        });
+        JMenuItem duplicatesItem = rightClickDirectoryMenu.add("Find Duplicates...");
+        duplicatesItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                DuplicatesView.show(DirectoryPanel.this, mngr);
+            }
+        });
+        JMenuItem timingsItem = rightClickDirectoryMenu.add("Notification Timings...");
+        timingsItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                NotificationStats.showDialog(DirectoryPanel.this);
+            }
+        });
+        JMenuItem stallsItem = rightClickDirectoryMenu.add("EDT Stalls...");
+        stallsItem.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e1){
+                EdtWatchdog.showDialog(DirectoryPanel.this);
+            }
+        });
+
+        rightClickDirectoryMenu.show(this, e.getX(), e.getY());
+    }
+
     /**
      * Overridden MouseListener method.
      * @param e the MouseEvent to be processed.
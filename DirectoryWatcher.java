@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * One WatchService for the whole file manager, shared by every tab and
+ * window. Directories are registered while something (DirectoryCache) holds
+ * information about them, and listeners hear about every entry that is
+ * created, deleted or modified, on the watcher's own thread.
+ *
+ * Only directories on the default file system can be watched. Directories
+ * inside archives, or on file systems that can't be watched, are simply not
+ * registered; watch() says so, and callers fall back on other checks.
+ */
+public class DirectoryWatcher {
+    /**
+     * Hears about changes to watched directories.
+     */
+    public interface Listener {
+        /**
+         * Called on the watcher's thread when something in a directory changes.
+         * @param directory the watched directory
+         * @param entry the entry that changed, or null if events were lost and
+         *     anything in the directory may have changed
+         */
+        void changed(Path directory, Path entry);
+    }
+
+    private static DirectoryWatcher instance;
+
+    private final Map<Path,WatchKey> keys;
+    private final List<Listener> listeners;
+    private WatchService service;
+    private boolean unavailable;
+
+    private DirectoryWatcher(){
+        keys = new HashMap<Path,WatchKey>();
+        listeners = new CopyOnWriteArrayList<Listener>();
+    }
+
+    /**
+     * @return the watcher shared by the whole file manager
+     */
+    public static synchronized DirectoryWatcher getDefault(){
+        if (instance == null){
+            instance = new DirectoryWatcher();
+        }
+        return instance;
+    }
+
+    /**
+     * @param listener a listener to tell about changes
+     */
+    public void addListener(Listener listener){
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener to stop telling about changes
+     */
+    public void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching a directory, if it isn't watched already.
+     * @param directory the directory
+     * @return true if the directory is being watched
+     */
+    public synchronized boolean watch(Path directory){
+        if (keys.containsKey(directory)){
+            return true;
+        }
+        if (!PathResolver.isDefault(directory) || !start()){
+            return false;
+        }
+        try{
+            WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(directory, key);
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException | SecurityException e){
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stops watching a directory.
+     * @param directory the directory
+     */
+    public synchronized void unwatch(Path directory){
+        WatchKey key = keys.remove(directory);
+        if (key != null){
+            key.cancel();
+        }
+    }
+
+    /**
+     * @return the number of directories being watched
+     */
+    public synchronized int getWatchedCount(){
+        return keys.size();
+    }
+
+    /**
+     * Opens the WatchService and starts its thread, the first time only.
+     * @return false if the default file system can't be watched
+     */
+    private boolean start(){
+        if (service != null || unavailable){
+            return service != null;
+        }
+        try{
+            service = FileSystems.getDefault().newWatchService();
+        }
+        catch (IOException | UnsupportedOperationException e){
+            System.out.println(e.getMessage());
+            unavailable = true;
+            return false;
+        }
+        Thread thread = new Thread(new Runnable(){
+            @Override
+            public void run(){
+                poll();
+            }
+        }, "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Waits for changes, forever, telling the listeners about each one.
+     */
+    private void poll(){
+        while (true){
+            WatchKey key;
+            try{
+                key = service.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e){
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            List<Path> changed = new ArrayList<Path>();
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()){
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW){
+                    overflow = true;
+                }
+                else{
+                    changed.add(directory.resolve((Path) event.context()));
+                }
+            }
+            if (overflow){
+                changed.clear();
+                changed.add(null);
+            }
+            for (Path entry : changed){
+                for (Listener listener : listeners){
+                    listener.changed(directory, entry);
+                }
+            }
+            if (!key.reset()){
+                // The directory is gone, or can no longer be watched, unless unwatch() cancelled the key.
+                boolean lost;
+                synchronized (this){
+                    lost = keys.get(directory) == key;
+                    if (lost){
+                        keys.remove(directory);
+                    }
+                }
+                if (lost){
+                    for (Listener listener : listeners){
+                        listener.changed(directory, null);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,576 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A scan of everything beneath a directory, for finding what fills a disk.
+ *
+ * Directories are scanned in parallel on a ForkJoinPool. Totals are added up
+ * while the scan runs: as soon as a directory has been listed, its files are
+ * added to its total and to the total of every directory above it, so the
+ * biggest directories can be seen long before the scan ends.
+ *
+ * Only directories are kept, as nodes numbered from 0 (the root) in
+ * parallel primitive arrays, with their names packed into one byte array.
+ * Files are only counted, so a scan of 10 million files in a million
+ * directories needs about 80 MB. The largest files are kept by name.
+ *
+ * Like du -x, the scan stays on the root's volume: a directory on another
+ * one (a mount point, such as /proc or a network share beneath /) is
+ * counted but not entered.
+ *
+ * Every method can be called while the scan is running, from any thread.
+ */
+public class DiskUsageScan {
+    // How many of the largest files are kept.
+    public static final int LARGEST_FILES = 100;
+
+    /**
+     * A file and its size; see getLargestFiles().
+     */
+    public static class FileSize {
+        private final String path;
+        private final long bytes;
+
+        FileSize(String path, long bytes){
+            this.path = path;
+            this.bytes = bytes;
+        }
+
+        public String getPath(){
+            return path;
+        }
+
+        public long getBytes(){
+            return bytes;
+        }
+    }
+
+    private final Path root;
+    private final ForkJoinPool pool;
+    private volatile boolean cancelled;
+    private long startNanos;
+    private volatile long endNanos;
+
+    // The nodes, one per directory. Guarded by this.
+    private int count;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] nameStart;
+    private int[] nameLength;
+    private long[] ownBytes;
+    private int[] ownFiles;
+    private long[] totalBytes;
+    private long[] totalFiles;
+    // Directories beneath each node (itself included) not yet scanned.
+    private int[] pending;
+    private boolean[] unreadable;
+    private byte[] names;
+    private int namesLength;
+    private long unreadableCount;
+    private long otherVolumeCount;
+    // The root's device (unix:dev) or FileStore, set when the scan starts; null if unknown.
+    private volatile Object rootVolume;
+    // False where there is no unix:dev, and FileStores are compared instead.
+    private volatile boolean unixDevices = true;
+    private final PriorityQueue<FileSize> largest;
+
+    /**
+     * @param root the directory to scan
+     */
+    public DiskUsageScan(Path root){
+        this.root = root.toAbsolutePath().normalize();
+        pool = new ForkJoinPool(Math.max(1, Integer.getInteger("filemanager.diskUsage.threads",
+                Runtime.getRuntime().availableProcessors())));
+        int capacity = 1024;
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        nameStart = new int[capacity];
+        nameLength = new int[capacity];
+        ownBytes = new long[capacity];
+        ownFiles = new int[capacity];
+        totalBytes = new long[capacity];
+        totalFiles = new long[capacity];
+        pending = new int[capacity];
+        unreadable = new boolean[capacity];
+        names = new byte[capacity * 16];
+        largest = new PriorityQueue<FileSize>(LARGEST_FILES + 1, new Comparator<FileSize>(){
+            @Override
+            public int compare(FileSize a, FileSize b){
+                return Long.compare(a.bytes, b.bytes);
+            }
+        });
+        String rootName = this.root.getFileName() == null ? this.root.toString() : this.root.getFileName().toString();
+        add(-1, rootName);
+    }
+
+    /**
+     * Starts scanning in the background.
+     */
+    public void start(){
+        startNanos = System.nanoTime();
+        pool.execute(new RecursiveAction(){
+            @Override
+            protected void compute(){
+                try{
+                    rootVolume = volumeOf(root);
+                }
+                catch (IOException | SecurityException e){
+                    System.out.println(e.getMessage());
+                }
+                try{
+                    new ScanTask(0, root).invoke();
+                }
+                finally{
+                    // Even if the scan failed, it's over.
+                    endNanos = System.nanoTime();
+                    pool.shutdown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the scan soon. What was scanned so far is kept.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /**
+     * @return true once the scan has finished or stopped after cancel()
+     */
+    public boolean isDone(){
+        return endNanos != 0;
+    }
+
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * @return how long the scan has been running, or ran
+     */
+    public long getElapsedNanos(){
+        long end = endNanos;
+        return (end != 0 ? end : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * @return the scanned directory
+     */
+    public Path getRootPath(){
+        return root;
+    }
+
+    /**
+     * @return the number of directories found so far, the root included
+     */
+    public synchronized int getNodeCount(){
+        return count;
+    }
+
+    /**
+     * @return the number of directories and files that couldn't be read
+     */
+    public synchronized long getUnreadableCount(){
+        return unreadableCount;
+    }
+
+    /**
+     * @return the number of directories on other volumes that weren't scanned
+     */
+    public synchronized long getOtherVolumeCount(){
+        return otherVolumeCount;
+    }
+
+    /**
+     * @return the device a path is on, or its FileStore where the file
+     *     system has no device numbers
+     */
+    private Object volumeOf(Path path) throws IOException {
+        if (unixDevices){
+            try{
+                return Files.getAttribute(path, "unix:dev", LinkOption.NOFOLLOW_LINKS);
+            }
+            catch (UnsupportedOperationException | IllegalArgumentException e){
+                unixDevices = false;
+            }
+        }
+        return Files.getFileStore(path);
+    }
+
+    /**
+     * @return true if a directory is on another volume than the root
+     */
+    private boolean onOtherVolume(Path directory){
+        if (rootVolume == null){
+            return false;
+        }
+        try{
+            return !rootVolume.equals(volumeOf(directory));
+        }
+        catch (IOException | SecurityException e){
+            // Listing it will fail, and be counted, if it can't be read.
+            return false;
+        }
+    }
+
+    /**
+     * @param node a node
+     * @return the directory's name
+     */
+    public synchronized String getName(int node){
+        return new String(names, nameStart[node], nameLength[node], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param node a node
+     * @return the directory's path
+     */
+    public Path getPath(int node){
+        List<String> parts = new ArrayList<String>();
+        synchronized (this){
+            for (int n = node;n > 0;n = parent[n]){
+                parts.add(new String(names, nameStart[n], nameLength[n], StandardCharsets.UTF_8));
+            }
+        }
+        Path path = root;
+        for (int i = parts.size() - 1;i >= 0;i--){
+            path = path.resolve(parts.get(i));
+        }
+        return path;
+    }
+
+    /**
+     * @param node a node
+     * @return its parent, or -1 for the root
+     */
+    public synchronized int getParent(int node){
+        return parent[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the size of the files directly in the directory
+     */
+    public synchronized long getOwnBytes(int node){
+        return ownBytes[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the number of files directly in the directory
+     */
+    public synchronized int getOwnFiles(int node){
+        return ownFiles[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the size of every file beneath the directory, so far
+     */
+    public synchronized long getTotalBytes(int node){
+        return totalBytes[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the number of files beneath the directory, so far
+     */
+    public synchronized long getTotalFiles(int node){
+        return totalFiles[node];
+    }
+
+    /**
+     * @param node a node
+     * @return true once everything beneath the directory has been scanned
+     */
+    public synchronized boolean isComplete(int node){
+        return pending[node] == 0;
+    }
+
+    /**
+     * @param node a node
+     * @return true if the directory couldn't be listed
+     */
+    public synchronized boolean isUnreadable(int node){
+        return unreadable[node];
+    }
+
+    /**
+     * @param node a node
+     * @return the directories in it found so far, largest first
+     */
+    public int[] getChildren(int node){
+        final long[] sizes;
+        Integer[] children;
+        synchronized (this){
+            int n = 0;
+            for (int c = firstChild[node];c != -1;c = nextSibling[c]){
+                n++;
+            }
+            children = new Integer[n];
+            n = 0;
+            for (int c = firstChild[node];c != -1;c = nextSibling[c]){
+                children[n++] = c;
+            }
+            sizes = new long[children.length];
+            for (int i = 0;i < children.length;i++){
+                sizes[i] = totalBytes[children[i]];
+            }
+        }
+        final Integer[] order = new Integer[children.length];
+        for (int i = 0;i < order.length;i++){
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b){
+                return Long.compare(sizes[b], sizes[a]);
+            }
+        });
+        int[] sorted = new int[children.length];
+        for (int i = 0;i < sorted.length;i++){
+            sorted[i] = children[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * @param path a directory beneath the root, or the root
+     * @return its node, or -1 if it hasn't been found (yet)
+     */
+    public int find(Path path){
+        Path relative;
+        try{
+            relative = root.relativize(path.toAbsolutePath().normalize());
+        }
+        catch (IllegalArgumentException iae){
+            return -1;
+        }
+        if (relative.toString().isEmpty()){
+            return 0;
+        }
+        if (relative.startsWith("..")){
+            return -1;
+        }
+        int node = 0;
+        synchronized (this){
+            for (int i = 0;i < relative.getNameCount() && node != -1;i++){
+                byte[] wanted = relative.getName(i).toString().getBytes(StandardCharsets.UTF_8);
+                int found = -1;
+                for (int c = firstChild[node];c != -1 && found == -1;c = nextSibling[c]){
+                    if (nameEquals(c, wanted)){
+                        found = c;
+                    }
+                }
+                node = found;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @return the largest files found so far, largest first
+     */
+    public List<FileSize> getLargestFiles(){
+        List<FileSize> files;
+        synchronized (this){
+            files = new ArrayList<FileSize>(largest);
+        }
+        Collections.sort(files, Collections.reverseOrder(largest.comparator()));
+        return files;
+    }
+
+    private boolean nameEquals(int node, byte[] wanted){
+        if (nameLength[node] != wanted.length){
+            return false;
+        }
+        for (int i = 0;i < wanted.length;i++){
+            if (names[nameStart[node] + i] != wanted[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a directory that hasn't been scanned yet. Called with the lock
+     * held, or from the constructor.
+     * @return its node
+     */
+    private int add(int parentNode, String name){
+        if (count == parent.length){
+            grow();
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (namesLength + bytes.length > names.length){
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + bytes.length));
+        }
+        System.arraycopy(bytes, 0, names, namesLength, bytes.length);
+        int node = count++;
+        nameStart[node] = namesLength;
+        nameLength[node] = bytes.length;
+        namesLength += bytes.length;
+        parent[node] = parentNode;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        if (parentNode != -1){
+            nextSibling[node] = firstChild[parentNode];
+            firstChild[parentNode] = node;
+        }
+        for (int n = node;n != -1;n = parent[n]){
+            pending[n]++;
+        }
+        return node;
+    }
+
+    private void grow(){
+        int capacity = parent.length * 2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        nameStart = Arrays.copyOf(nameStart, capacity);
+        nameLength = Arrays.copyOf(nameLength, capacity);
+        ownBytes = Arrays.copyOf(ownBytes, capacity);
+        ownFiles = Arrays.copyOf(ownFiles, capacity);
+        totalBytes = Arrays.copyOf(totalBytes, capacity);
+        totalFiles = Arrays.copyOf(totalFiles, capacity);
+        pending = Arrays.copyOf(pending, capacity);
+        unreadable = Arrays.copyOf(unreadable, capacity);
+    }
+
+    /**
+     * Records a listed directory: adds its files to its total and to those of
+     * the directories above it, and adds its subdirectories as nodes.
+     * @return the subdirectories' nodes
+     */
+    private synchronized int[] listed(int node, long bytes, int files, List<String> subdirectories,
+                                      List<FileSize> candidates, int errors, boolean failed, int otherVolumes){
+        ownBytes[node] = bytes;
+        ownFiles[node] = files;
+        unreadable[node] = failed;
+        unreadableCount += errors;
+        otherVolumeCount += otherVolumes;
+        for (int n = node;n != -1;n = parent[n]){
+            totalBytes[n] += bytes;
+            totalFiles[n] += files;
+        }
+        for (FileSize candidate : candidates){
+            largest.add(candidate);
+            if (largest.size() > LARGEST_FILES){
+                largest.poll();
+            }
+        }
+        int[] children = new int[subdirectories.size()];
+        for (int i = 0;i < children.length;i++){
+            children[i] = add(node, subdirectories.get(i));
+        }
+        return children;
+    }
+
+    /**
+     * Marks a directory as scanned, apart from its subdirectories.
+     */
+    private synchronized void finished(int node){
+        for (int n = node;n != -1;n = parent[n]){
+            pending[n]--;
+        }
+    }
+
+    /**
+     * @return the smallest size a file must have to be one of the largest
+     */
+    private synchronized long largestThreshold(){
+        return largest.size() < LARGEST_FILES ? 0 : largest.peek().bytes;
+    }
+
+    /**
+     * Lists one directory and forks a task for each subdirectory.
+     */
+    private class ScanTask extends RecursiveAction {
+        private final int node;
+        private final Path directory;
+
+        ScanTask(int node, Path directory){
+            this.node = node;
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute(){
+            if (cancelled){
+                finished(node);
+                return;
+            }
+            try{
+                IoThrottle.global().acquireOps(1);
+            }
+            catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+            long bytes = 0;
+            int files = 0;
+            int errors = 0;
+            int otherVolumes = 0;
+            boolean failed = false;
+            long threshold = largestThreshold();
+            List<String> subdirectories = new ArrayList<String>();
+            List<Path> subdirectoryPaths = new ArrayList<Path>();
+            List<FileSize> candidates = new ArrayList<FileSize>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+                for (Path entry : stream){
+                    try{
+                        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isDirectory() && onOtherVolume(entry)){
+                            otherVolumes++;
+                        }
+                        else if (attributes.isDirectory()){
+                            subdirectories.add(entry.getFileName().toString());
+                            subdirectoryPaths.add(entry);
+                        }
+                        else{
+                            bytes += attributes.size();
+                            files++;
+                            if (attributes.size() > threshold){
+                                candidates.add(new FileSize(entry.toString(), attributes.size()));
+                            }
+                        }
+                    }
+                    catch (IOException | SecurityException e){
+                        errors++;
+                    }
+                }
+            }
+            catch (IOException | DirectoryIteratorException | SecurityException e){
+                // What was listed before the error is kept.
+                errors++;
+                failed = true;
+            }
+            int[] children = listed(node, bytes, files, subdirectories, candidates, errors, failed, otherVolumes);
+            finished(node);
+            List<ScanTask> tasks = new ArrayList<ScanTask>(children.length);
+            for (int i = 0;i < children.length;i++){
+                tasks.add(new ScanTask(children[i], subdirectoryPaths.get(i)));
+            }
+            invokeAll(tasks);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A window showing what takes up the space beneath a directory.
+ *
+ * The directory is scanned by a DiskUsageScan. The table lists the folders in
+ * the folder being viewed, largest first, with their share of its size, and
+ * is refreshed twice a second while the scan runs, so the largest folders can
+ * be found before it ends. Double clicking a folder shows the folders in it
+ * from what was already scanned, without scanning again; Up goes back. The
+ * largest files found are listed below.
+ *
+ * Closing the window stops the scan.
+ */
+public class DiskUsageView extends JDialog {
+    // How often the table is refreshed while scanning, in milliseconds.
+    private static final int REFRESH_MILLIS = 500;
+
+    private final DiskUsageScan scan;
+    private final Manager mngr;
+    private final UsageModel model;
+    private final JTable table;
+    private final DefaultListModel<String> largestModel;
+    private final JList<String> largestList;
+    private final JLabel pathLabel;
+    private final JLabel statusLabel;
+    private final JButton upButton;
+    private final JButton stopButton;
+    private final Timer timer;
+    private List<DiskUsageScan.FileSize> largest;
+    // The node being viewed.
+    private int node;
+
+    /**
+     * Opens a disk usage window for the directory the Manager is in, and
+     * starts scanning it.
+     * @param parent the component the window is shown over
+     * @param mngr the Manager; Open goes to a folder in it
+     */
+    public static void show(Component parent, Manager mngr){
+        DiskUsageScan scan = new DiskUsageScan(mngr.getPath());
+        DiskUsageView view = new DiskUsageView(SwingUtilities.getWindowAncestor(parent), scan, mngr);
+        view.setLocationRelativeTo(parent);
+        view.setVisible(true);
+        scan.start();
+        view.timer.start();
+    }
+
+    /**
+     * @param owner the window that owns this one
+     * @param scan the scan to show
+     * @param mngr the Manager; Open goes to a folder in it
+     */
+    public DiskUsageView(java.awt.Window owner, DiskUsageScan scan, Manager mngr){
+        super(owner, "Disk Usage - " + scan.getRootPath(), ModalityType.MODELESS);
+        this.scan = scan;
+        this.mngr = mngr;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        upButton = new JButton("Up");
+        upButton.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                view(DiskUsageView.this.scan.getParent(node));
+            }
+        });
+        JButton openButton = new JButton("Open");
+        openButton.setToolTipText("Go to the selected folder in the file manager");
+        openButton.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                int row = table.getSelectedRow();
+                int selected = row >= 0 && model.rows[row] >= 0 ? model.rows[row] : node;
+                open(DiskUsageView.this.scan.getPath(selected));
+            }
+        });
+        stopButton = new JButton("Stop");
+        stopButton.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                DiskUsageView.this.scan.cancel();
+                stopButton.setEnabled(false);
+            }
+        });
+        pathLabel = new JLabel();
+        JPanel top = new JPanel(new BorderLayout(5, 0));
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        buttons.add(upButton);
+        buttons.add(openButton);
+        buttons.add(stopButton);
+        top.add(buttons, BorderLayout.WEST);
+        top.add(pathLabel, BorderLayout.CENTER);
+
+        model = new UsageModel();
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setAutoCreateRowSorter(false);
+        table.getColumnModel().getColumn(0).setPreferredWidth(260);
+        table.getColumnModel().getColumn(2).setPreferredWidth(160);
+        table.getColumnModel().getColumn(2).setCellRenderer(new ShareRenderer());
+        DefaultTableCellRenderer right = new DefaultTableCellRenderer();
+        right.setHorizontalAlignment(SwingConstants.RIGHT);
+        table.getColumnModel().getColumn(1).setCellRenderer(right);
+        table.getColumnModel().getColumn(3).setCellRenderer(right);
+        table.addMouseListener(new MouseAdapter(){
+            @Override
+            public void mouseClicked(MouseEvent e){
+                int row = table.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 2 && row >= 0 && model.rows[row] >= 0){
+                    view(model.rows[row]);
+                }
+            }
+        });
+
+        largestModel = new DefaultListModel<String>();
+        largestList = new JList<String>(largestModel);
+        largestList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        largestList.setToolTipText("Double click to go to the file's folder");
+        largestList.addMouseListener(new MouseAdapter(){
+            @Override
+            public void mouseClicked(MouseEvent e){
+                int index = largestList.locationToIndex(e.getPoint());
+                if (e.getClickCount() == 2 && index >= 0 && largest != null && index < largest.size()){
+                    Path file = java.nio.file.Paths.get(largest.get(index).getPath());
+                    open(file.getParent());
+                }
+            }
+        });
+        JPanel largestPanel = new JPanel(new BorderLayout());
+        largestPanel.add(new JLabel("Largest files"), BorderLayout.NORTH);
+        largestPanel.add(new JScrollPane(largestList), BorderLayout.CENTER);
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), largestPanel);
+        split.setResizeWeight(0.7);
+        statusLabel = new JLabel(" ");
+
+        JPanel content = new JPanel(new BorderLayout(0, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        content.add(top, BorderLayout.NORTH);
+        content.add(split, BorderLayout.CENTER);
+        content.add(statusLabel, BorderLayout.SOUTH);
+        setContentPane(content);
+        setSize(700, 560);
+
+        timer = new Timer(REFRESH_MILLIS, new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                refresh();
+            }
+        });
+        addWindowListener(new WindowAdapter(){
+            @Override
+            public void windowClosed(WindowEvent e){
+                timer.stop();
+                DiskUsageView.this.scan.cancel();
+            }
+        });
+        view(0);
+    }
+
+    /**
+     * Shows the folders in a node, from what has been scanned.
+     * @param next the node to view
+     */
+    private void view(int next){
+        if (next < 0){
+            return;
+        }
+        node = next;
+        upButton.setEnabled(node != 0);
+        pathLabel.setText(scan.getPath(node).toString());
+        refresh();
+        table.clearSelection();
+    }
+
+    /**
+     * Reloads the table, the largest files and the status from the scan. Stops
+     * the timer after the refresh that follows the end of the scan.
+     */
+    private void refresh(){
+        boolean done = scan.isDone();
+        int selected = table.getSelectedRow() >= 0 ? model.rows[table.getSelectedRow()] : Integer.MIN_VALUE;
+        model.load();
+        for (int row = 0;row < model.rows.length;row++){
+            if (model.rows[row] == selected){
+                table.setRowSelectionInterval(row, row);
+            }
+        }
+
+        largest = scan.getLargestFiles();
+        largestModel.clear();
+        for (DiskUsageScan.FileSize file : largest){
+            largestModel.addElement(String.format(Locale.ROOT, "%10s  %s", FilePanel.formatSize(file.getBytes()), file.getPath()));
+        }
+
+        String state = done ? (scan.isCancelled() ? "Stopped" : "Done") : "Scanning";
+        long unreadable = scan.getUnreadableCount();
+        long otherVolumes = scan.getOtherVolumeCount();
+        statusLabel.setText(String.format(Locale.ROOT, "%s: %s in %,d files and %,d folders, %.1f s%s%s",
+                state, FilePanel.formatSize(scan.getTotalBytes(0)), scan.getTotalFiles(0), scan.getNodeCount() - 1,
+                scan.getElapsedNanos() / 1e9, unreadable > 0 ? String.format(Locale.ROOT, ", %,d unreadable", unreadable) : "",
+                otherVolumes > 0 ? String.format(Locale.ROOT, ", %,d on other volumes skipped", otherVolumes) : ""));
+        if (done){
+            stopButton.setEnabled(false);
+            timer.stop();
+        }
+    }
+
+    /**
+     * Goes to a folder in the file manager.
+     */
+    private void open(Path folder){
+        if (folder != null && mngr.canVisit(folder.toString())){
+            mngr.forward(folder.toString());
+        }
+    }
+
+    /**
+     * The folders in the node being viewed, largest first, followed by the
+     * files directly in it as one row (node -1).
+     */
+    private class UsageModel extends AbstractTableModel {
+        private final String[] columns = {"Name", "Size", "Share", "Files"};
+        private int[] rows = new int[0];
+        private String[] names = new String[0];
+        private long[] bytes = new long[0];
+        private long[] files = new long[0];
+        private boolean[] complete = new boolean[0];
+        private long total;
+
+        /**
+         * Copies the rows out of the scan, so painting doesn't lock it.
+         */
+        void load(){
+            int[] children = scan.getChildren(node);
+            int ownFiles = scan.getOwnFiles(node);
+            int n = children.length + (ownFiles > 0 ? 1 : 0);
+            rows = new int[n];
+            names = new String[n];
+            bytes = new long[n];
+            files = new long[n];
+            complete = new boolean[n];
+            for (int i = 0;i < children.length;i++){
+                int child = children[i];
+                rows[i] = child;
+                names[i] = scan.getName(child) + (scan.isUnreadable(child) ? " (unreadable)" : "");
+                bytes[i] = scan.getTotalBytes(child);
+                files[i] = scan.getTotalFiles(child);
+                complete[i] = scan.isComplete(child);
+            }
+            if (ownFiles > 0){
+                // The files directly in the folder, placed by size among the folders.
+                long own = scan.getOwnBytes(node);
+                int at = children.length;
+                while (at > 0 && bytes[at - 1] < own){
+                    rows[at] = rows[at - 1];
+                    names[at] = names[at - 1];
+                    bytes[at] = bytes[at - 1];
+                    files[at] = files[at - 1];
+                    complete[at] = complete[at - 1];
+                    at--;
+                }
+                rows[at] = -1;
+                names[at] = "(files in this folder)";
+                bytes[at] = own;
+                files[at] = ownFiles;
+                complete[at] = true;
+            }
+            total = scan.getTotalBytes(node);
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount(){
+            return rows.length;
+        }
+
+        @Override
+        public int getColumnCount(){
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column){
+            return columns[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column){
+            switch (column){
+                case 0:
+                    return complete[row] ? names[row] : names[row] + " ...";
+                case 1:
+                    return FilePanel.formatSize(bytes[row]);
+                case 2:
+                    return total > 0 ? bytes[row] / (double) total : 0.0;
+                default:
+                    return String.format(Locale.ROOT, "%,d", files[row]);
+            }
+        }
+    }
+
+    /**
+     * Draws a row's share of the folder's size as a bar and a percentage.
+     */
+    private static class ShareRenderer extends DefaultTableCellRenderer {
+        private double share;
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column){
+            share = (Double) value;
+            return super.getTableCellRendererComponent(table, String.format(Locale.ROOT, "%.1f%%", share * 100),
+                    isSelected, hasFocus, row, column);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g){
+            super.paintComponent(g);
+            g.setColor(new Color(70, 130, 180, 110));
+            g.fillRect(1, 2, (int) Math.round((getWidth() - 2) * share), getHeight() - 4);
+        }
+    }
+}
@@ -0,0 +1,539 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds files with the same contents beneath a directory.
+ *
+ * Files are compared in three stages, each narrowing the candidates for the
+ * next, so most files are never read:
+ *
+ *     1. Sizes: the tree is walked in parallel and files are grouped by size.
+ *        A file with a size no other file has can't have a duplicate.
+ *     2. Ends: files that share a size are compared by a hash of their first
+ *        and last 64 KB. Files no bigger than that are hashed whole here.
+ *     3. Contents: files whose ends match are hashed whole (SHA-256).
+ *
+ * Files are hashed by a fixed number of threads, each reading through one
+ * buffer, so memory doesn't grow with the size of the files. Files that are
+ * already hard links to each other count as one. Symbolic links and empty
+ * files are skipped.
+ *
+ * Progress can be read from any thread while find() runs.
+ */
+public class DuplicateFinder {
+    // How much of each end of a file is hashed in the second stage.
+    public static final int END_BLOCK = 64 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Files with the same contents.
+     */
+    public static class Group {
+        private final long size;
+        private final String hash;
+        private final List<Path> files;
+        // When each file was last modified before it was read, in milliseconds.
+        private final Map<Path,Long> modified;
+
+        Group(long size, String hash, List<Path> files, Map<Path,Long> modified){
+            this.size = size;
+            this.hash = hash;
+            this.files = Collections.unmodifiableList(files);
+            this.modified = modified;
+        }
+
+        /**
+         * @param files some of this group's files
+         * @return a group of the same files, still compared with what they
+         *     were when they were read
+         */
+        public Group withFiles(List<Path> files){
+            return new Group(size, hash, files, modified);
+        }
+
+        /**
+         * Checks that a file is still what was read: a regular file of the
+         * same size, last modified at the same time. A file that changed
+         * since may no longer be a duplicate.
+         * @param file one of the files
+         * @return true if it looks unchanged
+         */
+        public boolean isUnchanged(Path file){
+            Long readModified = modified.get(file);
+            if (readModified == null){
+                return false;
+            }
+            try{
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                return attributes.isRegularFile() && attributes.size() == size
+                        && attributes.lastModifiedTime().toMillis() == readModified;
+            }
+            catch (IOException | SecurityException e){
+                return false;
+            }
+        }
+
+        /**
+         * @return the size of each file
+         */
+        public long getSize(){
+            return size;
+        }
+
+        /**
+         * @return the SHA-256 of the contents, in hexadecimal
+         */
+        public String getHash(){
+            return hash;
+        }
+
+        /**
+         * @return the files, sorted by path
+         */
+        public List<Path> getFiles(){
+            return files;
+        }
+
+        /**
+         * @return the space that would be freed by keeping one file
+         */
+        public long getWastedBytes(){
+            return size * (files.size() - 1);
+        }
+    }
+
+    private final Path root;
+    private final int threads;
+    private long minimumSize = 1;
+    private volatile boolean cancelled;
+
+    // Progress
+    private volatile String stage = "Waiting";
+    private final AtomicLong done = new AtomicLong();
+    private volatile long total;
+    private final AtomicLong filesSeen = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    // When each candidate was last modified, read before it was hashed.
+    private final Map<Path,Long> modified = new HashMap<Path,Long>();
+
+    /**
+     * @param root the directory to search. The number of files read at once
+     *     is set by -Dfilemanager.duplicates.threads=<n> (default: the number
+     *     of cores).
+     */
+    public DuplicateFinder(Path root){
+        this.root = root.toAbsolutePath().normalize();
+        threads = Math.max(1, Integer.getInteger("filemanager.duplicates.threads",
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param bytes files smaller than this are ignored (default 1, so only
+     *     empty files are)
+     */
+    public void setMinimumSize(long bytes){
+        minimumSize = Math.max(1, bytes);
+    }
+
+    public Path getRoot(){
+        return root;
+    }
+
+    /**
+     * Stops a running find() soon; it returns what it has.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * @return what find() is doing: "Sizing", "Comparing ends", "Comparing
+     *     contents" or "Done"
+     */
+    public String getStage(){
+        return stage;
+    }
+
+    /**
+     * @return the number of files finished in the current stage
+     */
+    public long getDone(){
+        return done.get();
+    }
+
+    /**
+     * @return the number of files in the current stage, or -1 while sizing
+     */
+    public long getTotal(){
+        return total;
+    }
+
+    /**
+     * @return the number of files found by the walk
+     */
+    public long getFilesSeen(){
+        return filesSeen.get();
+    }
+
+    /**
+     * @return the number of bytes read to compute hashes
+     */
+    public long getBytesRead(){
+        return bytesRead.get();
+    }
+
+    /**
+     * @return the number of directories and files that couldn't be read
+     */
+    public long getErrors(){
+        return errors.get();
+    }
+
+    /**
+     * Finds the duplicates.
+     * @return the groups of files with the same contents, the ones wasting
+     *     the most space first
+     * @throws IOException if the root can't be listed
+     */
+    public List<Group> find() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try{
+            // Stage 1: sizes.
+            stage = "Sizing";
+            total = -1;
+            done.set(0);
+            ConcurrentHashMap<Long,List<String>> bySize = new ConcurrentHashMap<Long,List<String>>();
+            if (!Files.isDirectory(root)){
+                throw new IOException(root + ": not a directory");
+            }
+            pool.invoke(new WalkTask(root, bySize));
+            List<Group> candidates = new ArrayList<Group>();
+            for (Map.Entry<Long,List<String>> sameSize : bySize.entrySet()){
+                if (sameSize.getValue().size() > 1){
+                    candidates.add(new Group(sameSize.getKey(), null, withoutLinks(sameSize.getValue()), modified));
+                }
+            }
+            bySize = null;
+
+            // Stage 2: the ends of files with the same size.
+            stage = "Comparing ends";
+            candidates = narrow(pool, candidates, false);
+
+            // Stage 3: the whole contents of files whose ends match. Files no
+            // bigger than both ends were already hashed whole.
+            stage = "Comparing contents";
+            List<Group> groups = new ArrayList<Group>();
+            List<Group> large = new ArrayList<Group>();
+            for (Group group : candidates){
+                if (group.size <= 2L * END_BLOCK){
+                    groups.add(group);
+                }
+                else{
+                    large.add(group);
+                }
+            }
+            groups.addAll(narrow(pool, large, true));
+            Collections.sort(groups, new Comparator<Group>(){
+                @Override
+                public int compare(Group a, Group b){
+                    int c = Long.compare(b.getWastedBytes(), a.getWastedBytes());
+                    return c != 0 ? c : a.files.get(0).compareTo(b.files.get(0));
+                }
+            });
+            stage = "Done";
+            return groups;
+        }
+        finally{
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the candidates as Paths, with files that are hard links to one
+     *     already in the list left out. Their modification times are kept
+     *     in modified.
+     */
+    private List<Path> withoutLinks(List<String> sameSize){
+        List<Path> files = new ArrayList<Path>(sameSize.size());
+        Set<Object> keys = new HashSet<Object>();
+        synchronized (sameSize){
+            Collections.sort(sameSize);
+            for (String name : sameSize){
+                Path file = Paths.get(name);
+                Object key = null;
+                try{
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    key = attributes.fileKey();
+                    modified.put(file, attributes.lastModifiedTime().toMillis());
+                }
+                catch (IOException ioe){
+                    // Kept; hashing will fail and drop it.
+                }
+                if (key == null || keys.add(key)){
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Hashes every candidate in parallel and splits each group into files
+     * with the same hash.
+     * @param candidates groups of files that may be duplicates
+     * @param whole true to hash whole files, false to hash their ends
+     * @return the groups of files that still may be duplicates, with their hash
+     */
+    private List<Group> narrow(ForkJoinPool pool, List<Group> candidates, boolean whole) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        for (Group group : candidates){
+            files.addAll(group.files);
+        }
+        String[] hashes = hashAll(pool, files, whole);
+        List<Group> narrowed = new ArrayList<Group>();
+        int i = 0;
+        for (Group group : candidates){
+            // Files stay in order, so each group's hashes are the next ones.
+            Map<String,List<Path>> byHash = new HashMap<String,List<Path>>();
+            for (Path file : group.files){
+                String hash = hashes[i++];
+                if (hash == null){
+                    continue;
+                }
+                List<Path> same = byHash.get(hash);
+                if (same == null){
+                    same = new ArrayList<Path>();
+                    byHash.put(hash, same);
+                }
+                same.add(file);
+            }
+            for (Map.Entry<String,List<Path>> same : byHash.entrySet()){
+                if (same.getValue().size() > 1){
+                    narrowed.add(new Group(group.size, same.getKey(), same.getValue(), modified));
+                }
+            }
+        }
+        return narrowed;
+    }
+
+    /**
+     * Hashes files on the pool's threads, each reading through its own buffer.
+     * @return each file's hash, or null where it couldn't be read
+     */
+    private String[] hashAll(ForkJoinPool pool, final List<Path> files, final boolean whole) throws IOException {
+        final String[] hashes = new String[files.size()];
+        final AtomicInteger next = new AtomicInteger(0);
+        done.set(0);
+        total = files.size();
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int w = 0;w < threads;w++){
+            workers.add(pool.submit(new Callable<Void>(){
+                @Override
+                public Void call() throws IOException {
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    MessageDigest digest = newDigest();
+                    int i;
+                    while (!cancelled && (i = next.getAndIncrement()) < files.size()){
+                        try{
+                            hashes[i] = hash(files.get(i), whole, buffer, digest);
+                        }
+                        catch (InterruptedIOException iie){
+                            if (cancelled){
+                                break;
+                            }
+                            throw iie;
+                        }
+                        catch (IOException | SecurityException e){
+                            errors.incrementAndGet();
+                            System.out.println(files.get(i) + ": " + e.getMessage());
+                        }
+                        done.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+        try{
+            for (Future<Void> worker : workers){
+                worker.get();
+            }
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            cancelled = true;
+            throw new InterruptedIOException("Interrupted");
+        }
+        catch (ExecutionException ee){
+            throw new IOException(ee.getCause());
+        }
+        return hashes;
+    }
+
+    /**
+     * @return the SHA-256 of a file, or of its first and last END_BLOCK bytes
+     */
+    private String hash(Path file, boolean whole, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        try{
+            IoThrottle.global().acquireOps(1);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            if (whole || size <= 2L * END_BLOCK){
+                update(digest, channel, 0, size, buffer);
+            }
+            else{
+                update(digest, channel, 0, END_BLOCK, buffer);
+                update(digest, channel, size - END_BLOCK, END_BLOCK, buffer);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()){
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Adds length bytes of a file, from position, to a digest.
+     */
+    private void update(MessageDigest digest, FileChannel channel, long position, long length, ByteBuffer buffer) throws IOException {
+        long end = position + length;
+        while (position < end && !cancelled){
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            try{
+                IoThrottle.global().acquireBytes(buffer.remaining());
+            }
+            catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+            int n = channel.read(buffer, position);
+            if (n < 0){
+                throw new IOException("File shrank while being read");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
+            bytesRead.addAndGet(n);
+        }
+        if (cancelled){
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    private static MessageDigest newDigest(){
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException nsae){
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Lists one directory, adds its files to the lists by size and forks a
+     * task for each subdirectory.
+     */
+    private class WalkTask extends RecursiveAction {
+        private final Path directory;
+        private final ConcurrentHashMap<Long,List<String>> bySize;
+
+        WalkTask(Path directory, ConcurrentHashMap<Long,List<String>> bySize){
+            this.directory = directory;
+            this.bySize = bySize;
+        }
+
+        @Override
+        protected void compute(){
+            if (cancelled){
+                return;
+            }
+            try{
+                IoThrottle.global().acquireOps(1);
+            }
+            catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                return;
+            }
+            List<WalkTask> subdirectories = new ArrayList<WalkTask>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+                for (Path entry : stream){
+                    try{
+                        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isDirectory()){
+                            subdirectories.add(new WalkTask(entry, bySize));
+                        }
+                        else if (attributes.isRegularFile() && attributes.size() >= minimumSize){
+                            add(attributes.size(), entry.toString());
+                        }
+                    }
+                    catch (IOException | SecurityException e){
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+            catch (IOException | SecurityException e){
+                errors.incrementAndGet();
+            }
+            invokeAll(subdirectories);
+        }
+
+        private void add(long size, String file){
+            filesSeen.incrementAndGet();
+            done.incrementAndGet();
+            List<String> sameSize = bySize.get(size);
+            if (sameSize == null){
+                List<String> created = new ArrayList<String>(1);
+                sameSize = bySize.putIfAbsent(size, created);
+                if (sameSize == null){
+                    sameSize = created;
+                }
+            }
+            synchronized (sameSize){
+                sameSize.add(file);
+            }
+        }
+    }
+}
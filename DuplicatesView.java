@@ -0,0 +1,428 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A window listing the duplicate files beneath a directory, found by a
+ * DuplicateFinder, and removing them.
+ *
+ * Files are listed by group, the groups wasting the most space first. The
+ * first file of each group is ticked to be kept; the others can be moved to
+ * the trash, or replaced by hard links to the kept file as one BatchJob. At
+ * least one file of every group must be kept, and files that changed since
+ * the search are left alone.
+ *
+ * Closing the window stops the search.
+ */
+public class DuplicatesView extends JDialog {
+    // How often progress is shown while searching, in milliseconds.
+    private static final int REFRESH_MILLIS = 250;
+
+    private final DuplicateFinder finder;
+    private final Manager mngr;
+    private final DuplicatesModel model;
+    private final JTable table;
+    private final JLabel statusLabel;
+    private final JButton deleteButton;
+    private final JButton linkButton;
+    private final Timer timer;
+    private List<DuplicateFinder.Group> groups;
+
+    /**
+     * Opens a duplicates window for the directory the Manager is in, and
+     * starts searching it.
+     * @param parent the component the window is shown over
+     * @param mngr the Manager; double clicking a file goes to its folder in it
+     */
+    public static void show(Component parent, Manager mngr){
+        DuplicatesView view = new DuplicatesView(SwingUtilities.getWindowAncestor(parent),
+                new DuplicateFinder(mngr.getPath()), mngr);
+        view.setLocationRelativeTo(parent);
+        view.setVisible(true);
+        view.search();
+    }
+
+    /**
+     * @param owner the window that owns this one
+     * @param finder the search to run
+     * @param mngr the Manager; double clicking a file goes to its folder in it
+     */
+    public DuplicatesView(java.awt.Window owner, DuplicateFinder finder, Manager mngr){
+        super(owner, "Duplicates - " + finder.getRoot(), ModalityType.MODELESS);
+        this.finder = finder;
+        this.mngr = mngr;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        model = new DuplicatesModel();
+        table = new JTable(model);
+        table.getColumnModel().getColumn(0).setMaxWidth(50);
+        table.getColumnModel().getColumn(1).setPreferredWidth(420);
+        DefaultTableCellRenderer right = new DefaultTableCellRenderer();
+        right.setHorizontalAlignment(SwingConstants.RIGHT);
+        table.getColumnModel().getColumn(2).setCellRenderer(right);
+        table.addMouseListener(new MouseAdapter(){
+            @Override
+            public void mouseClicked(MouseEvent e){
+                int row = table.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 2 && row >= 0 && table.columnAtPoint(e.getPoint()) != 0){
+                    Path folder = model.files.get(row).getParent();
+                    if (folder != null && DuplicatesView.this.mngr.canVisit(folder.toString())){
+                        DuplicatesView.this.mngr.forward(folder.toString());
+                    }
+                }
+            }
+        });
+
+        deleteButton = new JButton("Trash Unticked");
+        deleteButton.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                removeUnkept(false);
+            }
+        });
+        linkButton = new JButton("Hard Link Unticked");
+        linkButton.setToolTipText("Replace each unticked file by a link to the ticked file of its group");
+        linkButton.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                removeUnkept(true);
+            }
+        });
+        deleteButton.setEnabled(false);
+        linkButton.setEnabled(false);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.add(deleteButton);
+        buttons.add(linkButton);
+
+        statusLabel = new JLabel(" ");
+        JPanel bottom = new JPanel(new BorderLayout(5, 0));
+        bottom.add(statusLabel, BorderLayout.CENTER);
+        bottom.add(buttons, BorderLayout.EAST);
+
+        JPanel content = new JPanel(new BorderLayout(0, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        content.add(new JScrollPane(table), BorderLayout.CENTER);
+        content.add(bottom, BorderLayout.SOUTH);
+        setContentPane(content);
+        setSize(760, 520);
+
+        timer = new Timer(REFRESH_MILLIS, new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                showProgress();
+            }
+        });
+        addWindowListener(new WindowAdapter(){
+            @Override
+            public void windowClosed(WindowEvent e){
+                timer.stop();
+                DuplicatesView.this.finder.cancel();
+            }
+        });
+    }
+
+    /**
+     * Runs the search in the background and shows the groups when it ends.
+     */
+    private void search(){
+        timer.start();
+        new SwingWorker<List<DuplicateFinder.Group>,Void>(){
+            @Override
+            protected List<DuplicateFinder.Group> doInBackground() throws Exception {
+                return finder.find();
+            }
+
+            @Override
+            protected void done(){
+                timer.stop();
+                try{
+                    groups = get();
+                    model.load(groups);
+                    deleteButton.setEnabled(!groups.isEmpty());
+                    linkButton.setEnabled(!groups.isEmpty());
+                    showSummary();
+                }
+                catch (Exception e){
+                    System.out.println(e.getMessage());
+                    statusLabel.setText("Search failed: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void showProgress(){
+        long total = finder.getTotal();
+        statusLabel.setText(String.format(Locale.ROOT, "%s: %,d%s files, %s read",
+                finder.getStage(), finder.getDone(), total >= 0 ? String.format(Locale.ROOT, " of %,d", total) : "",
+                FilePanel.formatSize(finder.getBytesRead())));
+    }
+
+    private void showSummary(){
+        long wasted = 0;
+        int files = 0;
+        for (DuplicateFinder.Group group : groups){
+            wasted += group.getWastedBytes();
+            files += group.getFiles().size();
+        }
+        statusLabel.setText(String.format(Locale.ROOT, "%s%,d groups, %,d files, %s wasted; %,d files searched, %s read",
+                finder.isCancelled() ? "Stopped. " : "", groups.size(), files, FilePanel.formatSize(wasted),
+                finder.getFilesSeen(), FilePanel.formatSize(finder.getBytesRead())));
+    }
+
+    /**
+     * Moves the unticked files to the trash, or replaces them by hard links
+     * to the ticked file of their group. A file is skipped if it, or the
+     * file kept in its place, changed since the search read it.
+     * @param link true to link, false to trash
+     */
+    private void removeUnkept(boolean link){
+        if (table.isEditing()){
+            table.getCellEditor().stopCellEditing();
+        }
+        List<Path> files = new ArrayList<Path>();
+        List<Path> targets = new ArrayList<Path>();
+        List<DuplicateFinder.Group> owners = new ArrayList<DuplicateFinder.Group>();
+        long bytes = 0;
+        for (int g = 0;g < groups.size();g++){
+            Path kept = null;
+            List<Path> unkept = new ArrayList<Path>();
+            for (int row = model.firstRow[g];row < model.firstRow[g] + groups.get(g).getFiles().size();row++){
+                if (model.keep[row]){
+                    if (kept == null){
+                        kept = model.files.get(row);
+                    }
+                }
+                else{
+                    unkept.add(model.files.get(row));
+                }
+            }
+            if (kept == null){
+                JOptionPane.showMessageDialog(this, "Tick at least one file to keep in group " + (g + 1) + ".",
+                        getTitle(), JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            for (Path file : unkept){
+                files.add(file);
+                targets.add(kept);
+                owners.add(groups.get(g));
+                bytes += groups.get(g).getSize();
+            }
+        }
+        if (files.isEmpty()){
+            return;
+        }
+        String question = String.format(Locale.ROOT, link
+                ? "Replace %,d file(s) by hard links, freeing %s?"
+                : "Move %,d file(s) to the trash, freeing %s once it is emptied?", files.size(),
+                FilePanel.formatSize(bytes));
+        if (JOptionPane.showConfirmDialog(this, question, getTitle(), JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE) != JOptionPane.YES_OPTION){
+            return;
+        }
+
+        // A file that changed since it was read may no longer be a duplicate.
+        List<Path> unchanged = new ArrayList<Path>();
+        List<Path> unchangedTargets = new ArrayList<Path>();
+        int skipped = 0;
+        for (int i = 0;i < files.size();i++){
+            if (owners.get(i).isUnchanged(files.get(i)) && owners.get(i).isUnchanged(targets.get(i))){
+                unchanged.add(files.get(i));
+                unchangedTargets.add(targets.get(i));
+            }
+            else{
+                skipped++;
+            }
+        }
+        if (skipped > 0){
+            JOptionPane.showMessageDialog(this, skipped + " file(s) changed since the search, or the file kept in "
+                    + "their place did, and were left alone. Search again to compare them.",
+                    getTitle(), JOptionPane.INFORMATION_MESSAGE);
+        }
+        if (unchanged.isEmpty()){
+            return;
+        }
+        if (link){
+            deleteButton.setEnabled(false);
+            linkButton.setEnabled(false);
+            new BatchJob(this, BatchOperation.link(unchanged, unchangedTargets), "Linking"){
+                @Override
+                protected void finished(BatchOperation.Summary summary){
+                    dropHandled(getOperation().getSources(), summary);
+                }
+            }.start();
+        }
+        else{
+            trash(unchanged);
+        }
+    }
+
+    /**
+     * Moves files to the trash as one batch, so Undo Delete brings them all
+     * back. Files that can't be trashed are deleted permanently, if the user
+     * agrees; see DeleteAction.
+     * @param files the files
+     */
+    private void trash(List<Path> files){
+        TrashBin trash = TrashBin.getDefault();
+        long batch = trash.newBatch();
+        List<Path> trashed = new ArrayList<Path>();
+        List<Path> leftovers = new ArrayList<Path>();
+        for (Path file : files){
+            try{
+                trash.trash(file, batch);
+                trashed.add(file);
+            }
+            catch (IOException ioe){
+                System.out.println(ioe.getMessage());
+                leftovers.add(file);
+            }
+        }
+        dropHandled(trashed, null);
+        if (!leftovers.isEmpty() && JOptionPane.showConfirmDialog(this,
+                leftovers.size() + " file(s) can't be moved to the trash. Delete them permanently?",
+                getTitle(), JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION){
+            deleteButton.setEnabled(false);
+            linkButton.setEnabled(false);
+            new BatchJob(this, new BatchOperation(BatchOperation.Kind.DELETE, leftovers, null), "Deleting"){
+                @Override
+                protected void finished(BatchOperation.Summary summary){
+                    dropHandled(getOperation().getSources(), summary);
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * Takes the files an operation handled out of their groups, and groups
+     * left with one file out of the list.
+     * @param handled the files deleted or linked
+     * @param summary what the operation did, or null if every file was
+     *     handled. Files that failed are kept; if it was cancelled, so is
+     *     every file that still exists.
+     */
+    private void dropHandled(List<Path> handled, BatchOperation.Summary summary){
+        Set<Path> gone = new HashSet<Path>(handled);
+        if (summary != null){
+            gone.removeAll(summary.getFailedPaths());
+            if (summary.isCancelled()){
+                Iterator<Path> it = gone.iterator();
+                while (it.hasNext()){
+                    if (!Files.notExists(it.next(), LinkOption.NOFOLLOW_LINKS)){
+                        it.remove();
+                    }
+                }
+            }
+        }
+        List<DuplicateFinder.Group> remaining = new ArrayList<DuplicateFinder.Group>();
+        for (DuplicateFinder.Group group : groups){
+            List<Path> left = new ArrayList<Path>();
+            for (Path file : group.getFiles()){
+                if (!gone.contains(file)){
+                    left.add(file);
+                }
+            }
+            if (left.size() > 1){
+                remaining.add(group.withFiles(left));
+            }
+        }
+        groups = remaining;
+        model.load(groups);
+        deleteButton.setEnabled(!groups.isEmpty());
+        linkButton.setEnabled(!groups.isEmpty());
+        showSummary();
+    }
+
+    /**
+     * One row per file, group after group. Keep is the only editable column.
+     */
+    private class DuplicatesModel extends AbstractTableModel {
+        private final String[] columns = {"Keep", "File", "Size", "Group"};
+        private List<Path> files = new ArrayList<Path>();
+        private boolean[] keep = new boolean[0];
+        private int[] groupOf = new int[0];
+        private int[] firstRow = new int[0];
+
+        void load(List<DuplicateFinder.Group> groups){
+            files = new ArrayList<Path>();
+            List<Integer> owners = new ArrayList<Integer>();
+            firstRow = new int[groups.size()];
+            for (int g = 0;g < groups.size();g++){
+                firstRow[g] = files.size();
+                for (Path file : groups.get(g).getFiles()){
+                    files.add(file);
+                    owners.add(g);
+                }
+            }
+            keep = new boolean[files.size()];
+            groupOf = new int[files.size()];
+            for (int row = 0;row < files.size();row++){
+                groupOf[row] = owners.get(row);
+                keep[row] = row == firstRow[groupOf[row]];
+            }
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount(){
+            return files.size();
+        }
+
+        @Override
+        public int getColumnCount(){
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column){
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column){
+            return column == 0 ? Boolean.class : String.class;
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column){
+            return column == 0;
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column){
+            keep[row] = (Boolean) value;
+            fireTableCellUpdated(row, column);
+        }
+
+        @Override
+        public Object getValueAt(int row, int column){
+            DuplicateFinder.Group group = groups.get(groupOf[row]);
+            switch (column){
+                case 0:
+                    return keep[row];
+                case 1:
+                    return files.get(row).toString();
+                case 2:
+                    return FilePanel.formatSize(group.getSize());
+                default:
+                    return String.format(Locale.ROOT, "%d (%d copies)", groupOf[row] + 1, group.getFiles().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Finds freezes: events that keep the Event Dispatch Thread busy for too long.
+ *
+ * install() replaces the system EventQueue with one that times every event it
+ * dispatches, into a LatencyHistogram. A daemon thread watches the event being
+ * dispatched; once it has run for longer than the threshold (100 ms, or
+ * -Dfilemanager.edt.stallMillis=<ms>), it captures the Event Dispatch Thread's
+ * stack, which shows what the freeze is waiting for. When the event finishes,
+ * it is reported as a Stall: how long it took, the AWT event, the listener
+ * that handled it (such as DirectoryPanel.mouseClicked) and the stack.
+ *
+ * Stalls are printed, appended to properties/edt-stalls.log and kept for the
+ * EDT Stalls dialog. The log is written by the watchdog thread, never by the
+ * Event Dispatch Thread.
+ *
+ * An event that opens a modal dialog dispatches other events until the
+ * dialog closes. The time spent in that nested event loop, waiting for the
+ * user and handling the dialog's own events, isn't counted, so waiting for
+ * the user isn't reported as a freeze; what the event does before the dialog
+ * and after it closes is.
+ */
+public class EdtWatchdog {
+    public static final String LOG_FILE = "properties/edt-stalls.log";
+    public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+    // How many stalls are kept for the dialog.
+    private static final int RECENT_STALLS = 50;
+
+    private static final LatencyHistogram histogram = new LatencyHistogram();
+    // The newest stalls, oldest first. Guarded by itself.
+    private static final LinkedList<Stall> recent = new LinkedList<Stall>();
+    // Stalls waiting to be logged by the watchdog thread.
+    private static final ConcurrentLinkedQueue<Stall> unlogged = new ConcurrentLinkedQueue<Stall>();
+    private static long thresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000L;
+    private static volatile Dispatch current;
+    private static boolean installed;
+
+    /**
+     * An event that kept the Event Dispatch Thread busy for longer than the
+     * threshold.
+     */
+    public static class Stall {
+        private final long time;
+        private final long nanos;
+        private final String event;
+        private final String trigger;
+        private final StackTraceElement[] stack;
+
+        Stall(long time, long nanos, String event, String trigger, StackTraceElement[] stack){
+            this.time = time;
+            this.nanos = nanos;
+            this.event = event;
+            this.trigger = trigger;
+            this.stack = stack;
+        }
+
+        /**
+         * @return when the event was dispatched, in milliseconds since 1970
+         */
+        public long getTime(){
+            return time;
+        }
+
+        /**
+         * @return how long the event took
+         */
+        public long getNanos(){
+            return nanos;
+        }
+
+        /**
+         * @return the AWT event, such as "MouseEvent MOUSE_CLICKED on FilePanel"
+         */
+        public String getEvent(){
+            return event;
+        }
+
+        /**
+         * @return the file manager method that handled the event, such as
+         *     "DirectoryPanel.mouseClicked", or null if it isn't known
+         */
+        public String getTrigger(){
+            return trigger;
+        }
+
+        /**
+         * @return the Event Dispatch Thread's stack once the event had run for
+         *     longer than the threshold, or null if it finished before the
+         *     watchdog looked
+         */
+        public StackTraceElement[] getStack(){
+            return stack;
+        }
+
+        /**
+         * @return one line: when, how long, the event and its trigger
+         */
+        public String getSummary(){
+            return String.format(Locale.ROOT, "%s EDT stall %.1f ms: %s%s",
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(time)), nanos / 1e6, event,
+                    trigger == null ? "" : ", in " + trigger);
+        }
+
+        /**
+         * @return the summary, followed by the stack
+         */
+        @Override
+        public String toString(){
+            StringBuilder sb = new StringBuilder(getSummary()).append('\n');
+            if (stack == null){
+                sb.append("    (finished before its stack was captured)\n");
+            }
+            else{
+                for (StackTraceElement frame : stack){
+                    sb.append("    at ").append(frame).append('\n');
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    // The event being dispatched right now.
+    private static class Dispatch {
+        final AWTEvent event;
+        final Thread thread;
+        final long start;
+        final long startMillis;
+        // Time spent so far in nested event loops (modal dialogs).
+        volatile long nested;
+        // When the nested event loop it is in now started waiting or dispatching, or 0.
+        volatile long nestedSince;
+        volatile StackTraceElement[] stack;
+
+        Dispatch(AWTEvent event, Thread thread, long start){
+            this.event = event;
+            this.thread = thread;
+            this.start = start;
+            this.startMillis = System.currentTimeMillis();
+        }
+
+        /**
+         * @return how long the event itself has kept the thread busy,
+         *     leaving out nested event loops
+         */
+        long busyNanos(long now){
+            long since = nestedSince;
+            return now - start - nested - (since == 0 ? 0 : now - since);
+        }
+    }
+
+    // Times every event it dispatches.
+    private static class TimedEventQueue extends EventQueue {
+        /**
+         * Called by the Event Dispatch Thread's loop, and by the nested loops
+         * of modal dialogs. The time a nested loop waits for its next event
+         * isn't the time of the event that opened it.
+         */
+        @Override
+        public AWTEvent getNextEvent() throws InterruptedException {
+            Dispatch outer = current;
+            if (outer == null || outer.thread != Thread.currentThread()){
+                return super.getNextEvent();
+            }
+            long start = System.nanoTime();
+            outer.nestedSince = start;
+            try{
+                return super.getNextEvent();
+            }
+            finally{
+                outer.nested += System.nanoTime() - start;
+                outer.nestedSince = 0;
+            }
+        }
+
+        @Override
+        protected void dispatchEvent(AWTEvent event){
+            long start = System.nanoTime();
+            Dispatch outer = current;
+            // An event dispatched by a nested loop isn't the time of the event that opened it either.
+            boolean nested = outer != null && outer.thread == Thread.currentThread() && outer.nestedSince == 0;
+            if (nested){
+                outer.nestedSince = start;
+            }
+            Dispatch dispatch = new Dispatch(event, Thread.currentThread(), start);
+            current = dispatch;
+            try{
+                super.dispatchEvent(event);
+            }
+            finally{
+                long end = System.nanoTime();
+                current = outer;
+                if (nested){
+                    outer.nested += end - start;
+                    outer.nestedSince = 0;
+                }
+                finished(dispatch, dispatch.busyNanos(end));
+            }
+        }
+    }
+
+    /**
+     * Starts timing events, unless -Dfilemanager.edt.watchdog=false. Does
+     * nothing after the first call.
+     */
+    public static synchronized void install(){
+        if (installed || !Boolean.parseBoolean(System.getProperty("filemanager.edt.watchdog", "true"))){
+            return;
+        }
+        installed = true;
+        thresholdNanos = Math.max(1, Long.getLong("filemanager.edt.stallMillis", DEFAULT_THRESHOLD_MILLIS)) * 1000000L;
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimedEventQueue());
+
+        Thread watchdog = new Thread(new Runnable(){
+            @Override
+            public void run(){
+                watch();
+            }
+        }, "edt-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * @return the threshold above which an event is a stall
+     */
+    public static long getThresholdNanos(){
+        return thresholdNanos;
+    }
+
+    /**
+     * @return the time taken by every event dispatched since install() or reset()
+     */
+    public static LatencyHistogram getHistogram(){
+        return histogram;
+    }
+
+    /**
+     * @return the newest stalls, oldest first
+     */
+    public static List<Stall> getStalls(){
+        synchronized (recent){
+            return new ArrayList<Stall>(recent);
+        }
+    }
+
+    /**
+     * Forgets the timings and stalls recorded so far. The log is kept.
+     */
+    public static void reset(){
+        histogram.reset();
+        synchronized (recent){
+            recent.clear();
+        }
+    }
+
+    /**
+     * Shows the timings and the newest stalls, with their stacks.
+     * @param parent the component to show the dialog over
+     */
+    public static void showDialog(Component parent){
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%d events: mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.1f ms%n",
+                histogram.getCount(), histogram.getMean() / 1e6, histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        List<Stall> stalls = getStalls();
+        text.append(String.format(Locale.ROOT, "%d stall(s) over %d ms; newest first. Logged to %s%n%n",
+                stalls.size(), thresholdNanos / 1000000, Paths.get(LOG_FILE).toAbsolutePath()));
+        for (int i = stalls.size() - 1;i >= 0;i--){
+            text.append(stalls.get(i)).append('\n');
+        }
+        JTextArea area = new JTextArea(text.toString(), 24, 90);
+        area.setEditable(false);
+        area.setCaretPosition(0);
+
+        Object[] options = {"Reset", "Close"};
+        int choice = JOptionPane.showOptionDialog(parent, new JScrollPane(area), "EDT Stalls",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[1]);
+        if (choice == 0){
+            reset();
+        }
+    }
+
+    /**
+     * Called on the Event Dispatch Thread when an event has been dispatched.
+     * @param nanos how long it kept the thread busy, outside nested event loops
+     */
+    private static void finished(Dispatch dispatch, long nanos){
+        histogram.record(nanos);
+        MetricsRegistry.record("edt.event", nanos);
+        if (nanos < thresholdNanos){
+            return;
+        }
+        StackTraceElement[] stack = dispatch.stack;
+        Stall stall = new Stall(dispatch.startMillis, nanos,
+                describe(dispatch.event), stack == null ? null : triggerOf(stack), stack);
+        MetricsRegistry.increment("edt.stalls");
+        synchronized (recent){
+            recent.add(stall);
+            if (recent.size() > RECENT_STALLS){
+                recent.removeFirst();
+            }
+        }
+        unlogged.add(stall);
+    }
+
+    /**
+     * The watchdog thread. Captures the stack of events that run too long,
+     * and logs finished stalls.
+     */
+    private static void watch(){
+        long interval = Math.max(1, thresholdNanos / 4000000);
+        while (true){
+            try{
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException ie){
+                return;
+            }
+            // Only while the event itself runs; not while a dialog it opened waits.
+            Dispatch dispatch = current;
+            if (dispatch != null && dispatch.stack == null && dispatch.nestedSince == 0
+                    && dispatch.busyNanos(System.nanoTime()) >= thresholdNanos){
+                dispatch.stack = dispatch.thread.getStackTrace();
+            }
+            if (!unlogged.isEmpty()){
+                log();
+            }
+        }
+    }
+
+    /**
+     * Prints the stalls waiting to be logged and appends them to LOG_FILE.
+     */
+    private static void log(){
+        Path file = Paths.get(LOG_FILE);
+        try{
+            if (file.getParent() != null){
+                Files.createDirectories(file.getParent());
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+                Stall stall;
+                while ((stall = unlogged.poll()) != null){
+                    System.out.println(stall.getSummary());
+                    writer.write(stall.toString());
+                }
+            }
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+            unlogged.clear();
+        }
+    }
+
+    /**
+     * @return the kind of event and what it happened to, such as
+     *     "MouseEvent MOUSE_CLICKED on FilePanel"
+     */
+    private static String describe(AWTEvent event){
+        String params = event.paramString();
+        int comma = params.indexOf(',');
+        if (comma >= 0){
+            params = params.substring(0, comma);
+        }
+        Object source = event.getSource();
+        return event.getClass().getSimpleName() + " " + params
+                + (source == null ? "" : " on " + nameOf(source.getClass()));
+    }
+
+    /**
+     * @return the outermost file manager method on the stack, which is the
+     *     listener (or Runnable) that handled the event, or null
+     */
+    private static String triggerOf(StackTraceElement[] stack){
+        for (int i = stack.length - 1;i >= 0;i--){
+            String className = stack[i].getClassName();
+            if (!isPlatformClass(className)){
+                return className + "." + stack[i].getMethodName();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isPlatformClass(String className){
+        return className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("sun.")
+                || className.startsWith("jdk.") || className.startsWith("com.sun.") || className.equals(EdtWatchdog.class.getName())
+                || className.startsWith(EdtWatchdog.class.getName() + "$");
+    }
+
+    private static String nameOf(Class<?> c){
+        String name = c.getSimpleName();
+        // Anonymous classes have no simple name.
+        return name.isEmpty() ? c.getName() : name;
+    }
+}
@@ -0,0 +1,65 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action to extract one or more archives (.zip, .tar, .tar.gz or .tgz) into
+ * the current directory, without an external program.
+ */
+public class ExtractAction extends AbstractAction {
+    private String actionName = "Extract Here";
+    private String currentDir;
+    // The FilePanels of every archive to be extracted.
+    private FilePanel[] targets;
+
+    /**
+     * Default ExtractAction constructor.
+     * @param key a key to find value with
+     * @param value the FilePanel, or array of selected FilePanels, to act on
+     * @param current current directory of the directory panel
+     */
+    public ExtractAction(String key,Object value, String current){
+        super("Extract Here",null);
+        putValue(key,value);
+        this.currentDir = current;
+        this.targets = BatchJob.panelsOf(value);
+    }
+
+    public String getCurrent() {
+        return this.currentDir;
+    }
+
+    /**
+     * Overridden AbstractAction method.
+     * Triggers a specific function based on an event.
+     * @param e the triggering event.
+     */
+    public void actionPerformed(ActionEvent e){
+        Component parent = (Component) e.getSource();
+        extractHere(parent);
+    }
+
+    /**
+     * Extracts every selected archive into the current directory, in the
+     * background. Selected files that aren't archives are left alone.
+     * @param parent the component to show progress over
+     */
+    public void extractHere(Component parent){
+        List<Path> archives = new ArrayList<Path>();
+        for (Path path : BatchJob.pathsOf(targets)){
+            if (ArchiveExtractor.isArchive(path)){
+                archives.add(path);
+            }
+        }
+        if (archives.isEmpty()){
+            JOptionPane.showMessageDialog(parent, "Only .zip, .tar, .tar.gz and .tgz files can be extracted.",
+                    "Extract Here", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        BatchOperation extract = new BatchOperation(BatchOperation.Kind.EXTRACT, archives, PathResolver.toPath(currentDir));
+        new BatchJob(parent, extract, "Extracting").start();
+    }
+}
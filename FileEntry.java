@@ -0,0 +1,153 @@
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * One file or directory as the file manager shows it: its name, type, size
+ * and dates. This is what a FilePanel displays, without the Swing
+ * components, so listings can be sorted, searched and printed with no
+ * display; see FileQuery and FileManagerCli.
+ */
+public class FileEntry {
+    private final Path path;
+    private final String name;
+    private final boolean directory;
+    private final long size;
+    private final long modified;
+    private final long created;
+    // False for directories, and for pipes, devices and sockets, which can't be sniffed.
+    private final boolean regular;
+
+    /**
+     * @param path the file, which may be inside an archive
+     * @param attributes the file's attributes, or null if they couldn't be read
+     */
+    public FileEntry(Path path, BasicFileAttributes attributes){
+        String fn = path.getFileName() == null ? path.toString() : path.getFileName().toString();
+        // Directories inside zip archives are named with a trailing "/".
+        if (fn.endsWith("/") && fn.length() > 1){
+            fn = fn.substring(0, fn.length() - 1);
+        }
+        this.path = path;
+        this.name = fn;
+        if (attributes == null){
+            directory = false;
+            size = -1;
+            modified = -1;
+            created = -1;
+            regular = false;
+        }
+        else{
+            directory = attributes.isDirectory();
+            regular = attributes.isRegularFile();
+            size = directory ? 0 : attributes.size();
+            modified = attributes.lastModifiedTime().toMillis();
+            // Some file systems, such as zip archives, may not record a creation time.
+            FileTime creationTime = attributes.creationTime();
+            created = creationTime != null ? creationTime.toMillis() : modified;
+        }
+    }
+
+    /**
+     * @param listing a directory listing
+     * @param i the index of an entry in it
+     * @return the entry
+     */
+    public static FileEntry of(DirectoryCache.Listing listing, int i){
+        return new FileEntry(listing.getEntry(i), listing.getAttributes(i));
+    }
+
+    public Path getPath(){
+        return path;
+    }
+
+    /**
+     * @return the address of the file, as typed in the address bar; see PathResolver
+     */
+    public String getAddress(){
+        return PathResolver.toAddress(path);
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    public boolean isDirectory(){
+        return directory;
+    }
+
+    /**
+     * @return the size in bytes; 0 for a directory, -1 if it couldn't be read
+     */
+    public long getSize(){
+        return size;
+    }
+
+    /**
+     * @return the date of the last modification in milliseconds since the
+     *     epoch, or -1 if it couldn't be read
+     */
+    public long getDateModified(){
+        return modified;
+    }
+
+    /**
+     * @return the date of creation in milliseconds since the epoch (the date
+     *     of the last modification if none was recorded), or -1 if it couldn't
+     *     be read
+     */
+    public long getDateCreated(){
+        return created;
+    }
+
+    /**
+     * @return the file's extension, such as ".txt", or "?" for a directory or
+     *     a file without one
+     */
+    public String getExtension(){
+        return extensionOf(name, directory);
+    }
+
+    /**
+     * @return the text of the file's type column, such as "Text". A regular
+     *     file without an extension is sniffed, which may read it; see
+     *     FileTypeRegistry.
+     */
+    public String getTypeText(){
+        String extension = getExtension();
+        FileTypeRegistry types = FileTypeRegistry.getDefault();
+        if (regular && extension.equals("?") && types.isSniffing()){
+            return types.sniff(path, modified);
+        }
+        return typeText(extension, directory);
+    }
+
+    /**
+     * @param name a file name
+     * @param directory true if the file is a directory
+     * @return the file's extension, such as ".txt", or "?" for a directory or
+     *     a file without one
+     */
+    public static String extensionOf(String name, boolean directory){
+        if (directory){
+            return "?";
+        }
+        int dotIndex = name.lastIndexOf(".");
+        if (dotIndex == -1){
+            return "?";
+        }
+        return name.substring(dotIndex);
+    }
+
+    /**
+     * @author Ian Ho-Sing-Loy
+     * @param s extension to translate to type column
+     * @param directory true if the file is a directory
+     * @return the text for the file type column associated with the file
+     *     extension, ignoring case; see FileTypeRegistry
+     */
+    public static String typeText(String s, boolean directory){
+        if (directory) return FileTypeRegistry.FOLDER;
+        return FileTypeRegistry.getDefault().typeOf(s);
+    }
+}
@@ -0,0 +1,375 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The file manager without a window, for scripts and cron jobs. It lists,
+ * searches, copies, moves, deletes, compresses and extracts with the same
+ * code the window uses (FileQuery, DirectoryCache and BatchOperation) and
+ * prints the results as JSON or CSV.
+ *
+ * Usage: java FileManagerCli <command> [options] [arguments]
+ *
+ *     list <directory>                    the directory's entries
+ *     search <directory> <key>            entries whose names contain key
+ *     copy <destination> [paths...]       copies into a directory
+ *     move <destination> [paths...]       moves into a directory
+ *     delete [paths...]                   deletes permanently
+ *     compress <archive.tar.gz> [paths...]
+ *     extract <destination> [archives...]
+ *
+ * Options:
+ *
+ *     --format=json|csv|paths   output format (default json); paths prints
+ *                               one address per line, for piping
+ *     --sort=<attribute>        Name, Size, Type, "Date Modified" or
+ *                               "Date Created"; for list and search
+ *     --recursive, --depth=<n>  go into subdirectories (n levels)
+ *     --limit=<MB/s>            speed limit for copy, move and compress
+ *
+ * When a bulk operation is given no paths, or "-", it reads them from
+ * standard input, one per line, so commands can be chained:
+ *
+ *     java FileManagerCli search /var/log .gz --recursive --format=paths | java FileManagerCli delete
+ *
+ * Results go to standard output; messages go to standard error. The exit
+ * status is 0 on success, 1 if anything failed and 2 for a usage error.
+ * Addresses inside .zip and .jar archives work as in the address bar.
+ */
+public class FileManagerCli {
+    private static final String USAGE = "Usage: java FileManagerCli <command> [options] [arguments]\n"
+            + "Commands: list <directory> | search <directory> <key> | copy <destination> [paths...]\n"
+            + "          move <destination> [paths...] | delete [paths...]\n"
+            + "          compress <archive.tar.gz> [paths...] | extract <destination> [archives...]\n"
+            + "Options:  --format=json|csv|paths --sort=<attribute> --recursive --depth=<n> --limit=<MB/s>\n"
+            + "Paths are read from standard input when none (or \"-\") are given.";
+
+    private String format = "json";
+    private String sort;
+    private int depth = 0;
+    private long bytesPerSecond;
+    private final List<String> arguments = new ArrayList<String>();
+    private final Writer out;
+
+    public static void main(String[] args){
+        // Results are written to the real standard output; anything the
+        // file manager's classes print goes to standard error instead.
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8));
+        System.setOut(System.err);
+        int status;
+        try{
+            FileManagerCli cli = new FileManagerCli(out);
+            status = cli.run(args);
+        }
+        catch (IllegalArgumentException iae){
+            System.err.println(iae.getMessage());
+            System.err.println(USAGE);
+            status = 2;
+        }
+        catch (IOException ioe){
+            // The messages of some, such as NoSuchFileException, are only a path.
+            System.err.println(ioe);
+            status = 1;
+        }
+        try{
+            out.flush();
+        }
+        catch (IOException ioe){
+            System.err.println(ioe.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * @param out where results are written
+     */
+    public FileManagerCli(Writer out){
+        this.out = out;
+    }
+
+    /**
+     * Runs one command.
+     * @param args the command, options and arguments
+     * @return the exit status: 0 on success, 1 if anything failed
+     * @throws IllegalArgumentException if the command or an option is wrong
+     * @throws IOException if a directory can't be listed or output can't be written
+     */
+    public int run(String[] args) throws IOException {
+        if (args.length == 0){
+            throw new IllegalArgumentException("No command given");
+        }
+        for (int i = 1;i < args.length;i++){
+            String arg = args[i];
+            if (arg.startsWith("--")){
+                option(arg);
+            }
+            else{
+                arguments.add(arg);
+            }
+        }
+        String command = args[0].toLowerCase(Locale.ROOT);
+        if (command.equals("list")){
+            expect(1, 1);
+            return list(PathResolver.toPath(arguments.get(0)), null);
+        }
+        if (command.equals("search")){
+            expect(2, 2);
+            return list(PathResolver.toPath(arguments.get(0)), arguments.get(1));
+        }
+        if (command.equals("delete")){
+            return operate(BatchOperation.Kind.DELETE, null, paths(0));
+        }
+        BatchOperation.Kind kind;
+        if (command.equals("copy")) kind = BatchOperation.Kind.COPY;
+        else if (command.equals("move")) kind = BatchOperation.Kind.MOVE;
+        else if (command.equals("compress")) kind = BatchOperation.Kind.COMPRESS;
+        else if (command.equals("extract")) kind = BatchOperation.Kind.EXTRACT;
+        else throw new IllegalArgumentException("Unknown command: " + args[0]);
+        expect(1, Integer.MAX_VALUE);
+        return operate(kind, PathResolver.toPath(arguments.get(0)), paths(1));
+    }
+
+    private void option(String arg){
+        int eq = arg.indexOf('=');
+        String name = eq < 0 ? arg : arg.substring(0, eq);
+        String value = eq < 0 ? null : arg.substring(eq + 1);
+        if (name.equals("--recursive")){
+            depth = -1;
+        }
+        else if (name.equals("--depth") && value != null){
+            depth = Integer.parseInt(value);
+        }
+        else if (name.equals("--format") && value != null){
+            format = value.toLowerCase(Locale.ROOT);
+            if (!format.equals("json") && !format.equals("csv") && !format.equals("paths")){
+                throw new IllegalArgumentException("Unknown format: " + value);
+            }
+        }
+        else if (name.equals("--sort") && value != null){
+            sort = FileQuery.sortAttribute(value);
+        }
+        else if (name.equals("--limit") && value != null){
+            bytesPerSecond = (long) (Double.parseDouble(value) * 1000000);
+        }
+        else{
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+    }
+
+    private void expect(int min, int max){
+        if (arguments.size() < min || arguments.size() > max){
+            throw new IllegalArgumentException("Wrong number of arguments");
+        }
+    }
+
+    /**
+     * @return the paths given from argument first on, or read from standard
+     *     input if there are none or the first is "-"
+     */
+    private List<Path> paths(int first) throws IOException {
+        List<Path> paths = new ArrayList<Path>();
+        if (arguments.size() > first && !arguments.get(first).equals("-")){
+            for (int i = first;i < arguments.size();i++){
+                paths.add(PathResolver.toPath(arguments.get(i)));
+            }
+            return paths;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null){
+            if (!line.trim().isEmpty()){
+                paths.add(PathResolver.toPath(line.trim()));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Lists or searches a directory, streaming entries out as they are found
+     * unless they have to be sorted first.
+     * @param searchKey what to search for, or null to list everything
+     */
+    private int list(Path directory, final String searchKey) throws IOException {
+        final List<FileEntry> collected = new ArrayList<FileEntry>();
+        final EntryWriter writer = new EntryWriter(out, format);
+        FileQuery.walk(directory, depth, new FileQuery.Sink(){
+            @Override
+            public void accept(FileEntry entry) throws IOException {
+                if (searchKey != null && !FileQuery.matches(entry.getName(), searchKey)){
+                    return;
+                }
+                if (sort != null){
+                    collected.add(entry);
+                }
+                else{
+                    writer.write(entry);
+                }
+            }
+        });
+        if (sort != null){
+            FileQuery.sort(collected, sort);
+            for (FileEntry entry : collected){
+                writer.write(entry);
+            }
+        }
+        writer.end();
+        return 0;
+    }
+
+    /**
+     * Runs a BatchOperation and writes its summary.
+     */
+    private int operate(BatchOperation.Kind kind, Path destination, List<Path> sources) throws IOException {
+        if (sources.isEmpty()){
+            throw new IllegalArgumentException("No paths given");
+        }
+        BatchOperation operation = new BatchOperation(kind, sources, destination);
+        if (bytesPerSecond > 0){
+            operation.setThrottle(IoThrottle.forJob(bytesPerSecond, 0));
+        }
+        long start = System.nanoTime();
+        BatchOperation.Summary summary = operation.execute(null);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String operationName = kind.name().toLowerCase(Locale.ROOT);
+
+        if (format.equals("csv")){
+            out.write("operation,sources,destination,files,bytes,seconds,cancelled,failures\n");
+            out.write(String.format(Locale.ROOT, "%s,%d,%s,%d,%d,%.3f,%b,%d\n", operationName, sources.size(),
+                    destination == null ? "" : EntryWriter.csv(PathResolver.toAddress(destination)),
+                    summary.getFiles(), summary.getBytes(), seconds, summary.isCancelled(), summary.getFailures().size()));
+        }
+        else if (format.equals("paths")){
+            // The failures, so a script can retry them.
+            for (String failure : summary.getFailures()){
+                out.write(failure + "\n");
+            }
+        }
+        else{
+            out.write(String.format(Locale.ROOT, "{\"operation\": \"%s\", \"sources\": %d, \"destination\": %s, "
+                    + "\"files\": %d, \"bytes\": %d, \"seconds\": %.3f, \"cancelled\": %b, \"failures\": [",
+                    operationName, sources.size(),
+                    destination == null ? "null" : EntryWriter.json(PathResolver.toAddress(destination)),
+                    summary.getFiles(), summary.getBytes(), seconds, summary.isCancelled()));
+            String separator = "";
+            for (String failure : summary.getFailures()){
+                out.write(separator + EntryWriter.json(failure));
+                separator = ", ";
+            }
+            out.write("]}\n");
+        }
+        return summary.getFailures().isEmpty() && !summary.isCancelled() ? 0 : 1;
+    }
+
+    /**
+     * Writes FileEntries as a JSON array, CSV with a header, or addresses.
+     * Nothing is written until the first entry or end(), so a listing that
+     * fails at once leaves no half-written output.
+     */
+    static class EntryWriter {
+        private final Writer out;
+        private final String format;
+        private boolean begun;
+        private boolean first = true;
+
+        EntryWriter(Writer out, String format){
+            this.out = out;
+            this.format = format;
+        }
+
+        private void begin() throws IOException {
+            begun = true;
+            if (format.equals("json")){
+                out.write("[");
+            }
+            else if (format.equals("csv")){
+                out.write("path,name,directory,size,type,modified,created\n");
+            }
+        }
+
+        void write(FileEntry entry) throws IOException {
+            if (!begun){
+                begin();
+            }
+            if (format.equals("paths")){
+                out.write(entry.getAddress());
+                out.write('\n');
+            }
+            else if (format.equals("csv")){
+                out.write(csv(entry.getAddress()) + "," + csv(entry.getName()) + "," + entry.isDirectory() + ","
+                        + entry.getSize() + "," + csv(entry.getTypeText()) + "," + date(entry.getDateModified()) + ","
+                        + date(entry.getDateCreated()) + "\n");
+            }
+            else{
+                out.write(first ? "\n  " : ",\n  ");
+                out.write("{\"path\": " + json(entry.getAddress()) + ", \"name\": " + json(entry.getName())
+                        + ", \"directory\": " + entry.isDirectory() + ", \"size\": " + entry.getSize()
+                        + ", \"type\": " + json(entry.getTypeText())
+                        + ", \"modified\": " + jsonDate(entry.getDateModified())
+                        + ", \"created\": " + jsonDate(entry.getDateCreated()) + "}");
+            }
+            first = false;
+        }
+
+        void end() throws IOException {
+            if (!begun){
+                begin();
+            }
+            if (format.equals("json")){
+                out.write(first ? "]\n" : "\n]\n");
+            }
+        }
+
+        /**
+         * @return a date as ISO 8601 in UTC, or "" if it isn't known
+         */
+        static String date(long millis){
+            return millis < 0 ? "" : Instant.ofEpochMilli(millis).toString();
+        }
+
+        static String jsonDate(long millis){
+            return millis < 0 ? "null" : "\"" + date(millis) + "\"";
+        }
+
+        /**
+         * @return s as a JSON string, quoted
+         */
+        static String json(String s){
+            StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0;i < s.length();i++){
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\'){
+                    sb.append('\\').append(c);
+                }
+                else if (c < 0x20){
+                    sb.append(String.format("\\u%04x", (int) c));
+                }
+                else{
+                    sb.append(c);
+                }
+            }
+            return sb.append('"').toString();
+        }
+
+        /**
+         * @return s as a CSV field, quoted if need be
+         */
+        static String csv(String s){
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0){
+                return s;
+            }
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for the file manager's slow paths: listing a
+ * directory and reading attributes, building FilePanels, laying them out,
+ * sorting, searching, navigating, delivering Manager events to observers,
+ * and copy, move and delete jobs.
+ *
+ * The events cost next to nothing unless a recording is running with them
+ * enabled. jfr/filemanager.jfc turns them all on, with stack traces, along
+ * with the JDK events that explain most hangs (locks, file I/O, GC). To
+ * record from startup:
+ *
+ *     java -XX:StartFlightRecording=settings=jfr/filemanager.jfc,filename=fm.jfr Window
+ *
+ * or, for a file manager that is already running, jcmd <pid> JFR.start
+ * settings=jfr/filemanager.jfc. Open the .jfr file in JDK Mission Control,
+ * or print the events with: jfr print --categories "File Manager" fm.jfr
+ */
+public final class FileManagerEvents {
+    private FileManagerEvents(){
+    }
+
+    @Name("filemanager.ListDirectory")
+    @Label("List Directory")
+    @Category({"File Manager", "Listing"})
+    @Description("A directory listing asked of DirectoryCache, read or served from the cache")
+    public static class ListDirectory extends Event {
+        @Label("Directory")
+        String directory;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Cached")
+        @Description("True if the listing was served from the cache")
+        boolean cached;
+    }
+
+    @Name("filemanager.ReadAttributes")
+    @Label("Read Attributes")
+    @Category({"File Manager", "Listing"})
+    @Description("Reading the attributes of a directory's entries")
+    public static class ReadAttributes extends Event {
+        @Label("Directory")
+        String directory;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Failures")
+        int failures;
+
+        @Label("Threads")
+        int threads;
+    }
+
+    @Name("filemanager.BuildRows")
+    @Label("Build Rows")
+    @Category({"File Manager", "View"})
+    @Description("Building the FilePanels for a directory")
+    public static class BuildRows extends Event {
+        @Label("Directory")
+        String directory;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("filemanager.Layout")
+    @Label("Layout")
+    @Category({"File Manager", "View"})
+    @Description("A layout pass over a DirectoryPanel's FilePanels")
+    public static class Layout extends Event {
+        @Label("Pass")
+        @Description("fitColumns sizes the columns; arrange positions the rows")
+        String pass;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("filemanager.Sort")
+    @Label("Sort")
+    @Category({"File Manager", "View"})
+    public static class Sort extends Event {
+        @Label("Attribute")
+        String attribute;
+
+        @Label("Entries")
+        int entries;
+    }
+
+    @Name("filemanager.Search")
+    @Label("Search")
+    @Category({"File Manager", "View"})
+    public static class Search extends Event {
+        @Label("Key")
+        String key;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Matches")
+        int matches;
+    }
+
+    @Name("filemanager.Navigate")
+    @Label("Navigate")
+    @Category({"File Manager", "Manager"})
+    @Description("The Manager moving to another directory; the observers catch up in Deliver events")
+    public static class Navigate extends Event {
+        @Label("Action")
+        @Description("forward, back or visit")
+        String action;
+
+        @Label("From")
+        String from;
+
+        @Label("To")
+        String to;
+    }
+
+    @Name("filemanager.Deliver")
+    @Label("Deliver")
+    @Category({"File Manager", "Manager"})
+    @Description("One observer handling one Manager event")
+    public static class Deliver extends Event {
+        @Label("Event")
+        String event;
+
+        @Label("Observer")
+        String observer;
+    }
+
+    @Name("filemanager.FileOperation")
+    @Label("File Operation")
+    @Category({"File Manager", "File Operations"})
+    @Description("A whole copy, move, delete, compress or extract job")
+    public static class FileOperation extends Event {
+        @Label("Kind")
+        String kind;
+
+        @Label("Source")
+        @Description("The first source; see Sources for how many there were")
+        String source;
+
+        @Label("Sources")
+        int sources;
+
+        @Label("Destination")
+        String destination;
+
+        @Label("Files")
+        int files;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Failures")
+        int failures;
+
+        @Label("Cancelled")
+        boolean cancelled;
+    }
+
+    @Name("filemanager.FileTransfer")
+    @Label("File Transfer")
+    @Category({"File Manager", "File Operations"})
+    @Description("Copying, moving or deleting a single file within a File Operation")
+    public static class FileTransfer extends Event {
+        @Label("Kind")
+        String kind;
+
+        @Label("Source")
+        String source;
+
+        @Label("Target")
+        String target;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -9,7 +9,7 @@ import javax.swing.*;
 public class FileManagerToolbar extends JPanel implements MouseListener,KeyListener,ManagerObserver{
    /* GUI components; back/forward buttons, address/search bars. */
    private ButtonGroup navButtons;
-   private JButton backButton,forwardButton;
+   private JButton backButton,forwardButton,recentButton;
    private JTextField addressBar,searchBar;
    private ButtonGroup sortButtons;
    private JButton name,type,size,dateModified,dateCreated;
@@ -61,6 +61,17 @@ public class FileManagerToolbar extends JPanel implements MouseListener,KeyListe
        add(forwardButton);
        hsum_top += HGAP + forwardButton.getPreferredSize().width;
 
+       // The recent directories button shows a menu of the Manager's history
+       recentButton = new JButton("Recent");
+       recentButton.setToolTipText("Recent directories");
+       recentButton.setMargin(new Insets(0, 0, 0, 0));
+       recentButton.addMouseListener(this);
+       layout.putConstraint(SpringLayout.WEST,recentButton,hsum_top,SpringLayout.WEST,this);
+       layout.putConstraint(SpringLayout.NORTH,recentButton,vsum,SpringLayout.NORTH,this);
+       navButtons.add(recentButton);
+       add(recentButton);
+       hsum_top += HGAP + recentButton.getPreferredSize().width;
+
        // Configure address bar
        addressBar = new JTextField(32);
        addressBar.setToolTipText("Enter a path");
@@ -148,6 +159,8 @@ public class FileManagerToolbar extends JPanel implements MouseListener,KeyListe
        backButton.setPreferredSize(new Dimension(width,height));
        width = forwardButton.getPreferredSize().width;
        forwardButton.setPreferredSize(new Dimension(width,height));
+       width = recentButton.getPreferredSize().width;
+       recentButton.setPreferredSize(new Dimension(width,height));
        width = name.getPreferredSize().width;
        name.setPreferredSize(new Dimension(width,height));
        name.setMargin(new Insets(0, 0, 0, 0));
@@ -213,6 +226,9 @@ public class FileManagerToolbar extends JPanel implements MouseListener,KeyListe
                mngr.forward();
            }
        }
+       else if (e.getSource() == recentButton){
+           showRecentMenu();
+       }
        else if (e.getSource() == name){
            mngr.setSortAttribute(name.getText());
        }
@@ -231,6 +247,38 @@ public class FileManagerToolbar extends JPanel implements MouseListener,KeyListe
        
     }
     
+    /**
+     * Shows a menu of recently visited directories under the recent button.
+     * The list comes from the Manager's history without touching the disk;
+     * a directory is only checked when it's chosen.
+     */
+    private void showRecentMenu(){
+        JPopupMenu recentMenu = new JPopupMenu("Recent");
+        for (final String directory : mngr.getRecentDirectories(20)){
+            if (directory.equals(mngr.getDirectory())){
+                continue;
+            }
+            JMenuItem item = recentMenu.add(directory);
+            item.addActionListener(new ActionListener(){
+                @Override
+                public void actionPerformed(ActionEvent e){
+                    if (mngr.canVisit(directory)){
+                        mngr.forward(directory);
+                    }
+                    else{
+                        JOptionPane.showMessageDialog(FileManagerToolbar.this,
+                                directory + " can no longer be opened.", "Recent",
+                                JOptionPane.WARNING_MESSAGE);
+                    }
+                }
+            });
+        }
+        if (recentMenu.getComponentCount() == 0){
+            recentMenu.add("(none)").setEnabled(false);
+        }
+        recentMenu.show(recentButton, 0, recentButton.getHeight());
+    }
+    
     /**
      * Overridden KeyListener method.
      * @param e the KeyEvent to be processed
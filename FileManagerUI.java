@@ -40,6 +40,13 @@ public class FileManagerUI extends JScrollPane implements ManagerObserver{
         horizontalScrollBar.setUnitIncrement(16);
     }
     
+    /**
+     * @return the Manager this object observes
+     */
+    public Manager getManager(){
+        return mngr;
+    }
+    
     /**
      * Overridden ManagerObserver method.
      * Sends the scrollbars back to their minimum positions when a directory is
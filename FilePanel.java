@@ -4,9 +4,12 @@ import javax.swing.border.Border;
 import java.io.*;
 import java.math.BigDecimal;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.attribute.*;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * A GUI component that visually represents a File.
@@ -20,6 +23,14 @@ public class FilePanel extends JPanel{
     // Tracks whether or not this file should be selected.
     private boolean isSelected,isDirectory;
     private String absolutePath;
+    // The file this represents. May be inside an archive; see PathResolver.
+    private Path path;
+    // The file's attributes, read once when the FilePanel is configured.
+    private BasicFileAttributes attributes;
+    // A directory's total size, once FolderSizes has computed it; -1 until then.
+    private long folderBytes = -1;
+    // True while a thumbnail is shown in place of the icon.
+    private boolean thumbnailShown;
     // Layout manager & layout constants
     private SpringLayout layout;
     private final int HORIZONTAL_GAP = 0;
@@ -36,6 +47,35 @@ public class FilePanel extends JPanel{
      *           FilePanel and its components
      */
     public FilePanel(String fn,DirectoryPanel dp){
+        this(dp.getDirectory().resolve(fn),dp);
+    }
+
+    /**
+     * Constructs a FilePanel for a file in the DirectoryPanel's directory.
+     * @param file the file, which may be inside an archive
+     * @param dp the DirectoryPanel which will be the MouseListener for the
+     *           FilePanel and its components
+     */
+    public FilePanel(Path file,DirectoryPanel dp){
+        this(file,readAttributes(file),dp);
+    }
+
+    /**
+     * Constructs a FilePanel from attributes that have already been read, such
+     * as those in a DirectoryCache listing, so nothing is read again.
+     * @param file the file, which may be inside an archive
+     * @param attributes the file's attributes, or null if they couldn't be read
+     * @param dp the DirectoryPanel which will be the MouseListener for the
+     *           FilePanel and its components
+     */
+    public FilePanel(Path file,BasicFileAttributes attributes,DirectoryPanel dp){
+        String fn = file.getFileName() == null ? file.toString() : file.getFileName().toString();
+        // Directories inside zip archives are named with a trailing "/".
+        if (fn.endsWith("/") && fn.length() > 1){
+            fn = fn.substring(0, fn.length() - 1);
+        }
+        path = file;
+        this.attributes = attributes;
         layout = new SpringLayout();
         setLayout(layout);
         
@@ -100,7 +140,7 @@ public class FilePanel extends JPanel{
 
         // Configure the file, filling in the fields with appropriate names and dates
         absolutePath = dp.getCurrentPath();
-        configureFile(absolutePath);
+        configureFile();
         
         // Add a MouseListener & deselect this
         addMouseListener(dp);
@@ -117,43 +157,56 @@ public class FilePanel extends JPanel{
     */
 
     /**
-     * Configures the field components with the file's data.
+     * Reads a file's attributes in one call, which is one round trip even
+     * inside an archive.
+     * @param file the file
+     * @return the file's attributes (its target's, for a symbolic link), or
+     *     null if they couldn't be read
+     */
+    private static BasicFileAttributes readAttributes(Path file){
+        try{
+            BasicFileAttributes attributes = Files.readAttributes(file,BasicFileAttributes.class,LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()){
+                // Show what the link points to, if it can be read.
+                attributes = Files.readAttributes(file,BasicFileAttributes.class);
+            }
+            return attributes;
+        }
+        catch (IOException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+        catch (SecurityException se){
+            System.out.println(se.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Configures the field components with the file's data, from the
+     * attributes given to the constructor.
      * @author Bradley Nickle
      * @author Dan Tran
      */
-    private void configureFile(String path){        
-        // Make sure that the path is properly delimited by "/" or "\\"
-        int last = path.length() - 1;
-        char delimiter = '\\';
-        if (path.charAt(last) != delimiter && path.charAt(last) != '\\'){
-            path = path + "/";
-        }
-        
-        /* self is the File represented by the FilePanel. Not to be confused with
-        the Python naming convention in which "self" is analogous to "this". */
-        File self = new File(path + this.filename.getText());
-        
+    private void configureFile(){
         // Update the file data based on file type (directory or otherwise)
-        this.isDirectory = self.isDirectory();
+        this.isDirectory = attributes != null && attributes.isDirectory();
         if (this.isDirectory){
             // Update the icon
-            this.icon = new ImageIcon("src/main/java/icons/folder.png",path);
+            this.icon = new ImageIcon("src/main/java/icons/folder.png",absolutePath);
             
-            // Hide the size of a directory.
-            this.size.setVisible(false);
+            // A directory's size is shown once FolderSizes has computed it.
+            this.size.setText("...");
+            this.size.setToolTipText("Calculating the folder's size");
         } else{
             // Update the icon
-            this.icon = new ImageIcon("src/main/java/icons/file.png",path);
+            this.icon = new ImageIcon("src/main/java/icons/file.png",absolutePath);
             
             // Show & set text for fields based on file data. Credit to Dan Tran
-            try{
-                this.configureSize(self.length());
-            }
-            catch (SecurityException se){
-                this.size.setToolTipText("A security error occurred and the file's size could not be read.");
+            if (attributes != null){
+                this.configureSize(attributes.size());
             }
-            catch (Exception e){
-                System.out.println(e.getMessage());
+            else{
                 this.size.setToolTipText("An error occurred and the file's size could not be read.");
             }
         }
@@ -163,24 +216,14 @@ public class FilePanel extends JPanel{
         // Update the type
         this.fileType.setText(this.getFileTypeText(this.getFileType()));
         
-        // Update the date modified
+        // Update the dates
         SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy hh:mm aa");
-        try{
-            this.dateModified.setText(sdf.format(self.lastModified()));
+        if (attributes != null){
+            this.dateModified.setText(sdf.format(new Date(attributes.lastModifiedTime().toMillis())));
+            this.dateCreated.setText(sdf.format(new Date(getDateCreated())));
         }
-        catch (SecurityException e){
-            System.out.println(e.getMessage());
+        else{
             this.dateModified.setText("null");
-        }
-        
-        BasicFileAttributes attrib;
-        try{
-            attrib = Files.readAttributes(self.toPath(),BasicFileAttributes.class);
-            FileTime created = attrib.creationTime();
-            this.dateCreated.setText(sdf.format(new Date(created.toMillis())));
-        }
-        catch(IOException e){
-            System.out.println(e.getMessage());
             this.dateCreated.setText("null");
         }
     }
@@ -194,8 +237,8 @@ public class FilePanel extends JPanel{
      * @param length the file's size in bytes
      */
     public void configureSize(Long length){
-        // If it's a directory, we don't need to do any work.
-        if (!isDirectory){
+        // If it's a directory whose total isn't known, we don't need to do any work.
+        if (!isDirectory || folderBytes >= 0){
             BigDecimal filesize = new BigDecimal(length);
             filesize.setScale(3,BigDecimal.ROUND_CEILING);
             String theSize = length.toString();
@@ -245,6 +288,94 @@ public class FilePanel extends JPanel{
         }
     }
 
+    /**
+     * Formats a size for a single line of text, such as a status bar, with
+     * the same units as the Size column.
+     * @param bytes a size in bytes
+     * @return the size in B, KB, MB, GB or TB, to one decimal place
+     */
+    public static String formatSize(long bytes){
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        double size = bytes;
+        int unit = 0;
+        while (size >= 1000 && unit < units.length - 1){
+            size /= 1000;
+            unit++;
+        }
+        return unit == 0 ? bytes + " B" : String.format(Locale.ROOT, "%.1f %s", size, units[unit]);
+    }
+
+    /**
+     * Shows the total size of a directory.
+     * @param total the directory's total, from FolderSizes
+     */
+    public void setFolderSize(FolderSizes.Total total){
+        folderBytes = total.getBytes();
+        configureSize(folderBytes);
+        size.setToolTipText(size.getToolTipText() + " in " + total.getFiles() + " file(s)"
+                + (total.getErrors() > 0 ? "; " + total.getErrors() + " item(s) couldn't be read" : ""));
+    }
+
+    /**
+     * Shows the type of a file without an extension, found by sniffing its
+     * contents.
+     * @param type the type, from FileTypeRegistry
+     */
+    public void setSniffedType(String type){
+        fileType.setText(type);
+        fileType.setToolTipText("Found from the file's contents");
+    }
+
+    /**
+     * @return true if this is a regular file without an extension, whose
+     *     type can only be found from its contents. Pipes and devices are
+     *     never read; opening a pipe waits for a writer.
+     */
+    public boolean needsSniffing(){
+        return path != null && attributes != null && attributes.isRegularFile() && getFileType().equals("?");
+    }
+
+    /**
+     * Makes room for thumbnails in place of the icon, or goes back to the icon.
+     * @param iconSize the width and height of a thumbnail, or 0 for the icon
+     */
+    public void setIconSize(int iconSize){
+        if (iconSize > 0){
+            pic.setPreferredSize(new Dimension(iconSize, iconSize));
+            setPreferredSize(new Dimension(getPreferredSize().width, iconSize + 2 * VERTICAL_GAP));
+        }
+        else{
+            pic.setPreferredSize(null);
+            pic.setIcon(icon);
+            thumbnailShown = false;
+            setPreferredSize(new Dimension(getPreferredSize().width, 25));
+        }
+    }
+
+    /**
+     * Shows a thumbnail of the file in place of the icon.
+     * @param thumbnail the thumbnail, from ThumbnailCache
+     */
+    public void setThumbnail(Image thumbnail){
+        pic.setIcon(new ImageIcon(thumbnail));
+        thumbnailShown = true;
+    }
+
+    /**
+     * @return true if a thumbnail is shown in place of the icon
+     */
+    public boolean hasThumbnail(){
+        return thumbnailShown;
+    }
+
+    /**
+     * @return true if this is a regular image file a thumbnail can be made of
+     */
+    public boolean canShowThumbnail(){
+        return path != null && attributes != null && attributes.isRegularFile()
+                && ThumbnailCache.getDefault().isImage(getFileName());
+    }
+
     /**
      * Adjust the widths of this FilePanel's JLabels to be consistent with those of the other FilePanels.
      * @param sizes the new sizes for the JLabels.
@@ -307,94 +438,51 @@ public class FilePanel extends JPanel{
      * @return file extension of the file
      * */
     public String getFileType(){
-        if (isDirectory){
-            return "?";
-        }
-        String type = filename.getText();
-        int dotIndex = type.lastIndexOf(".");
-        if (dotIndex == -1){
-            return "?";
-        }
-        type = type.substring(dotIndex);
-        return type;
+        return FileEntry.extensionOf(filename.getText(), isDirectory);
     }
 
     /**
      * @return The size of the file, as a BigDecimal.
-     *      If the file is a directory, returns 0.
-     *      If a security error occurs, returns -2.
-     *      If any other error occurs, returns -1.
+     *      If the file is a directory, returns its total size, or -1 until
+     *      FolderSizes has computed it.
+     *      If its attributes couldn't be read, returns -1.
      */
     public BigDecimal getFileSize(){
         if (isDirectory){
-            return new BigDecimal(0);
+            return new BigDecimal(folderBytes);
         }
-        try{
-            File self = new File(getFullFileName());
-            return new BigDecimal(self.length());
-        }
-        catch (SecurityException e){
-            size.setText("-2");
-            return new BigDecimal(-2);
-        }
-        catch (Exception e){
+        if (attributes == null){
             size.setText("-1");
             return new BigDecimal(-1);
         }
+        return new BigDecimal(attributes.size());
     }
 
     /**
      * @return the date of the last modification, represented in milliseconds since
      *      the epoch.
-     *      If a security error occurs, return -2.
-     *      If any other error occurs, return -1.
+     *      If its attributes couldn't be read, return -1.
      */
     public long getDateModified(){
-        try{
-            File self = new File(getFullFileName());
-            return self.lastModified();
-        }
-        catch (SecurityException se){
-            this.dateModified.setText("null");
-            return -2;
-        }
-        catch (Exception e){
+        if (attributes == null){
             this.dateModified.setText("null");
             return -1;
         }
+        return attributes.lastModifiedTime().toMillis();
     }
 
     /**
      * @return the date of creation, represented in milliseconds since the epoch.
-     *      If the file isn't found, return -4.
-     *      If a security error occurs, return -3.
-     *      If an IO error occurs, return -2.
-     *      If any other error occurs, return -1.
+     *      If its attributes couldn't be read, return -1.
      */
     public long getDateCreated(){
-        try{
-            File self = new File(getFullFileName());
-            BasicFileAttributes attrib;
-            attrib = Files.readAttributes(self.toPath(),BasicFileAttributes.class);
-            FileTime created = attrib.creationTime();
-            return created.toMillis();
-        }
-        catch (FileNotFoundException fnf){
-            this.dateCreated.setText("null");
-            return -4;
-        }
-        catch (SecurityException se){
-            this.dateCreated.setText("null");
-            return -3;
-        }
-        catch (IOException ioe){
-            this.dateCreated.setText("null");
-            return -2;
-        }
-        catch (Exception e){
+        if (attributes == null){
             this.dateCreated.setText("null");
             return -1;
         }
+        // Some file systems, such as zip archives, may not record a creation time.
+        FileTime created = attributes.creationTime();
+        return created != null ? created.toMillis() : attributes.lastModifiedTime().toMillis();
     }
 
     /**
@@ -461,28 +549,7 @@ public class FilePanel extends JPanel{
      *
      * */
     public String getFileTypeText(String s){
-        if (isDirectory) return "File Folder";
-        else if (s.equals(".exe")) return "Executable";
-        else if (s.equals(".BIN")) return "BIN File";
-        else if (s.equals(".MARKER")) return "MARKER File";
-        else if (s.equals(".img")) return "Disk Image File";
-        else if (s.equals(".dat")) return "Data File";
-        else if (s.equals(".txt")) return "Text";
-        else if (s.equals(".pdf")) return "Document";
-        else if (s.equals(".drawio")) return "DRAWIO File";
-        else if (s.equals(".msi")) return "Windows Installer Package";
-        else if (s.equals(".dll")) return "Application extension";
-        else if (s.equals(".sys")) return "System File";
-        else if (s.equals(".ini")) return "Configuration Settings";
-        else if (s.equals(".doc") || s.equals(".docx")) return "Document";
-        else if (s.equals(".xlsx")) return "Spreadsheet";
-        else if (s.equals(".ppt")) return "Powerpoint";
-        else if (s.equals(".png") || s.equals(".gif")) return "Image";
-        else if (s.equals(".jpg") || s.equals(".jpeg")) return "Image";
-        else if (s.equals(".bmp")) return "Image";
-        else if (s.equals(".avi") || s.equals(".mkv")) return "Video";
-        else if (s.equals(".mp3") || s.equals(".wav")) return "Audio";
-        else return "Unknown File Type";
+        return FileEntry.typeText(s, isDirectory);
     }
 
 
@@ -528,6 +595,7 @@ public class FilePanel extends JPanel{
      */
     public void setText(String s){
         filename.setText(s);
+        path = path.resolveSibling(s);
     }
 
 
@@ -536,10 +604,26 @@ public class FilePanel extends JPanel{
     */
 
     /**
-     * @return the absolute path of the file
+     * @return the address of the file, which can be given to the Manager.
+     *      Inside an archive this passes through the archive's own path;
+     *      see PathResolver.
      */
     public String getFullFileName(){
-        return absolutePath + "/" + filename.getText();
+        return PathResolver.toAddress(path);
+    }
+
+    /**
+     * @return the file this represents, which may be inside an archive
+     */
+    public Path getPath(){
+        return path;
+    }
+
+    /**
+     * @return true if the file is an archive that can be opened like a folder
+     */
+    public boolean isBrowsableArchive(){
+        return !isDirectory && PathResolver.isBrowsableArchive(path);
     }
 
     /**
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * The start of a file, as text or as a hex dump, for the preview pane.
+ *
+ * Only a bounded window at the start of the file is read, with a positional
+ * read into a buffer of that size, however large the file is: 64 KB for text
+ * (-Dfilemanager.preview.textBytes=<n>) and 4 KB for binary files
+ * (-Dfilemanager.preview.hexBytes=<n>).
+ *
+ * The encoding of a text file is found from its byte order mark if it has
+ * one; otherwise the window is decoded as UTF-8 if it is valid UTF-8, and as
+ * windows-1252 (or ISO-8859-1) if not. A window with NUL bytes, or with many
+ * control characters, is shown as hex.
+ */
+public class FilePreview {
+    public static final int DEFAULT_TEXT_BYTES = 64 * 1024;
+    public static final int DEFAULT_HEX_BYTES = 4 * 1024;
+    // Bytes per line of the hex dump.
+    private static final int HEX_LINE = 16;
+
+    private final Path file;
+    private final long fileSize;
+    private final int bytesRead;
+    private final String charset;
+    private final String text;
+
+    private FilePreview(Path file, long fileSize, int bytesRead, String charset, String text){
+        this.file = file;
+        this.fileSize = fileSize;
+        this.bytesRead = bytesRead;
+        this.charset = charset;
+        this.text = text;
+    }
+
+    /**
+     * Reads the start of a file.
+     * @param file a file, which may be inside an archive
+     * @return its preview
+     * @throws IOException if it can't be read
+     */
+    public static FilePreview read(Path file) throws IOException {
+        return read(file, Integer.getInteger("filemanager.preview.textBytes", DEFAULT_TEXT_BYTES),
+                Integer.getInteger("filemanager.preview.hexBytes", DEFAULT_HEX_BYTES));
+    }
+
+    /**
+     * Reads the start of a file.
+     * @param file a file, which may be inside an archive
+     * @param textBytes how many bytes to read and show if it is text
+     * @param hexBytes how many of those bytes to show if it is binary
+     * @return its preview
+     * @throws IOException if it can't be read
+     */
+    public static FilePreview read(Path file, int textBytes, int hexBytes) throws IOException {
+        PathResolver.acquire(file);
+        try{
+            return readHeld(file, textBytes, hexBytes);
+        }
+        finally{
+            PathResolver.release(file);
+        }
+    }
+
+    /**
+     * See read(); the file's archive, if it is in one, is held open.
+     */
+    private static FilePreview readHeld(Path file, int textBytes, int hexBytes) throws IOException {
+        if (!Files.isRegularFile(file)){
+            // Reading a pipe or a device could block, or never end.
+            throw new IOException(file + " is not a regular file");
+        }
+        long started = System.nanoTime();
+        long fileSize;
+        ByteBuffer buffer;
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)){
+            fileSize = channel.size();
+            buffer = ByteBuffer.allocate((int) Math.min(Math.max(textBytes, hexBytes), fileSize));
+            channel.position(0);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0){
+                // Keep reading; a channel may return fewer bytes than asked for.
+            }
+        }
+        byte[] head = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(head);
+        MetricsRegistry.record(MetricsRegistry.PREVIEW_TIME, System.nanoTime() - started);
+
+        Charset charset = detectCharset(head);
+        if (charset == null){
+            int length = Math.min(head.length, hexBytes);
+            return new FilePreview(file, fileSize, length, null, hexDump(head, length));
+        }
+        int length = Math.min(head.length, textBytes);
+        return new FilePreview(file, fileSize, length, charset.name(),
+                decode(head, length, charset, length < fileSize));
+    }
+
+    /**
+     * @param head the start of a file
+     * @return the encoding its text is in, or null if it isn't text
+     */
+    static Charset detectCharset(byte[] head){
+        if (startsWith(head, 0xEF, 0xBB, 0xBF)){
+            return StandardCharsets.UTF_8;
+        }
+        if (startsWith(head, 0xFF, 0xFE)){
+            return StandardCharsets.UTF_16LE;
+        }
+        if (startsWith(head, 0xFE, 0xFF)){
+            return StandardCharsets.UTF_16BE;
+        }
+        int control = 0;
+        for (byte b : head){
+            if (b == 0){
+                return null;
+            }
+            // Tab, line feed, form feed, carriage return and escape are seen in text.
+            if (b >= 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\f' && b != '\r' && b != 0x1B){
+                control++;
+            }
+        }
+        if (control > head.length / 10){
+            return null;
+        }
+        if (isUtf8(head)){
+            return StandardCharsets.UTF_8;
+        }
+        return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * @return true if the bytes are UTF-8, allowing a character cut off at
+     *     the end of the window
+     */
+    private static boolean isUtf8(byte[] head){
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(1024);
+        ByteBuffer in = ByteBuffer.wrap(head);
+        while (true){
+            CoderResult result = decoder.decode(in, out, false);
+            if (result.isError()){
+                return false;
+            }
+            if (result.isUnderflow()){
+                // Whatever is left is the start of a character the window cut off.
+                return in.remaining() < 4;
+            }
+            out.clear();
+        }
+    }
+
+    private static String decode(byte[] head, int length, Charset charset, boolean cutOff){
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer out = CharBuffer.allocate((int) (length * (double) decoder.maxCharsPerByte()) + 1);
+        ByteBuffer in = ByteBuffer.wrap(head, 0, length);
+        // Skip the byte order mark.
+        if (startsWith(head, 0xEF, 0xBB, 0xBF)){
+            in.position(3);
+        }
+        else if (startsWith(head, 0xFF, 0xFE) || startsWith(head, 0xFE, 0xFF)){
+            in.position(2);
+        }
+        // A character cut off by the end of the window is dropped, not replaced.
+        decoder.decode(in, out, !cutOff);
+        if (!cutOff){
+            decoder.flush(out);
+        }
+        out.flip();
+        return out.toString();
+    }
+
+    /**
+     * @param head bytes
+     * @param length how many of them to dump
+     * @return lines of an offset, 16 bytes in hex and the same as ASCII
+     */
+    static String hexDump(byte[] head, int length){
+        StringBuilder dump = new StringBuilder(length / HEX_LINE * 80 + 80);
+        for (int line = 0;line < length;line += HEX_LINE){
+            dump.append(String.format(Locale.ROOT, "%08x  ", line));
+            for (int i = line;i < line + HEX_LINE;i++){
+                if (i < length){
+                    dump.append(Character.forDigit(head[i] >> 4 & 0xF, 16));
+                    dump.append(Character.forDigit(head[i] & 0xF, 16));
+                    dump.append(' ');
+                }
+                else{
+                    dump.append("   ");
+                }
+                if (i == line + HEX_LINE / 2 - 1){
+                    dump.append(' ');
+                }
+            }
+            dump.append(" |");
+            for (int i = line;i < Math.min(line + HEX_LINE, length);i++){
+                char c = (char) (head[i] & 0xFF);
+                dump.append(c >= 0x20 && c < 0x7F ? c : '.');
+            }
+            dump.append("|\n");
+        }
+        return dump.toString();
+    }
+
+    private static boolean startsWith(byte[] head, int... magic){
+        if (head.length < magic.length){
+            return false;
+        }
+        for (int i = 0;i < magic.length;i++){
+            if ((head[i] & 0xFF) != magic[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the file previewed
+     */
+    public Path getFile(){
+        return file;
+    }
+
+    /**
+     * @return the size of the whole file, in bytes
+     */
+    public long getFileSize(){
+        return fileSize;
+    }
+
+    /**
+     * @return how many bytes from the start of the file are shown
+     */
+    public int getBytesShown(){
+        return bytesRead;
+    }
+
+    /**
+     * @return true if only part of the file is shown
+     */
+    public boolean isTruncated(){
+        return bytesRead < fileSize;
+    }
+
+    /**
+     * @return true if the file is shown as text, false for a hex dump
+     */
+    public boolean isText(){
+        return charset != null;
+    }
+
+    /**
+     * @return the name of the text's encoding, or null for a hex dump
+     */
+    public String getCharset(){
+        return charset;
+    }
+
+    /**
+     * @return the text, or the hex dump
+     */
+    public String getText(){
+        return text;
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Listing, walking, sorting and searching directories without a display.
+ * DirectoryPanel does the same on its FilePanels; this works on FileEntry
+ * objects, so it can be used by the command line (see FileManagerCli) and by
+ * anything else that has no Swing components.
+ *
+ * Listings come from DirectoryCache, so they read attributes in parallel
+ * just as the window does.
+ */
+public class FileQuery {
+    /**
+     * The sort attributes, as Manager.setSortAttribute() takes them.
+     */
+    public static final String[] SORT_ATTRIBUTES = {"Name", "Size", "Type", "Date Modified", "Date Created"};
+
+    /**
+     * Receives entries one at a time, as they are found.
+     */
+    public interface Sink {
+        /**
+         * @param entry an entry
+         * @throws IOException if the entry can't be handled; the walk stops
+         */
+        public void accept(FileEntry entry) throws IOException;
+    }
+
+    /**
+     * @param directory a directory, which may be inside an archive
+     * @return the directory's entries, through the shared DirectoryCache
+     * @throws IOException if the directory can't be listed
+     */
+    public static List<FileEntry> list(Path directory) throws IOException {
+        return toEntries(DirectoryCache.getDefault().get(directory));
+    }
+
+    /**
+     * Walks a directory tree, a directory's entries before those of its
+     * subdirectories. Directories are listed once each and not cached.
+     * Symbolic links to directories are not followed. Subdirectories that
+     * can't be listed are reported and skipped.
+     * @param root the directory to walk
+     * @param maxDepth how many levels of subdirectories to go into; 0 for
+     *     the root's entries only, -1 for no limit
+     * @param sink receives every entry
+     * @throws IOException if the root can't be listed, or the sink fails
+     */
+    public static void walk(Path root, int maxDepth, Sink sink) throws IOException {
+        Deque<Path> directories = new ArrayDeque<Path>();
+        Deque<Integer> depths = new ArrayDeque<Integer>();
+        directories.add(root);
+        depths.add(0);
+        while (!directories.isEmpty()){
+            Path directory = directories.poll();
+            int depth = depths.poll();
+            DirectoryCache.Listing listing;
+            try{
+                listing = DirectoryCache.list(directory);
+            }
+            catch (IOException | SecurityException e){
+                if (directory == root){
+                    throw e;
+                }
+                System.out.println(directory + ": " + e.getMessage());
+                continue;
+            }
+            for (int i = 0;i < listing.size();i++){
+                FileEntry entry = FileEntry.of(listing, i);
+                sink.accept(entry);
+                if (entry.isDirectory() && (maxDepth < 0 || depth < maxDepth) && !Files.isSymbolicLink(entry.getPath())){
+                    directories.add(entry.getPath());
+                    depths.add(depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param attribute one of SORT_ATTRIBUTES; case and spaces are ignored,
+     *     so "datemodified" will do
+     * @return the attribute as spelled in SORT_ATTRIBUTES
+     * @throws IllegalArgumentException if it isn't a sort attribute
+     */
+    public static String sortAttribute(String attribute){
+        String wanted = attribute.replace(" ", "").replace("-", "").toLowerCase();
+        for (String known : SORT_ATTRIBUTES){
+            if (known.replace(" ", "").toLowerCase().equals(wanted)){
+                return known;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sort attribute: " + attribute);
+    }
+
+    /**
+     * The order the window shows entries in: directories first, then by the
+     * attribute (names and types A to Z, sizes and dates largest and newest
+     * first), then by name.
+     * @param attribute one of SORT_ATTRIBUTES
+     * @return a comparator for that order
+     * @throws IllegalArgumentException if it isn't a sort attribute
+     */
+    public static Comparator<FileEntry> comparator(String attribute){
+        final String sort = sortAttribute(attribute);
+        return new Comparator<FileEntry>(){
+            @Override
+            public int compare(FileEntry a, FileEntry b){
+                if (a.isDirectory() != b.isDirectory()){
+                    return a.isDirectory() ? -1 : 1;
+                }
+                int c = 0;
+                if (sort.equals("Size")){
+                    c = Long.compare(b.getSize(), a.getSize());
+                }
+                else if (sort.equals("Type")){
+                    c = a.getExtension().compareToIgnoreCase(b.getExtension());
+                }
+                else if (sort.equals("Date Modified")){
+                    c = Long.compare(b.getDateModified(), a.getDateModified());
+                }
+                else if (sort.equals("Date Created")){
+                    c = Long.compare(b.getDateCreated(), a.getDateCreated());
+                }
+                return c != 0 ? c : a.getName().compareToIgnoreCase(b.getName());
+            }
+        };
+    }
+
+    /**
+     * Sorts entries in the order the window shows them; see comparator().
+     * @param entries the entries to sort
+     * @param attribute one of SORT_ATTRIBUTES
+     * @throws IllegalArgumentException if it isn't a sort attribute
+     */
+    public static void sort(List<FileEntry> entries, String attribute){
+        Collections.sort(entries, comparator(attribute));
+    }
+
+    /**
+     * The test used by the search box.
+     * @param name a file name
+     * @param searchKey what was searched for
+     * @return true if the name contains the key, ignoring case
+     */
+    public static boolean matches(String name, String searchKey){
+        return name.toLowerCase().contains(searchKey.toLowerCase());
+    }
+
+    /**
+     * @param entries the entries to search
+     * @param searchKey what to search for
+     * @return the entries whose names contain the key, ignoring case, in order
+     */
+    public static List<FileEntry> search(List<FileEntry> entries, String searchKey){
+        List<FileEntry> matches = new ArrayList<FileEntry>();
+        for (FileEntry entry : entries){
+            if (matches(entry.getName(), searchKey)){
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param listing a directory listing
+     * @return its entries, in listing order
+     */
+    public static List<FileEntry> toEntries(DirectoryCache.Listing listing){
+        List<FileEntry> entries = new ArrayList<FileEntry>(listing.size());
+        for (int i = 0;i < listing.size();i++){
+            entries.add(FileEntry.of(listing, i));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The text of the Type column: what kind of file a file is.
+ *
+ * Types are looked up by extension in a hash map, ignoring case, so ".PDF" is
+ * a Document like ".pdf". The extensions are loaded from types/filetypes.txt
+ * (or -Dfilemanager.types.file=<file>); if it can't be read, the types the
+ * file manager has always known are used.
+ *
+ * A file without an extension can be sniffed: its first few hundred bytes
+ * are compared with the signatures ("magic bytes") in the same file, such as
+ * the "%PDF" that every PDF starts with. Sniffing reads the file, so
+ * FilePanels do it in the background with sniffLater(). What was found is
+ * cached for each file and last modification time, so a file is only read
+ * again once it changes. Sniffing is turned off with
+ * -Dfilemanager.types.sniff=false.
+ */
+public class FileTypeRegistry {
+    public static final String DEFAULT_FILE = "types/filetypes.txt";
+    public static final String FOLDER = "File Folder";
+    public static final String UNKNOWN = "Unknown File Type";
+    // How many files' sniffed types are cached.
+    private static final int SNIFF_CACHE_SIZE = 10000;
+
+    // The types used when no file can be loaded.
+    private static final String[][] BUILT_IN = {
+        {".exe", "Executable"}, {".bin", "BIN File"}, {".marker", "MARKER File"},
+        {".img", "Disk Image File"}, {".dat", "Data File"}, {".txt", "Text"},
+        {".pdf", "Document"}, {".drawio", "DRAWIO File"}, {".msi", "Windows Installer Package"},
+        {".dll", "Application extension"}, {".sys", "System File"}, {".ini", "Configuration Settings"},
+        {".doc", "Document"}, {".docx", "Document"}, {".xlsx", "Spreadsheet"}, {".ppt", "Powerpoint"},
+        {".png", "Image"}, {".gif", "Image"}, {".jpg", "Image"}, {".jpeg", "Image"}, {".bmp", "Image"},
+        {".avi", "Video"}, {".mkv", "Video"}, {".mp3", "Audio"}, {".wav", "Audio"}
+    };
+
+    private static FileTypeRegistry instance;
+
+    /**
+     * Receives the type of a sniffed file.
+     */
+    public interface Listener {
+        /**
+         * Called on one of IoExecutor's threads.
+         * @param file the file
+         * @param type its type, or null if no signature matched
+         */
+        public void sniffed(Path file, String type);
+    }
+
+    // Bytes found at an offset in every file of a type.
+    private static class Signature {
+        final int offset;
+        final byte[] magic;
+        final String type;
+
+        Signature(int offset, byte[] magic, String type){
+            this.offset = offset;
+            this.magic = magic;
+            this.type = type;
+        }
+    }
+
+    // A sniffed type, and the modification time of the file it was read from.
+    private static class Sniffed {
+        final long modified;
+        final String type;
+
+        Sniffed(long modified, String type){
+            this.modified = modified;
+            this.type = type;
+        }
+    }
+
+    private final Map<String,String> byExtension = new HashMap<String,String>();
+    private final List<Signature> signatures = new ArrayList<Signature>();
+    // How many bytes must be read to check every signature.
+    private int sniffLength;
+    private boolean sniffing = true;
+    // Guarded by itself; the least recently used file is dropped first.
+    private final LinkedHashMap<Path,Sniffed> sniffed = new LinkedHashMap<Path,Sniffed>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path,Sniffed> eldest){
+            return size() > SNIFF_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @return the registry shared by the whole file manager, loaded from
+     *     DEFAULT_FILE (or -Dfilemanager.types.file=<file>)
+     */
+    public static synchronized FileTypeRegistry getDefault(){
+        if (instance == null){
+            FileTypeRegistry registry = new FileTypeRegistry();
+            Path file = Paths.get(System.getProperty("filemanager.types.file", DEFAULT_FILE));
+            try{
+                registry.load(file);
+            }
+            catch (IOException ioe){
+                System.out.println("Using the built-in file types; could not read " + ioe.getMessage());
+                registry = new FileTypeRegistry();
+                for (String[] type : BUILT_IN){
+                    registry.put(type[0], type[1]);
+                }
+            }
+            registry.sniffing = !"false".equals(System.getProperty("filemanager.types.sniff"));
+            instance = registry;
+        }
+        return instance;
+    }
+
+    /**
+     * Adds the types in a file; see types/filetypes.txt for the format.
+     * @param file the file
+     * @throws IOException if it can't be read, or a line can't be understood
+     */
+    public void load(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 0;i < lines.size();i++){
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            int equals = line.indexOf('=');
+            String type = equals < 0 ? "" : line.substring(equals + 1).trim();
+            if (type.isEmpty()){
+                throw new IOException(file + ":" + (i + 1) + ": expected \"= Type text\"");
+            }
+            String[] keys = line.substring(0, equals).trim().split("\\s+");
+            if (keys[0].equals("magic")){
+                if (keys.length != 3){
+                    throw new IOException(file + ":" + (i + 1) + ": expected \"magic <offset> <hex bytes>\"");
+                }
+                try{
+                    addSignature(Integer.parseInt(keys[1]), hexBytes(keys[2]), type);
+                }
+                catch (IllegalArgumentException iae){
+                    throw new IOException(file + ":" + (i + 1) + ": " + iae.getMessage());
+                }
+            }
+            else{
+                for (String extension : keys){
+                    put(extension, type);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param extension an extension, such as ".txt"
+     * @param type the text of the Type column for it
+     */
+    public void put(String extension, String type){
+        byExtension.put(extension.toLowerCase(Locale.ROOT), type);
+    }
+
+    /**
+     * @param offset where the bytes are in the file
+     * @param magic the bytes
+     * @param type the text of the Type column for files that have them
+     */
+    public void addSignature(int offset, byte[] magic, String type){
+        if (offset < 0 || magic.length == 0){
+            throw new IllegalArgumentException("Empty or negative signature");
+        }
+        signatures.add(new Signature(offset, magic, type));
+        sniffLength = Math.max(sniffLength, offset + magic.length);
+    }
+
+    /**
+     * @param extension a file's extension, such as ".txt", or "?" for none
+     * @return the text of the Type column for it
+     */
+    public String typeOf(String extension){
+        String type = byExtension.get(extension.toLowerCase(Locale.ROOT));
+        return type != null ? type : UNKNOWN;
+    }
+
+    /**
+     * @return true if files without an extension should be sniffed
+     */
+    public boolean isSniffing(){
+        return sniffing && !signatures.isEmpty();
+    }
+
+    /**
+     * @param file a file
+     * @param modified its last modification time, in milliseconds
+     * @return its sniffed type if it's cached: a type, or UNKNOWN if no
+     *     signature matched; null if it hasn't been sniffed since it changed
+     */
+    public String getCached(Path file, long modified){
+        synchronized (sniffed){
+            Sniffed known = sniffed.get(file);
+            return known != null && known.modified == modified ? known.type : null;
+        }
+    }
+
+    /**
+     * Reads the start of a file and compares it with the signatures. The
+     * result is cached.
+     * @param file a file
+     * @param modified its last modification time, in milliseconds
+     * @return its type, or UNKNOWN if no signature matched, or the file
+     *     can't be read or isn't a regular file
+     */
+    public String sniff(Path file, long modified){
+        String type = getCached(file, modified);
+        if (type != null){
+            return type;
+        }
+        type = UNKNOWN;
+        try{
+            IoThrottle.global().acquireOps(1);
+            PathResolver.acquire(file);
+            try{
+                // Opening a pipe would wait for a writer, holding the thread forever.
+                if (!Files.isRegularFile(file)){
+                    return UNKNOWN;
+                }
+                byte[] head = readHead(file);
+                for (Signature signature : signatures){
+                    if (matches(head, signature)){
+                        type = signature.type;
+                        break;
+                    }
+                }
+            }
+            finally{
+                PathResolver.release(file);
+            }
+        }
+        catch (IOException | SecurityException e){
+            // An unreadable file is of an unknown type.
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            return UNKNOWN;
+        }
+        synchronized (sniffed){
+            sniffed.put(file, new Sniffed(modified, type));
+        }
+        return type;
+    }
+
+    /**
+     * Sniffs a file on one of IoExecutor's threads.
+     * @param file a file
+     * @param modified its last modification time, in milliseconds
+     * @param listener receives the type
+     */
+    public void sniffLater(final Path file, final long modified, final Listener listener){
+        IoExecutor.get().execute(new Runnable(){
+            @Override
+            public void run(){
+                String type = sniff(file, modified);
+                listener.sniffed(file, UNKNOWN.equals(type) ? null : type);
+            }
+        });
+    }
+
+    /**
+     * @return the first sniffLength bytes of a file, or all of a shorter one
+     */
+    private byte[] readHead(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(sniffLength);
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)){
+            while (buffer.hasRemaining() && channel.read(buffer) > 0){
+                // Keep reading; a channel may return fewer bytes than asked for.
+            }
+        }
+        byte[] head = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(head);
+        return head;
+    }
+
+    private static boolean matches(byte[] head, Signature signature){
+        if (head.length < signature.offset + signature.magic.length){
+            return false;
+        }
+        for (int i = 0;i < signature.magic.length;i++){
+            if (head[signature.offset + i] != signature.magic[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] hexBytes(String hex){
+        if (hex.length() % 2 != 0){
+            throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0;i < bytes.length;i++){
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0){
+                throw new IllegalArgumentException("Not hex: " + hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+}
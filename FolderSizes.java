@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The total size of every folder, computed in the background and cached.
+ *
+ * A folder's size is walked in parallel on a ForkJoinPool: each folder is a
+ * task that lists its entries, adds up its files and forks a task for each
+ * subfolder. The total of every folder walked is cached, not just the one
+ * asked for, so the total of a parent reuses the totals of its subfolders.
+ *
+ * When something in a folder changes, the totals of the folder and of every
+ * folder above it are dropped, and nothing else: recomputing a parent lists
+ * the folders along the changed path again and reuses the cached totals of
+ * every other subfolder. Changes are learned from DirectoryWatcher (for
+ * folders the file manager has listed), from file operations, and from
+ * Refresh. Totals are also dropped after 5 minutes
+ * (-Dfilemanager.folderSizes.ttlSeconds=<s>), for changes made deep inside a
+ * folder by other programs. At most 50000 totals are kept
+ * (-Dfilemanager.folderSizes.size=<n>); the least recently used go first.
+ *
+ * Symbolic links to folders are not followed. The walk yields to the
+ * foreground like other background I/O; see IoThrottle.
+ */
+public class FolderSizes implements DirectoryWatcher.Listener {
+    public static final long DEFAULT_TTL_SECONDS = 300;
+    public static final int DEFAULT_CAPACITY = 50000;
+
+    private static FolderSizes instance;
+
+    /**
+     * The size of a folder and everything in it.
+     */
+    public static class Total {
+        private final long bytes;
+        private final long files;
+        private final long folders;
+        private final long errors;
+        private final long computed;
+
+        Total(long bytes, long files, long folders, long errors){
+            this.bytes = bytes;
+            this.files = files;
+            this.folders = folders;
+            this.errors = errors;
+            this.computed = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the total size of the files, in bytes
+         */
+        public long getBytes(){
+            return bytes;
+        }
+
+        /**
+         * @return the number of files
+         */
+        public long getFiles(){
+            return files;
+        }
+
+        /**
+         * @return the number of folders beneath this one
+         */
+        public long getFolders(){
+            return folders;
+        }
+
+        /**
+         * @return the number of folders and files that couldn't be read, and
+         *     aren't counted
+         */
+        public long getErrors(){
+            return errors;
+        }
+    }
+
+    /**
+     * Receives a folder's total once it is known.
+     */
+    public interface Listener {
+        /**
+         * Called on one of the walker's threads.
+         * @param folder the folder
+         * @param total its total
+         */
+        public void sized(Path folder, Total total);
+    }
+
+    /**
+     * A folder size being computed. Cancelling it stops the walk beneath it
+     * soon after; what was already totalled stays cached.
+     */
+    public static class Request {
+        private volatile boolean cancelled;
+
+        public void cancel(){
+            cancelled = true;
+        }
+
+        public boolean isCancelled(){
+            return cancelled;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final long ttlMillis;
+    // Guarded by itself.
+    private final LinkedHashMap<Path,Total> totals;
+    // Counts changes. A walk notes the count when it starts, so a total
+    // computed across a change isn't kept.
+    private final AtomicLong clock = new AtomicLong();
+    // The count at the last change to each folder, or to anything beneath it.
+    // Only kept while a walk that started before it is running.
+    private final ConcurrentHashMap<Path,Long> changes;
+    // The count at the last invalidateAll(), which changes every folder.
+    private volatile long allChanged;
+    // The walks running, and the count when each started.
+    private final ConcurrentHashMap<SizeTask,Long> walking;
+
+    /**
+     * @param threads the number of folders walked at once
+     * @param ttlMillis how long a total is kept
+     * @param capacity the most totals to keep; the least recently used are dropped
+     */
+    public FolderSizes(int threads, long ttlMillis, final int capacity){
+        pool = new ForkJoinPool(Math.max(1, threads));
+        this.ttlMillis = ttlMillis;
+        totals = new LinkedHashMap<Path,Total>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path,Total> eldest){
+                return size() > capacity || isExpired(eldest.getValue());
+            }
+        };
+        changes = new ConcurrentHashMap<Path,Long>();
+        walking = new ConcurrentHashMap<SizeTask,Long>();
+    }
+
+    /**
+     * @return the folder sizes shared by the whole file manager. The number
+     *     of threads is set by -Dfilemanager.folderSizes.threads=<n> (default:
+     *     the number of cores).
+     */
+    public static synchronized FolderSizes getDefault(){
+        if (instance == null){
+            instance = new FolderSizes(
+                    Integer.getInteger("filemanager.folderSizes.threads", Runtime.getRuntime().availableProcessors()),
+                    Long.getLong("filemanager.folderSizes.ttlSeconds", DEFAULT_TTL_SECONDS) * 1000,
+                    Integer.getInteger("filemanager.folderSizes.size", DEFAULT_CAPACITY));
+            DirectoryWatcher.getDefault().addListener(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * @param folder a folder
+     * @return its total, if it's cached, or null
+     */
+    public Total getCached(Path folder){
+        Path key = keyOf(folder);
+        synchronized (totals){
+            Total total = totals.get(key);
+            if (total != null && isExpired(total)){
+                totals.remove(key);
+                return null;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return the number of totals cached
+     */
+    public int size(){
+        synchronized (totals){
+            return totals.size();
+        }
+    }
+
+    /**
+     * Computes a folder's total in the background.
+     * @param folder the folder
+     * @param listener receives the total, unless the request is cancelled or
+     *     the folder changes while it's being walked
+     * @return the request, which can be cancelled
+     */
+    public Request request(Path folder, Listener listener){
+        Request request = new Request();
+        pool.execute(new SizeTask(keyOf(folder), request, listener, true));
+        return request;
+    }
+
+    /**
+     * Computes a folder's total, in parallel, and waits for it.
+     * @param folder the folder
+     * @return the total, or null if the folder kept changing while it was walked
+     */
+    public Total compute(Path folder){
+        return pool.invoke(new SizeTask(keyOf(folder), new Request(), null, true));
+    }
+
+    /**
+     * Drops the totals of a folder and of every folder above it.
+     * @param path a file or folder that changed
+     */
+    public void invalidate(Path path){
+        long change = clock.incrementAndGet();
+        for (Path p = keyOf(path);p != null;p = p.getParent()){
+            // Mark first, so a walk that is finishing can't put back a stale total.
+            mark(p, change);
+            synchronized (totals){
+                totals.remove(p);
+            }
+        }
+        forgetChanges();
+    }
+
+    /**
+     * Drops every total.
+     */
+    public void invalidateAll(){
+        allChanged = clock.incrementAndGet();
+        synchronized (totals){
+            totals.clear();
+        }
+        forgetChanges();
+    }
+
+    /**
+     * Overridden DirectoryWatcher.Listener method.
+     * @param directory the directory that changed
+     * @param entry the entry that changed, or null
+     */
+    @Override
+    public void changed(Path directory, Path entry){
+        invalidate(directory);
+    }
+
+    private static Path keyOf(Path path){
+        return path.toAbsolutePath().normalize();
+    }
+
+    private boolean isExpired(Total total){
+        return System.currentTimeMillis() - total.computed > ttlMillis;
+    }
+
+    private void mark(Path folder, long change){
+        Long last;
+        do{
+            last = changes.putIfAbsent(folder, change);
+            if (last == null || last >= change){
+                return;
+            }
+        } while (!changes.replace(folder, last, change));
+    }
+
+    /**
+     * @return true if the folder, or anything beneath it, changed after a walk started
+     */
+    private boolean changedSince(Path folder, long start){
+        Long change = changes.get(folder);
+        return allChanged > start || (change != null && change > start);
+    }
+
+    /**
+     * Drops the changes no running walk started before. A walk that starts
+     * later reads the clock after they were made, so it can't need them.
+     */
+    private void forgetChanges(){
+        long oldest = Long.MAX_VALUE;
+        for (Long start : walking.values()){
+            oldest = Math.min(oldest, start);
+        }
+        for (Map.Entry<Path,Long> change : changes.entrySet()){
+            if (change.getValue() <= oldest){
+                changes.remove(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /**
+     * Totals one folder: its files, plus the totals of its subfolders, which
+     * are forked as tasks of their own unless they're cached. The folder that
+     * was asked for is walked again if something beneath it changed during the
+     * walk; the second walk only lists what changed.
+     */
+    private class SizeTask extends RecursiveTask<Total> {
+        private final Path folder;
+        private final Request request;
+        private final Listener listener;
+        private final boolean root;
+
+        SizeTask(Path folder, Request request, Listener listener, boolean root){
+            this.folder = folder;
+            this.request = request;
+            this.listener = listener;
+            this.root = root;
+        }
+
+        @Override
+        protected Total compute(){
+            Total total = getCached(folder);
+            for (int attempt = 0;total == null && !request.isCancelled() && attempt < (root ? 3 : 1);attempt++){
+                total = walk();
+            }
+            if (total != null && listener != null && !request.isCancelled()){
+                listener.sized(folder, total);
+            }
+            return total;
+        }
+
+        /**
+         * @return the folder's total, or null if the walk was cancelled or
+         *     the folder changed during it
+         */
+        private Total walk(){
+            // Registered before reading the clock, so forgetChanges() can't
+            // drop a change made after the clock was read.
+            walking.put(this, 0L);
+            long start = clock.get();
+            walking.put(this, start);
+            try{
+                return walk(start);
+            }
+            finally{
+                walking.remove(this);
+            }
+        }
+
+        /**
+         * See walk().
+         * @param start the clock when the walk started
+         */
+        private Total walk(long start){
+            try{
+                IoThrottle.global().acquireOps(1);
+            }
+            catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            long bytes = 0;
+            long files = 0;
+            long errors = 0;
+            List<SizeTask> subfolders = new ArrayList<SizeTask>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)){
+                for (Path entry : stream){
+                    try{
+                        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isDirectory()){
+                            subfolders.add(new SizeTask(entry, request, null, false));
+                        }
+                        else{
+                            bytes += attributes.size();
+                            files++;
+                        }
+                    }
+                    catch (IOException | SecurityException e){
+                        errors++;
+                    }
+                }
+            }
+            catch (IOException | SecurityException e){
+                // An unreadable folder counts as empty.
+                errors++;
+            }
+            MetricsRegistry.increment("folderSizes.foldersWalked");
+
+            long folders = subfolders.size();
+            invokeAll(subfolders);
+            for (SizeTask subfolder : subfolders){
+                Total sub = subfolder.join();
+                if (sub == null){
+                    return null;
+                }
+                bytes += sub.bytes;
+                files += sub.files;
+                folders += sub.folders;
+                errors += sub.errors;
+            }
+            if (request.isCancelled()){
+                return null;
+            }
+            Total total = new Total(bytes, files, folders, errors);
+            synchronized (totals){
+                totals.put(folder, total);
+            }
+            if (changedSince(folder, start)){
+                synchronized (totals){
+                    if (totals.get(folder) == total){
+                        totals.remove(folder);
+                    }
+                }
+                return null;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pool shared by every tab and window for small pieces of
+ * file system work, such as reading the attributes of a large directory's
+ * entries. Sharing one pool means a second window adds no threads, and the
+ * disk sees the same amount of parallel work however many windows are open.
+ *
+ * The threads are daemons and time out when idle, so the pool costs nothing
+ * while the file manager sits unused. Its size is set with
+ * -Dfilemanager.io.threads=<n> (default: the number of cores, at most 8).
+ */
+public class IoExecutor {
+    private static ExecutorService instance;
+
+    /**
+     * @return the shared pool
+     */
+    public static synchronized ExecutorService get(){
+        if (instance == null){
+            int threads = Integer.getInteger("filemanager.io.threads",
+                    Math.min(8, Runtime.getRuntime().availableProcessors()));
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads),
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+                @Override
+                public Thread newThread(Runnable r){
+                    Thread t = new Thread(r, "io-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            instance = pool;
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the disk bandwidth used by background file operations (copy, move,
+ * delete, trash purging and copy verification) so that browsing stays
+ * responsive while they run.
+ *
+ * Every throttle has two token buckets, one for bytes per second and one for
+ * operations (files created, deleted or renamed) per second. A job's throttle
+ * is chained to the global throttle, so a job is held to whichever limit is
+ * tighter. The global limits can be set with the system properties
+ * "filemanager.io.bytesPerSecond" and "filemanager.io.opsPerSecond"; both are
+ * unlimited by default.
+ *
+ * In addition, background work backs off while the user is waiting on a
+ * foreground operation. DirectoryPanel brackets listing and sorting with
+ * beginForeground() and endForeground(); while any foreground operation is
+ * running (and for a short time after), background acquires pause.
+ */
+public class IoThrottle {
+    // How long background work keeps pausing after the last foreground operation ends.
+    private static final long QUIET_NANOS = 150L * 1000000;
+    // The longest a single acquire will wait for the foreground, so background work never starves.
+    private static final long MAX_BACKOFF_NANOS = 500L * 1000000;
+    private static final long BACKOFF_STEP_MILLIS = 10;
+
+    private static final IoThrottle GLOBAL = new IoThrottle(
+            Long.getLong("filemanager.io.bytesPerSecond", 0),
+            Long.getLong("filemanager.io.opsPerSecond", 0),
+            null);
+
+    // Foreground activity, shared by every throttle.
+    private static final AtomicInteger foreground = new AtomicInteger(0);
+    private static volatile long lastForegroundEnd = System.nanoTime() - QUIET_NANOS;
+
+    private final RateLimiter bytes;
+    private final RateLimiter ops;
+    private final IoThrottle parent;
+
+    /**
+     * @param bytesPerSecond the byte limit; zero or less for unlimited
+     * @param opsPerSecond the operation limit; zero or less for unlimited
+     * @param parent a throttle that also applies, or null
+     */
+    private IoThrottle(long bytesPerSecond, long opsPerSecond, IoThrottle parent){
+        this.bytes = new RateLimiter(bytesPerSecond);
+        this.ops = new RateLimiter(opsPerSecond);
+        this.parent = parent;
+    }
+
+    /**
+     * @return the throttle that applies to all background I/O
+     */
+    public static IoThrottle global(){
+        return GLOBAL;
+    }
+
+    /**
+     * Creates a throttle for a single job, which is also held to the global limits.
+     * @param bytesPerSecond the job's byte limit; zero or less for unlimited
+     * @param opsPerSecond the job's operation limit; zero or less for unlimited
+     * @return the new throttle
+     */
+    public static IoThrottle forJob(long bytesPerSecond, long opsPerSecond){
+        return new IoThrottle(bytesPerSecond, opsPerSecond, GLOBAL);
+    }
+
+    /**
+     * @param bytesPerSecond the new byte limit; zero or less for unlimited
+     */
+    public void setBytesPerSecond(long bytesPerSecond){
+        bytes.setRate(bytesPerSecond);
+    }
+
+    /**
+     * @param opsPerSecond the new operation limit; zero or less for unlimited
+     */
+    public void setOpsPerSecond(long opsPerSecond){
+        ops.setRate(opsPerSecond);
+    }
+
+    /**
+     * @return true if this throttle or one it's chained to limits bytes per second
+     */
+    public boolean limitsBytes(){
+        return !bytes.isUnlimited() || (parent != null && parent.limitsBytes());
+    }
+
+    /**
+     * Waits until the foreground is idle and the byte limits allow n more bytes.
+     * @param n the number of bytes about to be read or written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquireBytes(long n) throws InterruptedException {
+        yieldToForeground();
+        acquire(n, true);
+    }
+
+    /**
+     * Waits until the foreground is idle and the operation limits allow n more operations.
+     * @param n the number of operations about to be performed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquireOps(int n) throws InterruptedException {
+        yieldToForeground();
+        acquire(n, false);
+    }
+
+    private void acquire(long n, boolean isBytes) throws InterruptedException {
+        (isBytes ? bytes : ops).acquire(n);
+        if (parent != null){
+            parent.acquire(n, isBytes);
+        }
+    }
+
+    /*
+        Foreground Methods
+    */
+
+    /**
+     * Marks the start of an operation the user is waiting on, such as listing
+     * or sorting a directory. Must be paired with endForeground().
+     */
+    public static void beginForeground(){
+        foreground.incrementAndGet();
+    }
+
+    /**
+     * Marks the end of an operation started with beginForeground().
+     */
+    public static void endForeground(){
+        lastForegroundEnd = System.nanoTime();
+        foreground.decrementAndGet();
+    }
+
+    /**
+     * @return true if a foreground operation is running or has just ended
+     */
+    public static boolean isForegroundBusy(){
+        return foreground.get() > 0 || System.nanoTime() - lastForegroundEnd < QUIET_NANOS;
+    }
+
+    /**
+     * Pauses the calling (background) thread while the foreground is busy, for
+     * at most MAX_BACKOFF_NANOS.
+     */
+    private static void yieldToForeground() throws InterruptedException {
+        long start = System.nanoTime();
+        while (isForegroundBusy() && System.nanoTime() - start < MAX_BACKOFF_NANOS){
+            Thread.sleep(BACKOFF_STEP_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of durations, in nanoseconds, that is cheap enough to
+ * record on every call and safe to record from any thread.
+ *
+ * Buckets are log-linear: each power of two is split into four buckets, so a
+ * percentile read from the histogram is within about 25% of the true value,
+ * from nanoseconds up to years, in 256 counters.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 256;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    public LatencyHistogram(){
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        total = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * @param nanos a duration; negative durations are recorded as 0
+     */
+    public void record(long nanos){
+        if (nanos < 0){
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)){
+            // Another thread raised the max; try again.
+        }
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount(){
+        return count.get();
+    }
+
+    /**
+     * @return the sum of every duration recorded, in nanoseconds
+     */
+    public long getTotal(){
+        return total.get();
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, or 0 if none were recorded
+     */
+    public double getMean(){
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @return the longest duration recorded, in nanoseconds
+     */
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * @param percentile a percentile from 0 to 100, such as 99
+     * @return the duration, in nanoseconds, that the given percentage of the
+     *     recorded durations don't exceed (rounded up to the top of its
+     *     bucket, but never above the max), or 0 if none were recorded
+     */
+    public long getPercentile(double percentile){
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0;i < BUCKETS;i++){
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0){
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * n);
+        if (rank < 1){
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0;i < BUCKETS;i++){
+            seen += snapshot[i];
+            if (seen >= rank){
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset(){
+        for (int i = 0;i < BUCKETS;i++){
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int bucketOf(long value){
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        long lower = (SUB_BUCKETS + sub) * width;
+        return lower + width - 1;
+    }
+}
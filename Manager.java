@@ -2,21 +2,23 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An object that handles a list of visited directories, as well as executing search
  * and sort functions between FileManagerToolbar and DirectoryPanel.
- * Note that it is unique to each instance of the File Manager; it does not save
- * any history once its memory is returned to the system.
+ * The history is kept in a bounded NavigationHistory and saved to
+ * properties/history.txt, so recent directories survive a restart.
  * @author Bradley Nickle
  */
 public class Manager extends Subject{
-    // Index representing the currently displayed directory.
-    private int index;
-    // A list of all directories visitable through the use of the forward/back buttons.
-    private ArrayList<String> history;
+    // Where the history is saved between sessions, next to sizePosition.txt.
+    public static final String HISTORY_FILE = "properties/history.txt";
+    // All directories visitable through the use of the forward/back buttons.
+    private NavigationHistory history;
     // The directory the Manager started at. Cannot use "back" when root == current.
     private String root;
     private String searchKey;
@@ -29,26 +31,34 @@ public class Manager extends Subject{
     /**
      * Parameterized constructor for Navigators.
      * Intended to be used with a default starting directory. Will check if a
-     * directory exists before visiting it.
+     * directory exists before visiting it. Directories from earlier sessions
+     * are loaded into the history first, without being checked.
      * For example: Manager m = new Manager("C:/Users/Brad/");
      * @param current The directory to attempt to visit.
      */
     public Manager(String current){
         super();
-        history = new ArrayList<String>();
+        history = new NavigationHistory(Integer.getInteger("filemanager.history.size",
+                NavigationHistory.DEFAULT_CAPACITY));
+        try{
+            history.load(Paths.get(HISTORY_FILE));
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+        }
         
-        // Try to visit current.  If it doesn't work, try some root directories.
+        /* Try to visit current.  If it doesn't work, try some root directories.
+        No observers are attached yet, so nothing needs to be notified. */
         if (canVisit(current)){
-            forward(current);
+            add(current);
         }
         else if (canVisit("C:/")){
-            forward("C:/");
+            add("C:/");
         }
         else if (canVisit("/")){
-            forward("/");
+            add("/");
         }
         else{
-            index = -1;
             root = null;
         }
         searchKey = null;
@@ -56,20 +66,15 @@ public class Manager extends Subject{
     }
     
     /**
-     * Adds a directory to the history.
+     * Adds a directory to the history. If it's already there, it is moved to
+     * the newest end rather than being listed twice.
      * @param next the directory to be added.
      */
     public void add(String next){
-        if (history.size() == 0){
+        if (root == null){
             root = next;
         }
-        for (int i = 0;i < history.size();i++){
-            if (history.get(i).equals(next)){
-                history.remove(i);
-            }
-        }
         history.add(next);
-        index = history.size() - 1;
     }
     
     /**
@@ -79,14 +84,7 @@ public class Manager extends Subject{
     public void remove(){
         if (history.size() > 1){
             // Remove the most recently added directory
-            int i = history.size() - 1;
-            System.out.println("Removing " + history.get(i));
-            history.remove(i);
-            
-            // Update the index, if it is now beyond the end of the history
-            if (index >= history.size()){
-                index = history.size() - 1;
-            }
+            System.out.println("Removing " + history.removeNewest());
         }
     }
     
@@ -95,17 +93,19 @@ public class Manager extends Subject{
      * Called when FileManagerToolbar.forwardButton is clicked
      */
     public void forward(){
-        int last = history.size() - 1;
-        if (index < last){
-            index++;
-        }
+        FileManagerEvents.Navigate event = new FileManagerEvents.Navigate();
+        event.begin();
+        String from = getDirectory();
+        history.forward();
         
-        // Set searchKey to null so no searches are executed in the next move.
-        setSearchKey(null);
+        /* Clear searchKey so no searches are executed in the next move. The
+        new listing has nothing selected, so there's no search to post. */
+        searchKey = null;
         
         /* Notify DirectoryPanel and FileManagerToolbar that the state may have
         changed. */
         notifyObservers();
+        navigated(event, "forward", from);
     }
     
     /**
@@ -117,25 +117,18 @@ public class Manager extends Subject{
      * @param next the directory to move to
      */
     public void forward(String next){
-        int last = history.size() - 1;
-        if (index != last){
-            int smallestIndex = index;
-
-            /* Remove any directories "in front of" the current directory.
-            a <-> b <-> b1 <-> b2       N
-                  ^current              ^next, to be added
-
-            a <-> b <-> b1              N
-                  ^current              ^next, to be added
+        FileManagerEvents.Navigate event = new FileManagerEvents.Navigate();
+        event.begin();
+        String from = getDirectory();
+        
+        /* Remove any directories "in front of" the current directory.
+        a <-> b <-> b1 <-> b2       N
+              ^current              ^next, to be added
 
-            a <-> b                     N
-                  ^current              ^next, to be added
-            */
-            while (index < last && history.size() > smallestIndex){
-                remove();
-                last = history.size() - 1;
-            }
-        }
+        a <-> b                     N
+              ^current              ^next, to be added
+        */
+        history.trimAfterCurrent();
         
         /* Add the next directory
         a <-> b <-> N
@@ -143,12 +136,14 @@ public class Manager extends Subject{
         */
         add(next);
         
-        // Set searchKey to null so no searches are executed in the next move.
-        setSearchKey(null);
+        /* Clear searchKey so no searches are executed in the next move. The
+        new listing has nothing selected, so there's no search to post. */
+        searchKey = null;
         
         /* Notify DirectoryPanel and FileManagerToolbar that the state may have
         changed. */
         notifyObservers();
+        navigated(event, "visit", from);
     }
     
     /**
@@ -156,110 +151,83 @@ public class Manager extends Subject{
      * Called when FileManagerToolbar.backButton is clicked.
      */
     public void back(){
-        int first = 0;
-        if (history.size() > 1 && index > first){
-            index--;
-        }
+        FileManagerEvents.Navigate event = new FileManagerEvents.Navigate();
+        event.begin();
+        String from = getDirectory();
+        history.back();
         
-        // Set searchKey to null so no searches are executed in the next move.
-        setSearchKey(null);
+        /* Clear searchKey so no searches are executed in the next move. The
+        new listing has nothing selected, so there's no search to post. */
+        searchKey = null;
         
         /* Notify DirectoryPanel and FileManagerToolbar that the state may have
         changed. */
         notifyObservers();
+        navigated(event, "back", from);
+    }
+    
+    /**
+     * Records a move in a flight recording; see FileManagerEvents.
+     * @param event the event begun before the move
+     * @param action forward, visit or back
+     * @param from the directory moved from
+     */
+    private void navigated(FileManagerEvents.Navigate event, String action, String from){
+        if (event.shouldCommit()){
+            event.action = action;
+            event.from = from;
+            event.to = getDirectory();
+            event.commit();
+        }
     }
     
     /**
-     * Checks whether or not a string is an existing directory
+     * Checks whether or not a string is an existing file or directory.
+     * Addresses inside .zip and .jar archives are checked inside the archive;
+     * see PathResolver. Answers come from PathStatusCache, so asking again
+     * soon after is free.
      * @param s the string to be validated
-     * @return true if s represents an existing directory
+     * @return true if s represents an existing file or directory
      * @author Dan Tran
      */
     public boolean exists(String s){
-       File file = new File(s);
-       try{
-           return file.exists();
-       }
-       catch(SecurityException se){
-           System.out.println(se.getMessage());
-           return false;
-       }
+       return PathStatusCache.getDefault().get(s).exists();
     }
     
     /**
      * 
      * @param s the file to be tested
-     * @return true if the file is a directory
+     * @return true if the file is a directory, or an archive that can be
+     *      browsed like one
      * @author Bradley Nickle
      */
     public boolean isDirectory(String s){
-        if (exists(s)){
-            File file = new File(s);
-            try{
-                return file.isDirectory();
-            }
-            catch (SecurityException se){
-                System.out.println(se.getMessage());
-            }
-        }
-        return false;
+        return PathStatusCache.getDefault().get(s).isDirectory();
     }
     
     /**
-     * 
+     * A directory can be visited if we have permission to list it, which is
+     * checked without actually listing it. A file can be visited if it is a
+     * regular file.
      * @param s the file to be checked
      * @return true if the file can be visited
      */
     public boolean canVisit(String s){
-        if (exists(s)){
-            File file = new File(s);
-            try{
-                // If the file doesn't exist, we can't visit it
-                if (file.exists()){
-                    /* If the file's a directory, we should be able to get the
-                    number of files it contains. Otherwise, if permissions are
-                    blocking us from doing that, a SecurityException should be
-                    thrown. */
-                    if (file.isDirectory()){
-                        int num = file.list().length;
-                        return true;
-                    }
-                    /* If the file exists and is a File, and no permissions are
-                    blocking us, we can visit it. */
-                    else if (file.isFile()){
-                        return true;
-                    }
-                }
-                else {
-                    return false;
-                }
-            }
-            catch(SecurityException se){
-                System.out.println(se.getMessage());
-            }
-            catch(Exception e){
-                System.out.println(e.getMessage());
-            }
-        }
-        return false;
+        return PathStatusCache.getDefault().get(s).canVisit();
     }
     
     /**
      * @return true if the current directory is oldest in the history
      */
     public boolean isAtBeginning(){
-        int first = 0;
-        if (index == first) return true;
-        return false;
+        return history.isAtOldest();
     }
     
     /**
      * @return true if the current directory is newest in the history
      */
     public boolean isAtEnd(){
-        int last = history.size() - 1;
-        if (index == last) return true;
-        return false;
+        return history.isAtNewest();
     }
     
     /**
@@ -268,7 +236,16 @@ public class Manager extends Subject{
      * @return the address of the current directory
      */
     public String getDirectory(){
-        return history.get(index);
+        return history.getCurrent();
+    }
+
+    /**
+     * NOT exception safe, like getDirectory().
+     * @return the current directory as a Path, which is inside an archive
+     *      if the user has opened one
+     */
+    public Path getPath(){
+        return PathResolver.toPath(getDirectory());
     }
     
     /**
@@ -278,6 +255,28 @@ public class Manager extends Subject{
         return history.size();
     }
 
+    /**
+     * Recent directories come straight from the history; none of them are
+     * checked, so this is instant even for directories on slow drives.
+     * @param max the most directories to return
+     * @return up to max recently visited directories, newest first
+     */
+    public List<String> getRecentDirectories(int max){
+        return history.getRecent(max);
+    }
+
+    /**
+     * Saves the history to HISTORY_FILE, to be loaded by the next Manager.
+     */
+    public void saveHistory(){
+        try{
+            history.save(Paths.get(HISTORY_FILE));
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+        }
+    }
+
     /*
         SearchKey Methods
     */
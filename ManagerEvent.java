@@ -0,0 +1,12 @@
+/**
+ * The kinds of change a Subject tells its observers about. Each kind maps to
+ * one ManagerObserver method.
+ */
+public enum ManagerEvent {
+    // The current directory changed (or should be listed again); see ManagerObserver.update().
+    NAVIGATED,
+    // The sort attribute changed; see ManagerObserver.sort().
+    SORTED,
+    // The search key changed; see ManagerObserver.search().
+    SEARCHED
+}
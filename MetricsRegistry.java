@@ -0,0 +1,422 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Cumulative counters and latency histograms for the whole file manager,
+ * kept for as long as it runs: directories and entries listed, listing cache
+ * hits, sort times, bytes copied, moved and deleted, and file operations
+ * waiting to run.
+ *
+ * Counters are LongAdders and timings are LatencyHistograms, so the classes
+ * that update them (DirectoryCache, DirectoryPanel, BatchOperation, BatchJob,
+ * TrashBin) never take a lock or wait for each other. Anything can add its own
+ * counter or histogram by name.
+ *
+ * register() publishes the numbers as the JMX MBean FileManager:type=Metrics,
+ * for jconsole or any JMX client. If -Dfilemanager.metrics.intervalSeconds=<n>
+ * is set, a JSON snapshot is also written every n seconds, and on exit, to
+ * properties/metrics.json (or -Dfilemanager.metrics.file=<file>).
+ */
+public class MetricsRegistry {
+    public static final String DEFAULT_FILE = "properties/metrics.json";
+    public static final String OBJECT_NAME = "FileManager:type=Metrics";
+
+    // Counters
+    public static final String DIRECTORIES_LISTED = "directories.listed";
+    public static final String ENTRIES_LISTED = "entries.listed";
+    public static final String LISTING_CACHE_HITS = "directoryCache.hits";
+    public static final String LISTING_CACHE_MISSES = "directoryCache.misses";
+    public static final String BYTES_COPIED = "bytes.copied";
+    public static final String BYTES_MOVED = "bytes.moved";
+    public static final String BYTES_DELETED = "bytes.deleted";
+    public static final String FILES_COPIED = "files.copied";
+    public static final String FILES_MOVED = "files.moved";
+    public static final String FILES_DELETED = "files.deleted";
+    public static final String BYTES_LINKED = "bytes.linked";
+    public static final String FILES_LINKED = "files.linked";
+    // Go up and down: jobs started but not yet running, and jobs running.
+    public static final String OPERATIONS_QUEUED = "operations.queued";
+    public static final String OPERATIONS_RUNNING = "operations.running";
+    public static final String OPERATIONS_FINISHED = "operations.finished";
+
+    // Histograms; sorts also get one per attribute, named "sort.<attribute>".
+    public static final String LIST_TIME = "list";
+    public static final String SORT_TIME = "sort";
+    public static final String PREVIEW_TIME = "preview";
+
+    // Sorted, so snapshots are stable.
+    private static final ConcurrentSkipListMap<String,LongAdder> counters = new ConcurrentSkipListMap<String,LongAdder>();
+    private static final ConcurrentSkipListMap<String,LatencyHistogram> histograms =
+            new ConcurrentSkipListMap<String,LatencyHistogram>();
+    private static volatile long since = System.currentTimeMillis();
+    private static boolean registered;
+
+    /**
+     * The attributes and operations published over JMX.
+     */
+    public interface MetricsMXBean {
+        public long getDirectoriesListed();
+        public long getEntriesListed();
+        /**
+         * @return entries listed per second spent listing
+         */
+        public double getEntriesPerSecond();
+        /**
+         * @return the share of listings served by DirectoryCache, from 0 to 1
+         */
+        public double getCacheHitRatio();
+        public long getSortCount();
+        public double getSortMillisP50();
+        public double getSortMillisP90();
+        public double getSortMillisP99();
+        public double getSortMillisMax();
+        public long getBytesCopied();
+        public long getBytesMoved();
+        public long getBytesDeleted();
+        public long getQueuedOperations();
+        public long getRunningOperations();
+        /**
+         * @return every counter, by name
+         */
+        public Map<String,Long> getCounters();
+        /**
+         * @return when counting started, or was last reset, in milliseconds since 1970
+         */
+        public long getSince();
+        public void reset();
+        /**
+         * Writes a snapshot now.
+         * @return the file written
+         */
+        public String saveSnapshot() throws IOException;
+    }
+
+    /**
+     * @param name a counter name
+     * @return the counter, created if need be
+     */
+    public static LongAdder counter(String name){
+        LongAdder counter = counters.get(name);
+        if (counter == null){
+            counters.putIfAbsent(name, new LongAdder());
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * @param name a histogram name
+     * @return the histogram, created if need be
+     */
+    public static LatencyHistogram histogram(String name){
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null){
+            histograms.putIfAbsent(name, new LatencyHistogram());
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * Adds one to a counter.
+     * @param name the counter name
+     */
+    public static void increment(String name){
+        counter(name).increment();
+    }
+
+    /**
+     * Subtracts one from a counter.
+     * @param name the counter name
+     */
+    public static void decrement(String name){
+        counter(name).decrement();
+    }
+
+    /**
+     * Adds to a counter.
+     * @param name the counter name
+     * @param n the amount to add
+     */
+    public static void add(String name, long n){
+        counter(name).add(n);
+    }
+
+    /**
+     * Records a time in a histogram.
+     * @param name the histogram name
+     * @param nanos the time
+     */
+    public static void record(String name, long nanos){
+        histogram(name).record(nanos);
+    }
+
+    /**
+     * @param name a counter name
+     * @return the counter's value, or 0 if it doesn't exist
+     */
+    public static long get(String name){
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return entries listed per second spent listing, or 0 if nothing has been listed
+     */
+    public static double getEntriesPerSecond(){
+        long nanos = histogram(LIST_TIME).getTotal();
+        return nanos == 0 ? 0 : get(ENTRIES_LISTED) * 1e9 / nanos;
+    }
+
+    /**
+     * @return the share of listings served by DirectoryCache, from 0 to 1, or
+     *     0 if nothing has been listed
+     */
+    public static double getCacheHitRatio(){
+        long hits = get(LISTING_CACHE_HITS);
+        long total = hits + get(LISTING_CACHE_MISSES);
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Starts counting again. Counters that go up and down (the queued and
+     * running operations) are kept, since they describe the present.
+     */
+    public static void reset(){
+        for (Map.Entry<String,LongAdder> counter : counters.entrySet()){
+            if (!counter.getKey().equals(OPERATIONS_QUEUED) && !counter.getKey().equals(OPERATIONS_RUNNING)){
+                counter.getValue().reset();
+            }
+        }
+        for (LatencyHistogram histogram : histograms.values()){
+            histogram.reset();
+        }
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * @return every counter and histogram as JSON, with the derived rates;
+     *     times are in microseconds
+     */
+    public static String toJson(){
+        StringBuilder json = new StringBuilder("{\n");
+        json.append(String.format(Locale.ROOT, "  \"since\": %d,\n  \"time\": %d,\n", since, System.currentTimeMillis()));
+        json.append(String.format(Locale.ROOT, "  \"entriesPerSecond\": %.1f,\n  \"cacheHitRatio\": %.4f,\n",
+                getEntriesPerSecond(), getCacheHitRatio()));
+        json.append("  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String,LongAdder> counter : counters.entrySet()){
+            json.append(separator).append(String.format(Locale.ROOT, "    \"%s\": %d",
+                    escape(counter.getKey()), counter.getValue().sum()));
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"unit\": \"us\",\n  \"histograms\": {");
+        separator = "\n";
+        for (Map.Entry<String,LatencyHistogram> entry : histograms.entrySet()){
+            LatencyHistogram histogram = entry.getValue();
+            json.append(separator).append(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"mean\": %.1f, "
+                    + "\"p50\": %.1f, \"p90\": %.1f, \"p99\": %.1f, \"max\": %.1f}",
+                    escape(entry.getKey()), histogram.getCount(), histogram.getMean() / 1000,
+                    histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0,
+                    histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Saves toJson() to a file, creating its directory if need be. The file
+     * is replaced in one step, so a reader never sees half a snapshot.
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void save(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "metrics", ".tmp");
+        try{
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)){
+                writer.write(toJson());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally{
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the snapshot file, set by -Dfilemanager.metrics.file=<file>
+     */
+    public static Path getSnapshotFile(){
+        return Paths.get(System.getProperty("filemanager.metrics.file", DEFAULT_FILE));
+    }
+
+    /**
+     * Publishes the metrics over JMX and, if
+     * -Dfilemanager.metrics.intervalSeconds=<n> is set, starts writing
+     * snapshots. Does nothing after the first call.
+     */
+    public static synchronized void register(){
+        if (registered){
+            return;
+        }
+        registered = true;
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        }
+        catch (JMException | SecurityException e){
+            System.out.println(e.getMessage());
+        }
+
+        long interval = Long.getLong("filemanager.metrics.intervalSeconds", 0);
+        if (interval > 0){
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+                @Override
+                public Thread newThread(Runnable r){
+                    Thread t = new Thread(r, "metrics-snapshot");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            Runnable snapshot = new Runnable(){
+                @Override
+                public void run(){
+                    try{
+                        save(getSnapshotFile());
+                    }
+                    catch (IOException ioe){
+                        System.out.println(ioe.getMessage());
+                    }
+                }
+            };
+            timer.scheduleAtFixedRate(snapshot, interval, interval, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(snapshot, "metrics-snapshot-exit"));
+        }
+    }
+
+    private static String escape(String s){
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * The MBean registered by register().
+     */
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public long getDirectoriesListed(){
+            return get(DIRECTORIES_LISTED);
+        }
+
+        @Override
+        public long getEntriesListed(){
+            return get(ENTRIES_LISTED);
+        }
+
+        @Override
+        public double getEntriesPerSecond(){
+            return MetricsRegistry.getEntriesPerSecond();
+        }
+
+        @Override
+        public double getCacheHitRatio(){
+            return MetricsRegistry.getCacheHitRatio();
+        }
+
+        @Override
+        public long getSortCount(){
+            return histogram(SORT_TIME).getCount();
+        }
+
+        @Override
+        public double getSortMillisP50(){
+            return histogram(SORT_TIME).getPercentile(50) / 1e6;
+        }
+
+        @Override
+        public double getSortMillisP90(){
+            return histogram(SORT_TIME).getPercentile(90) / 1e6;
+        }
+
+        @Override
+        public double getSortMillisP99(){
+            return histogram(SORT_TIME).getPercentile(99) / 1e6;
+        }
+
+        @Override
+        public double getSortMillisMax(){
+            return histogram(SORT_TIME).getMax() / 1e6;
+        }
+
+        @Override
+        public long getBytesCopied(){
+            return get(BYTES_COPIED);
+        }
+
+        @Override
+        public long getBytesMoved(){
+            return get(BYTES_MOVED);
+        }
+
+        @Override
+        public long getBytesDeleted(){
+            return get(BYTES_DELETED);
+        }
+
+        @Override
+        public long getQueuedOperations(){
+            return get(OPERATIONS_QUEUED);
+        }
+
+        @Override
+        public long getRunningOperations(){
+            return get(OPERATIONS_RUNNING);
+        }
+
+        @Override
+        public Map<String,Long> getCounters(){
+            Map<String,Long> values = new TreeMap<String,Long>();
+            for (Map.Entry<String,LongAdder> counter : counters.entrySet()){
+                values.put(counter.getKey(), counter.getValue().sum());
+            }
+            return values;
+        }
+
+        @Override
+        public long getSince(){
+            return since;
+        }
+
+        @Override
+        public void reset(){
+            MetricsRegistry.reset();
+        }
+
+        @Override
+        public String saveSnapshot() throws IOException {
+            Path file = getSnapshotFile();
+            save(file);
+            return file.toAbsolutePath().toString();
+        }
+    }
+}
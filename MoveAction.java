@@ -3,12 +3,8 @@ import java.awt.*;
 import java.awt.event.*;
 
 // Imports Brandon had
-import java.io.File;
-import java.io.IOException;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 
 /*
 // Netbeans can't find javax.jnlp ?
@@ -18,32 +14,29 @@ import javax.jnlp.ServiceManager;
 import javax.jnlp.UnavailableServiceException;*/
 
 /**
- * Action to transfer a file to a new directory
+ * Action to transfer one or more files to a new directory
  * @author Brandon Moore
  * @author Brad Nickle
  */
 public class MoveAction extends AbstractAction {
     private String actionName = "Move";
     private String currentDir;
-    private static String targetFile;
-    private static String fileExt;
-    
+    // The FilePanels of every file to be moved.
+    private FilePanel[] targets;
+
     /**
      * Default MoveAction constructor.
      * @param key a key to find value with
-     * @param value the FilePanel to act on
+     * @param value the FilePanel, or array of selected FilePanels, to act on
      * @param current current directory of the directory panel
      */
     public MoveAction(String key,Object value, String current){
         super("Move",null);
         putValue(key,value);
         this.currentDir = current;
-        this.targetFile = ((FilePanel) value).getFullFileName();
-       int index =  targetFile.toString().lastIndexOf('/');
-       int index2 = (targetFile.length());
-         fileExt = targetFile.substring(index, index2);
+        this.targets = BatchJob.panelsOf(value);
     }
-    
+
     public String getCurrent() {
     	return this.currentDir;
     }
@@ -57,65 +50,46 @@ public class MoveAction extends AbstractAction {
         Component parent = (Component) e.getSource();
             result = moveDir(parent);
     }
-    
+
     /**
-     * Move a directory into a new directory
+     * Asks once for a destination, then moves every target into it as one job.
      * @author Dan Tran
      * @author Brandon Moore
-     * @param parent 
+     * @param parent
      */
-    public static String moveDir(Component parent)
+    public String moveDir(Component parent)
     {
     	String selected = new String();
     	JFileChooser fc = new JFileChooser();
             fc.setDialogTitle("Please select a destination to transfer your file to");
             fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-            
+            // Let the user limit the move's speed.
+            JSpinner limit = BatchJob.createSpeedLimitSpinner();
+            JPanel accessory = new JPanel(new GridLayout(2,1));
+            accessory.add(new JLabel("Speed limit (MB/s, 0 = none):"));
+            accessory.add(limit);
+            fc.setAccessory(accessory);
+
             if (fc.showOpenDialog(parent) == JFileChooser.APPROVE_OPTION) {
                  selected = fc.getSelectedFile().getAbsolutePath();
-               //  System.out.println(targetFile);
-               // System.out.println(selected);
-                 moveFile(targetFile, selected);
+                 moveFile(parent, selected, BatchJob.throttleFor(limit));
             }
             return "success";
     }
-    
+
     /**
-     * Move a directory into a new directory
+     * Move every target into a new directory, in the background. Moves within
+     * one volume are renames; other moves copy the files and then delete them.
      * @author Dan Tran
+     * @param parent the component to show progress over
+     * @param newDir the directory to move into
+     * @param throttle limits the bandwidth the move uses
      */
-    //Currently doesn't work for moving a folder and its content, only creates a new empty folder 
-    public static void moveFile(String currentDir, String newDir)
+    public void moveFile(Component parent, String newDir, IoThrottle throttle)
     {
-        Path movefrom = FileSystems.getDefault().getPath(targetFile);
-        Path target = FileSystems.getDefault().getPath(newDir+fileExt);
-        try
-        {
-            Files.copy(movefrom,target, StandardCopyOption.REPLACE_EXISTING);
-            if (target.isAbsolute()) {
-            	System.out.println("true");
-            	deleteFile(targetFile);
-            }
-        }catch(IOException e)
-        {
-            e.printStackTrace();
-        }
-    }
-    /**
-     * Deletes a selected file
-     * @author Brandon Moore
-     * @author Bradley Nickle
-     * @param oldFile
-     * @return the status of the operation
-     */
-    private static String deleteFile(String oldFile) throws IOException {
-        try{
-            File target = new File(oldFile);
-            target.delete();
-        } catch (Exception e){
-            return e.getMessage();
-        }
-        return "Success";
+        Path destination = FileSystems.getDefault().getPath(newDir);
+        BatchOperation move = new BatchOperation(BatchOperation.Kind.MOVE, BatchJob.pathsOf(targets), destination);
+        move.setThrottle(throttle);
+        new BatchJob(parent, move, "Moving").start();
     }
 }
-
@@ -0,0 +1,257 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The Manager's list of visited directories, with a cursor for back and
+ * forward.
+ *
+ * The directories are kept in a doubly linked list, oldest first, with a
+ * HashMap from each directory to its node. Adding a directory that is already
+ * in the history unlinks its old node in O(1) instead of scanning the list,
+ * and the oldest directory is dropped once the history is full. Trimming the
+ * directories ahead of the cursor unlinks each of them once, so it costs O(1)
+ * per directory ever added.
+ *
+ * The history can be saved to and loaded from a text file, one directory per
+ * line, oldest first. Loading doesn't touch the directories themselves, so
+ * recent directories are available at startup without any file system scans.
+ */
+public class NavigationHistory {
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private static class Node {
+        final String directory;
+        Node prev;
+        Node next;
+
+        Node(String directory){
+            this.directory = directory;
+        }
+    }
+
+    private final int capacity;
+    private final HashMap<String,Node> nodes;
+    private Node oldest;
+    private Node newest;
+    private Node current;
+
+    /**
+     * @param capacity the most directories to remember; older ones are dropped
+     */
+    public NavigationHistory(int capacity){
+        this.capacity = Math.max(1, capacity);
+        this.nodes = new HashMap<String,Node>();
+    }
+
+    /**
+     * Adds a directory as the newest one and moves the cursor to it. If the
+     * directory is already in the history, its old place is forgotten.
+     * @param directory the directory to add
+     */
+    public void add(String directory){
+        Node old = nodes.remove(directory);
+        if (old != null){
+            unlink(old);
+        }
+        Node node = new Node(directory);
+        node.prev = newest;
+        if (newest != null){
+            newest.next = node;
+        }
+        newest = node;
+        if (oldest == null){
+            oldest = node;
+        }
+        nodes.put(directory, node);
+        current = node;
+
+        if (nodes.size() > capacity){
+            nodes.remove(oldest.directory);
+            unlink(oldest);
+        }
+    }
+
+    /**
+     * Forgets every directory newer than the current one, as when the user
+     * goes back and then somewhere new.
+     */
+    public void trimAfterCurrent(){
+        if (current == null){
+            return;
+        }
+        Node node = current.next;
+        while (node != null){
+            Node next = node.next;
+            nodes.remove(node.directory);
+            node.prev = null;
+            node.next = null;
+            node = next;
+        }
+        current.next = null;
+        newest = current;
+    }
+
+    /**
+     * Forgets the newest directory.
+     * @return the directory that was forgotten, or null if there was nothing
+     *      to forget
+     */
+    public String removeNewest(){
+        if (newest == null){
+            return null;
+        }
+        Node node = newest;
+        nodes.remove(node.directory);
+        unlink(node);
+        return node.directory;
+    }
+
+    /**
+     * Moves the cursor one directory back, unless it's at the oldest one.
+     * @return true if the cursor moved
+     */
+    public boolean back(){
+        if (current != null && current.prev != null){
+            current = current.prev;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor one directory forward, unless it's at the newest one.
+     * @return true if the cursor moved
+     */
+    public boolean forward(){
+        if (current != null && current.next != null){
+            current = current.next;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the directory at the cursor, or null if the history is empty
+     */
+    public String getCurrent(){
+        return current == null ? null : current.directory;
+    }
+
+    /**
+     * @return the oldest directory, or null if the history is empty
+     */
+    public String getOldest(){
+        return oldest == null ? null : oldest.directory;
+    }
+
+    /**
+     * @return true if the cursor is at the oldest directory
+     */
+    public boolean isAtOldest(){
+        return current != null && current == oldest;
+    }
+
+    /**
+     * @return true if the cursor is at the newest directory
+     */
+    public boolean isAtNewest(){
+        return current != null && current == newest;
+    }
+
+    /**
+     * @param directory a directory
+     * @return true if the directory is in the history
+     */
+    public boolean contains(String directory){
+        return nodes.containsKey(directory);
+    }
+
+    /**
+     * @return the number of directories in the history
+     */
+    public int size(){
+        return nodes.size();
+    }
+
+    /**
+     * @param max the most directories to return
+     * @return up to max directories, newest first
+     */
+    public List<String> getRecent(int max){
+        List<String> recent = new ArrayList<String>(Math.min(max, nodes.size()));
+        for (Node node = newest;node != null && recent.size() < max;node = node.prev){
+            recent.add(node.directory);
+        }
+        return recent;
+    }
+
+    /**
+     * Adds the directories saved in a file, oldest first, leaving the cursor at
+     * the newest. The directories aren't checked, so this never touches them.
+     * A missing file is not an error.
+     * @param file the file to read
+     * @throws IOException if the file exists but can't be read
+     */
+    public void load(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
+            String line;
+            while ((line = reader.readLine()) != null){
+                if (!line.isEmpty()){
+                    add(line);
+                }
+            }
+        }
+        catch (NoSuchFileException nsfe){
+            // Nothing has been saved yet.
+        }
+    }
+
+    /**
+     * Saves the directories to a file, oldest first, creating its directory
+     * if need be.
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path file) throws IOException {
+        if (file.getParent() != null){
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+            for (Node node = oldest;node != null;node = node.next){
+                writer.write(node.directory);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Takes a node out of the list, moving the cursor off it if need be.
+     */
+    private void unlink(Node node){
+        if (current == node){
+            current = node.prev != null ? node.prev : node.next;
+        }
+        if (node.prev != null){
+            node.prev.next = node.next;
+        }
+        else{
+            oldest = node.next;
+        }
+        if (node.next != null){
+            node.next.prev = node.prev;
+        }
+        else{
+            newest = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+}
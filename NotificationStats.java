@@ -0,0 +1,200 @@
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * How long each ManagerObserver takes to handle each kind of ManagerEvent.
+ *
+ * Subject times every update(), sort() and search() call it makes and records
+ * the time here, in a LatencyHistogram per observer class and event, plus one
+ * per event for the whole delivery. The numbers can be looked at in the
+ * Notification Timings dialog, or saved as JSON so they can be compared
+ * between versions.
+ */
+public class NotificationStats {
+    public static final String DEFAULT_FILE = "properties/notification-stats.json";
+    // The observer name used for the time taken to deliver an event to every observer.
+    public static final String ALL_OBSERVERS = "(all)";
+
+    // Histograms keyed by observer name, then event. Sorted, so reports are stable.
+    private static final ConcurrentSkipListMap<String,Map<ManagerEvent,LatencyHistogram>> histograms =
+            new ConcurrentSkipListMap<String,Map<ManagerEvent,LatencyHistogram>>();
+
+    /**
+     * Records how long an observer took to handle an event.
+     * @param observer the observer, or null for the whole delivery
+     * @param event the event it handled
+     * @param nanos how long it took
+     */
+    public static void record(ManagerObserver observer, ManagerEvent event, long nanos){
+        histogram(observer == null ? ALL_OBSERVERS : nameOf(observer), event).record(nanos);
+    }
+
+    /**
+     * @param observer an observer name, as listed by getObservers()
+     * @param event an event
+     * @return the histogram for the observer and event, created if need be
+     */
+    public static LatencyHistogram histogram(String observer, ManagerEvent event){
+        Map<ManagerEvent,LatencyHistogram> byEvent = histograms.get(observer);
+        if (byEvent == null){
+            histograms.putIfAbsent(observer, new ConcurrentHashMap<ManagerEvent,LatencyHistogram>());
+            byEvent = histograms.get(observer);
+        }
+        LatencyHistogram histogram = byEvent.get(event);
+        if (histogram == null){
+            byEvent.putIfAbsent(event, new LatencyHistogram());
+            histogram = byEvent.get(event);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the names of every observer that something has been recorded
+     *     for, in alphabetical order
+     */
+    public static List<String> getObservers(){
+        return new ArrayList<String>(histograms.keySet());
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public static void reset(){
+        for (Map<ManagerEvent,LatencyHistogram> byEvent : histograms.values()){
+            for (LatencyHistogram histogram : byEvent.values()){
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * @return every histogram as JSON: an array of objects with the observer,
+     *     event, count, and mean, p50, p90, p99 and max in microseconds
+     */
+    public static String toJson(){
+        StringBuilder json = new StringBuilder("{\n  \"unit\": \"us\",\n  \"timings\": [");
+        String separator = "\n";
+        for (Object[] row : rows()){
+            json.append(separator);
+            json.append(String.format(Locale.ROOT, "    {\"observer\": \"%s\", \"event\": \"%s\", \"count\": %d, "
+                    + "\"mean\": %.1f, \"p50\": %.1f, \"p90\": %.1f, \"p99\": %.1f, \"max\": %.1f}",
+                    escape((String) row[0]), row[1], row[2], row[3], row[4], row[5], row[6], row[7]));
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Saves toJson() to a file, creating its directory if need be.
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void save(Path file) throws IOException {
+        if (file.getParent() != null){
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+            writer.write(toJson());
+        }
+    }
+
+    /**
+     * Shows the timings in a table, with buttons to save them to DEFAULT_FILE
+     * or start again.
+     * @param parent the component to show the dialog over
+     */
+    public static void showDialog(Component parent){
+        String[] columns = {"Observer", "Event", "Count", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)"};
+        DefaultTableModel model = new DefaultTableModel(columns, 0){
+            @Override
+            public boolean isCellEditable(int row, int column){
+                return false;
+            }
+        };
+        for (Object[] row : rows()){
+            Object[] cells = new Object[row.length];
+            cells[0] = row[0];
+            cells[1] = row[1];
+            cells[2] = row[2];
+            for (int i = 3;i < row.length;i++){
+                // Microseconds to milliseconds.
+                cells[i] = String.format("%.3f", (Double) row[i] / 1000);
+            }
+            model.addRow(cells);
+        }
+        JTable table = new JTable(model);
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setPreferredSize(new Dimension(720, 200));
+
+        Object[] options = {"Save", "Reset", "Close"};
+        int choice = JOptionPane.showOptionDialog(parent, scroll, "Notification Timings",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[2]);
+        if (choice == 0){
+            try{
+                Path file = Paths.get(DEFAULT_FILE);
+                save(file);
+                JOptionPane.showMessageDialog(parent, "Saved to " + file.toAbsolutePath(),
+                        "Notification Timings", JOptionPane.INFORMATION_MESSAGE);
+            }
+            catch (IOException ioe){
+                System.out.println(ioe.getMessage());
+                JOptionPane.showMessageDialog(parent, "Could not save: " + ioe.getMessage(),
+                        "Notification Timings", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        else if (choice == 1){
+            reset();
+        }
+    }
+
+    /**
+     * @return one row per histogram that has recorded something: observer,
+     *     event, count, then mean, p50, p90, p99 and max in microseconds
+     */
+    private static List<Object[]> rows(){
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Map.Entry<String,Map<ManagerEvent,LatencyHistogram>> observer : histograms.entrySet()){
+            for (ManagerEvent event : ManagerEvent.values()){
+                LatencyHistogram histogram = observer.getValue().get(event);
+                if (histogram == null || histogram.getCount() == 0){
+                    continue;
+                }
+                rows.add(new Object[]{observer.getKey(), event, histogram.getCount(),
+                        histogram.getMean() / 1000,
+                        histogram.getPercentile(50) / 1000.0,
+                        histogram.getPercentile(90) / 1000.0,
+                        histogram.getPercentile(99) / 1000.0,
+                        histogram.getMax() / 1000.0});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @param observer an observer
+     * @return the name it is reported under
+     */
+    static String nameOf(ManagerObserver observer){
+        String name = observer.getClass().getSimpleName();
+        // Anonymous classes have no simple name.
+        return name.isEmpty() ? observer.getClass().getName() : name;
+    }
+
+    private static String escape(String s){
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
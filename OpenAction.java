@@ -5,6 +5,8 @@ import java.awt.event.*;
 // Imports Brandon had
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /*
 // Netbeans can't find javax.jnlp ?
@@ -14,7 +16,7 @@ import javax.jnlp.ServiceManager;
 import javax.jnlp.UnavailableServiceException;*/
 
 /**
- * Action to open a file with a default program.
+ * Action to open one or more files with their default programs.
  * @author Brandon Moore
  * @author Brad Nickle
  */
@@ -24,7 +26,7 @@ public class OpenAction extends AbstractAction {
     /**
      * Default OpenWithAction constructor.
      * @param key a key to find value with
-     * @param value the FilePanel to act on
+     * @param value the FilePanel, or array of selected FilePanels, to act on
      */
     public OpenAction(String key,Object value){
         super("Open",null);
@@ -47,20 +49,48 @@ public class OpenAction extends AbstractAction {
     }
     
     /**
-     * Opens a file with a default associated program.
+     * Opens each selected file with its default associated program.
      * @author Brandon Moore
      * @author Bradley Nickle
      * @return the status of the operation
      */
     private String openFile() throws IOException {
+        String result = "Success";
+        Desktop desktop;
         try{
-            Desktop desktop = Desktop.getDesktop();
-            FilePanel fp = (FilePanel) getValue("FilePanel");
-            File target = new File(fp.getFullFileName());
-            desktop.open(target);
+            desktop = Desktop.getDesktop();
         } catch (Exception e){
             return e.getMessage();
         }
-        return "Success";
+        FilePanel[] targets = BatchJob.panelsOf(getValue("FilePanel") != null
+                ? getValue("FilePanel") : getValue("FilePanels"));
+        for (int i = 0;i < targets.length;i++){
+            try{
+                Path path = targets[i].getPath();
+                if (!PathResolver.isDefault(path)){
+                    // Other programs can't read inside the archive; give them a copy.
+                    path = extractToTemp(path);
+                }
+                desktop.open(path.toFile());
+            } catch (Exception e){
+                result = e.getMessage();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies a file out of an archive into a temporary directory, which is
+     * deleted when the file manager exits.
+     * @param path a file inside an archive
+     * @return the copy
+     */
+    private Path extractToTemp(Path path) throws IOException {
+        Path dir = Files.createTempDirectory("filemanager-open");
+        Path copy = dir.resolve(path.getFileName().toString());
+        Files.copy(path, copy);
+        copy.toFile().deleteOnExit();
+        dir.toFile().deleteOnExit();
+        return copy;
     }
 }
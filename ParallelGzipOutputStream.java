@@ -0,0 +1,163 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip OutputStream that compresses on several cores at once.
+ *
+ * Written data is cut into fixed-size blocks, and each block is compressed by
+ * a worker into a complete gzip member. The members are written out in order,
+ * one after another; a file of concatenated gzip members is a valid gzip file
+ * (see RFC 1952) that gzip, tar and GZIPInputStream all read as one stream.
+ *
+ * At most a fixed number of blocks are in flight at a time. When that many are
+ * waiting, write() blocks until the oldest one has been compressed and
+ * written, so memory use stays flat no matter how much is written.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    // Blocks being compressed, oldest first.
+    private final ArrayDeque<Future<byte[]>> inFlight;
+    private byte[] block;
+    private int count;
+    // Whether any block has been handed to a worker yet.
+    private boolean started;
+    private boolean closed;
+
+    /**
+     * @param out the stream the compressed members are written to
+     * @param level the Deflater compression level (0-9, or -1 for the default)
+     * @param threads the number of blocks compressed at the same time
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads){
+        this.out = out;
+        this.level = level;
+        this.maxInFlight = Math.max(1, threads) * 2;
+        this.inFlight = new ArrayDeque<Future<byte[]>>();
+        this.block = new byte[BLOCK_SIZE];
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory(){
+            private final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "gzip-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[count++] = (byte) b;
+        if (count == block.length){
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0){
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length){
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Hands the current block to a worker, first writing out the oldest
+     * compressed block if too many are in flight.
+     */
+    private void submit() throws IOException {
+        // An empty stream still needs one (empty) member to be valid gzip.
+        if (count == 0 && (started || !closed)){
+            return;
+        }
+        started = true;
+        while (inFlight.size() >= maxInFlight){
+            writeOldest();
+        }
+        final byte[] data = block;
+        final int length = count;
+        inFlight.addLast(pool.submit(new Callable<byte[]>(){
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+                GZIPOutputStream gzip = new GZIPOutputStream(member, 64 * 1024){
+                    {
+                        def.setLevel(level);
+                    }
+                };
+                gzip.write(data, 0, length);
+                gzip.close();
+                return member.toByteArray();
+            }
+        }));
+        block = new byte[BLOCK_SIZE];
+        count = 0;
+    }
+
+    /**
+     * Waits for the oldest block to be compressed and writes it out.
+     */
+    private void writeOldest() throws IOException {
+        Future<byte[]> oldest = inFlight.pollFirst();
+        try{
+            out.write(oldest.get());
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrupted");
+        }
+        catch (ExecutionException ee){
+            throw new IOException("Compression failed", ee.getCause());
+        }
+    }
+
+    /**
+     * Compresses and writes everything written so far. Compressing a block
+     * ends its gzip member, so calling this often makes the output bigger.
+     */
+    @Override
+    public void flush() throws IOException {
+        submit();
+        while (!inFlight.isEmpty()){
+            writeOldest();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        closed = true;
+        try{
+            flush();
+        }
+        finally{
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+}
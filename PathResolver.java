@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Maps the addresses the Manager keeps in its history to java.nio Paths, and
+ * back again.
+ *
+ * Most addresses are plain paths on the default file system. An address that
+ * passes through a .zip or .jar file, such as "/home/me/src.zip/docs", is
+ * resolved inside that archive using the JDK's zip FileSystemProvider, so the
+ * archive can be browsed like a folder. The provider reads only the archive's
+ * central directory when it is opened and reads entries when they are asked
+ * for; nothing is extracted.
+ *
+ * Open archive FileSystems are cached, keyed by the archive's path, and are
+ * reopened if the archive changes on disk.
+ *
+ * Work that reads or writes inside an archive for a while (a BatchOperation,
+ * a listing, a preview) holds its FileSystem with acquire() and release(),
+ * so that commit() never closes it from under them: a commit while the
+ * FileSystem is held only takes it out of the cache, and the last release()
+ * closes it.
+ */
+public class PathResolver {
+    // An open archive and the modification time it had when it was opened.
+    private static class OpenArchive {
+        final FileSystem fileSystem;
+        final long modified;
+        // How many acquire()s haven't been released yet.
+        int users;
+        // True once committed; the last release() closes it.
+        boolean committed;
+
+        OpenArchive(FileSystem fileSystem, long modified){
+            this.fileSystem = fileSystem;
+            this.modified = modified;
+        }
+    }
+
+    // Open archives, keyed by the archive file's absolute path.
+    private static final Map<Path,OpenArchive> archives = new HashMap<Path,OpenArchive>();
+    /* The archive file each archive FileSystem was opened from. Closed ones
+    are kept (weakly) so Paths listed before a commit still have addresses. */
+    private static final Map<FileSystem,Path> archiveFiles = new WeakHashMap<FileSystem,Path>();
+    // Open archives, cached or committed but still held, by FileSystem.
+    private static final Map<FileSystem,OpenArchive> openByFileSystem = new HashMap<FileSystem,OpenArchive>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+            @Override
+            public void run(){
+                closeAll();
+            }
+        }, "archive-close"));
+    }
+
+    /**
+     * @param path a file
+     * @return true if the file is a .zip or .jar archive on the default file
+     *     system, which can be browsed like a folder
+     */
+    public static boolean isBrowsableArchive(Path path){
+        if (path == null || path.getFileName() == null || path.getFileSystem() != FileSystems.getDefault()){
+            return false;
+        }
+        String name = path.getFileName().toString().toLowerCase();
+        return (name.endsWith(".zip") || name.endsWith(".jar")) && Files.isRegularFile(path);
+    }
+
+    /**
+     * @param path any Path
+     * @return true if the path is on the default file system, so java.io.File
+     *     and FileChannel-based code can use it
+     */
+    public static boolean isDefault(Path path){
+        return path.getFileSystem() == FileSystems.getDefault();
+    }
+
+    /**
+     * Resolves an address to a Path. An address naming an archive itself
+     * resolves to the root of the archive.
+     * @param address a path on the default file system, possibly passing through archives
+     * @return the Path the address names; it might not exist
+     * @throws InvalidPathException if the address isn't a valid path
+     */
+    public static Path toPath(String address){
+        Path plain = Paths.get(address);
+        if (!mightBeInArchive(address)){
+            return plain;
+        }
+        // Find the first element of the path that is an archive file.
+        Path absolute = plain.toAbsolutePath();
+        Path prefix = absolute.getRoot();
+        for (int i = 0;i < absolute.getNameCount();i++){
+            prefix = prefix == null ? absolute.getName(i) : prefix.resolve(absolute.getName(i));
+            if (isBrowsableArchive(prefix)){
+                try{
+                    FileSystem archive = open(prefix);
+                    Path inside = archive.getPath("/");
+                    for (int j = i + 1;j < absolute.getNameCount();j++){
+                        inside = inside.resolve(absolute.getName(j).toString());
+                    }
+                    return inside;
+                }
+                catch (IOException ioe){
+                    System.out.println(ioe.getMessage());
+                    return plain;
+                }
+            }
+        }
+        return plain;
+    }
+
+    /**
+     * The reverse of toPath(): turns a Path, which may be inside an open
+     * archive, into an address.
+     * @param path the Path
+     * @return the address of the path
+     */
+    public static String toAddress(Path path){
+        if (isDefault(path)){
+            return path.toString();
+        }
+        Path archive;
+        synchronized (archives){
+            archive = archiveFiles.get(path.getFileSystem());
+        }
+        if (archive == null){
+            return path.toUri().toString();
+        }
+        String inside = path.toAbsolutePath().toString();
+        while (inside.startsWith("/")){
+            inside = inside.substring(1);
+        }
+        return inside.isEmpty() ? archive.toString() : archive.resolve(inside).toString();
+    }
+
+    /**
+     * Keeps the archive a path is in open until release(), even if it is
+     * committed meanwhile. Does nothing for paths on the default file system.
+     * @param path any Path
+     * @throws IOException if the path's archive was already closed; the
+     *     path is stale and the archive has to be resolved again
+     */
+    public static void acquire(Path path) throws IOException {
+        if (isDefault(path)){
+            return;
+        }
+        synchronized (archives){
+            OpenArchive open = openByFileSystem.get(path.getFileSystem());
+            if (open == null || !open.fileSystem.isOpen()){
+                throw new IOException(path + ": the archive was closed; list it again");
+            }
+            open.users++;
+        }
+    }
+
+    /**
+     * Lets go of an archive held with acquire(), closing it if it was
+     * committed and nothing else holds it.
+     * @param path the Path given to acquire()
+     */
+    public static void release(Path path){
+        if (isDefault(path)){
+            return;
+        }
+        OpenArchive open;
+        synchronized (archives){
+            open = openByFileSystem.get(path.getFileSystem());
+            if (open == null || --open.users > 0 || !open.committed){
+                return;
+            }
+            openByFileSystem.remove(open.fileSystem);
+        }
+        close(open.fileSystem);
+    }
+
+    /**
+     * Writes out any changes made inside the archive a path is in (by a move,
+     * delete or rename) and closes it, as soon as nothing holds it (see
+     * acquire()). The zip provider only rewrites an archive when its
+     * FileSystem is closed. The next toPath() opens it again. Does nothing
+     * for paths on the default file system.
+     * @param path a path inside an archive
+     */
+    public static void commit(Path path){
+        if (isDefault(path)){
+            return;
+        }
+        synchronized (archives){
+            OpenArchive open = openByFileSystem.get(path.getFileSystem());
+            if (open == null || open.committed){
+                // Already committed.
+                return;
+            }
+            open.committed = true;
+            Path archive = archiveFiles.get(open.fileSystem);
+            if (archive != null && archives.get(archive) == open){
+                archives.remove(archive);
+            }
+            if (open.users > 0){
+                return;
+            }
+            openByFileSystem.remove(open.fileSystem);
+        }
+        close(path.getFileSystem());
+    }
+
+    private static void close(FileSystem fileSystem){
+        try{
+            fileSystem.close();
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+        }
+    }
+
+    /**
+     * Closes every open archive, including those still held.
+     */
+    public static void closeAll(){
+        synchronized (archives){
+            Iterator<OpenArchive> it = openByFileSystem.values().iterator();
+            while (it.hasNext()){
+                close(it.next().fileSystem);
+                it.remove();
+            }
+            archives.clear();
+        }
+    }
+
+    /**
+     * @return the open FileSystem for an archive, opening it if need be
+     */
+    private static FileSystem open(Path archive) throws IOException {
+        Path key = archive.toAbsolutePath().normalize();
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        synchronized (archives){
+            OpenArchive open = archives.get(key);
+            if (open != null && open.fileSystem.isOpen() && open.modified == modified){
+                return open.fileSystem;
+            }
+            if (open != null){
+                // Changed on disk: drop it, closing it once nothing holds it.
+                archives.remove(key);
+                open.committed = true;
+                if (open.users == 0){
+                    openByFileSystem.remove(open.fileSystem);
+                    close(open.fileSystem);
+                }
+            }
+            FileSystem fileSystem = FileSystems.newFileSystem(key, (ClassLoader) null);
+            OpenArchive opened = new OpenArchive(fileSystem, modified);
+            archives.put(key, opened);
+            openByFileSystem.put(fileSystem, opened);
+            archiveFiles.put(fileSystem, key);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * A quick check, without touching the disk, that rules out most addresses.
+     */
+    private static boolean mightBeInArchive(String address){
+        String lower = address.toLowerCase();
+        return lower.contains(".zip") || lower.contains(".jar");
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A short-lived cache of what is known about addresses: whether they exist,
+ * whether they are directories, and whether they can be opened.
+ *
+ * The Manager asks these questions several times for every navigation, and
+ * DirectoryPanel asks again on every click. Each answer here costs one
+ * attribute read and one access check, without listing the directory, and is
+ * then reused for a short time. Addresses that don't exist are cached too,
+ * for a shorter time, so a mistyped address isn't looked up repeatedly.
+ *
+ * File operations call invalidate() or invalidateAll() when they finish, so
+ * the cache doesn't hide their results until it expires.
+ */
+public class PathStatusCache {
+    public static final long DEFAULT_TTL_MILLIS = 2000;
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 500;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static PathStatusCache instance;
+
+    /**
+     * What is known about one address.
+     */
+    public static class Status {
+        private final boolean exists;
+        private final boolean directory;
+        private final boolean regularFile;
+        private final boolean readable;
+        private final long expires;
+
+        Status(boolean exists, boolean directory, boolean regularFile, boolean readable, long expires){
+            this.exists = exists;
+            this.directory = directory;
+            this.regularFile = regularFile;
+            this.readable = readable;
+            this.expires = expires;
+        }
+
+        public boolean exists(){
+            return exists;
+        }
+
+        public boolean isDirectory(){
+            return directory;
+        }
+
+        public boolean isRegularFile(){
+            return regularFile;
+        }
+
+        /**
+         * @return true if the file can be read, or the directory can be listed
+         */
+        public boolean isReadable(){
+            return readable;
+        }
+
+        /**
+         * @return true if the address can be visited: a directory that can be
+         *     listed, or a regular file
+         */
+        public boolean canVisit(){
+            return directory ? readable : regularFile;
+        }
+    }
+
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LinkedHashMap<String,Status> statuses;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param ttlMillis how long to trust what is known about an existing path
+     * @param negativeTtlMillis how long to trust that a path doesn't exist
+     * @param capacity the most addresses to remember; the least recently used are dropped
+     */
+    public PathStatusCache(long ttlMillis, long negativeTtlMillis, final int capacity){
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.negativeTtlNanos = negativeTtlMillis * 1000000L;
+        this.statuses = new LinkedHashMap<String,Status>(64, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Status> eldest){
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by the whole file manager, configured by the
+     *     filemanager.pathCache.ttlMillis and negativeTtlMillis properties
+     */
+    public static synchronized PathStatusCache getDefault(){
+        if (instance == null){
+            instance = new PathStatusCache(
+                    Long.getLong("filemanager.pathCache.ttlMillis", DEFAULT_TTL_MILLIS),
+                    Long.getLong("filemanager.pathCache.negativeTtlMillis", DEFAULT_NEGATIVE_TTL_MILLIS),
+                    DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    /**
+     * @param address an address, as kept by the Manager; see PathResolver
+     * @return what is known about the address, looked up if it isn't cached
+     *     or has expired
+     */
+    public Status get(String address){
+        long now = System.nanoTime();
+        synchronized (this){
+            Status status = statuses.get(address);
+            if (status != null && now - status.expires < 0){
+                hits++;
+                return status;
+            }
+            misses++;
+        }
+        // Look it up outside the lock; a slow drive shouldn't block other lookups.
+        Status status = lookUp(address, now);
+        synchronized (this){
+            statuses.put(address, status);
+        }
+        return status;
+    }
+
+    /**
+     * Forgets what is known about one address.
+     * @param address the address
+     */
+    public synchronized void invalidate(String address){
+        statuses.remove(address);
+    }
+
+    /**
+     * Forgets what is known about a path and its parent directory.
+     * @param path the path that changed
+     */
+    public void invalidate(Path path){
+        invalidate(PathResolver.toAddress(path));
+        if (path.getParent() != null){
+            invalidate(PathResolver.toAddress(path.getParent()));
+        }
+    }
+
+    /**
+     * Forgets everything. Called after operations that may change many paths.
+     */
+    public synchronized void invalidateAll(){
+        statuses.clear();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that went to the file system
+     */
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /**
+     * Reads the attributes of an address and checks that it can be opened.
+     * Directories are checked for read (and, on the default file system,
+     * execute) permission rather than by listing them.
+     */
+    private Status lookUp(String address, long now){
+        try{
+            Path path = PathResolver.toPath(address);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            boolean readable = Files.isReadable(path);
+            if (attributes.isDirectory() && readable && path.getFileSystem() == FileSystems.getDefault()){
+                // Listing a directory needs search permission as well.
+                readable = Files.isExecutable(path);
+            }
+            return new Status(true, attributes.isDirectory(), attributes.isRegularFile(), readable, now + ttlNanos);
+        }
+        catch (NoSuchFileException nsfe){
+            return new Status(false, false, false, false, now + negativeTtlNanos);
+        }
+        catch (IOException | InvalidPathException | SecurityException e){
+            // It can't be read, which is as good as not existing for now.
+            return new Status(false, false, false, false, now + negativeTtlNanos);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Shows the start of the selected file, as text or as a hex dump; see
+ * FilePreview.
+ *
+ * Files are read on IoExecutor's threads, only once the selection has stayed
+ * on one file for a moment, so running the selection down a folder reads only
+ * the file it stops on. A preview that arrives after the selection has moved
+ * on is dropped. Nothing is read while the pane is hidden.
+ */
+public class PreviewPane extends JPanel {
+    // How long the selection must stay on a file before it is read, in milliseconds.
+    private static final int DELAY_MILLIS = 150;
+
+    private final JLabel header;
+    private final JTextArea textArea;
+    private final Timer timer;
+    // The file to show, or null for none.
+    private Path file;
+    // The file shown, or being read; null if file hasn't been read yet.
+    private Path shown;
+    // Counts the files asked for; a read for an older one is dropped.
+    private volatile int generation;
+
+    /**
+     * Makes an empty preview pane.
+     */
+    public PreviewPane(){
+        super(new BorderLayout(0, 5));
+        setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        header = new JLabel(" ");
+        textArea = new JTextArea();
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        add(header, BorderLayout.NORTH);
+        add(new JScrollPane(textArea), BorderLayout.CENTER);
+        setPreferredSize(new Dimension(280, 200));
+
+        timer = new Timer(DELAY_MILLIS, new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                load();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Shows the start of a file, shortly.
+     * @param next the file, or null to show nothing
+     */
+    public void setFile(Path next){
+        if (next == null ? file == null : next.equals(file)){
+            return;
+        }
+        file = next;
+        shown = null;
+        generation++;
+        timer.restart();
+    }
+
+    /**
+     * @return the file shown, or about to be
+     */
+    public Path getFile(){
+        return file;
+    }
+
+    /**
+     * Stops reading; a read already started is dropped when it finishes.
+     */
+    public void dispose(){
+        timer.stop();
+        file = null;
+        shown = null;
+        generation++;
+    }
+
+    /**
+     * Reads the file when the pane is shown again.
+     * @param visible true to show the pane
+     */
+    @Override
+    public void setVisible(boolean visible){
+        super.setVisible(visible);
+        if (visible && shown == null){
+            timer.restart();
+        }
+    }
+
+    /**
+     * Starts reading the file, unless the pane is hidden or it is already
+     * shown.
+     */
+    private void load(){
+        if (!isShowing() || shown != null){
+            return;
+        }
+        final Path target = file;
+        shown = target;
+        if (target == null){
+            display(" ", "");
+            return;
+        }
+        header.setText("Reading " + target.getFileName() + "...");
+        final int asked = generation;
+        IoExecutor.get().execute(new Runnable(){
+            @Override
+            public void run(){
+                // The selection may have moved on while this waited its turn.
+                if (asked != generation){
+                    return;
+                }
+                String title;
+                String text;
+                try{
+                    // The folder check must not find its archive closed either.
+                    PathResolver.acquire(target);
+                    try{
+                        if (Files.isDirectory(target)){
+                            title = target.getFileName() + " - Folder";
+                            text = "";
+                        }
+                        else{
+                            FilePreview preview = FilePreview.read(target);
+                            title = describe(preview);
+                            text = preview.getText();
+                        }
+                    }
+                    finally{
+                        PathResolver.release(target);
+                    }
+                }
+                catch (IOException | SecurityException e){
+                    System.out.println(e.getMessage());
+                    title = target.getFileName() + " - can't be read";
+                    text = String.valueOf(e.getMessage());
+                }
+                final String readTitle = title;
+                final String readText = text;
+                SwingUtilities.invokeLater(new Runnable(){
+                    @Override
+                    public void run(){
+                        if (asked == generation){
+                            display(readTitle, readText);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void display(String title, String text){
+        header.setText(title);
+        header.setToolTipText(file == null ? null : file.toString());
+        textArea.setText(text);
+        textArea.setCaretPosition(0);
+    }
+
+    /**
+     * @return the header for a preview: the file's name and size, its
+     *     encoding, and how much of it is shown
+     */
+    private static String describe(FilePreview preview){
+        String what = preview.isText() ? preview.getCharset() : "hex";
+        if (preview.isTruncated()){
+            return String.format(Locale.ROOT, "%s - %s, first %s of %s", preview.getFile().getFileName(), what,
+                    FilePanel.formatSize(preview.getBytesShown()), FilePanel.formatSize(preview.getFileSize()));
+        }
+        return String.format(Locale.ROOT, "%s - %s, %s", preview.getFile().getFileName(), what,
+                FilePanel.formatSize(preview.getFileSize()));
+    }
+}
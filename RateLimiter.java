@@ -0,0 +1,80 @@
+/**
+ * A token bucket. Tokens are added at a fixed rate up to a maximum (the
+ * burst size), and acquire() takes tokens out, waiting if there aren't enough.
+ * A rate of zero or less means "unlimited", in which case acquire() never waits.
+ *
+ * Callers may take more tokens than are in the bucket; the bucket then goes
+ * into debt and the caller waits until the debt would have been paid off.
+ * This keeps large requests (such as a 1 MB buffer) from starving.
+ */
+public class RateLimiter {
+    private double ratePerSecond;
+    private double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond tokens added per second; zero or less for unlimited
+     */
+    public RateLimiter(double ratePerSecond){
+        setRate(ratePerSecond);
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Changes the rate. The burst size is one second's worth of tokens.
+     * @param ratePerSecond tokens added per second; zero or less for unlimited
+     */
+    public synchronized void setRate(double ratePerSecond){
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, ratePerSecond);
+        tokens = Math.min(tokens, burst);
+    }
+
+    /**
+     * @return tokens added per second, or zero or less if unlimited
+     */
+    public synchronized double getRate(){
+        return ratePerSecond;
+    }
+
+    /**
+     * @return true if this limiter never waits
+     */
+    public synchronized boolean isUnlimited(){
+        return ratePerSecond <= 0;
+    }
+
+    /**
+     * Takes permits from the bucket, waiting until they would have been available.
+     * @param permits the number of tokens to take
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this){
+            if (ratePerSecond <= 0){
+                return;
+            }
+            refill();
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / ratePerSecond * 1e9);
+        }
+        if (waitNanos > 0){
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        }
+    }
+
+    /**
+     * Adds the tokens that have accumulated since the last refill.
+     */
+    private void refill(){
+        long now = System.nanoTime();
+        if (ratePerSecond > 0){
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * ratePerSecond);
+        }
+        lastRefill = now;
+    }
+}
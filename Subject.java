@@ -1,7 +1,16 @@
 import java.util.ArrayList;
+import java.util.EnumSet;
+import javax.swing.SwingUtilities;
 
 /**
+ * Tells ManagerObservers about changes, through a small event bus.
  *
+ * Changes are posted as ManagerEvents and delivered later on the Event
+ * Dispatch Thread, all at once. Posting the same kind of event again before
+ * delivery does nothing, so however many times a navigation, sort or search
+ * is posted while handling one user action, each observer hears about it once.
+ * Events are delivered in a fixed order: NAVIGATED, then SORTED, then
+ * SEARCHED, so a sort or search always applies to the newest listing.
  * @author Bradley Nickle
  */
 public abstract class Subject {
@@ -9,6 +18,12 @@ public abstract class Subject {
     FileManagerToolbar, and FileManagerUI. */
     private ArrayList<ManagerObserver> observers;
     private int mainPanelIndex;
+    // Events posted but not yet delivered. Guarded by itself.
+    private final EnumSet<ManagerEvent> pending;
+    // Whether a delivery has been scheduled on the Event Dispatch Thread.
+    private boolean deliveryScheduled;
+    // Held while delivering, so deliveries never overlap.
+    private final Object deliveryLock = new Object();
     
     /**
      * Default constructor for Subjects.
@@ -17,6 +32,7 @@ public abstract class Subject {
         super();
         observers = new ArrayList<ManagerObserver>();
         mainPanelIndex = -1;
+        pending = EnumSet.noneOf(ManagerEvent.class);
     }
     
     /**
@@ -40,50 +56,139 @@ public abstract class Subject {
     }
     
     /**
-     * Notify the DirectoryPanel, and FileManagerToolbar that the directory has
-     * changed.
+     * Posts an event, to be delivered on the Event Dispatch Thread once the
+     * current one has finished. May be called from any thread.
+     * @param event what changed
      */
-    public void notifyObservers(){
-        for (int i = 0;i < observers.size();i++){
-            observers.get(i).update(this);
+    public void post(ManagerEvent event){
+        synchronized (pending){
+            pending.add(event);
+            if (deliveryScheduled){
+                return;
+            }
+            deliveryScheduled = true;
         }
+        SwingUtilities.invokeLater(new Runnable(){
+            @Override
+            public void run(){
+                flushEvents();
+            }
+        });
     }
     
     /**
-     * Tell the main DirectoryPanel to execute a search on its list of FilePanels.
-     * It will use data from the calling subclass instance to decide which
-     * attribute to sort by (see Manager.searchKey).
+     * Delivers every pending event right away, on the calling thread. Called
+     * on the Event Dispatch Thread by post(); code without a GUI (or that needs
+     * the observers up to date before it carries on) may call it directly.
      */
-    public void executeSearch(){
-        if (mainPanelIndex != -1){
-            observers.get(mainPanelIndex).search(this);
+    public void flushEvents(){
+        // The scheduled delivery may run on the Event Dispatch Thread at the same time.
+        synchronized (deliveryLock){
+            EnumSet<ManagerEvent> events;
+            synchronized (pending){
+                events = EnumSet.copyOf(pending);
+                pending.clear();
+                deliveryScheduled = false;
+            }
+            // EnumSets iterate in declaration order: NAVIGATED, SORTED, SEARCHED.
+            for (ManagerEvent event : events){
+                deliver(event);
+            }
         }
-        else{
-            for (int i = 0;i < observers.size();i++){
-                if (observers.get(i) instanceof DirectoryPanel){
-                    observers.get(i).search(this);
-                    mainPanelIndex = i;
+    }
+    
+    /**
+     * Delivers an event to the observers, timing each one; see
+     * NotificationStats.
+     * @param event the event to deliver to the observers
+     */
+    private void deliver(ManagerEvent event){
+        long start = System.nanoTime();
+        switch (event){
+            case NAVIGATED:
+                for (int i = 0;i < observers.size();i++){
+                    ManagerObserver observer = observers.get(i);
+                    FileManagerEvents.Deliver delivery = new FileManagerEvents.Deliver();
+                    delivery.begin();
+                    long observerStart = System.nanoTime();
+                    observer.update(this);
+                    NotificationStats.record(observer, event, System.nanoTime() - observerStart);
+                    delivered(delivery, observer, event);
                 }
-            }
+                break;
+            case SORTED:
+                ManagerObserver sortPanel = mainPanel();
+                if (sortPanel != null){
+                    FileManagerEvents.Deliver delivery = new FileManagerEvents.Deliver();
+                    delivery.begin();
+                    sortPanel.sort(this);
+                    NotificationStats.record(sortPanel, event, System.nanoTime() - start);
+                    delivered(delivery, sortPanel, event);
+                }
+                break;
+            case SEARCHED:
+                ManagerObserver searchPanel = mainPanel();
+                if (searchPanel != null){
+                    FileManagerEvents.Deliver delivery = new FileManagerEvents.Deliver();
+                    delivery.begin();
+                    searchPanel.search(this);
+                    NotificationStats.record(searchPanel, event, System.nanoTime() - start);
+                    delivered(delivery, searchPanel, event);
+                }
+                break;
         }
+        NotificationStats.record(null, event, System.nanoTime() - start);
     }
     
     /**
-     * Tell DirectoryPanel to sort its list of FilePanels. DirectoryPanel will
-     * use data from the calling subclass instance to decide which attribute to
-     * sort by (see Manager.sortAttribute).
+     * Records a delivery in a flight recording; see FileManagerEvents.
      */
-    public void executeSort(){
-        if (mainPanelIndex != -1){
-            observers.get(mainPanelIndex).sort(this);
+    private static void delivered(FileManagerEvents.Deliver delivery, ManagerObserver observer, ManagerEvent event){
+        if (delivery.shouldCommit()){
+            delivery.event = event.name();
+            delivery.observer = NotificationStats.nameOf(observer);
+            delivery.commit();
         }
-        else{
+    }
+    
+    /**
+     * @return the main DirectoryPanel, which is the one that searches and
+     *     sorts, or null if none is attached
+     */
+    private ManagerObserver mainPanel(){
+        if (mainPanelIndex == -1){
             for (int i = 0;i < observers.size();i++){
                 if (observers.get(i) instanceof DirectoryPanel){
-                    observers.get(i).sort(this);
                     mainPanelIndex = i;
                 }
             }
         }
+        return mainPanelIndex == -1 ? null : observers.get(mainPanelIndex);
+    }
+    
+    /**
+     * Tell the DirectoryPanel, and FileManagerToolbar that the directory has
+     * changed. Posts a NAVIGATED event.
+     */
+    public void notifyObservers(){
+        post(ManagerEvent.NAVIGATED);
+    }
+    
+    /**
+     * Tell the main DirectoryPanel to execute a search on its list of FilePanels.
+     * It will use data from the calling subclass instance to decide which
+     * attribute to sort by (see Manager.searchKey). Posts a SEARCHED event.
+     */
+    public void executeSearch(){
+        post(ManagerEvent.SEARCHED);
+    }
+    
+    /**
+     * Tell DirectoryPanel to sort its list of FilePanels. DirectoryPanel will
+     * use data from the calling subclass instance to decide which attribute to
+     * sort by (see Manager.sortAttribute). Posts a SORTED event.
+     */
+    public void executeSort(){
+        post(ManagerEvent.SORTED);
     }
 }
@@ -0,0 +1,333 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a tar archive from an InputStream, one entry at a time, in a single
+ * forward pass. Understands the ustar format, GNU long names and base-256
+ * sizes (as written by TarWriter and GNU tar), and the path, linkpath and size
+ * fields of POSIX pax headers.
+ */
+public class TarReader {
+    /**
+     * A header read from the archive.
+     */
+    public static class Entry {
+        private final String name;
+        private final char type;
+        private final long size;
+        private final String linkName;
+        private final long modified;
+        private final int mode;
+
+        Entry(String name, char type, long size, String linkName, long modified, int mode){
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.linkName = linkName;
+            this.modified = modified;
+            this.mode = mode;
+        }
+
+        /**
+         * @return the entry's path within the archive
+         */
+        public String getName(){
+            return name;
+        }
+
+        /**
+         * @return the size of the entry's data, in bytes
+         */
+        public long getSize(){
+            return size;
+        }
+
+        /**
+         * @return what a link points to, or "" for other entries
+         */
+        public String getLinkName(){
+            return linkName;
+        }
+
+        /**
+         * @return the last modified time, in milliseconds since the epoch
+         */
+        public long getModifiedTime(){
+            return modified;
+        }
+
+        /**
+         * @return the permission bits, such as 0755
+         */
+        public int getMode(){
+            return mode;
+        }
+
+        public boolean isDirectory(){
+            return type == '5' || (type == '0' && name.endsWith("/"));
+        }
+
+        public boolean isFile(){
+            return (type == '0' || type == '7') && !name.endsWith("/");
+        }
+
+        public boolean isSymbolicLink(){
+            return type == '2';
+        }
+
+        public boolean isHardLink(){
+            return type == '1';
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] header = new byte[TarWriter.RECORD];
+    // Data of the current entry not yet read, and the padding after it.
+    private long remaining;
+    private long padding;
+    private boolean finished;
+
+    /**
+     * @param in the stream to read the archive from
+     */
+    public TarReader(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * Skips whatever is left of the current entry and reads the next header.
+     * @return the next entry, or null at the end of the archive
+     * @throws IOException if the archive is damaged or can't be read
+     */
+    public Entry next() throws IOException {
+        skip(remaining + padding);
+        remaining = 0;
+        padding = 0;
+        String longName = null;
+        String longLink = null;
+        long paxSize = -1;
+        while (!finished){
+            if (!readRecord()){
+                finished = true;
+                break;
+            }
+            if (isZeros(header)){
+                // The first empty record marks the end of the archive.
+                finished = true;
+                break;
+            }
+            if (!checksumOk()){
+                throw new IOException("Damaged tar header");
+            }
+            char type = header[156] == 0 ? '0' : (char) header[156];
+            long size = parseSize(header, 124);
+            if (type == 'L' || type == 'K'){
+                String value = trimNul(new String(readData(size), StandardCharsets.UTF_8));
+                if (type == 'L'){
+                    longName = value;
+                }
+                else{
+                    longLink = value;
+                }
+                continue;
+            }
+            if (type == 'x' || type == 'g'){
+                String pax = new String(readData(size), StandardCharsets.UTF_8);
+                if (type == 'g'){
+                    continue;
+                }
+                // Records look like "<length> <key>=<value>\n".
+                int i = 0;
+                while (i < pax.length()){
+                    int space = pax.indexOf(' ', i);
+                    int newline = pax.indexOf('\n', space);
+                    if (space < 0 || newline < 0){
+                        break;
+                    }
+                    String record = pax.substring(space + 1, newline);
+                    int equals = record.indexOf('=');
+                    if (equals > 0){
+                        String key = record.substring(0, equals);
+                        String value = record.substring(equals + 1);
+                        if (key.equals("path")){
+                            longName = value;
+                        }
+                        else if (key.equals("linkpath")){
+                            longLink = value;
+                        }
+                        else if (key.equals("size")){
+                            paxSize = Long.parseLong(value);
+                        }
+                    }
+                    i = newline + 1;
+                }
+                continue;
+            }
+
+            String name = longName;
+            if (name == null){
+                name = parseString(header, 0, 100);
+                String prefix = parseString(header, 345, 155);
+                if (isUstar() && prefix.length() > 0){
+                    name = prefix + "/" + name;
+                }
+            }
+            String linkName = longLink != null ? longLink : parseString(header, 157, 100);
+            if (paxSize >= 0){
+                size = paxSize;
+            }
+            long modified = parseOctal(header, 136, 12) * 1000;
+            int mode = (int) parseOctal(header, 100, 8) & 0777;
+            // Links and directories carry no data, whatever the size field says.
+            if (type == '1' || type == '2' || type == '5'){
+                size = 0;
+            }
+            remaining = size;
+            padding = (TarWriter.RECORD - size % TarWriter.RECORD) % TarWriter.RECORD;
+            return new Entry(name, type, size, linkName, modified, mode);
+        }
+        return null;
+    }
+
+    /**
+     * @return a stream over the current entry's data. It ends at the end of the
+     *     entry and must not be closed by the caller.
+     */
+    public InputStream data(){
+        return new InputStream(){
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0){
+                    return -1;
+                }
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n < 0){
+                    throw new EOFException("Tar archive ends in the middle of an entry");
+                }
+                remaining -= n;
+                return n;
+            }
+        };
+    }
+
+    private boolean readRecord() throws IOException {
+        int read = 0;
+        while (read < header.length){
+            int n = in.read(header, read, header.length - read);
+            if (n < 0){
+                if (read == 0){
+                    return false;
+                }
+                throw new EOFException("Tar archive ends in the middle of a header");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the data of a metadata entry, such as a long name, into memory.
+     */
+    private byte[] readData(long size) throws IOException {
+        if (size > 1024 * 1024){
+            throw new IOException("Tar metadata entry is too large");
+        }
+        byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length){
+            int n = in.read(data, read, data.length - read);
+            if (n < 0){
+                throw new EOFException("Tar archive ends in the middle of an entry");
+            }
+            read += n;
+        }
+        skip((TarWriter.RECORD - size % TarWriter.RECORD) % TarWriter.RECORD);
+        return data;
+    }
+
+    private void skip(long n) throws IOException {
+        byte[] buffer = n > 0 ? new byte[(int) Math.min(n, 64 * 1024)] : null;
+        while (n > 0){
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, n));
+            if (read < 0){
+                throw new EOFException("Tar archive ends in the middle of an entry");
+            }
+            n -= read;
+        }
+    }
+
+    private boolean checksumOk(){
+        long sum = 0;
+        for (int i = 0;i < header.length;i++){
+            sum += (i >= 148 && i < 156) ? ' ' : header[i] & 0xff;
+        }
+        return sum == parseOctal(header, 148, 8);
+    }
+
+    private boolean isUstar(){
+        return header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r';
+    }
+
+    private static boolean isZeros(byte[] record){
+        for (int i = 0;i < record.length;i++){
+            if (record[i] != 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseString(byte[] header, int offset, int length){
+        int end = offset;
+        while (end < offset + length && header[end] != 0){
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String s){
+        int nul = s.indexOf('\0');
+        return nul < 0 ? s : s.substring(0, nul);
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length){
+        long value = 0;
+        for (int i = offset;i < offset + length;i++){
+            byte b = header[i];
+            if (b == 0 || b == ' '){
+                if (value > 0){
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7'){
+                break;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Reads the 12-byte size field, in octal or base-256.
+     */
+    private static long parseSize(byte[] header, int offset){
+        if ((header[offset] & 0x80) != 0){
+            long value = 0;
+            for (int i = offset + 1;i < offset + 12;i++){
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        return parseOctal(header, offset, 12);
+    }
+}
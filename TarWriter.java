@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Writes a tar archive (POSIX ustar format) to an OutputStream, one entry at
+ * a time, without holding any file in memory. Names longer than the ustar
+ * header allows are written with a GNU long-name entry, symbolic link targets
+ * longer than it allows with a GNU long-link entry, and sizes too large
+ * for the octal size field use the GNU base-256 encoding, as GNU tar does.
+ * Permissions are stored in the header's mode field; see mode().
+ */
+public class TarWriter {
+    public static final int RECORD = 512;
+    private static final byte[] ZEROS = new byte[RECORD];
+
+    private final OutputStream out;
+
+    /**
+     * @param out the stream to write the archive to
+     */
+    public TarWriter(OutputStream out){
+        this.out = out;
+    }
+
+    /**
+     * @param file a file or directory
+     * @param fallback the mode to use where there are no POSIX permissions
+     * @return the file's permission bits, as the mode field of a header
+     *     holds them, or fallback if the file system doesn't have them
+     */
+    public static int mode(Path file, int fallback){
+        try{
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file, LinkOption.NOFOLLOW_LINKS);
+            int mode = 0;
+            // OWNER_READ is 0400, OWNER_WRITE 0200, and so on down to OTHERS_EXECUTE, 01.
+            for (PosixFilePermission permission : permissions){
+                mode |= 0400 >> permission.ordinal();
+            }
+            return mode;
+        }
+        catch (UnsupportedOperationException | IOException e){
+            return fallback;
+        }
+    }
+
+    /**
+     * Writes a directory entry.
+     * @param name the path of the directory within the archive
+     * @param mtime the last modified time, in milliseconds since the epoch
+     * @param mode the directory's permission bits; see mode()
+     */
+    public void putDirectory(String name, long mtime, int mode) throws IOException {
+        if (!name.endsWith("/")){
+            name = name + "/";
+        }
+        writeHeader(name, 0, mtime, '5', "", mode);
+    }
+
+    /**
+     * Writes a symbolic link entry.
+     * @param name the path of the link within the archive
+     * @param target what the link points to
+     * @param mtime the last modified time, in milliseconds since the epoch
+     */
+    public void putSymlink(String name, String target, long mtime) throws IOException {
+        writeHeader(name, 0, mtime, '2', target, 0777);
+    }
+
+    /**
+     * Writes a regular file entry, streaming the file's contents into the
+     * archive. Exactly size bytes are written; if the file has shrunk since
+     * size was read, the rest is filled with zeros, and if it has grown, the
+     * extra bytes are left out. Either way, the archive stays readable.
+     * @param name the path of the file within the archive
+     * @param file the file to read from
+     * @param size the size recorded in the header
+     * @param mtime the last modified time, in milliseconds since the epoch
+     * @param mode the file's permission bits; see mode()
+     * @param throttle the throttle reads go through
+     */
+    public void putFile(String name, Path file, long size, long mtime, int mode, IoThrottle throttle) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try{
+            writeHeader(name, size, mtime, '0', "", mode);
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = size;
+            while (remaining > 0){
+                int wanted = (int) Math.min(buffer.length, remaining);
+                throttle.acquireBytes(wanted);
+                int n = in.read(buffer, 0, wanted);
+                if (n < 0){
+                    // The file shrank; pad to the promised size.
+                    Arrays.fill(buffer, (byte) 0);
+                    while (remaining > 0){
+                        int pad = (int) Math.min(buffer.length, remaining);
+                        out.write(buffer, 0, pad);
+                        remaining -= pad;
+                    }
+                    break;
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+            pad(size);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Archiving interrupted");
+        }
+        finally{
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the two empty records that end a tar archive. Does not close the stream.
+     */
+    public void finish() throws IOException {
+        out.write(ZEROS);
+        out.write(ZEROS);
+        out.flush();
+    }
+
+    /**
+     * Writes a header record, preceded by a GNU long-link entry if the link
+     * target doesn't fit in the header, and a GNU long-name entry if the
+     * name doesn't.
+     */
+    private void writeHeader(String name, long size, long mtime, char type, String linkName, int mode) throws IOException {
+        writeLong('K', linkName);
+        writeLong('L', name);
+        writeRecord(name, size, mtime, type, linkName, mode);
+    }
+
+    /**
+     * Writes a GNU long-name ('L') or long-link ('K') entry, if the value
+     * is longer than the 100 bytes its header field holds.
+     */
+    private void writeLong(char type, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 100){
+            byte[] terminated = Arrays.copyOf(bytes, bytes.length + 1);
+            writeRecord("././@LongLink", terminated.length, 0, type, "", 0644);
+            out.write(terminated);
+            pad(terminated.length);
+        }
+    }
+
+    private void writeRecord(String name, long size, long mtime, char type, String linkName, int mode) throws IOException {
+        byte[] header = new byte[RECORD];
+        putString(header, 0, 100, name);
+        putOctal(header, 100, 8, mode);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putSize(header, 124, size);
+        putOctal(header, 136, 12, Math.max(0, mtime / 1000));
+        header[156] = (byte) type;
+        putString(header, 157, 100, linkName);
+        putString(header, 257, 6, "ustar");
+        header[263] = '0';
+        header[264] = '0';
+
+        // The checksum is computed with the checksum field itself filled with spaces.
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (int i = 0;i < RECORD;i++){
+            sum += header[i] & 0xff;
+        }
+        putOctal(header, 148, 7, sum);
+        header[155] = ' ';
+        out.write(header);
+    }
+
+    /**
+     * Pads an entry's data out to a whole number of records.
+     */
+    private void pad(long size) throws IOException {
+        int extra = (int) (size % RECORD);
+        if (extra != 0){
+            out.write(ZEROS, 0, RECORD - extra);
+        }
+    }
+
+    private static void putString(byte[] header, int offset, int length, String s){
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(length, bytes.length));
+    }
+
+    /**
+     * Writes value as a zero-padded, NUL-terminated octal number.
+     */
+    private static void putOctal(byte[] header, int offset, int length, long value){
+        String octal = Long.toOctalString(value);
+        StringBuilder sb = new StringBuilder();
+        for (int i = octal.length();i < length - 1;i++){
+            sb.append('0');
+        }
+        sb.append(octal);
+        putString(header, offset, length - 1, sb.toString());
+        header[offset + length - 1] = 0;
+    }
+
+    /**
+     * Writes the 12-byte size field, in octal if it fits and in base-256 otherwise.
+     */
+    private static void putSize(byte[] header, int offset, long size){
+        if (size < 077777777777L){
+            putOctal(header, offset, 12, size);
+        }
+        else{
+            header[offset] = (byte) 0x80;
+            for (int i = 11;i > 0;i--){
+                header[offset + i] = (byte) size;
+                size >>>= 8;
+            }
+        }
+    }
+}
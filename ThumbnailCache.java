@@ -0,0 +1,437 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Thumbnails of image files, made in the background and cached in memory and
+ * on disk.
+ *
+ * A thumbnail is made on a small pool of threads: the image is decoded at a
+ * reduced resolution where the format allows it (so a 24 megapixel photo
+ * isn't decoded whole) and scaled to fit a square of getSize() pixels.
+ * Requests run in the order they're made and can be cancelled until they
+ * start, so DirectoryPanel asks for the rows in view first and drops the rows
+ * scrolled away from.
+ *
+ * Thumbnails are kept in a least recently used memory cache of 64 MB
+ * (-Dfilemanager.thumbnails.memoryMB=<n>), and written as PNG files to
+ * properties/thumbnails (-Dfilemanager.thumbnails.dir=<dir>), named by a hash
+ * of the image's path, last modification time and size, so an image that
+ * changes gets a new thumbnail. The disk cache is trimmed to 256 MB
+ * (-Dfilemanager.thumbnails.diskMB=<n>), the oldest thumbnails first, when
+ * the file manager starts.
+ */
+public class ThumbnailCache {
+    public static final String DEFAULT_DIRECTORY = "properties/thumbnails";
+    public static final int DEFAULT_SIZE = 48;
+
+    private static ThumbnailCache instance;
+
+    /**
+     * Receives a thumbnail once it's made.
+     */
+    public interface Listener {
+        /**
+         * Called on one of the cache's threads; not called if the image
+         * can't be read or the request was cancelled.
+         * @param file the image
+         * @param thumbnail its thumbnail
+         */
+        public void thumbnailReady(Path file, BufferedImage thumbnail);
+    }
+
+    /**
+     * A thumbnail being made. Cancelling it before it starts takes it out of
+     * the queue.
+     */
+    public class Request {
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+
+        public void cancel(){
+            cancelled = true;
+            Future<?> f = future;
+            if (f != null && f.cancel(false)){
+                pool.remove((Runnable) f);
+            }
+        }
+
+        public boolean isCancelled(){
+            return cancelled;
+        }
+    }
+
+    private final int size;
+    private final Path directory;
+    private final long memoryBytes;
+    private final long diskBytes;
+    private final ThreadPoolExecutor pool;
+    private final Set<String> suffixes;
+    // Guarded by itself; iterates from the least recently used.
+    private final LinkedHashMap<String,BufferedImage> memory = new LinkedHashMap<String,BufferedImage>(64, 0.75f, true);
+    private long memoryUsed;
+
+    /**
+     * @param size the width and height of the square thumbnails fit in
+     * @param directory where thumbnails are written
+     * @param memoryBytes how much memory thumbnails may take
+     * @param diskBytes how much disk space thumbnails may take
+     * @param threads the number of thumbnails made at once
+     */
+    public ThumbnailCache(int size, Path directory, long memoryBytes, long diskBytes, int threads){
+        this.size = size;
+        this.directory = directory;
+        this.memoryBytes = memoryBytes;
+        this.diskBytes = diskBytes;
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "thumbnail-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        suffixes = new HashSet<String>();
+        for (String suffix : ImageIO.getReaderFileSuffixes()){
+            suffixes.add(suffix.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * @return the cache shared by the whole file manager. Thumbnails are
+     *     48 pixels (-Dfilemanager.thumbnails.size=<n>) and made by up to 4
+     *     threads (-Dfilemanager.thumbnails.threads=<n>). The disk cache is
+     *     trimmed in the background.
+     */
+    public static synchronized ThumbnailCache getDefault(){
+        if (instance == null){
+            instance = new ThumbnailCache(
+                    Integer.getInteger("filemanager.thumbnails.size", DEFAULT_SIZE),
+                    Paths.get(System.getProperty("filemanager.thumbnails.dir", DEFAULT_DIRECTORY)),
+                    Long.getLong("filemanager.thumbnails.memoryMB", 64) * 1000000,
+                    Long.getLong("filemanager.thumbnails.diskMB", 256) * 1000000,
+                    Integer.getInteger("filemanager.thumbnails.threads",
+                            Math.min(4, Runtime.getRuntime().availableProcessors())));
+            instance.pool.execute(new Runnable(){
+                @Override
+                public void run(){
+                    instance.trimDisk();
+                }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * @return the width and height of the square thumbnails fit in
+     */
+    public int getSize(){
+        return size;
+    }
+
+    /**
+     * @param name a file name
+     * @return true if the name has the extension of an image format that can
+     *     be read
+     */
+    public boolean isImage(String name){
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @param file an image
+     * @param modified its last modification time, in milliseconds
+     * @param length its size, in bytes
+     * @return its thumbnail if it's in memory, or null; never reads anything
+     */
+    public BufferedImage getCached(Path file, long modified, long length){
+        String key = keyOf(file, modified, length);
+        synchronized (memory){
+            return memory.get(key);
+        }
+    }
+
+    /**
+     * Makes a thumbnail in the background: from memory, from disk, or by
+     * decoding the image.
+     * @param file an image
+     * @param modified its last modification time, in milliseconds
+     * @param length its size, in bytes
+     * @param listener receives the thumbnail
+     * @return the request, which can be cancelled
+     */
+    public Request request(final Path file, final long modified, final long length, final Listener listener){
+        final Request request = new Request();
+        request.future = pool.submit(new Runnable(){
+            @Override
+            public void run(){
+                if (request.isCancelled()){
+                    return;
+                }
+                BufferedImage thumbnail = get(file, modified, length);
+                if (thumbnail != null && !request.isCancelled()){
+                    listener.thumbnailReady(file, thumbnail);
+                }
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Makes a thumbnail now: from memory, from disk, or by decoding the image.
+     * @param file an image
+     * @param modified its last modification time, in milliseconds
+     * @param length its size, in bytes
+     * @return the thumbnail, or null if the image can't be read
+     */
+    public BufferedImage get(Path file, long modified, long length){
+        String key = keyOf(file, modified, length);
+        BufferedImage thumbnail;
+        synchronized (memory){
+            thumbnail = memory.get(key);
+        }
+        if (thumbnail != null){
+            MetricsRegistry.increment("thumbnails.memoryHits");
+            return thumbnail;
+        }
+        Path cached = directory.resolve(key.substring(0, 2)).resolve(key + ".png");
+        try{
+            IoThrottle.global().acquireOps(1);
+            if (Files.exists(cached)){
+                thumbnail = ImageIO.read(cached.toFile());
+                if (thumbnail != null){
+                    MetricsRegistry.increment("thumbnails.diskHits");
+                }
+            }
+            if (thumbnail == null){
+                long start = System.nanoTime();
+                thumbnail = decode(file);
+                if (thumbnail == null){
+                    return null;
+                }
+                MetricsRegistry.record("thumbnails.decode", System.nanoTime() - start);
+                write(thumbnail, cached);
+            }
+        }
+        catch (IOException | RuntimeException e){
+            // Broken images, and formats ImageIO only partly supports, get no thumbnail.
+            System.out.println(file + ": " + e.getMessage());
+            return null;
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        remember(key, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Drops every thumbnail kept in memory.
+     */
+    public void clearMemory(){
+        synchronized (memory){
+            memory.clear();
+            memoryUsed = 0;
+        }
+    }
+
+    private void remember(String key, BufferedImage thumbnail){
+        synchronized (memory){
+            BufferedImage old = memory.put(key, thumbnail);
+            memoryUsed += bytesOf(thumbnail) - (old == null ? 0 : bytesOf(old));
+            Iterator<BufferedImage> eldest = memory.values().iterator();
+            while (memoryUsed > memoryBytes && eldest.hasNext()){
+                memoryUsed -= bytesOf(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    private static long bytesOf(BufferedImage image){
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Decodes an image, skipping pixels where the image is much larger than
+     * the thumbnail, and scales it to fit.
+     * @return the thumbnail, or null if no reader understands the file
+     */
+    private BufferedImage decode(Path file) throws IOException {
+        PathResolver.acquire(file);
+        try{
+            return decodeHeld(file);
+        }
+        finally{
+            PathResolver.release(file);
+        }
+    }
+
+    /**
+     * See decode(); the file's archive, if it is in one, is held open.
+     */
+    private BufferedImage decodeHeld(Path file) throws IOException {
+        if (!Files.isRegularFile(file)){
+            // Opening a pipe would wait for a writer, holding the thread forever.
+            return null;
+        }
+        BufferedImage image;
+        try (InputStream in = Files.newInputStream(file);
+             ImageInputStream stream = ImageIO.createImageInputStream(in)){
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()){
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try{
+                reader.setInput(stream, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // Keep at least twice the thumbnail's resolution, for smooth scaling.
+                int step = Math.max(1, longest / (2 * size));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            }
+            finally{
+                reader.dispose();
+            }
+        }
+        double scale = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try{
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        }
+        finally{
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Writes a thumbnail to the disk cache, under a temporary name first so a
+     * half written thumbnail is never read. Failing to write isn't an error;
+     * the thumbnail is made again next time.
+     */
+    private void write(BufferedImage thumbnail, Path cached){
+        try{
+            Files.createDirectories(cached.getParent());
+            Path temporary = cached.resolveSibling(cached.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+            ImageIO.write(thumbnail, "png", temporary.toFile());
+            Files.move(temporary, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the oldest thumbnails on disk until they take up less than the
+     * limit.
+     */
+    void trimDisk(){
+        final List<Path> files = new ArrayList<Path>();
+        final List<Long> times = new ArrayList<Long>();
+        long used = 0;
+        try (DirectoryStream<Path> fans = Files.newDirectoryStream(directory)){
+            for (Path fan : fans){
+                if (!Files.isDirectory(fan)){
+                    continue;
+                }
+                try (DirectoryStream<Path> thumbnails = Files.newDirectoryStream(fan)){
+                    for (Path thumbnail : thumbnails){
+                        files.add(thumbnail);
+                        times.add(Files.getLastModifiedTime(thumbnail).toMillis());
+                        used += Files.size(thumbnail);
+                    }
+                }
+            }
+        }
+        catch (IOException ioe){
+            // No cache yet, or it can't be read; there's nothing to trim.
+            return;
+        }
+        if (used <= diskBytes){
+            return;
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0;i < files.size();i++){
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b){
+                return Long.compare(times.get(a), times.get(b));
+            }
+        });
+        for (int i = 0;i < order.size() && used > diskBytes * 9 / 10;i++){
+            Path oldest = files.get(order.get(i));
+            try{
+                long length = Files.size(oldest);
+                Files.delete(oldest);
+                used -= length;
+            }
+            catch (IOException ioe){
+                System.out.println(ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the cache key of an image: a hash of its location, last
+     *     modification time and size, and the thumbnail size
+     */
+    private String keyOf(Path file, long modified, long length){
+        String identity = file.toUri() + "|" + modified + "|" + length + "|" + size;
+        try{
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : hash){
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException nsae){
+            // Every Java platform has SHA-1.
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
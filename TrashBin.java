@@ -0,0 +1,456 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deferred deletion. Instead of deleting a file, trash() renames it into a
+ * trash directory on the same volume, which takes the same (short) time no
+ * matter how big the file or directory is. A low-priority background purger
+ * permanently removes trashed items once their grace period has passed,
+ * deleting at a limited rate (see IoThrottle) so it doesn't saturate the disk. Until then,
+ * an item can be restored with undo(). Items trashed together, with the same
+ * batch number from newBatch(), are restored together.
+ *
+ * The trash directory is ".filemanager-trash" in the user's home directory if
+ * that's on the same volume as the file, or in the root of the file's volume
+ * otherwise. Each session trashes into its own directory inside it, so that
+ * purging what earlier sessions left behind never touches this session's
+ * items. The grace period (in seconds) can be set with the system property
+ * "filemanager.trash.graceSeconds" and the purge rate (in files per second)
+ * with "filemanager.trash.purgeRate".
+ */
+public class TrashBin {
+    public static final String TRASH_NAME = ".filemanager-trash";
+
+    // The shared instance used by DeleteAction and DirectoryPanel.
+    private static final TrashBin DEFAULT = new TrashBin(
+            Long.getLong("filemanager.trash.graceSeconds", 300),
+            Integer.getInteger("filemanager.trash.purgeRate", 500));
+
+    /**
+     * An item that has been moved to the trash.
+     */
+    public static class Entry {
+        private final Path original;
+        private final Path trashed;
+        private final long batch;
+        private volatile long size;
+        private ScheduledFuture<?> purge;
+
+        Entry(Path original, Path trashed, long batch){
+            this.original = original;
+            this.trashed = trashed;
+            this.batch = batch;
+            this.size = -1;
+        }
+
+        /**
+         * @return where the item was before it was trashed
+         */
+        public Path getOriginal(){
+            return original;
+        }
+
+        /**
+         * @return where the item is now
+         */
+        public Path getTrashed(){
+            return trashed;
+        }
+
+        /**
+         * @return the size of the item in bytes, or -1 if it hasn't been measured yet
+         */
+        public long getSize(){
+            return size;
+        }
+    }
+
+    private final long graceSeconds;
+    // Limits the purger to a number of deletions per second.
+    private final IoThrottle throttle;
+    // Trash directories that have been found (or created), by volume.
+    private final Map<FileStore,Path> trashDirectories;
+    // Items that can still be restored, newest last.
+    private final Deque<Entry> pending;
+    private final ScheduledThreadPoolExecutor purger;
+    private final AtomicLong counter;
+    private final AtomicLong batches;
+    // The name of this session's directory inside each trash directory.
+    private final String session;
+    // Statistics
+    private final AtomicLong pendingBytes;
+    private final AtomicLong purgedFiles;
+    private final AtomicLong purgeNanos;
+
+    /**
+     * @param graceSeconds how long a trashed item can be restored before it's purged
+     * @param purgeRate the maximum number of files the purger deletes per second
+     */
+    public TrashBin(long graceSeconds, int purgeRate){
+        this.graceSeconds = graceSeconds;
+        this.throttle = IoThrottle.forJob(0, Math.max(1, purgeRate));
+        trashDirectories = new HashMap<FileStore,Path>();
+        pending = new ArrayDeque<Entry>();
+        counter = new AtomicLong(System.currentTimeMillis());
+        batches = new AtomicLong(0);
+        session = "session-" + counter.get();
+        pendingBytes = new AtomicLong(0);
+        purgedFiles = new AtomicLong(0);
+        purgeNanos = new AtomicLong(0);
+        purger = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "trash-purger");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        purger.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return the TrashBin shared by the whole file manager
+     */
+    public static TrashBin getDefault(){
+        return DEFAULT;
+    }
+
+    /**
+     * @return a batch number for items to be trashed, and restored, together
+     */
+    public long newBatch(){
+        return batches.incrementAndGet();
+    }
+
+    /**
+     * Moves a file or directory into the trash on its volume, as a batch of
+     * its own.
+     * @param file the item to trash
+     * @return the entry describing the trashed item
+     * @throws IOException if there's no usable trash directory on the volume
+     *         or the item can't be renamed into it
+     */
+    public Entry trash(Path file) throws IOException {
+        return trash(file, newBatch());
+    }
+
+    /**
+     * Moves a file or directory into the trash on its volume.
+     * @param file the item to trash
+     * @param batch the batch it belongs to; see newBatch()
+     * @return the entry describing the trashed item
+     * @throws IOException if there's no usable trash directory on the volume
+     *         or the item can't be renamed into it
+     */
+    public Entry trash(Path file, long batch) throws IOException {
+        if (!PathResolver.isDefault(file)){
+            throw new IOException(file.getFileName() + " is inside an archive and can't be moved to the trash");
+        }
+        Path trashDir = trashDirectoryFor(file);
+        Path trashed = trashDir.resolve(counter.incrementAndGet() + "-" + file.getFileName());
+        Files.move(file, trashed, StandardCopyOption.ATOMIC_MOVE);
+        PathStatusCache.getDefault().invalidate(file);
+        DirectoryCache.getDefault().invalidateParent(file);
+        FolderSizes.getDefault().invalidate(file);
+
+        final Entry entry = new Entry(file, trashed, batch);
+        synchronized (this){
+            pending.addLast(entry);
+            // Measure the item right away (cheaply, in the background) so the trash size is known.
+            purger.execute(new Runnable(){
+                @Override
+                public void run(){
+                    entry.size = measure(entry.trashed);
+                    if (entry.size > 0){
+                        pendingBytes.addAndGet(entry.size);
+                    }
+                }
+            });
+            entry.purge = purger.schedule(purgeLater(entry), graceSeconds, TimeUnit.SECONDS);
+        }
+        return entry;
+    }
+
+    /**
+     * Restores every item of the most recently trashed batch that hasn't
+     * been purged yet.
+     * @return the restored entries; empty if there was nothing to restore
+     * @throws IOException if any item can't be moved back, or something
+     *         new is at its original path; the others are restored anyway,
+     *         and those stay in the trash
+     */
+    public List<Entry> undo() throws IOException {
+        List<Entry> batch = new ArrayList<Entry>();
+        synchronized (this){
+            Entry last = pending.peekLast();
+            if (last == null){
+                return batch;
+            }
+            Iterator<Entry> newestFirst = pending.descendingIterator();
+            while (newestFirst.hasNext()){
+                Entry entry = newestFirst.next();
+                if (entry.batch == last.batch){
+                    newestFirst.remove();
+                    entry.purge.cancel(false);
+                    batch.add(entry);
+                }
+            }
+        }
+        List<Entry> restored = new ArrayList<Entry>();
+        IOException failure = null;
+        // Newest first, undoing the trashing in reverse.
+        for (Entry entry : batch){
+            try{
+                // A rename would silently replace whatever was made at the
+                // original path since; that is kept, and so is the trashed item.
+                if (!Files.notExists(entry.original, LinkOption.NOFOLLOW_LINKS)){
+                    throw new FileAlreadyExistsException(entry.original.toString(), null,
+                            "something new is there; the deleted item is still in the trash");
+                }
+                Files.move(entry.trashed, entry.original);
+            }
+            catch (IOException ioe){
+                System.out.println(ioe.getMessage());
+                failure = ioe;
+                // Put it back so it's still purged eventually.
+                synchronized (this){
+                    pending.addLast(entry);
+                    entry.purge = purger.schedule(purgeLater(entry), graceSeconds, TimeUnit.SECONDS);
+                }
+                continue;
+            }
+            PathStatusCache.getDefault().invalidate(entry.original);
+            DirectoryCache.getDefault().invalidateParent(entry.original);
+            FolderSizes.getDefault().invalidate(entry.original);
+            if (entry.size > 0){
+                pendingBytes.addAndGet(-entry.size);
+            }
+            restored.add(entry);
+        }
+        if (failure != null){
+            throw new IOException((batch.size() - restored.size()) + " of " + batch.size()
+                    + " item(s) could not be restored: " + failure.getMessage(), failure);
+        }
+        return restored;
+    }
+
+    /**
+     * Purges every pending item now, without waiting for the grace period.
+     */
+    public void emptyNow(){
+        synchronized (this){
+            for (Entry entry : pending){
+                entry.purge.cancel(false);
+                entry.purge = purger.schedule(purgeLater(entry), 0, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return a task that purges entry, unless it has been restored by then
+     */
+    private Runnable purgeLater(final Entry entry){
+        return new Runnable(){
+            @Override
+            public void run(){
+                synchronized (TrashBin.this){
+                    if (!pending.remove(entry)){
+                        return;
+                    }
+                }
+                purge(entry.trashed);
+                if (entry.size > 0){
+                    pendingBytes.addAndGet(-entry.size);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the number of trashed items that can still be restored
+     */
+    public synchronized int getPendingCount(){
+        return pending.size();
+    }
+
+    /**
+     * @return the total measured size, in bytes, of the items waiting to be purged
+     */
+    public long getPendingBytes(){
+        return pendingBytes.get();
+    }
+
+    /**
+     * @return the number of files the purger has deleted so far
+     */
+    public long getPurgedFiles(){
+        return purgedFiles.get();
+    }
+
+    /**
+     * @return the average number of files the purger deletes per second
+     *         while it's working, or 0 if it hasn't purged anything yet
+     */
+    public double getPurgeRate(){
+        long nanos = purgeNanos.get();
+        return nanos == 0 ? 0 : purgedFiles.get() * 1e9 / nanos;
+    }
+
+    /**
+     * @param filesPerSecond the maximum number of files the purger deletes per second
+     */
+    public void setPurgeRateLimit(int filesPerSecond){
+        throttle.setOpsPerSecond(Math.max(1, filesPerSecond));
+    }
+
+    /**
+     * Finds (creating it if needed) this session's trash directory on file's
+     * volume. Leftovers from earlier sessions are scheduled for purging the
+     * first time a trash directory is used.
+     */
+    private Path trashDirectoryFor(Path file) throws IOException {
+        FileStore store = Files.getFileStore(file);
+        synchronized (trashDirectories){
+            Path trashDir = trashDirectories.get(store);
+            if (trashDir != null){
+                return trashDir;
+            }
+
+            Path home = Paths.get(System.getProperty("user.home"));
+            Path root;
+            if (Files.getFileStore(home).equals(store)){
+                root = home;
+            }
+            else{
+                // Climb to the top of the volume.
+                root = file.toAbsolutePath();
+                while (root.getParent() != null && Files.getFileStore(root.getParent()).equals(store)){
+                    root = root.getParent();
+                }
+            }
+            final Path trash = root.resolve(TRASH_NAME);
+            trashDir = trash.resolve(session);
+            Files.createDirectories(trashDir);
+            trashDirectories.put(store, trashDir);
+
+            // Another file manager running now may still be able to restore
+            // what it trashed, so only what is past its grace period goes.
+            final long expired = System.currentTimeMillis() - graceSeconds * 1000;
+            purger.execute(new Runnable(){
+                @Override
+                public void run(){
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(trash)){
+                        for (Path p : stream){
+                            if (!p.getFileName().toString().equals(session)
+                                    && Files.getLastModifiedTime(p).toMillis() < expired){
+                                purge(p);
+                            }
+                        }
+                    }
+                    catch (IOException ioe){
+                        System.out.println(ioe.getMessage());
+                    }
+                }
+            });
+            return trashDir;
+        }
+    }
+
+    /**
+     * @return the total size in bytes of every file beneath p
+     */
+    private static long measure(Path p){
+        final long[] total = {0};
+        try{
+            Files.walkFileTree(p, new SimpleFileVisitor<Path>(){
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+                    total[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ioe){
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+        }
+        return total[0];
+    }
+
+    /**
+     * Permanently deletes p and everything beneath it, no faster than purgeRate
+     * files per second.
+     */
+    private void purge(Path p){
+        final long start = System.nanoTime();
+        try{
+            Files.walkFileTree(p, new SimpleFileVisitor<Path>(){
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    delete(file);
+                    MetricsRegistry.increment(MetricsRegistry.FILES_DELETED);
+                    MetricsRegistry.add(MetricsRegistry.BYTES_DELETED, attrs.size());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ioe){
+                    System.out.println(ioe.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ioe) throws IOException {
+                    delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException ioe){
+            System.out.println(ioe.getMessage());
+        }
+        purgeNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Deletes one file or empty directory, once the throttle allows it.
+     */
+    private void delete(Path p) throws IOException {
+        try{
+            throttle.acquireOps(1);
+        }
+        catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new IOException("Purge interrupted", ie);
+        }
+        Files.deleteIfExists(p);
+        purgedFiles.incrementAndGet();
+    }
+}
@@ -7,48 +7,235 @@
  */
 import javax.swing.*;
 import java.awt.event.*;
+import java.awt.Component;
+import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Scanner;
 
 /**
- * Our Window class.
+ * Our Window class. Each Window holds one or more tabs, each with its own
+ * Manager, DirectoryPanel, toolbar and PreviewPane. Every tab and window
+ * shares one DirectoryCache, PathStatusCache, IoExecutor and
+ * DirectoryWatcher, so a directory shown in two tabs is only listed once.
  */
 public class Window extends JFrame{
     // Version number
     final private double version = 1.0;
-    private DirectoryPanel centerPanel;
-    private FileManagerToolbar upperToolbar;
-    private FileManagerUI ui;
+    // How many Windows are open; the program ends when the last one closes.
+    private static int openWindows = 0;
+    private JTabbedPane tabs;
 
     /***
      * Start a window.
      * @param args Required Java syntax for main()
      */
     public static void main(String[] args){
+        MetricsRegistry.register();
+        EdtWatchdog.install();
         Window w = new Window();
     }
 
     /**
-     * Default Window constructor.
+     * Default Window constructor. Opens one tab on the user's home directory.
      * @author Bradley Nickle
      * @author Ian Ho-Sing-Loy
      */
     public Window(){
-        open();
+        this(null);
+    }
+
+    /**
+     * Opens a Window with one tab on a directory.
+     * @param directory the directory to show, or null for the user's home directory
+     */
+    public Window(String directory){
+        openWindows++;
+        open(directory);
         configureCloseOperations();
+        configureTabActions();
+    }
+
+    /**
+     * Opens a new tab on a directory and selects it.
+     * @param directory the directory to show
+     */
+    public void openTab(String directory){
+        final Manager mngr = new Manager(directory);
+        DirectoryPanel centerPanel = new DirectoryPanel(mngr);
+        FileManagerToolbar upperToolbar = new FileManagerToolbar(mngr);
+        final FileManagerUI ui = new FileManagerUI(mngr,centerPanel,upperToolbar);
+        PreviewPane preview = new PreviewPane();
+        centerPanel.setPreviewPane(preview);
+        // The listing takes the space the window gains; the preview keeps its width.
+        final JSplitPane tab = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, ui, preview);
+        tab.setResizeWeight(1.0);
+        tab.setOneTouchExpandable(true);
+
+        tabs.addTab(tabTitle(mngr.getDirectory()), tab);
+        tabs.setToolTipTextAt(tabs.getTabCount() - 1, mngr.getDirectory());
+        tabs.setSelectedComponent(tab);
+
+        // Keep the tab's title on the directory it shows.
+        mngr.attach(new ManagerObserver(){
+            @Override
+            public void update(Subject s){
+                int index = tabs.indexOfComponent(tab);
+                if (index >= 0){
+                    tabs.setTitleAt(index, tabTitle(mngr.getDirectory()));
+                    tabs.setToolTipTextAt(index, mngr.getDirectory());
+                }
+            }
+
+            @Override
+            public void search(Subject s) {}
+
+            @Override
+            public void sort(Subject s) {}
+        });
+    }
+
+    /**
+     * Closes the selected tab, and stops its background work. Closing the
+     * last tab closes the Window.
+     */
+    public void closeTab(){
+        if (tabs.getTabCount() <= 1){
+            dispatchEvent(new WindowEvent(this, WindowEvent.WINDOW_CLOSING));
+        }
+        else{
+            JSplitPane tab = (JSplitPane) tabs.getSelectedComponent();
+            tabs.remove(tab);
+            Component view = ((FileManagerUI) tab.getLeftComponent()).getViewport().getView();
+            if (view instanceof DirectoryPanel){
+                ((DirectoryPanel) view).dispose();
+            }
+        }
+    }
+
+    /**
+     * @return the Manager of the selected tab, or null if there are no tabs
+     */
+    public Manager getSelectedManager(){
+        JSplitPane tab = (JSplitPane) tabs.getSelectedComponent();
+        return tab == null ? null : ((FileManagerUI) tab.getLeftComponent()).getManager();
+    }
+
+    /**
+     * Shows or hides the preview pane of the selected tab.
+     */
+    public void togglePreview(){
+        JSplitPane tab = (JSplitPane) tabs.getSelectedComponent();
+        if (tab != null){
+            Component preview = tab.getRightComponent();
+            preview.setVisible(!preview.isVisible());
+            tab.resetToPreferredSizes();
+        }
+    }
+
+    /**
+     * @return the directory shown in the selected tab, or null if there are no tabs
+     */
+    private String selectedDirectory(){
+        Manager mngr = getSelectedManager();
+        return mngr == null ? null : mngr.getDirectory();
+    }
+
+    /**
+     * @param directory a directory address
+     * @return a short title for a tab showing the directory
+     */
+    private static String tabTitle(String directory){
+        String name = new File(directory).getName();
+        return name.isEmpty() ? directory : name;
+    }
+
+    /**
+     * Binds Ctrl+T (new tab), Ctrl+W (close tab), Ctrl+N (new window) and
+     * Alt+P (show or hide the preview), and offers the same in a menu when a
+     * tab is right clicked.
+     */
+    private void configureTabActions(){
+        final Action newTab = new AbstractAction("New Tab"){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                openTab(selectedDirectory());
+            }
+        };
+        final Action closeTab = new AbstractAction("Close Tab"){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                closeTab();
+            }
+        };
+        final Action preview = new AbstractAction("Show/Hide Preview"){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                togglePreview();
+            }
+        };
+        final Action newWindow = new AbstractAction("New Window"){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                Window w = new Window(selectedDirectory());
+                w.setLocation(getX() + 30, getY() + 30);
+            }
+        };
+
+        int mask = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        InputMap keys = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        ActionMap actions = getRootPane().getActionMap();
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_T, mask), "newTab");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_W, mask), "closeTab");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_N, mask), "newWindow");
+        // Alt+P, as in Windows File Explorer.
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_P, InputEvent.ALT_DOWN_MASK), "preview");
+        actions.put("newTab", newTab);
+        actions.put("closeTab", closeTab);
+        actions.put("newWindow", newWindow);
+        actions.put("preview", preview);
+
+        tabs.addMouseListener(new MouseAdapter(){
+            @Override
+            public void mousePressed(MouseEvent e){
+                showMenu(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e){
+                showMenu(e);
+            }
+
+            private void showMenu(MouseEvent e){
+                if (!e.isPopupTrigger()){
+                    return;
+                }
+                int index = tabs.indexAtLocation(e.getX(), e.getY());
+                if (index >= 0){
+                    tabs.setSelectedIndex(index);
+                }
+                JPopupMenu menu = new JPopupMenu("Tabs");
+                menu.add(newTab);
+                menu.add(closeTab);
+                menu.add(newWindow);
+                menu.addSeparator();
+                menu.add(preview);
+                menu.show(tabs, e.getX(), e.getY());
+            }
+        });
     }
 
     /**
      * Configures what to do when the user closes the window.
      * In short, this adds a WindowAdapter that will save the window's size and
-     * position on close.
+     * position, and the navigation history of its selected tab, on close. The
+     * program ends when the last Window closes.
      * @author Dan Tran
      * @author Bradley Nickle
      */
     private void configureCloseOperations(){
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         this.addWindowListener(new WindowAdapter(){
             @Override
             public void windowClosing(WindowEvent e) {
@@ -83,19 +270,30 @@ public class Window extends JFrame{
                     }
                 }
                 
-                // Close the program.
+                // Save the recent directories for the next session.
+                Manager mngr = theWindow.getSelectedManager();
+                if (mngr != null){
+                    mngr.saveHistory();
+                }
+
+                // Close the Window, and the program if it was the last one.
                 theWindow.dispose();
-                System.exit(0);
+                openWindows--;
+                if (openWindows == 0){
+                    System.exit(0);
+                }
             }
         });
     }
 
     /**
      * Configures the file manager as it opens
+     * @param directory the directory for the first tab, or null for the user's
+     *     home directory
      * @author Brad Nickle
      * @author Ian Ho-Sing-Loy
      */
-    private void open(){
+    private void open(String directory){
         try {
             // Read from sizePosition.txt the parameters
             File file = new File("properties/sizePosition.txt");
@@ -155,17 +353,16 @@ public class Window extends JFrame{
             path = "";
         }
 
-        // Initialize the Manager
-        Manager mngr = new Manager(path);
+        if (directory != null){
+            path = directory;
+        }
 
-        // Initialize the GUI components
-        DirectoryPanel centerPanel = new DirectoryPanel(mngr);
-        FileManagerToolbar upperToolbar = new FileManagerToolbar(mngr);
-        FileManagerUI ui = new FileManagerUI(mngr,centerPanel,upperToolbar);
+        // Initialize the GUI components, in a first tab
+        tabs = new JTabbedPane();
+        openTab(path);
 
         // Set up the GUI
-        setContentPane(ui);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setContentPane(tabs);
         setVisible(true);
     }
 }
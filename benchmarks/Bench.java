@@ -0,0 +1,277 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness: each trial is run a few times to warm up the JIT,
+ * then measured for a number of iterations, and the timings are kept so they
+ * can be printed and saved as JSON for comparing releases.
+ *
+ * Every iteration calls Trial.setUp() first, untimed, so a trial that changes
+ * its input (such as a sort) starts from the same state each time. A trial
+ * stops measuring early once it has used its time budget, so one very slow
+ * case doesn't hold up the whole run; the result says how many iterations
+ * were measured. A trial that throws (or overflows the stack) is recorded as
+ * failed, with the error, and the run carries on.
+ *
+ * Settings: -Dbench.warmups=<n> (default 3), -Dbench.iterations=<n>
+ * (default 10) and -Dbench.budgetSeconds=<n> (default 60, per trial).
+ */
+public class Bench {
+    /**
+     * One thing to measure.
+     */
+    public static abstract class Trial {
+        /**
+         * Prepares for one iteration. Not timed.
+         * @throws Exception if the trial can't be prepared
+         */
+        public void setUp() throws Exception {}
+
+        /**
+         * The work being measured.
+         * @return anything computed, so the JIT can't drop the work
+         * @throws Exception if the work fails
+         */
+        public abstract Object run() throws Exception;
+    }
+
+    /**
+     * The timings of one trial.
+     */
+    public static class Result {
+        final String name;
+        final String variant;
+        final int size;
+        final long[] nanos;
+        // Why there are no timings, or null.
+        final String note;
+
+        Result(String name, String variant, int size, long[] nanos, String note){
+            this.name = name;
+            this.variant = variant;
+            this.size = size;
+            this.nanos = nanos;
+            this.note = note;
+        }
+
+        double mean(){
+            double sum = 0;
+            for (long n : nanos){
+                sum += n;
+            }
+            return nanos.length == 0 ? 0 : sum / nanos.length;
+        }
+
+        double stdDev(){
+            double mean = mean();
+            double sum = 0;
+            for (long n : nanos){
+                sum += (n - mean) * (n - mean);
+            }
+            return nanos.length < 2 ? 0 : Math.sqrt(sum / (nanos.length - 1));
+        }
+
+        long min(){
+            long min = Long.MAX_VALUE;
+            for (long n : nanos){
+                min = Math.min(min, n);
+            }
+            return nanos.length == 0 ? 0 : min;
+        }
+
+        long median(){
+            if (nanos.length == 0){
+                return 0;
+            }
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            return sorted[sorted.length / 2];
+        }
+    }
+
+    // Results of run() land here, so the work that produced them can't be optimized away.
+    public static volatile Object sink;
+
+    private final int warmups;
+    private final int iterations;
+    private final long budgetNanos;
+    private final List<Result> results;
+
+    /**
+     * Creates a harness configured by the bench.* system properties.
+     */
+    public Bench(){
+        this(Integer.getInteger("bench.warmups", 3), Integer.getInteger("bench.iterations", 10),
+                Long.getLong("bench.budgetSeconds", 60));
+    }
+
+    /**
+     * @param warmups untimed runs of each trial
+     * @param iterations timed runs of each trial
+     * @param budgetSeconds the most time to spend on one trial, after the first iteration
+     */
+    public Bench(int warmups, int iterations, long budgetSeconds){
+        this.warmups = warmups;
+        this.iterations = Math.max(1, iterations);
+        this.budgetNanos = budgetSeconds * 1000000000L;
+        this.results = new ArrayList<Result>();
+    }
+
+    /**
+     * Warms up and measures a trial, prints the result and keeps it for save().
+     * @param name what is being measured, such as "sort"
+     * @param variant which way of doing it, such as "quickSort/name"
+     * @param size the number of entries the trial works on
+     * @param trial the trial
+     * @return the result, or null if the trial failed
+     */
+    public Result measure(String name, String variant, int size, Trial trial){
+        try{
+            return time(name, variant, size, trial);
+        }
+        catch (Exception | StackOverflowError e){
+            skip(name, variant, size, "failed: " + e);
+            return null;
+        }
+    }
+
+    private Result time(String name, String variant, int size, Trial trial) throws Exception {
+        long started = System.nanoTime();
+        for (int i = 0;i < warmups && System.nanoTime() - started < budgetNanos;i++){
+            trial.setUp();
+            sink = trial.run();
+        }
+        long[] nanos = new long[iterations];
+        int done = 0;
+        started = System.nanoTime();
+        while (done < iterations && (done == 0 || System.nanoTime() - started < budgetNanos)){
+            trial.setUp();
+            long start = System.nanoTime();
+            sink = trial.run();
+            nanos[done++] = System.nanoTime() - start;
+        }
+        return record(name, variant, size, Arrays.copyOf(nanos, done));
+    }
+
+    /**
+     * Keeps timings measured elsewhere, such as one per step of a scripted
+     * run, so they are printed and saved like the others.
+     * @param name what was measured
+     * @param variant which way of doing it
+     * @param size the number of entries involved
+     * @param nanos the timings
+     * @return the result
+     */
+    public Result record(String name, String variant, int size, long[] nanos){
+        Result result = new Result(name, variant, size, nanos.clone(), null);
+        results.add(result);
+        System.out.println(String.format(Locale.ROOT, "%-12s %-28s %9d  %12.3f ms  +- %9.3f  (median %.3f, min %.3f, n=%d)",
+                name, variant, size, result.mean() / 1e6, result.stdDev() / 1e6,
+                result.median() / 1e6, result.min() / 1e6, nanos.length));
+        return result;
+    }
+
+    /**
+     * Records that a trial was not run, so the JSON shows the gap rather than
+     * silently leaving it out.
+     * @param name what would have been measured
+     * @param variant which way of doing it
+     * @param size the number of entries
+     * @param reason why it was skipped
+     */
+    public void skip(String name, String variant, int size, String reason){
+        System.out.println(String.format(Locale.ROOT, "%-12s %-28s %9d  skipped: %s", name, variant, size, reason));
+        results.add(new Result(name, variant, size, new long[0], reason));
+    }
+
+    /**
+     * Saves every result as JSON: the environment, then one object per trial
+     * with its mean, standard deviation, median and minimum in milliseconds,
+     * and every measured time.
+     * @param file the file to write
+     * @param suite the name of the suite, such as "NavigationBenchmark"
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path file, String suite) throws IOException {
+        if (file.getParent() != null){
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+            writer.write("{\n");
+            writer.write("  \"suite\": \"" + suite + "\",\n");
+            writer.write("  \"timestamp\": " + System.currentTimeMillis() + ",\n");
+            writer.write("  \"java\": \"" + System.getProperty("java.version") + "\",\n");
+            writer.write("  \"os\": \"" + System.getProperty("os.name") + " " + System.getProperty("os.arch") + "\",\n");
+            writer.write("  \"cores\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            writer.write("  \"maxHeapMB\": " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + ",\n");
+            writer.write("  \"warmups\": " + warmups + ",\n");
+            writer.write("  \"results\": [");
+            String separator = "\n";
+            for (Result r : results){
+                writer.write(separator);
+                StringBuilder times = new StringBuilder();
+                for (int i = 0;i < r.nanos.length;i++){
+                    times.append(i == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", r.nanos[i] / 1e6));
+                }
+                writer.write(String.format(Locale.ROOT, "    {\"name\": \"%s\", \"variant\": \"%s\", \"size\": %d, "
+                        + "\"iterations\": %d, \"meanMs\": %.3f, \"stdDevMs\": %.3f, \"medianMs\": %.3f, "
+                        + "\"minMs\": %.3f, \"timesMs\": [%s]%s}",
+                        r.name, r.variant, r.size, r.nanos.length, r.mean() / 1e6, r.stdDev() / 1e6,
+                        r.median() / 1e6, r.min() / 1e6, times,
+                        r.note == null ? "" : ", \"note\": \"" + escape(r.note) + "\""));
+                separator = ",\n";
+            }
+            writer.write("\n  ]\n}\n");
+        }
+        System.out.println("Results saved to " + file.toAbsolutePath());
+    }
+
+    private static String escape(String s){
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * @param property a system property holding sizes separated by commas
+     * @param defaults the sizes to use if the property isn't set
+     * @return the sizes
+     */
+    public static int[] sizes(String property, String defaults){
+        String[] parts = System.getProperty(property, defaults).split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0;i < parts.length;i++){
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * Deletes a generated tree, and everything in it.
+     * @param root the top of the tree
+     * @throws IOException if something can't be deleted
+     */
+    public static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Measures copy throughput of a single large file on local disk, comparing
+ * Files.copy() against ChunkedFileCopier at several thread counts.
+ *
+ * Usage: java CopyBenchmark [directory] [sizeInMB] [chunkSizeInMB] [threads...]
+ * For example: java CopyBenchmark /mnt/nvme 4096 8 1 2 4 8 16
+ *
+ * The test file is created in the given directory (the current directory by
+ * default) so that the benchmark runs against the disk being measured.
+ */
+public class CopyBenchmark {
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : ".");
+        long sizeMB = args.length > 1 ? Long.parseLong(args[1]) : 1024;
+        int chunkMB = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int[] threads;
+        if (args.length > 3){
+            threads = new int[args.length - 3];
+            for (int i = 3;i < args.length;i++){
+                threads[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+        else{
+            threads = new int[]{1, 2, 4, 8, 16};
+        }
+
+        Path source = dir.resolve("copybench-source.bin");
+        Path target = dir.resolve("copybench-target.bin");
+        try{
+            System.out.println("Writing " + sizeMB + " MB test file to " + source.toAbsolutePath());
+            writeTestFile(source, sizeMB * 1024 * 1024);
+
+            // Warm up the JIT and the file cache once before measuring.
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+
+            long start = System.nanoTime();
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            report("Files.copy", sizeMB, System.nanoTime() - start);
+
+            for (int i = 0;i < threads.length;i++){
+                Files.deleteIfExists(target);
+                ChunkedFileCopier copier = new ChunkedFileCopier(chunkMB * 1024 * 1024, threads[i]);
+                start = System.nanoTime();
+                copier.copy(source, target);
+                report("chunked, " + threads[i] + " thread(s), " + chunkMB + " MB chunks", sizeMB, System.nanoTime() - start);
+            }
+        }
+        finally{
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    /**
+     * Fills a file with random (incompressible) bytes.
+     */
+    private static void writeTestFile(Path file, long length) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(file)){
+            long written = 0;
+            while (written < length){
+                int n = (int) Math.min(block.length, length - written);
+                out.write(block, 0, n);
+                written += n;
+            }
+        }
+    }
+
+    private static void report(String label, long sizeMB, long nanos){
+        double seconds = nanos / 1e9;
+        System.out.printf("%-40s %8.2f s %10.1f MB/s%n", label, seconds, sizeMB / seconds);
+    }
+}
@@ -0,0 +1,177 @@
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Drives the file manager end to end, without a screen: a Manager with a
+ * DirectoryPanel, FileManagerToolbar and FileManagerUI attached, exactly as a
+ * tab in the Window has, on a tree made by TreeGenerator.
+ *
+ * Each step calls Manager.forward(), back(), setSortAttribute() or
+ * setSearchKey() on the Event Dispatch Thread, as the toolbar would, and is
+ * timed until the view is ready: until the events the step posted have been
+ * delivered to every observer and they have rebuilt, sorted or searched
+ * their FilePanels. Visits to directories seen before are reported apart
+ * from first visits, since they may be served by the shared caches.
+ *
+ * Usage: java -Djava.awt.headless=true NavigationBenchmark [directory] [results.json] [name=value ...]
+ * For example: java -Djava.awt.headless=true -cp jmh/target/benchmarks.jar NavigationBenchmark /mnt/nvme nav.json fanOut=6 filesPerDir=2000
+ *
+ * The name=value settings are passed to TreeGenerator. The tree is generated
+ * in the given directory (the system's temporary directory by default) and
+ * deleted afterwards unless -Dbench.keep=true. -Dbench.steps=<n> (default
+ * 200) sets the number of forward steps in the random walk.
+ */
+public class NavigationBenchmark {
+    private static final String[] SORTS = {"Name", "Size", "Type", "Date Modified", "Date Created"};
+
+    public static void main(String[] args) throws Exception {
+        Path base = args.length > 0 ? Paths.get(args[0]) : Paths.get(System.getProperty("java.io.tmpdir"));
+        Path output = Paths.get(args.length > 1 ? args[1] : "navigation-benchmark.json");
+        String[] settings = new String[Math.max(0, args.length - 2)];
+        System.arraycopy(args, Math.min(2, args.length), settings, 0, settings.length);
+        int steps = Integer.getInteger("bench.steps", 200);
+        boolean keep = Boolean.getBoolean("bench.keep");
+
+        TreeGenerator generator = new TreeGenerator().configure(settings);
+        Path root = Files.createTempDirectory(base, "navbench");
+        Bench bench = new Bench();
+        try{
+            System.out.println("Generating " + generator.countDirectories() + " directories in " + root);
+            TreeGenerator.Summary tree = generator.generate(root);
+            System.out.println(tree.getFiles() + " files");
+            run(bench, tree.getDirectories(), steps);
+        }
+        finally{
+            if (!keep){
+                Bench.deleteTree(root);
+            }
+        }
+        bench.save(output, "NavigationBenchmark");
+        System.exit(0);
+    }
+
+    /**
+     * Builds one tab's worth of observers and walks the tree with them.
+     */
+    private static void run(Bench bench, List<Path> directories, int steps) throws Exception {
+        final Manager[] holder = new Manager[1];
+        final Path start = directories.get(0);
+        onEdt(new Runnable(){
+            @Override
+            public void run(){
+                Manager mngr = new Manager(start.toString());
+                DirectoryPanel panel = new DirectoryPanel(mngr);
+                FileManagerToolbar toolbar = new FileManagerToolbar(mngr);
+                new FileManagerUI(mngr, panel, toolbar);
+                holder[0] = mngr;
+            }
+        });
+        final Manager mngr = holder[0];
+        Random random = new Random(steps);
+        Set<Path> visited = new HashSet<Path>();
+        visited.add(start);
+        List<Long> cold = new ArrayList<Long>();
+        List<Long> warm = new ArrayList<Long>();
+        List<Long> back = new ArrayList<Long>();
+        List<List<Long>> sorts = new ArrayList<List<Long>>();
+        for (int i = 0;i < SORTS.length;i++){
+            sorts.add(new ArrayList<Long>());
+        }
+        List<Long> search = new ArrayList<Long>();
+
+        for (int step = 0;step < steps;step++){
+            final Path next = directories.get(random.nextInt(directories.size()));
+            long nanos = timeUntilReady(new Runnable(){
+                @Override
+                public void run(){
+                    mngr.forward(next.toString());
+                }
+            });
+            (visited.add(next) ? cold : warm).add(nanos);
+
+            // Now and then, sort and search the directory, as a user would.
+            if (step % 4 == 0){
+                final int sort = random.nextInt(SORTS.length);
+                sorts.get(sort).add(timeUntilReady(new Runnable(){
+                    @Override
+                    public void run(){
+                        mngr.setSortAttribute(SORTS[sort]);
+                    }
+                }));
+                final String key = String.valueOf("abcdefghijklmnopqrstuvwxyz".charAt(random.nextInt(26)));
+                search.add(timeUntilReady(new Runnable(){
+                    @Override
+                    public void run(){
+                        mngr.setSearchKey(key);
+                    }
+                }));
+            }
+        }
+        while (!mngr.isAtBeginning() && back.size() < steps){
+            back.add(timeUntilReady(new Runnable(){
+                @Override
+                public void run(){
+                    mngr.back();
+                }
+            }));
+        }
+
+        int size = directories.size();
+        record(bench, "forward", "first visit", size, cold);
+        record(bench, "forward", "visited before", size, warm);
+        record(bench, "back", "back", size, back);
+        for (int i = 0;i < SORTS.length;i++){
+            record(bench, "sort", SORTS[i], size, sorts.get(i));
+        }
+        record(bench, "search", "one letter", size, search);
+    }
+
+    /**
+     * Runs an action on the Event Dispatch Thread and waits until the events
+     * it posted have been delivered: they were queued behind it, so once a
+     * second task queued after them has run, every observer has finished.
+     * @return the time from the start of the action until then
+     */
+    private static long timeUntilReady(Runnable action) throws InterruptedException, InvocationTargetException {
+        final long[] start = new long[1];
+        final Runnable inner = action;
+        onEdt(new Runnable(){
+            @Override
+            public void run(){
+                start[0] = System.nanoTime();
+                inner.run();
+            }
+        });
+        onEdt(new Runnable(){
+            @Override
+            public void run(){
+                // Nothing; the view is ready once this runs.
+            }
+        });
+        return System.nanoTime() - start[0];
+    }
+
+    private static void onEdt(Runnable r) throws InterruptedException, InvocationTargetException {
+        EventQueue.invokeAndWait(r);
+    }
+
+    private static void record(Bench bench, String name, String variant, int size, List<Long> times){
+        if (times.isEmpty()){
+            bench.skip(name, variant, size, "no steps");
+            return;
+        }
+        long[] nanos = new long[times.size()];
+        for (int i = 0;i < nanos.length;i++){
+            nanos[i] = times.get(i);
+        }
+        bench.record(name, variant, size, nanos);
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a directory tree that looks like a real one, for benchmarks and
+ * for reproducing slow directories.
+ *
+ * Every directory above the deepest level holds fanOut subdirectories, and
+ * every directory holds a number of files drawn around filesPerDir. File
+ * sizes follow a log-normal distribution (most files small, a few very
+ * large) around medianBytes, capped at maxBytes. Names are of random length
+ * between minNameLength and maxNameLength, with a mix of extensions, and
+ * modification times are spread over the last ageDays days. Files are
+ * created sparse by default, so a tree of large files can be generated
+ * quickly and takes little disk space; sizes and dates are what the file
+ * manager sees either way.
+ *
+ * The same seed always generates the same tree.
+ *
+ * Usage: java TreeGenerator <directory> [name=value ...]
+ * For example: java TreeGenerator /tmp/tree fanOut=8 depth=3 filesPerDir=500 medianBytes=65536
+ * The names are those of the setters below: fanOut, depth, filesPerDir,
+ * medianBytes, sigma, maxBytes, minNameLength, maxNameLength, ageDays,
+ * sparse and seed.
+ */
+public class TreeGenerator {
+    private static final String[] EXTENSIONS = {".txt", ".jpg", ".png", ".pdf", ".docx", ".java",
+            ".class", ".zip", ".mp3", ".mp4", ".log", ".csv", ".json", ""};
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_- ";
+
+    /**
+     * What was generated.
+     */
+    public static class Summary {
+        private final List<Path> directories;
+        private long files;
+        private long bytes;
+
+        Summary(){
+            directories = new ArrayList<Path>();
+        }
+
+        /**
+         * @return every directory generated, the root first, parents before children
+         */
+        public List<Path> getDirectories(){
+            return directories;
+        }
+
+        public long getFiles(){
+            return files;
+        }
+
+        /**
+         * @return the total (apparent) size of the files
+         */
+        public long getBytes(){
+            return bytes;
+        }
+    }
+
+    private int fanOut = 4;
+    private int depth = 3;
+    private int filesPerDir = 100;
+    private long medianBytes = 16 * 1024;
+    private double sigma = 2.0;
+    private long maxBytes = 256L * 1024 * 1024;
+    private int minNameLength = 4;
+    private int maxNameLength = 32;
+    private int ageDays = 5 * 365;
+    private boolean sparse = true;
+    private long seed = 42;
+
+    /**
+     * @param fanOut subdirectories in each directory above the deepest level
+     * @return this
+     */
+    public TreeGenerator setFanOut(int fanOut){
+        this.fanOut = Math.max(0, fanOut);
+        return this;
+    }
+
+    /**
+     * @param depth levels of subdirectories below the root
+     * @return this
+     */
+    public TreeGenerator setDepth(int depth){
+        this.depth = Math.max(0, depth);
+        return this;
+    }
+
+    /**
+     * @param filesPerDir the average number of files in each directory; each
+     *     directory gets between half and one and a half times as many
+     * @return this
+     */
+    public TreeGenerator setFilesPerDir(int filesPerDir){
+        this.filesPerDir = Math.max(0, filesPerDir);
+        return this;
+    }
+
+    /**
+     * @param medianBytes the median file size
+     * @return this
+     */
+    public TreeGenerator setMedianBytes(long medianBytes){
+        this.medianBytes = Math.max(1, medianBytes);
+        return this;
+    }
+
+    /**
+     * @param sigma the spread of file sizes, as the standard deviation of
+     *     their natural logarithm; 0 makes every file medianBytes long
+     * @return this
+     */
+    public TreeGenerator setSigma(double sigma){
+        this.sigma = Math.max(0, sigma);
+        return this;
+    }
+
+    /**
+     * @param maxBytes the largest file size
+     * @return this
+     */
+    public TreeGenerator setMaxBytes(long maxBytes){
+        this.maxBytes = Math.max(0, maxBytes);
+        return this;
+    }
+
+    /**
+     * @param minNameLength the shortest name, not counting the extension
+     * @param maxNameLength the longest name, not counting the extension
+     * @return this
+     */
+    public TreeGenerator setNameLengths(int minNameLength, int maxNameLength){
+        this.minNameLength = Math.max(1, minNameLength);
+        this.maxNameLength = Math.max(this.minNameLength, maxNameLength);
+        return this;
+    }
+
+    /**
+     * @param ageDays how far back modification times go
+     * @return this
+     */
+    public TreeGenerator setAgeDays(int ageDays){
+        this.ageDays = Math.max(0, ageDays);
+        return this;
+    }
+
+    /**
+     * @param sparse true to create files without writing their contents
+     * @return this
+     */
+    public TreeGenerator setSparse(boolean sparse){
+        this.sparse = sparse;
+        return this;
+    }
+
+    /**
+     * @param seed the seed for every random choice
+     * @return this
+     */
+    public TreeGenerator setSeed(long seed){
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @return the number of directories a tree will have, the root included
+     */
+    public long countDirectories(){
+        long count = 0;
+        long level = 1;
+        for (int i = 0;i <= depth;i++){
+            count += level;
+            level *= fanOut;
+        }
+        return count;
+    }
+
+    /**
+     * Generates a tree. Existing files with the same names are replaced.
+     * @param root the directory to generate in; created if need be
+     * @return what was generated
+     * @throws IOException if a file or directory can't be created
+     */
+    public Summary generate(Path root) throws IOException {
+        Random random = new Random(seed);
+        Summary summary = new Summary();
+        Files.createDirectories(root);
+        generate(root, 0, random, summary);
+        return summary;
+    }
+
+    private void generate(Path dir, int level, Random random, Summary summary) throws IOException {
+        summary.directories.add(dir);
+        long now = System.currentTimeMillis();
+        int files = filesPerDir == 0 ? 0 : filesPerDir / 2 + random.nextInt(filesPerDir + 1);
+        byte[] block = sparse ? null : new byte[64 * 1024];
+        for (int i = 0;i < files;i++){
+            Path file = dir.resolve(name(random, "-" + i) + EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            long size = size(random);
+            if (sparse){
+                try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")){
+                    raf.setLength(size);
+                }
+            }
+            else{
+                try (OutputStream out = Files.newOutputStream(file)){
+                    for (long left = size;left > 0;left -= block.length){
+                        random.nextBytes(block);
+                        out.write(block, 0, (int) Math.min(block.length, left));
+                    }
+                }
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now - (long) (random.nextDouble() * ageDays * 86400000L)));
+            summary.files++;
+            summary.bytes += size;
+        }
+        if (level < depth){
+            for (int i = 0;i < fanOut;i++){
+                Path sub = dir.resolve(name(random, "-d" + i));
+                Files.createDirectories(sub);
+                generate(sub, level + 1, random, summary);
+            }
+        }
+    }
+
+    /**
+     * @return a random name, made unique within its directory by the suffix
+     */
+    private String name(Random random, String suffix){
+        int length = Math.max(1, minNameLength + random.nextInt(maxNameLength - minNameLength + 1) - suffix.length());
+        StringBuilder name = new StringBuilder(length + suffix.length());
+        for (int i = 0;i < length;i++){
+            name.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        // Names can't start or end with a space on every platform.
+        return name.toString().trim().replace(' ', '_') + suffix;
+    }
+
+    /**
+     * @return a log-normally distributed size around medianBytes, at most maxBytes
+     */
+    private long size(Random random){
+        double size = medianBytes * Math.exp(sigma * random.nextGaussian());
+        return Math.min(maxBytes, (long) size);
+    }
+
+    /**
+     * Applies name=value settings, as given on the command line.
+     * @param settings the settings
+     * @return this
+     * @throws IllegalArgumentException if a name isn't known
+     */
+    public TreeGenerator configure(String[] settings){
+        int minName = minNameLength;
+        int maxName = maxNameLength;
+        for (String setting : settings){
+            int eq = setting.indexOf('=');
+            if (eq < 0){
+                throw new IllegalArgumentException("Expected name=value: " + setting);
+            }
+            String name = setting.substring(0, eq);
+            String value = setting.substring(eq + 1);
+            if (name.equals("fanOut")) setFanOut(Integer.parseInt(value));
+            else if (name.equals("depth")) setDepth(Integer.parseInt(value));
+            else if (name.equals("filesPerDir")) setFilesPerDir(Integer.parseInt(value));
+            else if (name.equals("medianBytes")) setMedianBytes(Long.parseLong(value));
+            else if (name.equals("sigma")) setSigma(Double.parseDouble(value));
+            else if (name.equals("maxBytes")) setMaxBytes(Long.parseLong(value));
+            else if (name.equals("minNameLength")) minName = Integer.parseInt(value);
+            else if (name.equals("maxNameLength")) maxName = Integer.parseInt(value);
+            else if (name.equals("ageDays")) setAgeDays(Integer.parseInt(value));
+            else if (name.equals("sparse")) setSparse(Boolean.parseBoolean(value));
+            else if (name.equals("seed")) setSeed(Long.parseLong(value));
+            else throw new IllegalArgumentException("Unknown setting: " + name);
+        }
+        return setNameLengths(minName, maxName);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1){
+            System.out.println("Usage: java TreeGenerator <directory> [name=value ...]");
+            return;
+        }
+        String[] settings = new String[args.length - 1];
+        System.arraycopy(args, 1, settings, 0, settings.length);
+        TreeGenerator generator = new TreeGenerator().configure(settings);
+        long start = System.nanoTime();
+        Summary summary = generator.generate(Paths.get(args[0]));
+        System.out.println(String.format("Generated %d directories, %d files, %.1f MB in %.1f s",
+                summary.getDirectories().size(), summary.getFiles(), summary.getBytes() / 1e6,
+                (System.nanoTime() - start) / 1e9));
+    }
+}
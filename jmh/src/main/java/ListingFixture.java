@@ -0,0 +1,49 @@
+import filemanager.jmh.Listing;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The work ListingBenchmark measures, on a directory made by SyntheticFiles.
+ */
+public class ListingFixture implements Listing {
+    private Path dir;
+
+    @Override
+    public void setUp(int size) throws IOException {
+        dir = SyntheticFiles.directory(size);
+    }
+
+    @Override
+    public int names() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+            for (Path entry : stream){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long namesAndAttributes() throws IOException {
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+            for (Path entry : stream){
+                total += Files.readAttributes(entry, BasicFileAttributes.class).size();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int directoryCacheCold() throws IOException {
+        DirectoryCache cache = new DirectoryCache(1);
+        int count = cache.get(dir).size();
+        // Stops watching the directory, so watches don't pile up over the iterations.
+        cache.invalidateAll();
+        return count;
+    }
+}
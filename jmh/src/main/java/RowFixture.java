@@ -0,0 +1,63 @@
+import filemanager.jmh.Rows;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The work RowBenchmark measures: a DirectoryPanel on a directory made by
+ * SyntheticFiles, for building and searching, and made-up rows of the same
+ * size for FilePanel construction and configureSize().
+ */
+public class RowFixture implements Rows {
+    private Path dir;
+    private DirectoryPanel panel;
+    private SyntheticFiles files;
+    private FilePanel one;
+
+    @Override
+    public void setUp(int size) throws IOException {
+        dir = SyntheticFiles.directory(size);
+        panel = new DirectoryPanel(new Manager(dir.toString()));
+        files = new SyntheticFiles(dir, size);
+        one = new FilePanel(files.getPath(0), files.getAttributes(0), panel);
+    }
+
+    @Override
+    public void tearDown(){
+        panel.dispose();
+    }
+
+    @Override
+    public Object newManager(){
+        return new Manager(dir.toString());
+    }
+
+    @Override
+    public Object directoryPanel(Object manager){
+        return new DirectoryPanel((Manager) manager);
+    }
+
+    @Override
+    public void dispose(Object panel){
+        ((DirectoryPanel) panel).dispose();
+    }
+
+    @Override
+    public Object search(String key){
+        panel.search(key);
+        return panel;
+    }
+
+    @Override
+    public Object filePanels(){
+        return files.rows(panel);
+    }
+
+    @Override
+    public Object configureSize(){
+        long[] lengths = files.getLengths();
+        for (int i = 0;i < lengths.length;i++){
+            one.configureSize(lengths[i]);
+        }
+        return one;
+    }
+}
@@ -0,0 +1,106 @@
+import filemanager.jmh.Sorts;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The sorts SortBenchmark measures, on made-up rows (see SyntheticFiles).
+ */
+public class SortFixture implements Sorts {
+    private static final String[] SORT_NAMES = {"", "name", "size", "type", "modified", "created"};
+
+    private int code;
+    private DirectoryPanel panel;
+    private FilePanel[] shuffled;
+    private FilePanel[] work;
+    private Comparator<FilePanel> comparator;
+
+    @Override
+    public void setUp(int size, String sort) throws IOException {
+        code = Arrays.asList(SORT_NAMES).indexOf(sort);
+        if (code < 1){
+            throw new IllegalArgumentException("No such sort: " + sort);
+        }
+        // The rows don't exist on disk, so their panel is on an (almost) empty directory.
+        Path dir = SyntheticFiles.directory(1);
+        panel = new DirectoryPanel(new Manager(dir.toString()));
+        shuffled = new SyntheticFiles(dir, size).rows(panel);
+        work = new FilePanel[size];
+        comparator = new Comparator<FilePanel>(){
+            @Override
+            public int compare(FilePanel a, FilePanel b){
+                return panel.compare(a, b, code) ? 1 : (panel.compare(b, a, code) ? -1 : 0);
+            }
+        };
+    }
+
+    @Override
+    public void tearDown(){
+        panel.dispose();
+    }
+
+    @Override
+    public Object quickSort(){
+        System.arraycopy(shuffled, 0, work, 0, work.length);
+        panel.quickSort(work, 0, work.length - 1, code);
+        return work;
+    }
+
+    @Override
+    public Object arraysSort(){
+        System.arraycopy(shuffled, 0, work, 0, work.length);
+        Arrays.sort(work, comparator);
+        return work;
+    }
+
+    @Override
+    public Object keyedSort(){
+        System.arraycopy(shuffled, 0, work, 0, work.length);
+        return keyedSort(work, code);
+    }
+
+    /**
+     * Sorts by reading each FilePanel's key once (lower-cased name or type,
+     * size or date) and sorting the keys, instead of reading and lower-casing
+     * both keys in every comparison.
+     */
+    private static FilePanel[] keyedSort(FilePanel[] panels, int code){
+        final Comparable<?>[] keys = new Comparable<?>[panels.length];
+        Integer[] order = new Integer[panels.length];
+        for (int i = 0;i < panels.length;i++){
+            order[i] = i;
+            switch (code){
+                case 1:
+                    keys[i] = panels[i].getFileName().toLowerCase();
+                    break;
+                case 2:
+                    keys[i] = panels[i].getFileSize();
+                    break;
+                case 3:
+                    keys[i] = panels[i].getFileType().toLowerCase();
+                    break;
+                case 4:
+                    keys[i] = panels[i].getDateModified();
+                    break;
+                default:
+                    keys[i] = panels[i].getDateCreated();
+                    break;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(Integer a, Integer b){
+                // Every key has the same type for one sort code.
+                return ((Comparable<Object>) keys[a]).compareTo(keys[b]);
+            }
+        });
+        FilePanel[] sorted = new FilePanel[panels.length];
+        for (int i = 0;i < order.length;i++){
+            sorted[i] = panels[order[i]];
+        }
+        System.arraycopy(sorted, 0, panels, 0, panels.length);
+        return panels;
+    }
+}
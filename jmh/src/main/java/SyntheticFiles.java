@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+/**
+ * The directories and rows the benchmarks run on.
+ *
+ * Directories of n entries are created in -Dbench.dir=<directory> (default:
+ * filemanager-jmh in the system's temporary directory) the first time they
+ * are asked for, and kept, so every fork and every later run reuses them.
+ * Delete the directory to get rid of them.
+ *
+ * Rows are FilePanels with made-up attributes (log-uniform sizes, random
+ * dates, a mix of extensions), so the sort keys vary as they do in real
+ * directories without a million files on disk.
+ */
+public class SyntheticFiles {
+    private static final String[] EXTENSIONS = {".txt", ".jpg", ".png", ".pdf", ".java", ".class",
+            ".zip", ".mp3", ".log", ""};
+
+    private final Path[] paths;
+    private final BasicFileAttributes[] attributes;
+    private final long[] lengths;
+
+    /**
+     * Makes up n rows in a directory.
+     * @param dir the directory the rows are in
+     * @param n the number of rows
+     */
+    public SyntheticFiles(Path dir, int n){
+        Random random = new Random(n);
+        paths = new Path[n];
+        attributes = new BasicFileAttributes[n];
+        lengths = new long[n];
+        long now = System.currentTimeMillis();
+        for (int i = 0;i < n;i++){
+            paths[i] = dir.resolve(randomName(random, i));
+            lengths[i] = (long) Math.pow(2, random.nextDouble() * 34);
+            long modified = now - (long) (random.nextDouble() * 5 * 365 * 86400000L);
+            long created = modified - (long) (random.nextDouble() * 365 * 86400000L);
+            attributes[i] = new SyntheticAttributes(lengths[i], modified, created);
+        }
+    }
+
+    /**
+     * @param panel the DirectoryPanel the rows belong to
+     * @return a new FilePanel for every row, in the order they were made up
+     */
+    public FilePanel[] rows(DirectoryPanel panel){
+        FilePanel[] rows = new FilePanel[paths.length];
+        for (int i = 0;i < rows.length;i++){
+            rows[i] = new FilePanel(paths[i], attributes[i], panel);
+        }
+        return rows;
+    }
+
+    public Path getPath(int i){
+        return paths[i];
+    }
+
+    public BasicFileAttributes getAttributes(int i){
+        return attributes[i];
+    }
+
+    /**
+     * @return the size of every row's file, in bytes
+     */
+    public long[] getLengths(){
+        return lengths;
+    }
+
+    /**
+     * Creates, or reuses, a directory with one subdirectory and n - 1 empty
+     * files with names of varied lengths and extensions.
+     * @param n the number of entries
+     * @return the directory
+     * @throws IOException if it can't be created
+     */
+    public static synchronized Path directory(int n) throws IOException {
+        Path root = Paths.get(System.getProperty("bench.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "filemanager-jmh").toString()));
+        Path dir = root.resolve("entries-" + n);
+        // Written once the directory is complete, so one cut short is made again.
+        Path done = root.resolve("entries-" + n + ".done");
+        if (Files.exists(done)){
+            return dir;
+        }
+        System.out.println("Creating " + n + " entries in " + dir);
+        Files.createDirectories(dir.resolve("subdirectory"));
+        Random random = new Random(n);
+        for (int i = 1;i < n;i++){
+            Path file = dir.resolve(randomName(random, i));
+            if (!Files.exists(file)){
+                Files.createFile(file);
+            }
+        }
+        Files.createFile(done);
+        return dir;
+    }
+
+    /**
+     * @return a unique file name, 6 to 40 characters long before the extension
+     */
+    private static String randomName(Random random, int i){
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789_-";
+        int length = 6 + random.nextInt(35);
+        StringBuilder name = new StringBuilder(length + 16);
+        for (int j = 0;j < length;j++){
+            name.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        name.append('.').append(i).append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+        return name.toString();
+    }
+
+    /**
+     * Attributes of a regular file that doesn't exist.
+     */
+    private static class SyntheticAttributes implements BasicFileAttributes {
+        private final long size;
+        private final FileTime modified;
+        private final FileTime created;
+
+        SyntheticAttributes(long size, long modified, long created){
+            this.size = size;
+            this.modified = FileTime.fromMillis(modified);
+            this.created = FileTime.fromMillis(created);
+        }
+
+        public FileTime lastModifiedTime(){ return modified; }
+        public FileTime lastAccessTime(){ return modified; }
+        public FileTime creationTime(){ return created; }
+        public boolean isRegularFile(){ return true; }
+        public boolean isDirectory(){ return false; }
+        public boolean isSymbolicLink(){ return false; }
+        public boolean isOther(){ return false; }
+        public long size(){ return size; }
+        public Object fileKey(){ return null; }
+    }
+}
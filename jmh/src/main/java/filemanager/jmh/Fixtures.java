@@ -0,0 +1,27 @@
+package filemanager.jmh;
+
+/**
+ * The file manager's classes are in the default package, which JMH won't
+ * generate benchmarks for and which a named package can't import. So each
+ * benchmark here works through an interface, implemented by a fixture class
+ * in the default package (ListingFixture, RowFixture, SortFixture) that is
+ * loaded by name once, in setup. The calls are to a single implementation,
+ * which the JIT inlines.
+ */
+final class Fixtures {
+    private Fixtures(){}
+
+    /**
+     * @param className the fixture class, in the default package
+     * @param type the interface it implements
+     * @return a new instance of it
+     */
+    static <T> T load(String className, Class<T> type){
+        try{
+            return type.cast(Class.forName(className).getConstructor().newInstance());
+        }
+        catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Can't load the fixture " + className, e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package filemanager.jmh;
+
+import java.io.IOException;
+
+/**
+ * What ListingBenchmark measures; see ListingFixture.
+ */
+public interface Listing {
+    /**
+     * @param size the number of entries in the directory listed
+     */
+    void setUp(int size) throws IOException;
+
+    int names() throws IOException;
+
+    long namesAndAttributes() throws IOException;
+
+    int directoryCacheCold() throws IOException;
+}
@@ -0,0 +1,53 @@
+package filemanager.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Listing a directory three ways: names only, names and attributes one at a
+ * time, and through a cold DirectoryCache (attributes in parallel).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class ListingBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private Listing listing;
+
+    @Setup
+    public void setUp() throws IOException {
+        listing = Fixtures.load("ListingFixture", Listing.class);
+        listing.setUp(size);
+    }
+
+    @Benchmark
+    public int names() throws IOException {
+        return listing.names();
+    }
+
+    @Benchmark
+    public long namesAndAttributes() throws IOException {
+        return listing.namesAndAttributes();
+    }
+
+    @Benchmark
+    public int directoryCacheCold() throws IOException {
+        return listing.directoryCacheCold();
+    }
+}
@@ -0,0 +1,96 @@
+package filemanager.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a DirectoryPanel on a real directory, DirectoryPanel.search(),
+ * FilePanel construction and configureSize() formatting. A million rows
+ * needs a large heap; -Xmx8g is passed to the forks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx8g"})
+public class RowBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private Rows rows;
+
+    @Setup
+    public void setUp() throws IOException {
+        rows = Fixtures.load("RowFixture", Rows.class);
+        rows.setUp(size);
+    }
+
+    @TearDown
+    public void tearDown(){
+        rows.tearDown();
+    }
+
+    /**
+     * A Manager of its own for every DirectoryPanel built, so panels don't
+     * pile up as observers of one Manager; each panel is disposed of
+     * afterwards. Neither is timed.
+     */
+    @State(Scope.Thread)
+    public static class FreshManager {
+        Object manager;
+        Object panel;
+
+        @Setup(Level.Invocation)
+        public void setUp(RowBenchmark benchmark){
+            manager = benchmark.rows.newManager();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(RowBenchmark benchmark){
+            if (panel != null){
+                benchmark.rows.dispose(panel);
+                panel = null;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object directoryPanel(FreshManager fresh){
+        fresh.panel = rows.directoryPanel(fresh.manager);
+        return fresh.panel;
+    }
+
+    @Benchmark
+    public Object searchSome(){
+        return rows.search("a1");
+    }
+
+    @Benchmark
+    public Object searchNone(){
+        return rows.search("no such file");
+    }
+
+    @Benchmark
+    public Object filePanels(){
+        return rows.filePanels();
+    }
+
+    @Benchmark
+    public Object configureSize(){
+        return rows.configureSize();
+    }
+}
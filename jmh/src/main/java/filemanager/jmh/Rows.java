@@ -0,0 +1,38 @@
+package filemanager.jmh;
+
+import java.io.IOException;
+
+/**
+ * What RowBenchmark measures; see RowFixture. The file manager's types are
+ * passed as Object, as this package can't name them.
+ */
+public interface Rows {
+    /**
+     * @param size the number of entries in the directory, and of rows
+     */
+    void setUp(int size) throws IOException;
+
+    void tearDown();
+
+    /**
+     * @return a new Manager on the directory
+     */
+    Object newManager();
+
+    /**
+     * @param manager a Manager from newManager()
+     * @return a new DirectoryPanel on it
+     */
+    Object directoryPanel(Object manager);
+
+    /**
+     * Disposes of a DirectoryPanel from directoryPanel().
+     */
+    void dispose(Object panel);
+
+    Object search(String key);
+
+    Object filePanels();
+
+    Object configureSize();
+}
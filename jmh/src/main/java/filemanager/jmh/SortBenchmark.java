@@ -0,0 +1,65 @@
+package filemanager.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DirectoryPanel.quickSort() against Arrays.sort with the same comparison,
+ * and against a sort on keys read once, for each sort code. Every sort starts
+ * from the same shuffled rows; copying them into place is part of each
+ * measurement, and the same for all three. quickSort() recurses deeply on
+ * some orders, so the forks get a large stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx8g", "-Xss64m"})
+public class SortBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"name", "size", "type", "modified", "created"})
+    public String sort;
+
+    private Sorts sorts;
+
+    @Setup
+    public void setUp() throws IOException {
+        sorts = Fixtures.load("SortFixture", Sorts.class);
+        sorts.setUp(size, sort);
+    }
+
+    @TearDown
+    public void tearDown(){
+        sorts.tearDown();
+    }
+
+    @Benchmark
+    public Object quickSort(){
+        return sorts.quickSort();
+    }
+
+    @Benchmark
+    public Object arraysSort(){
+        return sorts.arraysSort();
+    }
+
+    @Benchmark
+    public Object keyedSort(){
+        return sorts.keyedSort();
+    }
+}
@@ -0,0 +1,22 @@
+package filemanager.jmh;
+
+import java.io.IOException;
+
+/**
+ * What SortBenchmark measures; see SortFixture.
+ */
+public interface Sorts {
+    /**
+     * @param size the number of rows
+     * @param sort what to sort by: name, size, type, modified or created
+     */
+    void setUp(int size, String sort) throws IOException;
+
+    void tearDown();
+
+    Object quickSort();
+
+    Object arraysSort();
+
+    Object keyedSort();
+}